@@ -0,0 +1,79 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import org.mozilla.javascript.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * NativeArray operations.
+ */
+public class ArrayBenchmark extends EngineBenchmark
+{
+    private Function fill;
+    private Function sort;
+    private Function functional;
+    private Function join;
+
+    @Override
+    protected void setUp()
+    {
+        fill = function(
+            "function fill(n) {\n"
+            + "  var a = [];\n"
+            + "  for (var i = 0; i < n; i++) a.push(i * 2);\n"
+            + "  var sum = 0;\n"
+            + "  for (var j = 0; j < a.length; j++) sum += a[j];\n"
+            + "  return sum;\n"
+            + "}", "fill");
+        sort = function(
+            "function sort(n) {\n"
+            + "  var a = new Array(n);\n"
+            + "  for (var i = 0; i < n; i++) a[i] = (i * 7919) % n;\n"
+            + "  a.sort(function(x, y) { return x - y; });\n"
+            + "  return a[0];\n"
+            + "}", "sort");
+        functional = function(
+            "function functional(n) {\n"
+            + "  var a = [];\n"
+            + "  for (var i = 0; i < n; i++) a[i] = i;\n"
+            + "  return a.map(function(x) { return x * 3; })\n"
+            + "          .filter(function(x) { return x % 2 == 0; })\n"
+            + "          .reduce(function(s, x) { return s + x; }, 0);\n"
+            + "}", "functional");
+        join = function(
+            "function join(n) {\n"
+            + "  var a = [];\n"
+            + "  for (var i = 0; i < n; i++) a.push('item' + i);\n"
+            + "  return a.join(',').length;\n"
+            + "}", "join");
+    }
+
+    @Benchmark
+    public Object pushAndRead()
+    {
+        return call(fill, Integer.valueOf(10000));
+    }
+
+    @Benchmark
+    public Object sortWithComparator()
+    {
+        return call(sort, Integer.valueOf(1000));
+    }
+
+    @Benchmark
+    public Object mapFilterReduce()
+    {
+        return call(functional, Integer.valueOf(1000));
+    }
+
+    @Benchmark
+    public Object joinStrings()
+    {
+        return call(join, Integer.valueOf(1000));
+    }
+}
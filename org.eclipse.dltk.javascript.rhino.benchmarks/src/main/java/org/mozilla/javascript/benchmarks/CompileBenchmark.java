@@ -0,0 +1,43 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Throughput of {@link org.mozilla.javascript.Context#compileString}, which
+ * includes parsing and, for level 9, class generation and loading.
+ */
+public class CompileBenchmark extends EngineBenchmark
+{
+    private String source;
+    private int counter;
+
+    @Override
+    protected void setUp()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append("function f").append(i).append("(a, b) {\n")
+              .append("  var o = { x: a, y: b, list: [1, 2, 3] };\n")
+              .append("  for (var i = 0; i < o.list.length; i++) {\n")
+              .append("    if (o.x > i) o.y += o.list[i] * ").append(i)
+              .append("; else o.x = 'v' + i;\n")
+              .append("  }\n")
+              .append("  return JSON.stringify(o);\n")
+              .append("}\n");
+        }
+        source = sb.toString();
+    }
+
+    @Benchmark
+    public Object compileString()
+    {
+        // a distinct source name, nothing may be reused between compilations
+        return cx.compileString(source, "compile" + (counter++), 1, null);
+    }
+}
@@ -0,0 +1,172 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.FileCompiledScriptCache;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Checks that {@link FileCompiledScriptCache} only returns entries written
+ * by the same build of the engine.
+ *
+ * <p>A script is compiled twice with an empty cache directory, the second
+ * compilation has to be a hit. Then the build stored in the entry is
+ * replaced by another one, as if an older version of the engine had
+ * written it: the next compilation has to miss and replace the entry, and
+ * the one after it has to hit again. Every compiled script has to give the
+ * same result.</p>
+ *
+ * <p>Run it with
+ * <code>java -cp target/benchmarks.jar
+ * org.mozilla.javascript.benchmarks.CompiledScriptCacheCheck [opt]</code>;
+ * it exits with status 1 if a check failed.</p>
+ */
+public class CompiledScriptCacheCheck
+{
+    private static final String SOURCE =
+        "function f(n) { var s = 0; for (var i = 0; i < n; i++) s += i;"
+        + " return s; } f(100);";
+
+    private static final Object RESULT = Double.valueOf(4950);
+
+    private static class CountingCache extends FileCompiledScriptCache
+    {
+        int hits;
+        int puts;
+
+        CountingCache(File directory)
+        {
+            super(directory);
+        }
+
+        @Override
+        public Object get(String key)
+        {
+            Object value = super.get(key);
+            if (value != null) {
+                hits++;
+            }
+            return value;
+        }
+
+        @Override
+        public void put(String key, Object compiled)
+        {
+            puts++;
+            super.put(key, compiled);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int opt = args.length > 0 ? Integer.parseInt(args[0]) : -1;
+        File directory = File.createTempFile("jsc", "");
+        directory.delete();
+        directory.mkdirs();
+        List<String> failures = new ArrayList<String>();
+        try {
+            CountingCache cache = new CountingCache(directory);
+            run(cache, opt, failures);
+            expect(failures, "first compilation", cache, 0, 1);
+            run(cache, opt, failures);
+            expect(failures, "same build", cache, 1, 1);
+
+            File[] entries = directory.listFiles();
+            if (entries == null || entries.length != 1) {
+                failures.add("expected one entry in " + directory);
+            } else {
+                changeBuild(entries[0]);
+                run(cache, opt, failures);
+                expect(failures, "other build", cache, 1, 2);
+                run(cache, opt, failures);
+                expect(failures, "replaced entry", cache, 2, 2);
+            }
+        } finally {
+            File[] entries = directory.listFiles();
+            if (entries != null) {
+                for (File entry : entries) {
+                    entry.delete();
+                }
+            }
+            directory.delete();
+        }
+        for (String failure : failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        System.out.println("compiled script cache with opt " + opt + ": "
+                           + (failures.isEmpty() ? "ok" : "failed"));
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void run(CountingCache cache, int opt,
+                            List<String> failures)
+    {
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(opt);
+            cx.setCompiledScriptCache(cache);
+            Scriptable scope = cx.initStandardObjects();
+            Script script = cx.compileString(SOURCE, "check.js", 1, null);
+            Object result = script.exec(cx, scope);
+            if (!RESULT.equals(result)) {
+                failures.add("script returned " + result);
+            }
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static void expect(List<String> failures, String step,
+                               CountingCache cache, int hits, int puts)
+    {
+        if (cache.hits != hits || cache.puts != puts) {
+            failures.add(step + ": " + cache.hits + " hits and " + cache.puts
+                         + " puts instead of " + hits + " and " + puts);
+        }
+    }
+
+    /*
+     * Rewrites the entry as if it had been written by another build of the
+     * engine: the build stored first in the file differs, the compiled
+     * script is the same.
+     */
+    private static void changeBuild(File entry)
+        throws IOException, ClassNotFoundException
+    {
+        Object build;
+        Object compiled;
+        ObjectInputStream in = new ObjectInputStream(
+            new FileInputStream(entry));
+        try {
+            build = in.readObject();
+            compiled = in.readObject();
+        } finally {
+            in.close();
+        }
+        ObjectOutputStream out = new ObjectOutputStream(
+            new FileOutputStream(entry));
+        try {
+            out.writeObject(build + "-other");
+            out.writeObject(compiled);
+        } finally {
+            out.close();
+        }
+    }
+}
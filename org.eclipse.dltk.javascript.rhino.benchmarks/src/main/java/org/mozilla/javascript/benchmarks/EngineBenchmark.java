@@ -0,0 +1,97 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptableObject;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base of the engine benchmarks. Every benchmark runs once with the
+ * interpreter (optimization level -1) and once with fully optimized
+ * compiled code (level 9). The Context is entered by the benchmark thread
+ * for the whole trial, scripts are compiled in {@link #setUp()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class EngineBenchmark
+{
+    @Param({"-1", "9"})
+    public int optimizationLevel;
+
+    protected Context cx;
+    protected ScriptableObject scope;
+
+    @Setup(Level.Trial)
+    public void enterContext()
+    {
+        cx = ContextFactory.getGlobal().enterContext();
+        cx.setOptimizationLevel(optimizationLevel);
+        cx.setLanguageVersion(Context.VERSION_ES6);
+        scope = cx.initStandardObjects();
+        setUp();
+    }
+
+    @TearDown(Level.Trial)
+    public void exitContext()
+    {
+        Context.exit();
+        cx = null;
+        scope = null;
+    }
+
+    /**
+     * Prepares the scripts and data used by the benchmark methods.
+     */
+    protected abstract void setUp();
+
+    protected Object evaluate(String source)
+    {
+        return cx.evaluateString(scope, source, getClass().getSimpleName(),
+                                 1, null);
+    }
+
+    protected Script compile(String source)
+    {
+        return cx.compileString(source, getClass().getSimpleName(), 1, null);
+    }
+
+    /**
+     * Evaluates the source and returns the global function with the given
+     * name it defines.
+     */
+    protected Function function(String source, String name)
+    {
+        evaluate(source);
+        return (Function)ScriptableObject.getProperty(scope, name);
+    }
+
+    protected Object call(Function f, Object... args)
+    {
+        return f.call(cx, scope, scope, args);
+    }
+}
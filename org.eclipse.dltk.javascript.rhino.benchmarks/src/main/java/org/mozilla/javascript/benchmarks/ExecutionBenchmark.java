@@ -0,0 +1,74 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Plain script execution, compares the interpreter with compiled code.
+ */
+public class ExecutionBenchmark extends EngineBenchmark
+{
+    private Function fib;
+    private Function numericLoop;
+    private Function closures;
+    private Script topLevel;
+
+    @Override
+    protected void setUp()
+    {
+        fib = function(
+            "function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }",
+            "fib");
+        numericLoop = function(
+            "function numericLoop(n) {\n"
+            + "  var sum = 0;\n"
+            + "  for (var i = 0; i < n; i++) {\n"
+            + "    sum += (i * 31) % 7 + (i >> 2) - (i & 3);\n"
+            + "  }\n"
+            + "  return sum;\n"
+            + "}", "numericLoop");
+        closures = function(
+            "function closures(n) {\n"
+            + "  var fs = [];\n"
+            + "  for (var i = 0; i < n; i++) {\n"
+            + "    fs.push((function(k) { return function() { return k; }; })(i));\n"
+            + "  }\n"
+            + "  var sum = 0;\n"
+            + "  for (var j = 0; j < fs.length; j++) sum += fs[j]();\n"
+            + "  return sum;\n"
+            + "}", "closures");
+        topLevel = compile(
+            "var s = ''; for (var i = 0; i < 100; i++) { s += i; } s.length");
+    }
+
+    @Benchmark
+    public Object fibonacci()
+    {
+        return call(fib, Integer.valueOf(20));
+    }
+
+    @Benchmark
+    public Object numericLoop()
+    {
+        return call(numericLoop, Integer.valueOf(10000));
+    }
+
+    @Benchmark
+    public Object closures()
+    {
+        return call(closures, Integer.valueOf(1000));
+    }
+
+    @Benchmark
+    public Object scriptExec()
+    {
+        return topLevel.exec(cx, scope);
+    }
+}
@@ -0,0 +1,307 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.ContinuationPending;
+import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.NativeContinuation;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Checks that the interpreter never reuses frames captured by generators,
+ * continuations or the stack information of exceptions when
+ * {@link Context#FEATURE_INTERPRETER_FRAME_POOL} is enabled.
+ *
+ * <p>Each case captures frames, then calls many other functions, which
+ * take their frames from the pool and return them to it, and uses the
+ * captured frames again. The results have to be the same as without the
+ * pool, and none of the captured frames, their parents or the frames
+ * holding their variables may be in the pool. The pool is private to the
+ * interpreter, so it is read by reflection.</p>
+ *
+ * <p>Run it with
+ * <code>java -cp target/benchmarks.jar
+ * org.mozilla.javascript.benchmarks.FramePoolCheck</code>;
+ * it exits with status 1 if a check failed.</p>
+ */
+public class FramePoolCheck
+{
+    // takes and returns more frames than a generator or continuation holds,
+    // but fewer than the pool keeps, so released frames stay in the pool
+    private static final String CHURN =
+        "function churn(n) {\n"
+        + "  var x = n, y = n + 1, z = n + 2;\n"
+        + "  return n > 0 ? churn(n - 1) + x + y + z : 0;\n"
+        + "}\n"
+        + "function churnAll() {\n"
+        + "  var s = 0;\n"
+        + "  for (var i = 0; i < 10; i++) s += churn(20);\n"
+        + "  return s;\n"
+        + "}\n";
+
+    private static final String GENERATOR =
+        "function gen(base) {\n"
+        + "  var a = base, b = base * 2, c = base * 3;\n"
+        + "  while (true) {\n"
+        + "    var r = yield a + '/' + b + '/' + c;\n"
+        + "    a += r; b += r; c += r;\n"
+        + "  }\n"
+        + "}\n"
+        + "var g1 = gen(1), g2 = gen(100), out = [g1.next(), g2.next()];\n";
+
+    private static final String GENERATOR_RESUME =
+        "for (var i = 0; i < 20; i++) {\n"
+        + "  churnAll();\n"
+        + "  out.push(g1.send(i), g2.send(i * 3));\n"
+        + "}\n"
+        + "out.join(',');\n";
+
+    private static final String EXCEPTION =
+        "function thrower(v) { var q = v * 7; throw new Error('e' + q); }\n"
+        + "function middle(v) { var w = v + 1; return thrower(w); }\n";
+
+    private static final String CONTINUATION =
+        "function f(base) {\n"
+        + "  var a = base, b = base + 1;\n"
+        + "  var r = capture();\n"
+        + "  return a * 1000 + b * 10 + r;\n"
+        + "}\n"
+        + "f(7);\n";
+
+    private static final Object CONTINUATION_RESULT = Double.valueOf(7085);
+
+    private final boolean pool;
+    private final List<String> failures;
+
+    private FramePoolCheck(boolean pool, List<String> failures)
+    {
+        this.pool = pool;
+        this.failures = failures;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        List<String> failures = new ArrayList<String>();
+        FramePoolCheck without = new FramePoolCheck(false, failures);
+        FramePoolCheck with = new FramePoolCheck(true, failures);
+        check(failures, "generator", without.generator(), with.generator());
+        check(failures, "exception", without.exception(), with.exception());
+        check(failures, "continuation", CONTINUATION_RESULT,
+              without.continuation());
+        check(failures, "continuation", CONTINUATION_RESULT,
+              with.continuation());
+        for (String failure : failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        System.out.println("interpreter frame pool: "
+                           + (failures.isEmpty() ? "ok" : "failed"));
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private Context enter()
+    {
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex)
+            {
+                if (featureIndex == Context.FEATURE_INTERPRETER_FRAME_POOL) {
+                    return pool;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        Context cx = factory.enterContext();
+        cx.setOptimizationLevel(-1);
+        cx.setLanguageVersion(Context.VERSION_1_8);
+        return cx;
+    }
+
+    /*
+     * Creates two generators, then resumes them alternately with calls of
+     * other functions in between.
+     */
+    private Object generator() throws Exception
+    {
+        Context cx = enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope, CHURN, "churn.js", 1, null);
+            cx.evaluateString(scope, GENERATOR, "generator.js", 1, null);
+            List<Object> captured = new ArrayList<Object>();
+            for (String name : new String[] { "g1", "g2" }) {
+                Object generator = ScriptableObject.getProperty(scope, name);
+                captured.add(field(generator, "savedState"));
+            }
+            Object result = cx.evaluateString(scope, GENERATOR_RESUME,
+                                              "generator.js", 1, null);
+            checkNotPooled(cx, "generator", captured);
+            return Context.toString(result);
+        } catch (RuntimeException e) {
+            return e.toString();
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /*
+     * Throws an exception through two functions and prints its script
+     * stack after calls of other functions.
+     */
+    private Object exception() throws Exception
+    {
+        Context cx = enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope, CHURN, "churn.js", 1, null);
+            cx.evaluateString(scope, EXCEPTION, "exception.js", 1, null);
+            JavaScriptException exception = null;
+            try {
+                cx.evaluateString(scope, "middle(3)", "exception.js", 1, null);
+            } catch (JavaScriptException e) {
+                exception = e;
+            }
+            if (exception == null) {
+                return "no exception thrown";
+            }
+            cx.evaluateString(scope, "churnAll()", "churn.js", 1, null);
+            List<Object> captured = new ArrayList<Object>();
+            Object[] stackInfo = (Object[])field(exception,
+                                                 "interpreterStackInfo");
+            Collections.addAll(captured, stackInfo);
+            checkNotPooled(cx, "exception", captured);
+            return exception.details() + "\n"
+                + exception.getScriptStackTrace();
+        } catch (RuntimeException e) {
+            return e.toString();
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /*
+     * Captures a continuation in the middle of f, calls other functions
+     * and resumes the continuation twice, each time from its frozen frames.
+     */
+    private Object continuation() throws Exception
+    {
+        Context cx = enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            ScriptableObject.putProperty(scope, "capture", new BaseFunction() {
+                @Override
+                public Object call(Context cx, Scriptable scope,
+                                   Scriptable thisObj, Object[] args)
+                {
+                    throw cx.captureContinuation();
+                }
+            });
+            cx.evaluateString(scope, CHURN, "churn.js", 1, null);
+            Script script = cx.compileString(CONTINUATION, "check.js", 1,
+                                             null);
+            Object continuation;
+            try {
+                cx.executeScriptWithContinuations(script, scope);
+                return "no continuation captured";
+            } catch (ContinuationPending pending) {
+                continuation = pending.getContinuation();
+            }
+            List<Object> captured = new ArrayList<Object>();
+            captured.add(
+                ((NativeContinuation)continuation).getImplementation());
+            Object first = null;
+            for (int i = 0; i < 2; i++) {
+                cx.evaluateString(scope, "churnAll()", "churn.js", 1, null);
+                checkNotPooled(cx, "continuation", captured);
+                Object result = cx.resumeContinuation(continuation, scope,
+                                                      Double.valueOf(5));
+                if (first != null && !first.equals(result)) {
+                    return first + " then " + result;
+                }
+                first = result;
+            }
+            return first;
+        } catch (RuntimeException e) {
+            return e.toString();
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /*
+     * Fails if one of the captured frames, their parents or the frames
+     * holding their variables is in the pool of the Context.
+     */
+    private void checkNotPooled(Context cx, String name, List<Object> captured)
+        throws Exception
+    {
+        Object framePool = field(cx, "interpreterFramePool");
+        if (!pool) {
+            if (framePool != null) {
+                failures.add(name + ": pool used while disabled");
+            }
+            return;
+        }
+        Set<Object> pooled = Collections.newSetFromMap(
+            new IdentityHashMap<Object, Boolean>());
+        for (Object frame : (Object[])field(framePool, "frames")) {
+            if (frame != null) {
+                pooled.add(frame);
+            }
+        }
+        if (pooled.isEmpty()) {
+            failures.add(name + ": no frames pooled");
+        }
+        for (Object frame : captured) {
+            // the frame holding the variables of a generator is only read
+            // for them, its parents are not captured
+            for (; frame != null; frame = field(frame, "parentFrame")) {
+                if (pooled.contains(frame)
+                    || pooled.contains(field(frame, "varSource")))
+                {
+                    failures.add(name + ": captured frame of "
+                                 + field(frame, "fnOrScript") + " is pooled");
+                }
+            }
+        }
+    }
+
+    private static Object field(Object object, String name) throws Exception
+    {
+        for (Class<?> c = object.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(object);
+            } catch (NoSuchFieldException e) {
+                // look in the superclass
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    private static void check(List<String> failures, String name,
+                              Object expected, Object actual)
+    {
+        if (!expected.equals(actual)) {
+            failures.add(name + ": " + actual + " instead of " + expected);
+        }
+    }
+}
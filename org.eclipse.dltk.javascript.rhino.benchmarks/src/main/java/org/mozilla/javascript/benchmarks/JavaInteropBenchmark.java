@@ -0,0 +1,205 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.ScriptableObject;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Calls of Java methods through NativeJavaMethod and access to Java bean
+ * properties.
+ */
+public class JavaInteropBenchmark extends EngineBenchmark
+{
+    private Function instanceCalls;
+    private Function overloadedCalls;
+    private Function staticCalls;
+    private Function beanProperties;
+    private Function manyOverloads;
+
+    @Override
+    protected void setUp()
+    {
+        ScriptableObject.putProperty(scope, "target",
+                                     cx.getWrapFactory().wrap(cx, scope,
+                                                              new Target(),
+                                                              Target.class));
+        ScriptableObject.putProperty(scope, "overloads",
+                                     cx.getWrapFactory().wrap(cx, scope,
+                                                              new Overloads(),
+                                                              Overloads.class));
+        instanceCalls = function(
+            "function instanceCalls(n) {\n"
+            + "  var list = new java.util.ArrayList();\n"
+            + "  for (var i = 0; i < n; i++) list.add('x' + i);\n"
+            + "  var len = 0;\n"
+            + "  for (var j = 0; j < list.size(); j++) len += list.get(j).length();\n"
+            + "  return len;\n"
+            + "}", "instanceCalls");
+        overloadedCalls = function(
+            "function overloadedCalls(n) {\n"
+            + "  var sum = 0;\n"
+            + "  for (var i = 0; i < n; i++) {\n"
+            + "    sum += target.add(i, 1) + target.add('a', 'b').length()\n"
+            + "        + target.add(i, 1, 2);\n"
+            + "  }\n"
+            + "  return sum;\n"
+            + "}", "overloadedCalls");
+        staticCalls = function(
+            "function staticCalls(n) {\n"
+            + "  var sum = 0;\n"
+            + "  for (var i = 0; i < n; i++) sum += java.lang.Math.max(i, 5);\n"
+            + "  return sum;\n"
+            + "}", "staticCalls");
+        beanProperties = function(
+            "function beanProperties(n) {\n"
+            + "  for (var i = 0; i < n; i++) target.value = target.value + 1;\n"
+            + "  return target.value;\n"
+            + "}", "beanProperties");
+        manyOverloads = function(
+            "function manyOverloads(n) {\n"
+            + "  var list = new java.util.ArrayList(), sum = 0;\n"
+            + "  for (var i = 0; i < n; i++) {\n"
+            + "    sum += overloads.accept(i) + overloads.accept('s')\n"
+            + "        + overloads.accept(true) + overloads.accept(i, i)\n"
+            + "        + overloads.accept('s', i) + overloads.accept(i, 's')\n"
+            + "        + overloads.accept('s', 's') + overloads.accept(list)\n"
+            + "        + overloads.accept(overloads) + overloads.accept(null);\n"
+            + "  }\n"
+            + "  return sum;\n"
+            + "}", "manyOverloads");
+    }
+
+    @Benchmark
+    public Object instanceCalls()
+    {
+        return call(instanceCalls, Integer.valueOf(1000));
+    }
+
+    @Benchmark
+    public Object overloadedCalls()
+    {
+        return call(overloadedCalls, Integer.valueOf(1000));
+    }
+
+    @Benchmark
+    public Object staticCalls()
+    {
+        return call(staticCalls, Integer.valueOf(1000));
+    }
+
+    @Benchmark
+    public Object beanProperties()
+    {
+        return call(beanProperties, Integer.valueOf(1000));
+    }
+
+    @Benchmark
+    public Object manyOverloads()
+    {
+        return call(manyOverloads, Integer.valueOf(1000));
+    }
+
+    public static class Target
+    {
+        private int value;
+
+        public int add(int a, int b)
+        {
+            return a + b;
+        }
+
+        public int add(int a, int b, int c)
+        {
+            return a + b + c;
+        }
+
+        public String add(String a, String b)
+        {
+            return a + b;
+        }
+
+        public int getValue()
+        {
+            return value;
+        }
+
+        public void setValue(int value)
+        {
+            this.value = value;
+        }
+    }
+
+    public static class Overloads
+    {
+        public int accept(int a)
+        {
+            return 1;
+        }
+
+        public int accept(long a)
+        {
+            return 2;
+        }
+
+        public int accept(String a)
+        {
+            return 3;
+        }
+
+        public int accept(boolean a)
+        {
+            return 4;
+        }
+
+        public int accept(Object a)
+        {
+            return 5;
+        }
+
+        public int accept(java.util.List<?> a)
+        {
+            return 6;
+        }
+
+        public int accept(java.util.Map<?,?> a)
+        {
+            return 7;
+        }
+
+        public int accept(int a, int b)
+        {
+            return 8;
+        }
+
+        public int accept(String a, int b)
+        {
+            return 9;
+        }
+
+        public int accept(int a, String b)
+        {
+            return 10;
+        }
+
+        public int accept(String a, String b)
+        {
+            return 11;
+        }
+
+        public int accept(double a, double b)
+        {
+            return 12;
+        }
+
+        public int accept(Overloads a)
+        {
+            return 13;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeJSON;
+import org.mozilla.javascript.json.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * NativeJSON parse and stringify from scripts, and {@link JsonParser} and
+ * {@link NativeJSON#stringify} through the Java API.
+ */
+public class JsonBenchmark extends EngineBenchmark
+{
+    private Function parse;
+    private Function stringify;
+    private String json;
+    private Object parsed;
+
+    @Override
+    protected void setUp()
+    {
+        function(
+            "function document(n) {\n"
+            + "  var items = [];\n"
+            + "  for (var i = 0; i < n; i++) {\n"
+            + "    items.push({ id: i, name: 'item ' + i, price: i * 1.25,\n"
+            + "                 active: i % 2 == 0, tags: ['a', 'b', 'c'],\n"
+            + "                 nested: { x: i, y: null } });\n"
+            + "  }\n"
+            + "  return { count: n, items: items };\n"
+            + "}", "document");
+        parse = function(
+            "function parse(s) { return JSON.parse(s).items.length; }", "parse");
+        stringify = function(
+            "var doc = document(100);\n"
+            + "function stringify() { return JSON.stringify(doc).length; }",
+            "stringify");
+        json = (String)evaluate("JSON.stringify(document(100))");
+        parsed = evaluate("document(100)");
+    }
+
+    @Benchmark
+    public Object scriptParse()
+    {
+        return call(parse, json);
+    }
+
+    @Benchmark
+    public Object scriptStringify()
+    {
+        return call(stringify);
+    }
+
+    @Benchmark
+    public Object javaParse() throws JsonParser.ParseException
+    {
+        return new JsonParser(cx, scope).parseValue(json);
+    }
+
+    @Benchmark
+    public Object javaStringify()
+    {
+        return NativeJSON.stringify(cx, scope, parsed, null, null);
+    }
+}
@@ -0,0 +1,98 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Property access on {@link ScriptableObject} and NativeObject, from scripts
+ * and through the Java API.
+ */
+public class PropertyBenchmark extends EngineBenchmark
+{
+    private Function readWrite;
+    private Function polymorphic;
+    private Function prototypeChain;
+    private Scriptable object;
+
+    @Override
+    protected void setUp()
+    {
+        readWrite = function(
+            "function readWrite(n) {\n"
+            + "  var o = { x: 1, y: 2, z: 3 };\n"
+            + "  for (var i = 0; i < n; i++) {\n"
+            + "    o.x = o.y + o.z;\n"
+            + "    o.y = o.x - i;\n"
+            + "  }\n"
+            + "  return o.x;\n"
+            + "}", "readWrite");
+        polymorphic = function(
+            "function polymorphic(n) {\n"
+            + "  var objs = [{ a: 1 }, { b: 2, a: 3 }, { c: 4, b: 5, a: 6 },\n"
+            + "              { d: 7, c: 8, b: 9, a: 10 }];\n"
+            + "  var sum = 0;\n"
+            + "  for (var i = 0; i < n; i++) sum += objs[i & 3].a;\n"
+            + "  return sum;\n"
+            + "}", "polymorphic");
+        prototypeChain = function(
+            "function Point(x, y) { this.x = x; this.y = y; }\n"
+            + "Point.prototype.length = function() {\n"
+            + "  return Math.sqrt(this.x * this.x + this.y * this.y);\n"
+            + "};\n"
+            + "function prototypeChain(n) {\n"
+            + "  var sum = 0;\n"
+            + "  for (var i = 0; i < n; i++) sum += new Point(i, 1).length();\n"
+            + "  return sum;\n"
+            + "}", "prototypeChain");
+        object = cx.newObject(scope);
+        for (int i = 0; i < 16; i++) {
+            ScriptableObject.putProperty(object, "p" + i, Integer.valueOf(i));
+        }
+    }
+
+    @Benchmark
+    public Object scriptReadWrite()
+    {
+        return call(readWrite, Integer.valueOf(10000));
+    }
+
+    @Benchmark
+    public Object scriptPolymorphic()
+    {
+        return call(polymorphic, Integer.valueOf(10000));
+    }
+
+    @Benchmark
+    public Object scriptPrototypeChain()
+    {
+        return call(prototypeChain, Integer.valueOf(1000));
+    }
+
+    @Benchmark
+    public Object javaGetProperty()
+    {
+        Object last = null;
+        for (int i = 0; i < 16; i++) {
+            last = ScriptableObject.getProperty(object, "p" + (i & 15));
+        }
+        return last;
+    }
+
+    @Benchmark
+    public Object javaPutProperty()
+    {
+        Scriptable o = cx.newObject(scope);
+        for (int i = 0; i < 16; i++) {
+            ScriptableObject.putProperty(o, "p" + i, Integer.valueOf(i));
+        }
+        return o;
+    }
+}
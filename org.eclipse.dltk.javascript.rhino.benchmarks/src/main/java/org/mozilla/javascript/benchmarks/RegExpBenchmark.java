@@ -0,0 +1,169 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.regexp.RegExpImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * NativeRegExp matching, replacing and splitting. Every benchmark runs
+ * with the matchers interpreted (matcherThreshold -1) and with a class
+ * generated for every expression at its first execution (matcherThreshold
+ * 0), see {@link RegExpImpl#setMatcherThreshold(int)}. Classes are only
+ * generated at optimization level 9, and compiled expressions are shared
+ * by the trials of a fork, so the cache is cleared for every trial.
+ */
+public class RegExpBenchmark extends EngineBenchmark
+{
+    @Param({"-1", "0"})
+    public int matcherThreshold;
+
+    private int savedThreshold;
+    private Function test;
+    private Function exec;
+    private Function replace;
+    private Function split;
+    private Function email;
+    private Function date;
+    private Function csv;
+    private String text;
+    private String emails;
+    private String dates;
+    private String lines;
+
+    @Override
+    protected void setUp()
+    {
+        savedThreshold = RegExpImpl.getMatcherThreshold();
+        RegExpImpl.setMatcherThreshold(matcherThreshold);
+        RegExpImpl.clearCompiledCache();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("user").append(i).append("@example.com, ")
+              .append("2022-09-").append(10 + i % 20).append(" lorem ipsum ");
+        }
+        text = sb.toString();
+        test = function(
+            "function test(s) {\n"
+            + "  var re = /\\d{4}-\\d{2}-\\d{2}/;\n"
+            + "  var n = 0;\n"
+            + "  for (var i = 0; i < 100; i++) if (re.test(s.substring(i))) n++;\n"
+            + "  return n;\n"
+            + "}", "test");
+        exec = function(
+            "function exec(s) {\n"
+            + "  var re = /([a-z]+)(\\d+)@([a-z.]+)/g, m, n = 0;\n"
+            + "  while ((m = re.exec(s)) != null) n += m[2].length;\n"
+            + "  return n;\n"
+            + "}", "exec");
+        replace = function(
+            "function replace(s) {\n"
+            + "  return s.replace(/(\\d+)-(\\d+)-(\\d+)/g, '$3/$2/$1')\n"
+            + "          .replace(/lorem/g, function(m) { return m.toUpperCase(); })\n"
+            + "          .length;\n"
+            + "}", "replace");
+        split = function(
+            "function split(s) { return s.split(/,\\s*/).length; }", "split");
+
+        StringBuilder addresses = new StringBuilder();
+        StringBuilder days = new StringBuilder();
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            addresses.append(i % 5 == 0 ? "no-address" : "John.Doe+" + i)
+                     .append(i % 3 == 0 ? "@Mail.Example.org" : "@example.co")
+                     .append('\n');
+            days.append("entry ").append(i).append(" on ")
+                .append(2000 + i % 30).append('-')
+                .append(i % 12 < 9 ? "0" : "").append(1 + i % 12).append('-')
+                .append(10 + i % 19)
+                .append(i % 7 == 0 ? " (not 22-1-1);\n" : ";\n");
+            rows.append(i).append(",\"Doe, John\",").append(i * 17)
+                .append(",,\"lorem ipsum\",").append(i % 2 == 0 ? "yes" : "no")
+                .append('\n');
+        }
+        emails = addresses.toString();
+        dates = days.toString();
+        lines = rows.toString();
+        email = function(
+            "function email(s) {\n"
+            + "  var re = /^[\\w.+-]+@[a-z\\d-]+(\\.[a-z\\d-]+)*\\.[a-z]{2,}$/i;\n"
+            + "  var list = s.split('\\n'), n = 0;\n"
+            + "  for (var i = 0; i < list.length; i++) if (re.test(list[i])) n++;\n"
+            + "  return n;\n"
+            + "}", "email");
+        date = function(
+            "function date(s) {\n"
+            + "  var re = /(\\d{4})-(\\d{2})-(\\d{2})/g, m, n = 0;\n"
+            + "  while ((m = re.exec(s)) != null) n += m[1] - 2000 + +m[2] + +m[3];\n"
+            + "  return n;\n"
+            + "}", "date");
+        csv = function(
+            "function csv(s) {\n"
+            + "  var list = s.split('\\n'), n = 0;\n"
+            + "  for (var i = 0; i < list.length; i++) {\n"
+            + "    var re = /(\"[^\"]*\"|[^,]*)(,|$)/g, line = list[i], m;\n"
+            + "    while ((m = re.exec(line)) != null) {\n"
+            + "      n += m[1].length;\n"
+            + "      if (m[2] == '') break;\n"
+            + "    }\n"
+            + "  }\n"
+            + "  return n;\n"
+            + "}", "csv");
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreMatcherThreshold()
+    {
+        RegExpImpl.setMatcherThreshold(savedThreshold);
+    }
+
+    @Benchmark
+    public Object test()
+    {
+        return call(test, text);
+    }
+
+    @Benchmark
+    public Object execGlobal()
+    {
+        return call(exec, text);
+    }
+
+    @Benchmark
+    public Object replace()
+    {
+        return call(replace, text);
+    }
+
+    @Benchmark
+    public Object split()
+    {
+        return call(split, text);
+    }
+
+    @Benchmark
+    public Object email()
+    {
+        return call(email, emails);
+    }
+
+    @Benchmark
+    public Object date()
+    {
+        return call(date, dates);
+    }
+
+    @Benchmark
+    public Object csv()
+    {
+        return call(csv, lines);
+    }
+}
@@ -0,0 +1,331 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Multi-threaded stress test of one top level scope that is shared by many
+ * threads, see {@link Context#FEATURE_THREAD_SAFE_OBJECTS}.
+ *
+ * <p>First every thread defines, reads and deletes its own properties of
+ * the scope while it also reads properties shared by all threads and one
+ * more thread enumerates the ids of the scope. The test fails if a read
+ * returns a wrong value, an enumeration lists an id twice or misses a
+ * shared property, or the ids of the scope at the end are not exactly the
+ * properties that should be left. Then the throughput of a mostly-read
+ * workload is measured with one and with all threads, with the read/write
+ * lock and with the object monitor, and the speedups are printed.</p>
+ *
+ * <p>Run it with
+ * <code>java -cp target/benchmarks.jar
+ * org.mozilla.javascript.benchmarks.SharedScopeStress [threads] [millis]</code>;
+ * it exits with status 1 if a check failed.</p>
+ */
+public class SharedScopeStress
+{
+    private static final int SHARED_PROPERTIES = 64;
+    private static final int OWN_PROPERTIES = 32;
+    // one in WRITE_RATIO operations of the throughput runs defines or
+    // deletes a property, the others read
+    private static final int WRITE_RATIO = 16;
+
+    private static final String[] SHARED_KEYS;
+    static {
+        SHARED_KEYS = new String[SHARED_PROPERTIES];
+        for (int i = 0; i < SHARED_PROPERTIES; i++) {
+            SHARED_KEYS[i] = "shared" + i;
+        }
+    }
+
+    private final ContextFactory factory;
+    private final ScriptableObject scope;
+    private final int threads;
+
+    private SharedScopeStress(final boolean threadSafe, int threads)
+    {
+        this.threads = threads;
+        factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex)
+            {
+                if (featureIndex == Context.FEATURE_THREAD_SAFE_OBJECTS) {
+                    return threadSafe;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        Context cx = factory.enterContext();
+        try {
+            scope = cx.initStandardObjects();
+            for (int i = 0; i < SHARED_PROPERTIES; i++) {
+                ScriptableObject.putProperty(scope, "shared" + i,
+                                             Integer.valueOf(i));
+            }
+        } finally {
+            Context.exit();
+        }
+        if (scope.isThreadSafeAccessEnabled() != threadSafe) {
+            throw new IllegalStateException("feature not applied");
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0])
+            : Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        List<String> failures = new SharedScopeStress(true, threads)
+            .checkConsistency(millis);
+        for (String failure : failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        System.out.println("consistency with " + threads + " threads: "
+                           + (failures.isEmpty() ? "ok" : "failed"));
+
+        double lockOne = new SharedScopeStress(true, 1).throughput(millis);
+        double lockAll = new SharedScopeStress(true, threads)
+            .throughput(millis);
+        double monitorOne = new SharedScopeStress(false, 1).throughput(millis);
+        double monitorAll = new SharedScopeStress(false, threads)
+            .throughput(millis);
+        System.out.printf("%-8s %14s %14s %8s%n", "mode", "1 thread ops/s",
+                          threads + " threads ops/s", "speedup");
+        System.out.printf("%-8s %14.0f %14.0f %8.2f%n", "lock", lockOne,
+                          lockAll, lockAll / lockOne);
+        System.out.printf("%-8s %14.0f %14.0f %8.2f%n", "monitor",
+                          monitorOne, monitorAll, monitorAll / monitorOne);
+        System.out.printf("lock vs monitor with %d threads: %.2f%n",
+                          threads, lockAll / monitorAll);
+        System.out.println("available processors: "
+                           + Runtime.getRuntime().availableProcessors());
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private List<String> checkConsistency(long millis) throws Exception
+    {
+        final Set<Object> initialIds = ids();
+        final List<String> failures = new ArrayList<String>();
+        final long deadline = System.currentTimeMillis() + millis;
+        final boolean[][] own = new boolean[threads][OWN_PROPERTIES];
+        final CountDownLatch workersDone = new CountDownLatch(threads);
+        List<Thread> all = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            all.add(new Thread("stress-" + t) {
+                @Override
+                public void run()
+                {
+                    factory.enterContext();
+                    try {
+                        mutate(id, own[id], deadline, failures);
+                    } catch (RuntimeException e) {
+                        fail(failures, getName() + ": " + e);
+                    } finally {
+                        Context.exit();
+                        workersDone.countDown();
+                    }
+                }
+            });
+        }
+        all.add(new Thread("stress-ids") {
+            @Override
+            public void run()
+            {
+                factory.enterContext();
+                try {
+                    while (workersDone.getCount() != 0) {
+                        checkIds(failures);
+                    }
+                } catch (RuntimeException e) {
+                    fail(failures, getName() + ": " + e);
+                } finally {
+                    Context.exit();
+                }
+            }
+        });
+        for (Thread thread : all) {
+            thread.start();
+        }
+        for (Thread thread : all) {
+            thread.join();
+        }
+
+        // exactly the initial ids and the own properties that are left
+        Set<Object> expected = new HashSet<Object>(initialIds);
+        for (int t = 0; t < threads; t++) {
+            for (int k = 0; k < OWN_PROPERTIES; k++) {
+                if (own[t][k]) {
+                    expected.add(ownKey(t, k));
+                }
+            }
+        }
+        Object[] ids = propertyIds();
+        Set<Object> actual = new HashSet<Object>();
+        for (Object id : ids) {
+            if (!actual.add(id)) {
+                fail(failures, "duplicate id " + id + " at the end");
+            }
+        }
+        if (!actual.equals(expected)) {
+            Set<Object> lost = new HashSet<Object>(expected);
+            lost.removeAll(actual);
+            Set<Object> extra = new HashSet<Object>(actual);
+            extra.removeAll(expected);
+            fail(failures, "lost ids " + lost + ", unexpected ids " + extra);
+        }
+        return failures;
+    }
+
+    /*
+     * Defines, checks and deletes the own properties of one thread and
+     * checks the shared properties until the deadline.
+     */
+    private void mutate(int thread, boolean[] own, long deadline,
+                        List<String> failures)
+    {
+        int[] values = new int[OWN_PROPERTIES];
+        for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+            int k = i % OWN_PROPERTIES;
+            String key = ownKey(thread, k);
+            if (own[k]) {
+                scope.delete(key);
+                own[k] = false;
+            } else {
+                values[k] = i;
+                ScriptableObject.putProperty(scope, key, Integer.valueOf(i));
+                own[k] = true;
+            }
+            // the property of another step of the same thread
+            int other = (k * 7 + 3) % OWN_PROPERTIES;
+            Object value = ScriptableObject.getProperty(
+                scope, ownKey(thread, other));
+            if (own[other]
+                ? !Integer.valueOf(values[other]).equals(value)
+                : value != Scriptable.NOT_FOUND)
+            {
+                fail(failures, ownKey(thread, other) + " is " + value);
+            }
+            int s = i % SHARED_PROPERTIES;
+            value = ScriptableObject.getProperty(scope, "shared" + s);
+            if (!Integer.valueOf(s).equals(value)) {
+                fail(failures, "shared" + s + " is " + value);
+            }
+        }
+    }
+
+    private void checkIds(List<String> failures)
+    {
+        Set<Object> seen = new HashSet<Object>();
+        for (Object id : propertyIds()) {
+            if (!seen.add(id)) {
+                fail(failures, "id " + id + " listed twice");
+            }
+        }
+        for (int i = 0; i < SHARED_PROPERTIES; i++) {
+            if (!seen.contains("shared" + i)) {
+                fail(failures, "shared" + i + " not listed");
+            }
+        }
+    }
+
+    private double throughput(long millis) throws Exception
+    {
+        final long deadline = System.currentTimeMillis() + millis;
+        final AtomicLong operations = new AtomicLong();
+        List<Thread> all = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            all.add(new Thread() {
+                @Override
+                public void run()
+                {
+                    factory.enterContext();
+                    try {
+                        operations.addAndGet(readMostly(id, deadline));
+                    } finally {
+                        Context.exit();
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : all) {
+            thread.start();
+        }
+        for (Thread thread : all) {
+            thread.join();
+        }
+        return operations.get() * 1e9 / (System.nanoTime() - start);
+    }
+
+    private long readMostly(int thread, long deadline)
+    {
+        boolean[] own = new boolean[OWN_PROPERTIES];
+        long n = 0;
+        Object sink = null;
+        while (System.currentTimeMillis() < deadline) {
+            for (int i = 0; i < 1024; i++, n++) {
+                if (i % WRITE_RATIO == 0) {
+                    int k = (int)(n / WRITE_RATIO) % OWN_PROPERTIES;
+                    if (own[k]) {
+                        scope.delete(ownKey(thread, k));
+                    } else {
+                        ScriptableObject.putProperty(scope, ownKey(thread, k),
+                                                     Integer.valueOf(i));
+                    }
+                    own[k] = !own[k];
+                } else {
+                    sink = ScriptableObject.getProperty(
+                        scope, SHARED_KEYS[i % SHARED_PROPERTIES]);
+                }
+            }
+        }
+        return sink != null ? n : 0;
+    }
+
+    private Set<Object> ids()
+    {
+        Set<Object> ids = new HashSet<Object>();
+        for (Object id : propertyIds()) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private Object[] propertyIds()
+    {
+        return scope.getAllIds();
+    }
+
+    private static String ownKey(int thread, int k)
+    {
+        return "t" + thread + "_" + k;
+    }
+
+    private static void fail(List<String> failures, String message)
+    {
+        synchronized (failures) {
+            if (failures.size() < 20) {
+                failures.add(message);
+            }
+        }
+    }
+}
@@ -865,6 +865,154 @@ public class ClassFileWriter {
         }
     }
 
+    /**
+     * Returns true if the generated class files support the invokedynamic
+     * instruction, which needs class file version 51 (Java 7) or later.
+     */
+    public static boolean isInvokeDynamicSupported()
+    {
+        return MajorVersion >= 51;
+    }
+
+    /**
+     * Add an invokedynamic instruction.
+     *
+     * @param methodName the name passed to the bootstrap method
+     * @param methodType the type descriptor of the call site
+     * @param bootstrapMethod the static method linking the call site
+     * @param bootstrapArgs the static arguments of the bootstrap method,
+     *        each a String, Integer, Long, Float, Double or {@link MHandle}
+     * @see #isInvokeDynamicSupported()
+     */
+    public void addInvokeDynamic(String methodName, String methodType,
+                                 MHandle bootstrapMethod,
+                                 Object... bootstrapArgs)
+    {
+        if (DEBUGCODE) {
+            System.out.println("Add invokedynamic, "+methodName+", "
+                               +methodType);
+        }
+        if (!isInvokeDynamicSupported()) {
+            throw new IllegalStateException(
+                "invokedynamic needs class file version 51");
+        }
+        int parameterInfo = sizeOfParameters(methodType);
+        int stackDiff = (short)parameterInfo;
+
+        int newStack = itsStackTop + stackDiff;
+        if (newStack < 0 || Short.MAX_VALUE < newStack) badStack(newStack);
+
+        int bootstrapIndex = addBootstrapMethod(bootstrapMethod,
+                                                bootstrapArgs);
+        short siteIndex = itsConstantPool.addInvokeDynamic(methodName,
+                                                           methodType,
+                                                           bootstrapIndex);
+        addToCodeBuffer(ByteCode.INVOKEDYNAMIC);
+        addToCodeInt16(siteIndex);
+        addToCodeInt16(0);
+
+        itsStackTop = (short)newStack;
+        if (newStack > itsMaxStack) itsMaxStack = (short)newStack;
+        if (DEBUGSTACK) {
+            System.out.println("After invokedynamic stack = "+itsStackTop);
+        }
+    }
+
+    private int addBootstrapMethod(MHandle bootstrapMethod,
+                                   Object[] bootstrapArgs)
+    {
+        int[] entry = new int[2 + bootstrapArgs.length];
+        entry[0] = itsConstantPool.addMethodHandle(bootstrapMethod);
+        entry[1] = bootstrapArgs.length;
+        for (int i = 0; i != bootstrapArgs.length; i++) {
+            Object arg = bootstrapArgs[i];
+            int index;
+            if (arg instanceof String) {
+                index = itsConstantPool.addConstant((String)arg);
+            } else if (arg instanceof Integer) {
+                index = itsConstantPool.addConstant(
+                            ((Integer)arg).intValue());
+            } else if (arg instanceof Long) {
+                index = itsConstantPool.addConstant(((Long)arg).longValue());
+            } else if (arg instanceof Float) {
+                index = itsConstantPool.addConstant(
+                            ((Float)arg).floatValue());
+            } else if (arg instanceof Double) {
+                index = itsConstantPool.addConstant(
+                            ((Double)arg).doubleValue());
+            } else if (arg instanceof MHandle) {
+                index = itsConstantPool.addMethodHandle((MHandle)arg);
+            } else {
+                throw new IllegalArgumentException(
+                    "bad bootstrap argument: " + arg);
+            }
+            entry[2 + i] = index;
+        }
+        if (itsBootstrapMethods == null) {
+            itsBootstrapMethods = new ObjArray();
+            itsBootstrapMethodHash = new ObjToIntMap();
+        }
+        String key = Arrays.toString(entry);
+        int theIndex = itsBootstrapMethodHash.get(key, -1);
+        if (theIndex == -1) {
+            theIndex = itsBootstrapMethods.size();
+            itsBootstrapMethods.add(entry);
+            itsBootstrapMethodHash.put(key, theIndex);
+            itsBootstrapMethodsLength += 2 * entry.length;
+        }
+        return theIndex;
+    }
+
+    /**
+     * A method handle constant, used for the bootstrap methods of
+     * {@link ClassFileWriter#addInvokeDynamic}.
+     */
+    public static final class MHandle
+    {
+        final byte tag;
+        final String owner;
+        final String name;
+        final String desc;
+
+        /**
+         * @param tag the reference kind, one of the ByteCode.MH_* constants
+         * @param owner the class declaring the member
+         * @param name the name of the member
+         * @param desc the type descriptor of the member
+         */
+        public MHandle(byte tag, String owner, String name, String desc)
+        {
+            this.tag = tag;
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof MHandle)) { return false; }
+            MHandle x = (MHandle)obj;
+            return tag == x.tag
+                && owner.equals(x.owner)
+                && name.equals(x.name)
+                && desc.equals(x.desc);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return tag + owner.hashCode() * name.hashCode()
+                   * desc.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return owner + '.' + name + desc + " (" + tag + ")";
+        }
+    }
+
     /**
      * Generate code to load the given integer on stack.
      *
@@ -2197,6 +2345,23 @@ public class ClassFileWriter {
                         push(TypeInfo.fromType(returnType, itsConstantPool));
                     }
                     break;
+                case ByteCode.INVOKEDYNAMIC:
+                    index = getOperand(bci + 1, 2);
+                    FieldOrMethodRef site = (FieldOrMethodRef)
+                            itsConstantPool.getConstantData(index);
+                    String siteType = site.getType();
+                    int siteParameterCount =
+                            sizeOfParameters(siteType) >>> 16;
+                    for (int i = 0; i < siteParameterCount; i++) {
+                        pop();
+                    }
+                    String siteReturnType = descriptorToInternalName(
+                            siteType.substring(siteType.indexOf(')') + 1));
+                    if (!siteReturnType.equals("V")) {
+                        push(TypeInfo.fromType(siteReturnType,
+                                               itsConstantPool));
+                    }
+                    break;
                 case ByteCode.GETFIELD:
                     pop();
                     // fallthru
@@ -2754,6 +2919,9 @@ public class ClassFileWriter {
         if (itsSourceFileNameIndex != 0) {
             itsConstantPool.addUtf8("SourceFile");
         }
+        if (itsBootstrapMethods != null) {
+            itsConstantPool.addUtf8("BootstrapMethods");
+        }
 
         size += 8; //writeLong(FileHeaderConstant);
         size += itsConstantPool.getWriteSize();
@@ -2773,13 +2941,17 @@ public class ClassFileWriter {
             size += ((ClassFileMethod)(itsMethods.get(i))).getWriteSize();
         }
 
+        size += 2; //writeShort(attributes count);
         if (itsSourceFileNameIndex != 0) {
-            size += 2; //writeShort(1);  attributes count
             size += 2; //writeShort(sourceFileAttributeNameIndex);
             size += 4; //writeInt(2);
             size += 2; //writeShort(itsSourceFileNameIndex);
-        }else {
-            size += 2; //out.writeShort(0);  no attributes
+        }
+        if (itsBootstrapMethods != null) {
+            size += 2; //writeShort(bootstrapMethodsAttributeNameIndex);
+            size += 4; //writeInt(attribute length);
+            size += 2; //writeShort(itsBootstrapMethods.size());
+            size += itsBootstrapMethodsLength;
         }
 
         return size;
@@ -2799,6 +2971,16 @@ public class ClassFileWriter {
             sourceFileAttributeNameIndex = itsConstantPool.addUtf8(
                                                "SourceFile");
         }
+        short bootstrapMethodsAttributeNameIndex = 0;
+        int attributeCount = 0;
+        if (itsSourceFileNameIndex != 0) {
+            ++attributeCount;
+        }
+        if (itsBootstrapMethods != null) {
+            bootstrapMethodsAttributeNameIndex = itsConstantPool.addUtf8(
+                                                     "BootstrapMethods");
+            ++attributeCount;
+        }
 
         offset = putInt32(FileHeaderConstant, data, offset);
         offset = putInt16(MinorVersion, data, offset);
@@ -2822,13 +3004,23 @@ public class ClassFileWriter {
             ClassFileMethod method = (ClassFileMethod)itsMethods.get(i);
             offset = method.write(data, offset);
         }
+        offset = putInt16(attributeCount, data, offset);
         if (itsSourceFileNameIndex != 0) {
-            offset = putInt16(1, data, offset); // attributes count
             offset = putInt16(sourceFileAttributeNameIndex, data, offset);
             offset = putInt32(2, data, offset);
             offset = putInt16(itsSourceFileNameIndex, data, offset);
-        } else {
-            offset = putInt16(0, data, offset); // no attributes
+        }
+        if (itsBootstrapMethods != null) {
+            offset = putInt16(bootstrapMethodsAttributeNameIndex, data,
+                              offset);
+            offset = putInt32(2 + itsBootstrapMethodsLength, data, offset);
+            offset = putInt16(itsBootstrapMethods.size(), data, offset);
+            for (int i = 0; i != itsBootstrapMethods.size(); i++) {
+                int[] entry = (int[])itsBootstrapMethods.get(i);
+                for (int j = 0; j != entry.length; j++) {
+                    offset = putInt16(entry[j], data, offset);
+                }
+            }
         }
 
         if (offset != dataSize) {
@@ -3202,6 +3394,7 @@ public class ClassFileWriter {
 
             case ByteCode.GOTO_W:
             case ByteCode.INVOKEINTERFACE:
+            case ByteCode.INVOKEDYNAMIC:
             case ByteCode.JSR_W:
                 return 5;
 
@@ -3404,6 +3597,7 @@ public class ClassFileWriter {
             case ByteCode.ILOAD:
             case ByteCode.INSTANCEOF:
             case ByteCode.INVOKEINTERFACE:
+            case ByteCode.INVOKEDYNAMIC:
             case ByteCode.INVOKESPECIAL:
             case ByteCode.INVOKESTATIC:
             case ByteCode.INVOKEVIRTUAL:
@@ -3584,6 +3778,7 @@ public class ClassFileWriter {
             case ByteCode.IMPDEP2:
             case ByteCode.INEG:
             case ByteCode.INSTANCEOF:
+            case ByteCode.INVOKEDYNAMIC:
             case ByteCode.INVOKESTATIC:
             case ByteCode.L2D:
             case ByteCode.LALOAD:
@@ -4082,6 +4277,7 @@ public class ClassFileWriter {
                 case ByteCode.INVOKESPECIAL:    return "invokespecial";
                 case ByteCode.INVOKESTATIC:     return "invokestatic";
                 case ByteCode.INVOKEINTERFACE:  return "invokeinterface";
+                case ByteCode.INVOKEDYNAMIC:    return "invokedynamic";
                 case ByteCode.NEW:              return "new";
                 case ByteCode.NEWARRAY:         return "newarray";
                 case ByteCode.ANEWARRAY:        return "anewarray";
@@ -4268,6 +4464,10 @@ public class ClassFileWriter {
     private short itsSuperClassIndex;
     private short itsSourceFileNameIndex;
 
+    private ObjArray itsBootstrapMethods;
+    private ObjToIntMap itsBootstrapMethodHash;
+    private int itsBootstrapMethodsLength;
+
     private static final int MIN_LABEL_TABLE_SIZE = 32;
     private int[] itsLabelTable;
     private int itsLabelTableTop;
@@ -4439,7 +4639,10 @@ final class ConstantPool
         CONSTANT_Long = 5,
         CONSTANT_Double = 6,
         CONSTANT_NameAndType = 12,
-        CONSTANT_Utf8 = 1;
+        CONSTANT_Utf8 = 1,
+        CONSTANT_MethodHandle = 15,
+        CONSTANT_MethodType = 16,
+        CONSTANT_InvokeDynamic = 18;
 
     int write(byte[] data, int offset)
     {
@@ -4705,6 +4908,52 @@ final class ConstantPool
         return (short)(itsTopIndex++);
     }
 
+    short addMethodHandle(ClassFileWriter.MHandle mh)
+    {
+        int theIndex = itsMethodHandleHash.get(mh, -1);
+        if (theIndex == -1) {
+            short refIndex;
+            if (mh.tag <= ByteCode.MH_PUTSTATIC) {
+                refIndex = addFieldRef(mh.owner, mh.name, mh.desc);
+            } else if (mh.tag == ByteCode.MH_INVOKEINTERFACE) {
+                refIndex = addInterfaceMethodRef(mh.owner, mh.name, mh.desc);
+            } else {
+                refIndex = addMethodRef(mh.owner, mh.name, mh.desc);
+            }
+            ensure(4);
+            itsPool[itsTop++] = CONSTANT_MethodHandle;
+            itsPool[itsTop++] = mh.tag;
+            itsTop = ClassFileWriter.putInt16(refIndex, itsPool, itsTop);
+            theIndex = itsTopIndex++;
+            itsMethodHandleHash.put(mh, theIndex);
+        }
+        setConstantData(theIndex, mh);
+        itsPoolTypes.put(theIndex, CONSTANT_MethodHandle);
+        return (short)theIndex;
+    }
+
+    short addInvokeDynamic(String methodName, String methodType,
+                           int bootstrapIndex)
+    {
+        // the bootstrap method takes the place of the class
+        FieldOrMethodRef ref = new FieldOrMethodRef(
+            String.valueOf(bootstrapIndex), methodName, methodType);
+
+        int theIndex = itsInvokeDynamicHash.get(ref, -1);
+        if (theIndex == -1) {
+            short ntIndex = addNameAndType(methodName, methodType);
+            ensure(5);
+            itsPool[itsTop++] = CONSTANT_InvokeDynamic;
+            itsTop = ClassFileWriter.putInt16(bootstrapIndex, itsPool, itsTop);
+            itsTop = ClassFileWriter.putInt16(ntIndex, itsPool, itsTop);
+            theIndex = itsTopIndex++;
+            itsInvokeDynamicHash.put(ref, theIndex);
+        }
+        setConstantData(theIndex, ref);
+        itsPoolTypes.put(theIndex, CONSTANT_InvokeDynamic);
+        return (short)theIndex;
+    }
+
     Object getConstantData(int index)
     {
         return itsConstantData.getObject(index);
@@ -4742,6 +4991,8 @@ final class ConstantPool
     private ObjToIntMap itsFieldRefHash = new ObjToIntMap();
     private ObjToIntMap itsMethodRefHash = new ObjToIntMap();
     private ObjToIntMap itsClassHash = new ObjToIntMap();
+    private ObjToIntMap itsMethodHandleHash = new ObjToIntMap();
+    private ObjToIntMap itsInvokeDynamicHash = new ObjToIntMap();
 
     private int itsTop;
     private int itsTopIndex;
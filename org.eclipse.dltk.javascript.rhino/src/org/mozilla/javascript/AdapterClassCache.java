@@ -0,0 +1,270 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// API class
+
+package org.mozilla.javascript;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of the classes generated for <tt>JavaAdapter</tt> and
+ * of the adapters used to implement Java interfaces with script objects.
+ * <p>
+ * Every {@link ClassCache} keeps the adapters its scope uses. Applications
+ * that create many top-level scopes would otherwise generate and load the
+ * same adapter classes again for each of them. Adapter classes are shared
+ * between all class caches that use the same application class loader and
+ * no {@link SecurityController}, as the generated code does not depend on
+ * the scope. The cache only refers to adapters weakly: a class that is no
+ * longer used by any class cache or adapter object can be unloaded.
+ * <p>
+ * The statistics can be used to check that adapter classes are reused.
+ */
+public final class AdapterClassCache
+{
+    // the keys of the inner maps only refer weakly to the classes of the
+    // signature, which often are loaded by the class loader of the outer key
+    private static final Map<ClassLoader,Map<SignatureKey,AdapterRef>> adapterClasses
+        = new WeakHashMap<ClassLoader,Map<SignatureKey,AdapterRef>>();
+    private static final Map<Class<?>,AdapterRef> interfaceAdapters
+        = new WeakHashMap<Class<?>,AdapterRef>();
+    private static final ReferenceQueue<Object> queue
+        = new ReferenceQueue<Object>();
+
+    private static final AtomicLong generatedClasses = new AtomicLong();
+    private static final AtomicLong sharedClasses = new AtomicLong();
+    private static final AtomicLong createdInterfaceAdapters = new AtomicLong();
+    private static final AtomicLong sharedInterfaceAdapters = new AtomicLong();
+
+    private AdapterClassCache()
+    {
+    }
+
+    /**
+     * Returns the number of adapter classes that were generated.
+     */
+    public static long getGeneratedClassCount()
+    {
+        return generatedClasses.get();
+    }
+
+    /**
+     * Returns how often an adapter class generated for another
+     * {@link ClassCache} was used instead of generating it again.
+     */
+    public static long getSharedClassCount()
+    {
+        return sharedClasses.get();
+    }
+
+    /**
+     * Returns the number of interface adapters that were created.
+     */
+    public static long getCreatedInterfaceAdapterCount()
+    {
+        return createdInterfaceAdapters.get();
+    }
+
+    /**
+     * Returns how often an interface adapter created for another
+     * {@link ClassCache} was used instead of creating it again.
+     */
+    public static long getSharedInterfaceAdapterCount()
+    {
+        return sharedInterfaceAdapters.get();
+    }
+
+    /**
+     * Returns the number of adapter classes and interface adapters that
+     * are currently cached.
+     */
+    public static synchronized int size()
+    {
+        expungeStaleEntries();
+        int size = interfaceAdapters.size();
+        for (Map<SignatureKey,AdapterRef> classes : adapterClasses.values()) {
+            size += classes.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forgets all cached adapters. Class caches keep the adapters they
+     * already use.
+     */
+    public static synchronized void clear()
+    {
+        adapterClasses.clear();
+        interfaceAdapters.clear();
+        while (queue.poll() != null) { }
+    }
+
+    static synchronized Class<?> getAdapterClass(
+        ClassLoader loader, JavaAdapter.JavaAdapterSignature signature)
+    {
+        expungeStaleEntries();
+        Map<SignatureKey,AdapterRef> classes = adapterClasses.get(loader);
+        if (classes != null) {
+            AdapterRef ref = classes.get(new SignatureKey(signature));
+            if (ref != null) {
+                Object adapterClass = ref.get();
+                if (adapterClass != null) {
+                    sharedClasses.incrementAndGet();
+                    return (Class<?>)adapterClass;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a newly generated adapter class and returns it, or the class
+     * stored meanwhile by another thread.
+     */
+    static synchronized Class<?> cacheAdapterClass(
+        ClassLoader loader, JavaAdapter.JavaAdapterSignature signature,
+        Class<?> adapterClass)
+    {
+        expungeStaleEntries();
+        SignatureKey key = new SignatureKey(signature);
+        Map<SignatureKey,AdapterRef> classes = adapterClasses.get(loader);
+        if (classes == null) {
+            classes = new HashMap<SignatureKey,AdapterRef>();
+            adapterClasses.put(loader, classes);
+        } else {
+            AdapterRef ref = classes.get(key);
+            Object existing = ref == null ? null : ref.get();
+            if (existing != null) {
+                return (Class<?>)existing;
+            }
+        }
+        classes.put(key, new AdapterRef(adapterClass, classes, key));
+        return adapterClass;
+    }
+
+    static void adapterClassGenerated()
+    {
+        generatedClasses.incrementAndGet();
+    }
+
+    static synchronized InterfaceAdapter getInterfaceAdapter(Class<?> cl)
+    {
+        expungeStaleEntries();
+        AdapterRef ref = interfaceAdapters.get(cl);
+        Object adapter = ref == null ? null : ref.get();
+        if (adapter != null) {
+            sharedInterfaceAdapters.incrementAndGet();
+        }
+        return (InterfaceAdapter)adapter;
+    }
+
+    static synchronized InterfaceAdapter cacheInterfaceAdapter(
+        Class<?> cl, InterfaceAdapter adapter)
+    {
+        expungeStaleEntries();
+        createdInterfaceAdapters.incrementAndGet();
+        AdapterRef ref = interfaceAdapters.get(cl);
+        Object existing = ref == null ? null : ref.get();
+        if (existing != null) {
+            return (InterfaceAdapter)existing;
+        }
+        interfaceAdapters.put(cl, new AdapterRef(adapter, null, null));
+        return adapter;
+    }
+
+    private static void expungeStaleEntries()
+    {
+        AdapterRef ref;
+        while ((ref = (AdapterRef)queue.poll()) != null) {
+            if (ref.classes != null
+                && ref.classes.get(ref.signature) == ref)
+            {
+                ref.classes.remove(ref.signature);
+            }
+        }
+    }
+
+    private static final class AdapterRef extends WeakReference<Object>
+    {
+        // map and key of the entry, to drop it when the class is unloaded
+        final Map<SignatureKey,AdapterRef> classes;
+        final SignatureKey signature;
+
+        AdapterRef(Object adapter, Map<SignatureKey,AdapterRef> classes,
+                   SignatureKey signature)
+        {
+            super(adapter, queue);
+            this.classes = classes;
+            this.signature = signature;
+        }
+    }
+
+    /**
+     * The signature of an adapter class that refers to its super class and
+     * interfaces only weakly. Once one of them is collected the key equals
+     * no other key, its entry is dropped when the adapter class is unloaded.
+     */
+    private static final class SignatureKey
+    {
+        private final WeakReference<Class<?>> superClass;
+        private final Object[] interfaces;
+        private final ObjToIntMap names;
+        private final int hashCode;
+
+        SignatureKey(JavaAdapter.JavaAdapterSignature signature)
+        {
+            superClass = new WeakReference<Class<?>>(signature.superClass);
+            interfaces = new Object[signature.interfaces.length];
+            for (int i = 0; i != interfaces.length; ++i) {
+                interfaces[i] = new WeakReference<Class<?>>(
+                    signature.interfaces[i]);
+            }
+            names = signature.names;
+            hashCode = signature.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof SignatureKey))
+                return false;
+            SignatureKey key = (SignatureKey) obj;
+            if (hashCode != key.hashCode
+                || interfaces.length != key.interfaces.length)
+            {
+                return false;
+            }
+            if (!sameClass(superClass, key.superClass))
+                return false;
+            for (int i = 0; i != interfaces.length; ++i) {
+                if (!sameClass(interfaces[i], key.interfaces[i]))
+                    return false;
+            }
+            return JavaAdapter.JavaAdapterSignature.sameNames(names,
+                                                              key.names);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        private static boolean sameClass(Object ref, Object other)
+        {
+            Object cl = ((WeakReference<?>) ref).get();
+            return cl != null && cl == ((WeakReference<?>) other).get();
+        }
+    }
+}
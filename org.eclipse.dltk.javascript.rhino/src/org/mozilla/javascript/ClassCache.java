@@ -8,6 +8,9 @@ package org.mozilla.javascript;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.io.Serializable;
 
 /**
@@ -21,11 +24,12 @@ import java.io.Serializable;
 public class ClassCache implements Serializable
 {
     private static final long serialVersionUID = -8866246036237312215L;
-    private static final Object AKEY = "ClassCache";
+    static final Object AKEY = "ClassCache";
     private volatile boolean cachingIsEnabled = true;
     private transient Map<Class<?>,JavaMembers> classTable;
     private transient Map<JavaAdapter.JavaAdapterSignature,Class<?>> classAdapterCache;
     private transient Map<Class<?>,Object> interfaceAdapterCache;
+    private transient ConcurrentHashMap<OverloadCache.Key,OverloadCache> overloadCaches;
     private int generatedClassSerial;
     private Scriptable associatedScope;
 
@@ -85,6 +89,7 @@ public class ClassCache implements Serializable
         classTable = null;
         classAdapterCache = null;
         interfaceAdapterCache = null;
+        overloadCaches = null;
     }
 
     /**
@@ -127,12 +132,83 @@ public class ClassCache implements Serializable
      * @return a map from classes to associated JavaMembers objects
      */
     public Map<Class<?>,JavaMembers> getClassCacheMap() {
-        if (classTable == null) {
-            // Use 1 as concurrency level here and for other concurrent hash maps
-            // as we don't expect high levels of sustained concurrent writes.
-            classTable = new ConcurrentHashMap<Class<?>,JavaMembers>(16, 0.75f, 1);
+        Map<Class<?>,JavaMembers> table = classTable;
+        if (table == null) {
+            synchronized (this) {
+                table = classTable;
+                if (table == null) {
+                    // Use 1 as concurrency level here and for other concurrent
+                    // hash maps as we don't expect high levels of sustained
+                    // concurrent writes.
+                    table = new ConcurrentHashMap<Class<?>,JavaMembers>(16, 0.75f, 1);
+                    classTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Reflect the given classes on the threads of a pool so that scripts
+     * touching them later find their members in the cache.
+     * <p>
+     * Classes are reflected as when wrapping an instance or the class
+     * itself. Classes that can not be reflected, for example because the
+     * {@link ClassShutter} hides them, are skipped, the error is reported
+     * when a script uses them. The cache must be associated with a scope
+     * and caching must be enabled.
+     *
+     * @param classes the classes to reflect
+     * @param pool the pool to reflect on or null to use the common pool
+     * @return a task that completes when all classes are reflected
+     * @see #associate(ScriptableObject)
+     */
+    public ForkJoinTask<?> warmUp(Class<?>[] classes, ForkJoinPool pool)
+    {
+        if (associatedScope == null) throw new IllegalStateException();
+        if (pool == null) {
+            pool = ForkJoinPool.commonPool();
+        }
+        final Class<?>[] todo = classes.clone();
+        return pool.submit(new RecursiveAction()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute()
+            {
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[todo.length];
+                for (int i = 0; i != todo.length; ++i) {
+                    tasks[i] = new ReflectTask(todo[i]);
+                }
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    private final class ReflectTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Class<?> cl;
+
+        ReflectTask(Class<?> cl)
+        {
+            this.cl = cl;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (!cachingIsEnabled) {
+                return;
+            }
+            try {
+                JavaMembers.lookupClass(associatedScope, cl, null, false);
+            } catch (RuntimeException ex) {
+                // reported again when a script uses the class
+            }
         }
-        return classTable;
     }
 
     Map<JavaAdapter.JavaAdapterSignature,Class<?>> getInterfaceAdapterCacheMap()
@@ -194,6 +270,35 @@ public class ClassCache implements Serializable
         }
     }
 
+    /**
+     * Returns the cache of resolved overloads shared by all
+     * {@link NativeJavaMethod} objects of the given methods.
+     */
+    OverloadCache getOverloadCache(MemberBox[] methods)
+    {
+        if (!cachingIsEnabled) {
+            return new OverloadCache();
+        }
+        ConcurrentHashMap<OverloadCache.Key,OverloadCache> caches;
+        synchronized (this) {
+            caches = overloadCaches;
+            if (caches == null) {
+                caches = new ConcurrentHashMap<OverloadCache.Key,OverloadCache>(16, 0.75f, 1);
+                overloadCaches = caches;
+            }
+        }
+        OverloadCache.Key key = new OverloadCache.Key(methods);
+        OverloadCache cache = caches.get(key);
+        if (cache == null) {
+            cache = new OverloadCache();
+            OverloadCache existing = caches.putIfAbsent(key, cache);
+            if (existing != null) {
+                cache = existing;
+            }
+        }
+        return cache;
+    }
+
     Scriptable getAssociatedScope() {
         return associatedScope;
     }
@@ -127,6 +127,7 @@ class CodeGenerator extends Icode {
             System.arraycopy(itsData.itsICode, 0, tmp, 0, iCodeTop);
             itsData.itsICode = tmp;
         }
+        itsData.initPropertyCaches();
         if (strings.size() == 0) {
             itsData.itsStringTable = null;
         } else {
@@ -633,6 +634,11 @@ class CodeGenerator extends Icode {
             break;
 
           case Token.GETPROP:
+            visitExpression(child, 0);
+            child = child.getNext();
+            addPropertyCacheOp(type, child.getString());
+            break;
+
           case Token.GETPROPNOWARN:
             visitExpression(child, 0);
             child = child.getNext();
@@ -713,12 +719,12 @@ class CodeGenerator extends Icode {
                 if (type == Token.SETPROP_OP) {
                     addIcode(Icode_DUP);
                     stackChange(1);
-                    addStringOp(Token.GETPROP, property);
+                    addPropertyCacheOp(Token.GETPROP, property);
                     // Compensate for the following USE_STACK
                     stackChange(-1);
                 }
                 visitExpression(child, 0);
-                addStringOp(Token.SETPROP, property);
+                addPropertyCacheOp(Token.SETPROP, property);
                 stackChange(-1);
             }
             break;
@@ -994,7 +1000,7 @@ class CodeGenerator extends Icode {
             if (type == Token.GETPROP) {
                 String property = id.getString();
                 // stack: ... target -> ... function thisObj
-                addStringOp(Icode_PROP_AND_THIS, property);
+                addPropertyCacheOp(Icode_PROP_AND_THIS, property);
                 stackChange(1);
             } else {
                 visitExpression(id, 0);
@@ -1359,6 +1365,16 @@ class CodeGenerator extends Icode {
         }
     }
 
+    /**
+     * Adds a named property operation that uses an inline cache. The index
+     * of the cache is passed in the index register.
+     */
+    private void addPropertyCacheOp(int op, String property)
+    {
+        addIndexPrefix(itsData.itsPropertyCacheCount++);
+        addStringOp(op, property);
+    }
+
     private void addIndexOp(int op, int index)
     {
         addIndexPrefix(index);
@@ -0,0 +1,67 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+/**
+ * Outcome of compiling one source of a batch, see
+ * {@link Context#compileStrings} and {@link Context#compileFunctions}.
+ * Either the compiled object or the error that prevented the compilation
+ * is set.
+ */
+public final class CompilationResult
+{
+    private final String sourceName;
+    private final Object compiled;
+    private final boolean isFunction;
+    private final RuntimeException error;
+
+    CompilationResult(String sourceName, Object compiled, boolean isFunction,
+                      RuntimeException error)
+    {
+        this.sourceName = sourceName;
+        this.compiled = compiled;
+        this.isFunction = isFunction;
+        this.error = error;
+    }
+
+    public String getSourceName()
+    {
+        return sourceName;
+    }
+
+    /**
+     * Returns the compiled script or null if the compilation failed or
+     * the source was compiled as a function.
+     */
+    public Script getScript()
+    {
+        return isFunction ? null : (Script)compiled;
+    }
+
+    /**
+     * Returns the compiled function or null if the compilation failed or
+     * the source was compiled as a script.
+     */
+    public Function getFunction()
+    {
+        return isFunction ? (Function)compiled : null;
+    }
+
+    /**
+     * Returns the error that prevented the compilation, typically an
+     * {@link EvaluatorException} for a syntax error, or null on success.
+     */
+    public RuntimeException getError()
+    {
+        return error;
+    }
+
+    public boolean isSuccess()
+    {
+        return error == null;
+    }
+}
@@ -0,0 +1,188 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Cache for the compiled form of scripts and functions, consulted by
+ * {@link Context#compileString(String, String, int, Object)},
+ * {@link Context#compileReader(java.io.Reader, String, int, Object)} and
+ * {@link Context#compileFunction(Scriptable, String, String, int, Object)}
+ * when it is set with {@link Context#setCompiledScriptCache}.
+ *
+ * <p>Entries are keyed by a digest of the source, the source name, the
+ * first line number, the language version and all compiler settings that
+ * affect the generated code, so a cached entry is only used for a
+ * compilation that would produce the same result. The stored value is the
+ * opaque result of the compiler: interpreter byte code or generated class
+ * files. Warnings reported while compiling a script are not reported again
+ * when it is taken from the cache.
+ *
+ * <p>Keys also cover the build of the engine, a digest of the classes the
+ * compiled code depends on, so entries of another build are never used.
+ *
+ * <p>Implementations must be thread safe.
+ *
+ * @see MemoryCompiledScriptCache
+ * @see FileCompiledScriptCache
+ */
+public abstract class CompiledScriptCache
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Version of the format of cached entries. It has to be incremented
+     * when the serialized form of InterpreterData or the generated classes
+     * change incompatibly, for builds of the engine whose classes can not
+     * be read to compute their digest.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    // classes the compiled code depends on: the icode and its interpreter,
+    // the code generator and the runtime methods generated classes call
+    private static final String[] ENGINE_CLASSES = {
+        "Context", "Icode", "InterpretedFunction", "Interpreter",
+        "InterpreterData", "NativeFunction", "ScriptRuntime",
+        "ScriptableObject", "optimizer/Codegen", "optimizer/OptRuntime"
+    };
+
+    /**
+     * Returns the compiled form stored for the given key or null if there
+     * is none.
+     */
+    public abstract Object get(String key);
+
+    /**
+     * Stores the compiled form of a script. The value is serializable
+     * unless the compiler produced something that can not be serialized.
+     */
+    public abstract void put(String key, Object compiled);
+
+    /**
+     * Computes the cache key for a compilation.
+     */
+    static String getKey(CompilerEnvirons compilerEnv, Evaluator compiler,
+                         String source, String sourceName, int lineno,
+                         boolean returnFunction, boolean strictDirective)
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(getEngineBuild()).append('|')
+          .append(compiler.getClass().getName()).append('|')
+          .append(compilerEnv.getLanguageVersion()).append('|')
+          .append(compilerEnv.getOptimizationLevel()).append('|')
+          .append(lineno).append('|')
+          .append(flag(returnFunction))
+          .append(flag(strictDirective))
+          .append(flag(compilerEnv.isGenerateDebugInfo()))
+          .append(flag(compilerEnv.isReservedKeywordAsIdentifier()))
+          .append(flag(compilerEnv.isAllowMemberExprAsFunctionName()))
+          .append(flag(compilerEnv.isXmlAvailable()))
+          .append(flag(compilerEnv.isGeneratingSource()))
+          .append(flag(compilerEnv.isStrictMode()))
+          .append(flag(compilerEnv.reportWarningAsError()))
+          .append(flag(compilerEnv.isGenerateObserverCount()))
+          .append(flag(compilerEnv.isGenerateInvokeDynamic()))
+          .append(flag(compilerEnv.isRecordingComments()))
+          .append(flag(compilerEnv.isRecordingLocalJsDocComments()))
+          .append(flag(compilerEnv.recoverFromErrors()))
+          .append(flag(compilerEnv.getWarnTrailingComma()))
+          .append(flag(compilerEnv.isIdeMode()))
+          .append(flag(compilerEnv.getAllowSharpComments()));
+        Set<String> activationNames = compilerEnv.getActivationNames();
+        if (activationNames != null) {
+            // order independent
+            for (String name : new TreeSet<String>(activationNames)) {
+                sb.append('|').append(name);
+            }
+        }
+        sb.append('\u0000').append(sourceName).append('\u0000');
+
+        MessageDigest md = newDigest();
+        md.update(sb.toString().getBytes(UTF_8));
+        md.update(source.getBytes(UTF_8));
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static String toHex(byte[] digest)
+    {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i != digest.length; ++i) {
+            int b = digest[i] & 0xFF;
+            hex[2 * i] = Character.forDigit(b >>> 4, 16);
+            hex[2 * i + 1] = Character.forDigit(b & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    private static char flag(boolean b)
+    {
+        return b ? '1' : '0';
+    }
+
+    private static String engineBuild;
+
+    /**
+     * Returns the identity of this build of the engine: the format version
+     * and a digest of the classes the compiled code depends on. If the
+     * classes can not be read, a value unique to this class loader is
+     * used, so entries written by other processes are not trusted then.
+     */
+    static String getEngineBuild()
+    {
+        String build = engineBuild;
+        if (build == null) {
+            build = FORMAT_VERSION + "-" + digestEngineClasses();
+            engineBuild = build;
+        }
+        return build;
+    }
+
+    private static String digestEngineClasses()
+    {
+        MessageDigest md = newDigest();
+        byte[] buffer = new byte[8192];
+        try {
+            for (String name : ENGINE_CLASSES) {
+                InputStream in = Context.class.getResourceAsStream(
+                    name + ".class");
+                if (in == null) {
+                    return UUID.randomUUID().toString();
+                }
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        md.update(buffer, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException ex) {
+            return UUID.randomUUID().toString();
+        } catch (SecurityException ex) {
+            return UUID.randomUUID().toString();
+        }
+        return toHex(md.digest());
+    }
+}
@@ -25,6 +25,7 @@ public class CompilerEnvirons
         strictMode = false;
         warningAsError = false;
         generateObserverCount = false;
+        generateInvokeDynamic = false;
         allowSharpComments = false;
     }
 
@@ -51,6 +52,8 @@ public class CompilerEnvirons
 
         // Observer code generation in compiled code :
         generateObserverCount = cx.generateObserverCount;
+
+        generateInvokeDynamic = cx.hasFeature(Context.FEATURE_INVOKEDYNAMIC);
     }
 
     public final ErrorReporter getErrorReporter()
@@ -195,6 +198,18 @@ public class CompilerEnvirons
         this.generateObserverCount = generateObserverCount;
     }
 
+    /**
+     * @return true if JVM byte code uses invokedynamic call sites for
+     * property access, see {@link Context#FEATURE_INVOKEDYNAMIC}
+     */
+    public boolean isGenerateInvokeDynamic() {
+        return generateInvokeDynamic;
+    }
+
+    public void setGenerateInvokeDynamic(boolean generateInvokeDynamic) {
+        this.generateInvokeDynamic = generateInvokeDynamic;
+    }
+
     public boolean isRecordingComments() {
         return recordingComments;
     }
@@ -285,6 +300,7 @@ public class CompilerEnvirons
     private boolean strictMode;
     private boolean warningAsError;
     private boolean generateObserverCount;
+    private boolean generateInvokeDynamic;
     private boolean recordingComments;
     private boolean recordingLocalJsDocComments;
     private boolean recoverFromErrors;
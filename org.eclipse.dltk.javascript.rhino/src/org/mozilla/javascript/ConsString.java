@@ -8,6 +8,7 @@ package org.mozilla.javascript;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * <p>This class represents a string composed of two components, each of which
@@ -19,6 +20,19 @@ import java.util.ArrayList;
  * converts them to a String if either toString() is called or a certain depth
  * level is reached.</p>
  *
+ * <p>When a string is built by appending to the same string over and over,
+ * like <code>s += x</code> in a loop, the left side of the tree gets deep.
+ * Once it is deeper than {@link #MAX_DEPTH} its characters are copied to an
+ * append buffer with spare capacity, and further strings appended to the
+ * last string of the buffer are copied into the free part of the buffer
+ * instead of building a tree. Strings sharing a buffer only use its first
+ * <code>length()</code> characters, which never change.</p>
+ *
+ * <p>A tree is flattened iteratively, the resulting String replaces the left
+ * component so readers on other threads see either the tree or the flat
+ * string and no locking is needed. charAt and subSequence descend into the
+ * tree for a few levels before flattening a part of it.</p>
+ *
  * <p>Note that instances of this class are only immutable if both parts are
  * immutable, i.e. either Strings or ConsStrings that are ultimately composed
  * of Strings.</p>
@@ -29,54 +43,127 @@ public class ConsString implements CharSequence, Serializable, Wrapper {
 
     private static final long serialVersionUID = -8432806714471372570L;
 
-    private CharSequence s1, s2;
+    // Depth of the left side from which appended strings are collected in
+    // a buffer
+    private static final int MAX_DEPTH = 32;
+
+    // Levels charAt and subSequence descend before flattening
+    private static final int MAX_DESCENT = 16;
+
+    // Flat string once flattened, otherwise the first component
+    private CharSequence left;
+    private final CharSequence right;
     private final int length;
-    private int depth;
+    private final int depth;
+    // Characters of the string if it is backed by an append buffer
+    private final AppendBuffer buffer;
 
     public ConsString(CharSequence str1, CharSequence str2) {
-        s1 = str1;
-        s2 = str2;
-        length = str1.length() + str2.length();
-        depth = 1;
+        int length1 = str1.length();
+        length = length1 + str2.length();
+        int depth1 = depthOf(str1);
+        int depth2 = depthOf(str2);
+        AppendBuffer b = null;
         if (str1 instanceof ConsString) {
-            depth += ((ConsString)str1).depth;
+            AppendBuffer b1 = ((ConsString)str1).buffer;
+            if (b1 != null) {
+                b = b1.append(length1, str2);
+            }
         }
-        if (str2 instanceof ConsString) {
-            depth += ((ConsString)str2).depth;
+        if (b == null && depth1 >= MAX_DEPTH && depth1 >= depth2) {
+            b = new AppendBuffer(length);
+            copyChars(str1, b.chars, 0);
+            copyChars(str2, b.chars, length1);
+            b.used = length;
         }
+        if (b != null) {
+            buffer = b;
+            left = null;
+            right = null;
+            depth = 0;
+        } else {
+            buffer = null;
+            left = str1;
+            right = str2;
+            depth = 1 + Math.max(depth1, depth2);
+        }
+    }
+
+    private static int depthOf(CharSequence str) {
+        return str instanceof ConsString ? ((ConsString)str).depth : 0;
     }
 
     // Replace with string representation when serializing
     private Object writeReplace() {
         return this.toString();
     }
-    
+
     @Override
     public String toString() {
-        return depth == 0 ? (String)s1 : flatten();
+        CharSequence l = left;
+        if (l instanceof String && l.length() == length) {
+            return (String)l;
+        }
+        return flatten();
     }
 
-    private synchronized String flatten() {
-        if (depth > 0) {
-            StringBuilder b = new StringBuilder(length);
-            ArrayList<CharSequence> buffer = new ArrayList<CharSequence>();
-            buffer.add(s2);
-            buffer.add(s1);
-            while(!buffer.isEmpty()) {
-                CharSequence next = buffer.remove(buffer.size() - 1);
-                if (next instanceof ConsString) {
-                    ConsString casted = (ConsString) next;
-                    buffer.add(casted.s2);
-                    buffer.add(casted.s1);
+    private String flatten() {
+        String str;
+        if (buffer != null) {
+            str = new String(buffer.chars, 0, length);
+        } else {
+            char[] chars = new char[length];
+            copyChars(this, chars, 0);
+            str = new String(chars);
+        }
+        // Other threads may still walk the tree, the right component stays
+        // and the flat string is recognized by its length
+        left = str;
+        return str;
+    }
+
+    /**
+     * Copies the characters of a string to an array without recursion.
+     */
+    private static void copyChars(CharSequence str, char[] dst, int pos) {
+        ArrayList<CharSequence> stack = null;
+        CharSequence next = str;
+        for (;;) {
+            if (next instanceof ConsString) {
+                ConsString cons = (ConsString)next;
+                if (cons.buffer != null) {
+                    System.arraycopy(cons.buffer.chars, 0, dst, pos,
+                                     cons.length);
+                    pos += cons.length;
+                    next = null;
                 } else {
-                    b.append(next);
+                    CharSequence l = cons.left;
+                    if (l.length() == cons.length) {
+                        next = l;
+                        continue;
+                    }
+                    if (stack == null) {
+                        stack = new ArrayList<CharSequence>();
+                    }
+                    stack.add(cons.right);
+                    next = l;
+                    continue;
+                }
+            } else if (next instanceof String) {
+                String s = (String)next;
+                s.getChars(0, s.length(), dst, pos);
+                pos += s.length();
+            } else {
+                int n = next.length();
+                for (int i = 0; i != n; ++i) {
+                    dst[pos++] = next.charAt(i);
                 }
             }
-            s1 = b.toString();
-            s2 = "";
-            depth = 0;
+            if (stack == null || stack.isEmpty()) {
+                return;
+            }
+            next = stack.remove(stack.size() - 1);
         }
-        return (String)s1;
     }
 
     public int length() {
@@ -84,13 +171,66 @@ public class ConsString implements CharSequence, Serializable, Wrapper {
     }
 
     public char charAt(int index) {
-        String str = depth == 0 ? (String)s1 : flatten();
-        return str.charAt(index);
+        if (index < 0 || index >= length) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        ConsString node = this;
+        for (int levels = 0; ; ) {
+            if (node.buffer != null) {
+                return node.buffer.chars[index];
+            }
+            CharSequence l = node.left;
+            int leftLength = l.length();
+            CharSequence next;
+            if (leftLength == node.length) {
+                next = l;
+            } else if (index < leftLength) {
+                next = l;
+            } else {
+                next = node.right;
+                index -= leftLength;
+            }
+            if (!(next instanceof ConsString)) {
+                return next.charAt(index);
+            }
+            node = (ConsString)next;
+            if (++levels == MAX_DESCENT) {
+                return node.toString().charAt(index);
+            }
+        }
     }
 
     public CharSequence subSequence(int start, int end) {
-        String str = depth == 0 ? (String)s1 : flatten();
-        return str.substring(start, end);
+        if (start < 0 || end > length || start > end) {
+            throw new StringIndexOutOfBoundsException(
+                "begin " + start + ", end " + end + ", length " + length);
+        }
+        ConsString node = this;
+        for (int levels = 0; ; ) {
+            if (node.buffer != null) {
+                return new String(node.buffer.chars, start, end - start);
+            }
+            CharSequence l = node.left;
+            int leftLength = l.length();
+            CharSequence next;
+            if (leftLength == node.length || end <= leftLength) {
+                next = l;
+            } else if (start >= leftLength) {
+                next = node.right;
+                start -= leftLength;
+                end -= leftLength;
+            } else {
+                // spans both components
+                return node.toString().substring(start, end);
+            }
+            if (!(next instanceof ConsString)) {
+                return next.subSequence(start, end).toString();
+            }
+            node = (ConsString)next;
+            if (++levels == MAX_DESCENT) {
+                return node.toString().substring(start, end);
+            }
+        }
     }
 
     /*
@@ -99,5 +239,57 @@ public class ConsString implements CharSequence, Serializable, Wrapper {
 	public Object unwrap() {
 		return toString();
 	}
-	
+
+    /**
+     * Characters shared by the strings built by appending to each other.
+     * The first <code>used</code> characters belong to strings, the rest
+     * is free. A string can only append in place if it ends at
+     * <code>used</code>, which is claimed atomically.
+     */
+    private static final class AppendBuffer {
+
+        private static final AtomicIntegerFieldUpdater<AppendBuffer> USED
+            = AtomicIntegerFieldUpdater.newUpdater(AppendBuffer.class, "used");
+
+        final char[] chars;
+        volatile int used;
+
+        AppendBuffer(int length) {
+            chars = new char[newCapacity(length)];
+        }
+
+        private static int newCapacity(int length) {
+            if (length < 16) {
+                return 16;
+            }
+            // leave room for the same amount of characters
+            return length <= Integer.MAX_VALUE / 2 - 8 ? length * 2 : length;
+        }
+
+        /**
+         * Appends a string to the string of the given length and returns
+         * the buffer holding the result, or null if another string was
+         * already appended at that position.
+         */
+        AppendBuffer append(int start, CharSequence str) {
+            if (used != start) {
+                return null;
+            }
+            int end = start + str.length();
+            if (end <= chars.length && USED.compareAndSet(this, start, end)) {
+                copyChars(str, chars, start);
+                return this;
+            }
+            if (end > chars.length && USED.compareAndSet(this, start, -1)) {
+                // grow by moving to a new buffer, strings already using
+                // this one keep it but can no longer append to it
+                AppendBuffer b = new AppendBuffer(end);
+                System.arraycopy(chars, 0, b.chars, 0, start);
+                copyChars(str, b.chars, start);
+                b.used = end;
+                return b;
+            }
+            return null;
+        }
+    }
 }
@@ -19,12 +19,17 @@ import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -317,6 +322,47 @@ public class Context
      */
     public static final int FEATURE_ENUMERATE_IDS_FIRST = 16;
 
+    /**
+     * If set, plain script objects ({@link NativeObject} instances such as
+     * object literals and objects created by constructors) that add the same
+     * properties in the same order share a single layout descriptor and keep
+     * their property values in a compact array instead of a per-object hash
+     * table. An object falls back to a hash table as soon as a property is
+     * deleted, gets non-default attributes or accessors, or is keyed by an
+     * index or a Symbol. Default is false.
+     */
+    public static final int FEATURE_SHARED_SHAPES = 17;
+
+    /**
+     * If set, every {@link ScriptableObject} created while the feature is
+     * enabled guards its property table with a read/write lock, see
+     * {@link ScriptableObject#enableThreadSafeAccess()}. Property lookups
+     * do not block each other and rarely take a lock at all, which helps
+     * applications that share scopes between many threads. Such objects do
+     * not use shared shapes. Default is false.
+     */
+    public static final int FEATURE_THREAD_SAFE_OBJECTS = 18;
+
+    /**
+     * If set, code compiled to JVM classes (optimization level 0 and above)
+     * uses invokedynamic call sites for named property reads and writes and
+     * for calls of the form <code>obj.name()</code>. Each site is linked to
+     * guarded method handles specialized to the layouts of the receivers it
+     * has seen, see {@link #FEATURE_SHARED_SHAPES}, and falls back to the
+     * generic lookup otherwise. Only takes effect when the engine classes
+     * are compiled for Java 7 or later. Default is false.
+     */
+    public static final int FEATURE_INVOKEDYNAMIC = 19;
+
+    /**
+     * If set, the interpreter (optimization level -1) keeps the frames of
+     * returned functions in a small per-Context pool and reuses them and
+     * their stack arrays for later calls instead of allocating new ones.
+     * Frames that are captured by continuations, generators or the stack
+     * information of exceptions are never reused. Default is false.
+     */
+    public static final int FEATURE_INTERPRETER_FRAME_POOL = 20;
+
     public static final String languageVersionProperty = "language version";
     public static final String errorReporterProperty   = "error reporter";
 
@@ -812,6 +858,41 @@ public class Context
         return result;
     }
 
+    /**
+     * Get the time zone of local time in Date objects. Returns the default
+     * time zone if none has been set.
+     *
+     * @see java.util.TimeZone
+     */
+    public final TimeZone getTimeZone()
+    {
+        if (timeZone == null)
+            return TimeZone.getDefault();
+        return timeZone;
+    }
+
+    /**
+     * Set the time zone of local time in Date objects, or null to use the
+     * default time zone. Contexts with different time zones can run at the
+     * same time; the transitions of a zone are computed once and shared.
+     * Later changes to the given TimeZone object are not seen.
+     *
+     * @see java.util.TimeZone
+     */
+    public final TimeZone setTimeZone(TimeZone zone)
+    {
+        if (sealed) onSealedMutation();
+        TimeZone result = timeZone;
+        localTimeZone = zone != null ? LocalTimeZone.get(zone) : null;
+        timeZone = zone;
+        return result;
+    }
+
+    final LocalTimeZone getLocalTimeZone()
+    {
+        return localTimeZone;
+    }
+
     /**
      * Register an object to receive notifications when a bound property
      * has changed
@@ -1546,6 +1627,59 @@ public class Context
         }
     }
 
+    /**
+     * Compile several independent scripts in parallel.
+     * <p>
+     * Each source is parsed and compiled as if by
+     * {@link #compileString(String, String, int, Object)} with the current
+     * settings of this Context, but on the threads of the given fork-join
+     * pool. The script objects are created on the calling thread. A source
+     * that fails to compile does not stop the others, the error is returned
+     * in its result. The error reporter of this Context may be called from
+     * the pool threads, calls are serialized.
+     * <p>
+     * While a debugger is attached the sources are compiled one after the
+     * other on the calling thread.
+     *
+     * @param sources the source strings
+     * @param sourceNames names of the sources, one per source
+     * @param securityDomain the security domain of all scripts, see
+     *        {@link #compileString(String, String, int, Object)}
+     * @param pool the pool to compile on or null to use the common pool
+     * @return one result per source, in the order of the sources
+     */
+    public final CompilationResult[] compileStrings(String[] sources,
+                                                    String[] sourceNames,
+                                                    Object securityDomain,
+                                                    ForkJoinPool pool)
+    {
+        return compileBatch(null, sources, sourceNames, securityDomain, pool);
+    }
+
+    /**
+     * Compile several independent functions in parallel.
+     * <p>
+     * Works like {@link #compileStrings compileStrings}, each source must
+     * be a single function definition as for
+     * {@link #compileFunction(Scriptable, String, String, int, Object)}.
+     *
+     * @param scope the scope to compile the functions relative to
+     * @param sources the function definition sources
+     * @param sourceNames names of the sources, one per source
+     * @param securityDomain the security domain of all functions
+     * @param pool the pool to compile on or null to use the common pool
+     * @return one result per source, in the order of the sources
+     */
+    public final CompilationResult[] compileFunctions(Scriptable scope,
+                                                      String[] sources,
+                                                      String[] sourceNames,
+                                                      Object securityDomain,
+                                                      ForkJoinPool pool)
+    {
+        if (scope == null) throw new IllegalArgumentException();
+        return compileBatch(scope, sources, sourceNames, securityDomain, pool);
+    }
+
     /**
      * Decompile the script.
      * <p>
@@ -2224,6 +2358,32 @@ public class Context
         return wrapFactory;
     }
 
+    /**
+     * Set a cache for compiled scripts.
+     * <p>
+     * The cache is consulted by {@link #compileString compileString},
+     * {@link #compileReader compileReader} and
+     * {@link #compileFunction compileFunction} so the same source compiled
+     * with the same settings is parsed and compiled only once. It is not
+     * used while a debugger is attached.
+     * @param cache the cache to use or null to disable caching
+     * @see CompiledScriptCache
+     */
+    public final void setCompiledScriptCache(CompiledScriptCache cache)
+    {
+        if (sealed) onSealedMutation();
+        this.compiledScriptCache = cache;
+    }
+
+    /**
+     * Return the current compiled script cache, or null if none is set.
+     * @see #setCompiledScriptCache(CompiledScriptCache)
+     */
+    public final CompiledScriptCache getCompiledScriptCache()
+    {
+        return compiledScriptCache;
+    }
+
     /**
      * Return the current debugger.
      * @return the debugger, or null if none is attached.
@@ -2294,6 +2454,10 @@ public class Context
      * @see #FEATURE_STRICT_MODE
      * @see #FEATURE_WARNING_AS_ERROR
      * @see #FEATURE_ENHANCED_JAVA_ACCESS
+     * @see #FEATURE_SHARED_SHAPES
+     * @see #FEATURE_THREAD_SAFE_OBJECTS
+     * @see #FEATURE_INVOKEDYNAMIC
+     * @see #FEATURE_INTERPRETER_FRAME_POOL
      */
     public boolean hasFeature(int featureIndex)
     {
@@ -2471,6 +2635,223 @@ public class Context
         return cx;
     }
 
+    private CompilationResult[] compileBatch(Scriptable scope,
+                                             String[] sources,
+                                             String[] sourceNames,
+                                             Object securityDomain,
+                                             ForkJoinPool pool)
+    {
+        if (sources.length != sourceNames.length) {
+            throw new IllegalArgumentException();
+        }
+        if (securityDomain != null && getSecurityController() == null) {
+            throw new IllegalArgumentException(
+                "securityDomain should be null if setSecurityController() was never called");
+        }
+        boolean returnFunction = (scope != null);
+        int count = sources.length;
+        CompilationResult[] results = new CompilationResult[count];
+        if (debugger != null || count < 2) {
+            for (int i = 0; i != count; ++i) {
+                Object compiled = null;
+                RuntimeException error = null;
+                try {
+                    compiled = compileImpl(scope, null, sources[i],
+                                           sourceNames[i], 1, securityDomain,
+                                           returnFunction, null, null);
+                } catch (RuntimeException ex) {
+                    error = ex;
+                } catch (IOException ex) {
+                    // Should not happen when dealing with source as string
+                    throw new RuntimeException();
+                }
+                results[i] = new CompilationResult(sourceNames[i], compiled,
+                                                   returnFunction, error);
+            }
+            return results;
+        }
+
+        CompilerEnvirons compilerEnv = new CompilerEnvirons();
+        compilerEnv.initFromContext(this);
+        compilerEnv.setErrorReporter(
+            new SynchronizedErrorReporter(compilerEnv.getErrorReporter()));
+        boolean strictDirective = isStrictMode();
+        if (pool == null) {
+            pool = ForkJoinPool.commonPool();
+        }
+        List<ForkJoinTask<Object[]>> tasks
+            = new ArrayList<ForkJoinTask<Object[]>>(count);
+        for (int i = 0; i != count; ++i) {
+            tasks.add(pool.submit(new CompileTask(this, compilerEnv,
+                                                  sources[i], sourceNames[i],
+                                                  returnFunction,
+                                                  strictDirective)));
+        }
+        for (int i = 0; i != count; ++i) {
+            Object[] compiledPair = tasks.get(i).join();
+            Object compiled = null;
+            RuntimeException error;
+            if (compiledPair[0] == null) {
+                error = (RuntimeException)compiledPair[1];
+            } else {
+                error = null;
+                try {
+                    compiled = createCompiledObject((Evaluator)compiledPair[0],
+                                                    scope, compiledPair[1],
+                                                    securityDomain,
+                                                    returnFunction);
+                } catch (RuntimeException ex) {
+                    error = ex;
+                }
+            }
+            results[i] = new CompilationResult(sourceNames[i], compiled,
+                                               returnFunction, error);
+        }
+        return results;
+    }
+
+    /**
+     * Compiles one source of a batch to byte code. The result is the
+     * evaluator and the byte code or null and the exception thrown by the
+     * compilation.
+     */
+    private static final class CompileTask
+        implements java.util.concurrent.Callable<Object[]>
+    {
+        private final Context parent;
+        private final CompilerEnvirons compilerEnv;
+        private final String source;
+        private final String sourceName;
+        private final boolean returnFunction;
+        private final boolean strictDirective;
+
+        CompileTask(Context parent, CompilerEnvirons compilerEnv,
+                    String source, String sourceName,
+                    boolean returnFunction, boolean strictDirective)
+        {
+            this.parent = parent;
+            this.compilerEnv = compilerEnv;
+            this.source = source;
+            this.sourceName = sourceName != null ? sourceName
+                                                 : "unnamed script";
+            this.returnFunction = returnFunction;
+            this.strictDirective = strictDirective;
+        }
+
+        public Object[] call()
+        {
+            // The code generators look up the current Context, for example
+            // to compile regular expressions, so every task enters a Context
+            // of its own with the settings of parent. A Context the thread
+            // already has, like the one of a thread executing the task while
+            // joining or of a worker of a pool passed by the caller, is put
+            // aside until the task is done.
+            Object helper = VMBridge.instance.getThreadContextHelper();
+            Context old = VMBridge.instance.getContext(helper);
+            if (old != null) {
+                VMBridge.instance.setContext(helper, null);
+            }
+            Context cx = parent.factory.enterContext();
+            try {
+                cx.copyCompilerSettings(parent, compilerEnv);
+                Evaluator compiler = parent.createCompiler();
+                CompiledScriptCache cache = parent.compiledScriptCache;
+                String cacheKey = null;
+                if (cache != null) {
+                    cacheKey = CompiledScriptCache.getKey(compilerEnv,
+                                                          compiler, source,
+                                                          sourceName, 1,
+                                                          returnFunction,
+                                                          strictDirective);
+                    Object bytecode = cache.get(cacheKey);
+                    if (bytecode != null) {
+                        return new Object[] { compiler, bytecode };
+                    }
+                }
+                Object bytecode = compileToBytecode(compilerEnv,
+                                                    compilerEnv.getErrorReporter(),
+                                                    compiler, null, source,
+                                                    sourceName, 1,
+                                                    returnFunction,
+                                                    strictDirective);
+                if (cacheKey != null) {
+                    cache.put(cacheKey, bytecode);
+                }
+                return new Object[] { compiler, bytecode };
+            } catch (RuntimeException ex) {
+                return new Object[] { null, ex };
+            } catch (IOException ex) {
+                // Should not happen when dealing with source as string
+                return new Object[] { null, new RuntimeException(ex) };
+            } finally {
+                exit();
+                if (old != null) {
+                    VMBridge.instance.setContext(helper, old);
+                }
+            }
+        }
+    }
+
+    // Makes a fresh Context compile like parent
+    private void copyCompilerSettings(Context parent,
+                                      CompilerEnvirons compilerEnv)
+    {
+        version = parent.version;
+        optimizationLevel = parent.optimizationLevel;
+        errorReporter = compilerEnv.getErrorReporter();
+        generatingDebug = parent.generatingDebug;
+        generatingDebugChanged = parent.generatingDebugChanged;
+        generatingSource = parent.generatingSource;
+        generateObserverCount = parent.generateObserverCount;
+        locale = parent.locale;
+        timeZone = parent.timeZone;
+        localTimeZone = parent.localTimeZone;
+        applicationClassLoader = parent.applicationClassLoader;
+        if (parent.activationNames != null) {
+            activationNames = new HashSet<String>(parent.activationNames);
+        }
+    }
+
+    private static final class SynchronizedErrorReporter
+        implements ErrorReporter
+    {
+        private final ErrorReporter reporter;
+
+        SynchronizedErrorReporter(ErrorReporter reporter)
+        {
+            this.reporter = reporter;
+        }
+
+        public void warning(String message, String sourceName, int line,
+                            String lineSource, int lineOffset)
+        {
+            synchronized (reporter) {
+                reporter.warning(message, sourceName, line, lineSource,
+                                 lineOffset);
+            }
+        }
+
+        public void error(String message, String sourceName, int line,
+                          String lineSource, int lineOffset)
+        {
+            synchronized (reporter) {
+                reporter.error(message, sourceName, line, lineSource,
+                               lineOffset);
+            }
+        }
+
+        public EvaluatorException runtimeError(String message,
+                                               String sourceName, int line,
+                                               String lineSource,
+                                               int lineOffset)
+        {
+            synchronized (reporter) {
+                return reporter.runtimeError(message, sourceName, line,
+                                             lineSource, lineOffset);
+            }
+        }
+    }
+
     private Object compileImpl(Scriptable scope,
                                Reader sourceReader, String sourceString,
                                String sourceName, int lineno,
@@ -2498,18 +2879,71 @@ public class Context
             compilationErrorReporter = compilerEnv.getErrorReporter();
         }
 
-        if (debugger != null) {
+        // Only the public compile methods use the cache, an explicit
+        // compiler is passed for eval and Function code
+        CompiledScriptCache cache = compiler == null && debugger == null
+                                    ? compiledScriptCache : null;
+        if (debugger != null || cache != null) {
             if (sourceReader != null) {
                 sourceString = Kit.readReader(sourceReader);
                 sourceReader = null;
             }
         }
 
+        String cacheKey = null;
+        if (cache != null) {
+            compiler = createCompiler();
+            cacheKey = CompiledScriptCache.getKey(compilerEnv, compiler,
+                                                  sourceString, sourceName,
+                                                  lineno, returnFunction,
+                                                  isStrictMode());
+            Object bytecode = cache.get(cacheKey);
+            if (bytecode != null) {
+                return createCompiledObject(compiler, scope, bytecode,
+                                            securityDomain, returnFunction);
+            }
+        }
+
+        if (compiler == null) {
+            compiler = createCompiler();
+        }
+        Object bytecode = compileToBytecode(compilerEnv,
+                                            compilationErrorReporter,
+                                            compiler, sourceReader,
+                                            sourceString, sourceName, lineno,
+                                            returnFunction, isStrictMode());
+        if (debugger != null) {
+            if (sourceString == null) Kit.codeBug();
+            if (bytecode instanceof DebuggableScript) {
+                DebuggableScript dscript = (DebuggableScript)bytecode;
+                notifyDebugger_r(this, dscript, sourceString);
+            } else {
+                throw new RuntimeException("NOT SUPPORTED");
+            }
+        }
+        if (cacheKey != null) {
+            cache.put(cacheKey, bytecode);
+        }
+
+        return createCompiledObject(compiler, scope, bytecode, securityDomain,
+                                    returnFunction);
+    }
+
+    private static Object compileToBytecode(CompilerEnvirons compilerEnv,
+                                            ErrorReporter compilationErrorReporter,
+                                            Evaluator compiler,
+                                            Reader sourceReader,
+                                            String sourceString,
+                                            String sourceName, int lineno,
+                                            boolean returnFunction,
+                                            boolean strictDirective)
+        throws IOException
+    {
         Parser p = new Parser(compilerEnv, compilationErrorReporter);
         if (returnFunction) {
             p.calledByCompileFunction = true;
         }
-        if (isStrictMode()) {
+        if (strictDirective) {
             p.setDefaultUseStrictDirective(true);
         }
         AstRoot ast;
@@ -2539,23 +2973,14 @@ public class Context
         ast = null;
         irf = null;
 
-        if (compiler == null) {
-            compiler = createCompiler();
-        }
-
-        Object bytecode = compiler.compile(compilerEnv,
-                                           tree, tree.getEncodedSource(),
-                                           returnFunction);
-        if (debugger != null) {
-            if (sourceString == null) Kit.codeBug();
-            if (bytecode instanceof DebuggableScript) {
-                DebuggableScript dscript = (DebuggableScript)bytecode;
-                notifyDebugger_r(this, dscript, sourceString);
-            } else {
-                throw new RuntimeException("NOT SUPPORTED");
-            }
-        }
+        return compiler.compile(compilerEnv, tree, tree.getEncodedSource(),
+                                returnFunction);
+    }
 
+    private Object createCompiledObject(Evaluator compiler, Scriptable scope,
+                                        Object bytecode, Object securityDomain,
+                                        boolean returnFunction)
+    {
         Object result;
         if (returnFunction) {
             result = compiler.createFunctionObject(this, scope, bytecode, securityDomain);
@@ -2729,6 +3154,8 @@ public class Context
     private ErrorReporter errorReporter;
     RegExpProxy regExpProxy;
     private Locale locale;
+    private TimeZone timeZone;
+    private LocalTimeZone localTimeZone;
     private boolean generatingDebug;
     private boolean generatingDebugChanged;
     private boolean generatingSource=true;
@@ -2736,6 +3163,7 @@ public class Context
     private int optimizationLevel;
     private int maximumInterpreterStackDepth;
     private WrapFactory wrapFactory;
+    private CompiledScriptCache compiledScriptCache;
     Debugger debugger;
     private Object debuggerData;
     private int enterCount;
@@ -2756,6 +3184,9 @@ public class Context
     // interpreter invocations
     ObjArray previousInterpreterInvocations;
 
+    // For the interpreter to keep released frames for reuse
+    Object interpreterFramePool;
+
     // For instruction counting (interpreter only)
     int instructionCount;
     int instructionThreshold;
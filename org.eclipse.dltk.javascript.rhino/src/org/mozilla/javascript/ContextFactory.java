@@ -10,6 +10,7 @@ package org.mozilla.javascript;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Factory class that Rhino runtime uses to create new {@link Context}
@@ -288,6 +289,18 @@ public class ContextFactory
 
           case Context.FEATURE_ENUMERATE_IDS_FIRST:
               return cx.getLanguageVersion() >= Context.VERSION_ES6;
+
+          case Context.FEATURE_SHARED_SHAPES:
+              return false;
+
+          case Context.FEATURE_THREAD_SAFE_OBJECTS:
+              return false;
+
+          case Context.FEATURE_INVOKEDYNAMIC:
+              return false;
+
+          case Context.FEATURE_INTERPRETER_FRAME_POOL:
+              return false;
         }
         // It is a bug to call the method with unknown featureIndex
         throw new IllegalArgumentException(String.valueOf(featureIndex));
@@ -509,6 +522,26 @@ public class ContextFactory
         return Context.call(this, action);
     }
 
+    /**
+     * Compile several independent scripts in parallel using a Context of
+     * this factory, see
+     * {@link Context#compileStrings(String[], String[], Object, ForkJoinPool)}.
+     *
+     * @param pool the pool to compile on or null to use the common pool
+     * @return one result per source, in the order of the sources
+     */
+    public final CompilationResult[] compileStrings(final String[] sources,
+                                                    final String[] sourceNames,
+                                                    final ForkJoinPool pool)
+    {
+        return (CompilationResult[])call(new ContextAction() {
+            public Object run(Context cx)
+            {
+                return cx.compileStrings(sources, sourceNames, null, pool);
+            }
+        });
+    }
+
     /**
      * Get a context associated with the current thread, creating one if need
      * be. The Context stores the execution state of the JavaScript engine, so
@@ -0,0 +1,173 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+
+/**
+ * {@link CompiledScriptCache} that serializes compiled scripts to files in
+ * a directory, so they survive a restart of the application.
+ *
+ * <p>Files are written under a temporary name and renamed when complete,
+ * several processes may share the directory. Entries that can not be read,
+ * for example because they were written by an incompatible version of the
+ * engine, are deleted and reported as missing. Each file starts with the
+ * build of the engine that wrote it, and entries of other builds are
+ * treated the same way. Only classes of the engine and of java.lang are
+ * accepted when reading an entry, still the directory must not be writable
+ * by untrusted parties.
+ *
+ * <p>Entries are never removed automatically, applications should clear
+ * the directory when its size matters.
+ */
+public class FileCompiledScriptCache extends CompiledScriptCache
+{
+    private static final String SUFFIX = ".jsc";
+
+    private final File directory;
+
+    /**
+     * Creates a cache storing its entries in the given directory, which is
+     * created if it does not exist.
+     */
+    public FileCompiledScriptCache(File directory)
+    {
+        if (directory == null) throw new IllegalArgumentException();
+        this.directory = directory;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    @Override
+    public Object get(String key)
+    {
+        File file = new File(directory, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            ObjectInputStream oin = new EntryInputStream(in);
+            if (getEngineBuild().equals(oin.readObject())) {
+                return oin.readObject();
+            }
+            // written by another build of the engine
+        } catch (IOException ex) {
+            // fall through and drop the entry
+        } catch (ClassNotFoundException ex) {
+            // fall through and drop the entry
+        } finally {
+            close(in);
+        }
+        file.delete();
+        return null;
+    }
+
+    @Override
+    public void put(String key, Object compiled)
+    {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File file = new File(directory, key + SUFFIX);
+        File tmp = null;
+        OutputStream out = null;
+        try {
+            tmp = File.createTempFile(key, ".tmp", directory);
+            out = new BufferedOutputStream(new FileOutputStream(tmp));
+            ObjectOutputStream oout = new ObjectOutputStream(out);
+            oout.writeObject(getEngineBuild());
+            oout.writeObject(compiled);
+            oout.close();
+            out = null;
+            if (file.exists()) {
+                // renameTo does not replace files on all platforms
+                file.delete();
+            }
+            if (tmp.renameTo(file)) {
+                tmp = null;
+            }
+        } catch (IOException ex) {
+            // not serializable or not writable, the entry is just not cached
+        } finally {
+            close(out);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void close(Closeable c)
+    {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+
+    private static final class EntryInputStream extends ObjectInputStream
+    {
+        EntryInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+            throws IOException, ClassNotFoundException
+        {
+            String name = desc.getName();
+            String elementName = name;
+            int dims = 0;
+            while (dims < elementName.length()
+                   && elementName.charAt(dims) == '[')
+            {
+                ++dims;
+            }
+            if (dims != 0) {
+                elementName = elementName.substring(dims);
+                if (elementName.length() == 1) {
+                    // array of a primitive type
+                    return super.resolveClass(desc);
+                }
+                // strip L...;
+                elementName = elementName.substring(1,
+                                                    elementName.length() - 1);
+            }
+            if (!elementName.startsWith("org.mozilla.javascript.")
+                && !elementName.startsWith("java.lang."))
+            {
+                throw new InvalidClassException(name, "not allowed");
+            }
+            ClassLoader loader = FileCompiledScriptCache.class.getClassLoader();
+            try {
+                return Class.forName(name, false, loader);
+            } catch (ClassNotFoundException ex) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
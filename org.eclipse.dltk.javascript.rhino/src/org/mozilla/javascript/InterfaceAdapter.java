@@ -33,6 +33,13 @@ public class InterfaceAdapter
         InterfaceAdapter adapter;
         adapter = (InterfaceAdapter)cache.getInterfaceAdapter(cl);
         ContextFactory cf = cx.getFactory();
+        if (adapter == null && cache.isCachingEnabled()) {
+            // the proxy class only depends on the interface
+            adapter = AdapterClassCache.getInterfaceAdapter(cl);
+            if (adapter != null) {
+                cache.cacheInterfaceAdapter(cl, adapter);
+            }
+        }
         if (adapter == null) {
             Method[] methods = cl.getMethods();
             if ( object instanceof Callable) {
@@ -57,6 +64,9 @@ public class InterfaceAdapter
                 }
             }
             adapter = new InterfaceAdapter(cf, cl);
+            if (cache.isCachingEnabled()) {
+                adapter = AdapterClassCache.cacheInterfaceAdapter(cl, adapter);
+            }
             cache.cacheInterfaceAdapter(cl, adapter);
         }
         return VMBridge.instance.newInterfaceProxy(
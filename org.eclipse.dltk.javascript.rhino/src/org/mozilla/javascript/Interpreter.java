@@ -8,13 +8,16 @@ package org.mozilla.javascript;
 
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.mozilla.javascript.ast.FunctionNode;
 import org.mozilla.javascript.ast.ScriptNode;
 import org.mozilla.javascript.ScriptRuntime.NoSuchMethodShim;
 import org.mozilla.javascript.debug.DebugFrame;
+import org.mozilla.javascript.debug.IDebuggerWithWatchPoints;
 
 import static org.mozilla.javascript.UniqueTag.DOUBLE_MARK;
 
@@ -45,6 +48,9 @@ public final class Interpreter extends Icode implements Evaluator
         int frameIndex;
         // If true indicates read-only frame that is a part of continuation
         boolean frozen;
+        // If true the frame is referenced from a generator or the stack
+        // information of an exception and must not be reused
+        boolean escaped;
 
         InterpretedFunction fnOrScript;
         InterpreterData idata;
@@ -104,6 +110,74 @@ public final class Interpreter extends Icode implements Evaluator
         }
     }
 
+    /**
+     * Frames of returned functions kept for reuse by one Context, see
+     * {@link Context#FEATURE_INTERPRETER_FRAME_POOL}.
+     */
+    private static final class FramePool
+    {
+        private static final int MAX_FRAMES = 32;
+        // Bigger stacks are left to GC to not keep their memory forever
+        private static final int MAX_STACK_LENGTH = 256;
+
+        private final CallFrame[] frames = new CallFrame[MAX_FRAMES];
+        private int count;
+
+        CallFrame acquire()
+        {
+            if (count == 0) {
+                return new CallFrame();
+            }
+            CallFrame frame = frames[--count];
+            frames[count] = null;
+            return frame;
+        }
+
+        void release(CallFrame frame)
+        {
+            if (frame.frozen || frame.escaped || count == MAX_FRAMES) {
+                return;
+            }
+            Object[] stack = frame.stack;
+            if (stack == null || stack.length > MAX_STACK_LENGTH) {
+                return;
+            }
+            // initFrame only sets attributes of constants, and the old
+            // values should not be kept alive by the pool
+            Arrays.fill(stack, null);
+            Arrays.fill(frame.stackAttributes, ScriptableObject.EMPTY);
+            frame.parentFrame = null;
+            frame.fnOrScript = null;
+            frame.idata = null;
+            frame.varSource = null;
+            frame.debuggerFrame = null;
+            frame.isContinuationsTopFrame = false;
+            frame.thisObj = null;
+            frame.result = null;
+            frame.scope = null;
+            frame.throwable = null;
+            frames[count++] = frame;
+        }
+    }
+
+    private static FramePool getFramePool(Context cx)
+    {
+        if (!cx.hasFeature(Context.FEATURE_INTERPRETER_FRAME_POOL)) {
+            return null;
+        }
+        FramePool pool = (FramePool)cx.interpreterFramePool;
+        if (pool == null) {
+            pool = new FramePool();
+            cx.interpreterFramePool = pool;
+        }
+        return pool;
+    }
+
+    private static CallFrame newCallFrame(FramePool framePool)
+    {
+        return framePool != null ? framePool.acquire() : new CallFrame();
+    }
+
     private static final class ContinuationJump implements Serializable
     {
         static final long serialVersionUID = 7687739156004308247L;
@@ -162,6 +236,10 @@ public final class Interpreter extends Icode implements Evaluator
       frame.frozen = true;
       CallFrame result = frame.cloneFrozen();
       frame.frozen = false;
+      // The copy shares the variables of the frame and is kept by the
+      // generator object
+      frame.escaped = true;
+      result.escaped = true;
 
       // now isolate this frame from its previous context
       result.parentFrame = null;
@@ -197,11 +275,12 @@ public final class Interpreter extends Icode implements Evaluator
 
     public Script createScriptObject(Object bytecode, Object staticSecurityDomain)
     {
-        if(bytecode != itsData)
+        // bytecode is not itsData when taken from a CompiledScriptCache
+        if (!(bytecode instanceof InterpreterData))
         {
             Kit.codeBug();
         }
-        return InterpretedFunction.createScript(itsData,
+        return InterpretedFunction.createScript((InterpreterData)bytecode,
                                                 staticSecurityDomain);
     }
 
@@ -213,11 +292,12 @@ public final class Interpreter extends Icode implements Evaluator
     public Function createFunctionObject(Context cx, Scriptable scope,
             Object bytecode, Object staticSecurityDomain)
     {
-        if(bytecode != itsData)
+        if (!(bytecode instanceof InterpreterData))
         {
             Kit.codeBug();
         }
-        return InterpretedFunction.createFunction(cx, scope, itsData,
+        return InterpretedFunction.createFunction(cx, scope,
+                                                  (InterpreterData)bytecode,
                                                   staticSecurityDomain);
     }
 
@@ -637,6 +717,8 @@ public final class Interpreter extends Icode implements Evaluator
             while (frame != null) {
                 --linePCIndex;
                 linePC[linePCIndex] = frame.pcSourceLineStart;
+                // The frames are read again when the stack is printed
+                frame.escaped = true;
                 frame = frame.parentFrame;
             }
         }
@@ -806,7 +888,7 @@ public final class Interpreter extends Icode implements Evaluator
             }
         }
 
-        CallFrame frame = new CallFrame();
+        CallFrame frame = newCallFrame(getFramePool(cx));
         initFrame(cx, scope, thisObj, args, null, 0, args.length,
                   ifun, null, frame);
         frame.isContinuationsTopFrame = cx.isContinuationsTopCall;
@@ -892,6 +974,8 @@ public final class Interpreter extends Icode implements Evaluator
         // arbitrary exception cost for instruction counting
         final int EXCEPTION_COST = 100;
 
+        final FramePool framePool = getFramePool(cx);
+
         String stringReg = null;
         int indexReg = -1;
 
@@ -1243,20 +1327,20 @@ switch (op) {
         continue Loop;
     }
     case Token.GETPROP : {
+        // indexReg: property cache
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg,
-                                                      cx, frame.scope);
+        stack[stackTop] = doGetProp(cx, frame, lhs, stringReg, indexReg);
         continue Loop;
     }
     case Token.SETPROP : {
+        // indexReg: property cache
         Object rhs = stack[stackTop];
         if (rhs == DBL_MRK) rhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         --stackTop;
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs,
-                                                      cx, frame.scope);
+        stack[stackTop] = doSetProp(cx, frame, lhs, stringReg, rhs, indexReg);
         continue Loop;
     }
     case Icode_PROP_INC_DEC : {
@@ -1327,10 +1411,22 @@ switch (op) {
         Object obj = stack[stackTop];
         if (obj == DBL_MRK) obj = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         // stringReg: property
+        // indexReg: property cache
+        PropertyCache cache = getPropertyCache(cx, frame, indexReg);
+        Object function = (cache == null) ? null : cache.get(obj);
+        if (function instanceof Callable) {
+            stack[stackTop] = function;
+            ++stackTop;
+            stack[stackTop] = obj;
+            continue Loop;
+        }
         stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
                                                                cx, frame.scope);
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
+        if (cache != null) {
+            cache.update(obj, stringReg, false);
+        }
         continue Loop;
     }
     case Icode_ELEM_AND_THIS: {
@@ -1387,7 +1483,7 @@ switch (op) {
             InterpretedFunction ifun = (InterpretedFunction)fun;
             if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
                 CallFrame callParentFrame = frame;
-                CallFrame calleeFrame = new CallFrame();
+                CallFrame calleeFrame = newCallFrame(framePool);
                 if (op == Icode_TAIL_CALL) {
                     // In principle tail call can re-use the current
                     // frame and its stack arrays but it is hard to
@@ -1399,11 +1495,8 @@ switch (op) {
                     // in the catch code bellow that unwinds JS stack
                     // on exceptions. Then there is issue about frame release
                     // end exceptions there.
-                    // To avoid frame allocation a released frame
-                    // can be cached for re-use which would also benefit
-                    // non-tail calls but it is not clear that this caching
-                    // would gain in performance due to potentially
-                    // bad interaction with GC.
+                    // The current frame is put back to the frame pool
+                    // once the callee frame is initialized.
                     callParentFrame = frame.parentFrame;
                     // Release the current frame. See Bug #344501 to see why
                     // it is being done here.
@@ -1415,6 +1508,8 @@ switch (op) {
                 if (op != Icode_TAIL_CALL) {
                     frame.savedStackTop = stackTop;
                     frame.savedCallOp = op;
+                } else if (framePool != null) {
+                    framePool.release(frame);
                 }
                 frame = calleeFrame;
                 continue StateLoop;
@@ -1456,7 +1551,7 @@ switch (op) {
                     if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain) {
                         frame = initFrameForApplyOrCall(cx, frame, indexReg,
                                 stack, sDbl, stackTop, op, calleeScope, ifun,
-                                iApplyCallable);
+                                iApplyCallable, framePool);
                         continue StateLoop;
                     }
                 }
@@ -1475,7 +1570,7 @@ switch (op) {
                 if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
                     frame = initFrameForNoSuchMethod(cx, frame, indexReg, stack, sDbl,
                                              stackTop, op, funThisObj, calleeScope,
-                                             noSuchMethodShim, ifun);
+                                             noSuchMethodShim, ifun, framePool);
                     continue StateLoop;
                 }
             }
@@ -1502,7 +1597,7 @@ switch (op) {
             InterpretedFunction f = (InterpretedFunction)lhs;
             if (frame.fnOrScript.securityDomain == f.securityDomain) {
                 Scriptable newInstance = f.createObject(cx, frame.scope);
-                CallFrame calleeFrame = new CallFrame();
+                CallFrame calleeFrame = newCallFrame(framePool);
                 initFrame(cx, frame.scope, newInstance, stack, sDbl,
                           stackTop + 1, indexReg, f, frame,
                           calleeFrame);
@@ -1933,8 +2028,12 @@ switch (op) {
                 exitFrame(cx, frame, null);
                 interpreterResult = frame.result;
                 interpreterResultDbl = frame.resultDbl;
-                if (frame.parentFrame != null) {
-                    frame = frame.parentFrame;
+                CallFrame parentFrame = frame.parentFrame;
+                if (framePool != null) {
+                    framePool.release(frame);
+                }
+                if (parentFrame != null) {
+                    frame = parentFrame;
                     if (frame.frozen) {
                         frame = frame.cloneFrozen();
                     }
@@ -2046,7 +2145,11 @@ switch (op) {
 
                 exitFrame(cx, frame, throwable);
 
-                frame = frame.parentFrame;
+                CallFrame parentFrame = frame.parentFrame;
+                if (framePool != null) {
+                    framePool.release(frame);
+                }
+                frame = parentFrame;
                 if (frame == null) { break; }
                 if (cjump != null && cjump.branchFrame == frame) {
                     // Continuation branch point was hit,
@@ -2217,6 +2320,63 @@ switch (op) {
         return stackTop;
     }
 
+    /**
+     * Returns the inline cache of a named property access site or null if
+     * the site can not use a cache.
+     */
+    private static PropertyCache getPropertyCache(Context cx, CallFrame frame,
+                                                  int site)
+    {
+        if (cx.debugger instanceof IDebuggerWithWatchPoints) {
+            // watch points are reported by the generic property access
+            return null;
+        }
+        AtomicReferenceArray<PropertyCache> caches
+            = frame.idata.itsPropertyCaches;
+        if (caches == null || site < 0 || site >= caches.length()) {
+            return null;
+        }
+        PropertyCache cache = caches.get(site);
+        if (cache == null) {
+            // threads running the same script share its caches
+            cache = new PropertyCache();
+            if (!caches.compareAndSet(site, null, cache)) {
+                cache = caches.get(site);
+            }
+        }
+        return cache;
+    }
+
+    private static Object doGetProp(Context cx, CallFrame frame, Object lhs,
+                                    String property, int site)
+    {
+        PropertyCache cache = getPropertyCache(cx, frame, site);
+        if (cache == null) {
+            return ScriptRuntime.getObjectProp(lhs, property, cx, frame.scope);
+        }
+        Object value = cache.get(lhs);
+        if (value == Scriptable.NOT_FOUND) {
+            value = ScriptRuntime.getObjectProp(lhs, property, cx, frame.scope);
+            cache.update(lhs, property, false);
+        }
+        return value;
+    }
+
+    private static Object doSetProp(Context cx, CallFrame frame, Object lhs,
+                                    String property, Object value, int site)
+    {
+        PropertyCache cache = getPropertyCache(cx, frame, site);
+        if (cache == null) {
+            return ScriptRuntime.setObjectProp(lhs, property, value,
+                                               cx, frame.scope);
+        }
+        if (!cache.put(lhs, value)) {
+            ScriptRuntime.setObjectProp(lhs, property, value, cx, frame.scope);
+            cache.update(lhs, property, true);
+        }
+        return value;
+    }
+
     private static int doGetElem(Context cx, CallFrame frame, Object[] stack,
                                  double[] sDbl, int stackTop) {
         --stackTop;
@@ -2459,7 +2619,8 @@ switch (op) {
     private static CallFrame initFrameForNoSuchMethod(Context cx,
             CallFrame frame, int indexReg, Object[] stack, double[] sDbl,
             int stackTop, int op, Scriptable funThisObj, Scriptable calleeScope,
-            NoSuchMethodShim noSuchMethodShim, InterpretedFunction ifun)
+            NoSuchMethodShim noSuchMethodShim, InterpretedFunction ifun,
+            FramePool framePool)
     {
         // create an args array from the stack
         Object[] argsArray = null;
@@ -2480,7 +2641,7 @@ switch (op) {
 
         // exactly the same as if it's a regular InterpretedFunction
         CallFrame callParentFrame = frame;
-        CallFrame calleeFrame = new CallFrame();
+        CallFrame calleeFrame = newCallFrame(framePool);
         if (op == Icode_TAIL_CALL) {
             callParentFrame = frame.parentFrame;
             exitFrame(cx, frame, null);
@@ -2687,7 +2848,7 @@ switch (op) {
     private static CallFrame initFrameForApplyOrCall(Context cx, CallFrame frame,
             int indexReg, Object[] stack, double[] sDbl, int stackTop, int op,
             Scriptable calleeScope, IdFunctionObject ifun,
-            InterpretedFunction iApplyCallable)
+            InterpretedFunction iApplyCallable, FramePool framePool)
     {
         Scriptable applyThis;
         if (indexReg != 0) {
@@ -2711,7 +2872,7 @@ switch (op) {
             frame.savedStackTop = stackTop;
             frame.savedCallOp = op;
         }
-        CallFrame calleeFrame = new CallFrame();
+        CallFrame calleeFrame = newCallFrame(framePool);
         if(BaseFunction.isApply(ifun)) {
             Object[] callArgs = indexReg < 2 ? ScriptRuntime.emptyArgs :
                 ScriptRuntime.getApplyArguments(cx, stack[stackTop + 3]);
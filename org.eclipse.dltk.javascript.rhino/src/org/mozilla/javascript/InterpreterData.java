@@ -6,7 +6,10 @@
 
 package org.mozilla.javascript;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.mozilla.javascript.debug.DebuggableScript;
 
@@ -44,6 +47,26 @@ final class InterpreterData implements Serializable, DebuggableScript
         itsStringTable = new String[INITIAL_STRINGTABLE_SIZE];
     }
 
+    /**
+     * Creates the array of inline caches once the number of property access
+     * sites is known. The array is in place before the data is shared, the
+     * caches in it are created on first use.
+     */
+    void initPropertyCaches()
+    {
+        if (itsPropertyCacheCount != 0) {
+            itsPropertyCaches
+                = new AtomicReferenceArray<PropertyCache>(itsPropertyCacheCount);
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        initPropertyCaches();
+    }
+
     String itsName;
     String itsSourceFile;
     boolean itsNeedsActivation;
@@ -56,6 +79,12 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     byte[] itsICode;
 
+    // Number of named property access sites in itsICode. Each site loads
+    // its index into the index register before the property operation.
+    int itsPropertyCacheCount;
+    // Inline caches for the property access sites, created on first use
+    transient AtomicReferenceArray<PropertyCache> itsPropertyCaches;
+
     int[] itsExceptionTable;
 
     int itsMaxVars;
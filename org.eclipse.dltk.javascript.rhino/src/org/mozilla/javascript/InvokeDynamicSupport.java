@@ -0,0 +1,394 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+import org.mozilla.javascript.debug.IDebuggerWithWatchPoints;
+
+/**
+ * Bootstrap method for the invokedynamic call sites that the optimizer
+ * generates when {@link Context#FEATURE_INVOKEDYNAMIC} is set.
+ *
+ * <p>A call site starts with a fallback that performs the generic operation
+ * and then records the layout of the receiver in a {@link PropertyCache}.
+ * The site target is rebuilt from the cache entries as a chain of method
+ * handles, each guarded by a test of the receiver shape, that read or write
+ * the property value without a lookup. Once the cache becomes megamorphic
+ * the site is linked to the generic operation for good.
+ *
+ * <p>This class is public because generated code refers to it, it is not
+ * meant to be used by applications.
+ */
+public final class InvokeDynamicSupport
+{
+    /** Name of the bootstrap method. */
+    public static final String BOOTSTRAP_NAME = "bootstrap";
+
+    /** Type descriptor of the bootstrap method. */
+    public static final String BOOTSTRAP_SIGNATURE =
+        "(Ljava/lang/invoke/MethodHandles$Lookup;"
+        +"Ljava/lang/String;"
+        +"Ljava/lang/invoke/MethodType;"
+        +"Ljava/lang/String;"
+        +")Ljava/lang/invoke/CallSite;";
+
+    /**
+     * Site name for <code>obj.name</code>, the type is
+     * (Object, Context, Scriptable)Object.
+     */
+    public static final String GET_PROP = "getProp";
+
+    /**
+     * Site name for <code>obj.name = value</code>, the type is
+     * (Object, Object, Context, Scriptable)Object.
+     */
+    public static final String SET_PROP = "setProp";
+
+    /**
+     * Site name for <code>obj.name()</code>, the type is
+     * (Object, Context, Scriptable)Object.
+     */
+    public static final String CALL_PROP_0 = "callProp0";
+
+    /**
+     * Site name for looking up the function of <code>obj.name(...)</code>
+     * as ScriptRuntime.getPropFunctionAndThis does, the type is
+     * (Object, Context, Scriptable)Callable.
+     */
+    public static final String GET_PROP_FUNCTION = "getPropFunction";
+
+    private static final MethodHandle TEST_SHAPE;
+    private static final MethodHandle GET_FALLBACK;
+    private static final MethodHandle SET_FALLBACK;
+    private static final MethodHandle CALL_FALLBACK;
+    private static final MethodHandle FUNCTION_FALLBACK;
+    private static final MethodHandle GET_CACHED;
+    private static final MethodHandle SET_CACHED;
+    private static final MethodHandle CALL_CACHED;
+    private static final MethodHandle FUNCTION_CACHED;
+    private static final MethodHandle GET_GENERIC;
+    private static final MethodHandle SET_GENERIC;
+    private static final MethodHandle CALL_GENERIC;
+    private static final MethodHandle FUNCTION_GENERIC;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Class<?> c = InvokeDynamicSupport.class;
+        MethodType getType = MethodType.methodType(Object.class,
+            PropertySite.class, Object.class, Context.class,
+            Scriptable.class);
+        MethodType setType = MethodType.methodType(Object.class,
+            PropertySite.class, Object.class, Object.class, Context.class,
+            Scriptable.class);
+        MethodType functionType = getType.changeReturnType(Callable.class);
+        MethodType getCachedType = getType.insertParameterTypes(1,
+            PropertyCache.Entry.class);
+        MethodType setCachedType = setType.insertParameterTypes(1,
+            PropertyCache.Entry.class);
+        MethodType functionCachedType = functionType.insertParameterTypes(1,
+            PropertyCache.Entry.class);
+        try {
+            TEST_SHAPE = lookup.findStatic(c, "testShape",
+                MethodType.methodType(boolean.class, Shape.class,
+                                      Object.class, Context.class));
+            GET_FALLBACK = lookup.findStatic(c, "getFallback", getType);
+            SET_FALLBACK = lookup.findStatic(c, "setFallback", setType);
+            CALL_FALLBACK = lookup.findStatic(c, "callFallback", getType);
+            FUNCTION_FALLBACK = lookup.findStatic(c, "functionFallback",
+                                                  functionType);
+            GET_CACHED = lookup.findStatic(c, "getCached", getCachedType);
+            SET_CACHED = lookup.findStatic(c, "setCached", setCachedType);
+            CALL_CACHED = lookup.findStatic(c, "callCached", getCachedType);
+            FUNCTION_CACHED = lookup.findStatic(c, "functionCached",
+                                                functionCachedType);
+            GET_GENERIC = lookup.findStatic(c, "getGeneric", getType);
+            SET_GENERIC = lookup.findStatic(c, "setGeneric", setType);
+            CALL_GENERIC = lookup.findStatic(c, "callGeneric", getType);
+            FUNCTION_GENERIC = lookup.findStatic(c, "functionGeneric",
+                                                 functionType);
+        } catch (NoSuchMethodException ex) {
+            throw new ExceptionInInitializerError(ex);
+        } catch (IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private InvokeDynamicSupport()
+    {
+    }
+
+    /**
+     * Links a call site generated by the optimizer.
+     *
+     * @param lookup the lookup of the calling class
+     * @param name the operation, one of the site name constants
+     * @param type the type of the call site
+     * @param property the name of the property
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup,
+                                     String name, MethodType type,
+                                     String property)
+    {
+        int kind;
+        if (GET_PROP.equals(name)) {
+            kind = PropertySite.GET;
+        } else if (SET_PROP.equals(name)) {
+            kind = PropertySite.SET;
+        } else if (CALL_PROP_0.equals(name)) {
+            kind = PropertySite.CALL;
+        } else if (GET_PROP_FUNCTION.equals(name)) {
+            kind = PropertySite.FUNCTION;
+        } else {
+            throw new IllegalArgumentException(name);
+        }
+        return new PropertySite(kind, property, type);
+    }
+
+    private static final class PropertySite extends MutableCallSite
+    {
+        static final int GET = 0;
+        static final int SET = 1;
+        static final int CALL = 2;
+        static final int FUNCTION = 3;
+
+        final int kind;
+        final String property;
+        private final PropertyCache cache = new PropertyCache();
+        private final MethodHandle fallback;
+
+        PropertySite(int kind, String property, MethodType type)
+        {
+            super(type);
+            this.kind = kind;
+            this.property = property;
+            MethodHandle h;
+            switch (kind) {
+              case GET:
+                h = GET_FALLBACK;
+                break;
+              case SET:
+                h = SET_FALLBACK;
+                break;
+              case CALL:
+                h = CALL_FALLBACK;
+                break;
+              default:
+                h = FUNCTION_FALLBACK;
+                break;
+            }
+            fallback = h.bindTo(this).asType(type);
+            setTarget(fallback);
+        }
+
+        /**
+         * Records where the property of obj was found and relinks the site
+         * if that added a case. Called after the generic operation.
+         */
+        void update(Object obj, Context cx)
+        {
+            if (!PropertyCache.isCacheable(obj)
+                || cx.debugger instanceof IDebuggerWithWatchPoints)
+            {
+                return;
+            }
+            PropertyCache.Entry[] before = cache.getEntries();
+            if (before != null && before.length == 0) {
+                // megamorphic, already linked to the generic operation
+                return;
+            }
+            cache.update(obj, property, kind == SET);
+            PropertyCache.Entry[] after = cache.getEntries();
+            if (after != before) {
+                relink(after);
+            }
+        }
+
+        private synchronized void relink(PropertyCache.Entry[] entries)
+        {
+            if (entries != cache.getEntries()) {
+                // a concurrent update relinks with newer entries
+                return;
+            }
+            MethodType type = type();
+            if (entries.length == 0) {
+                MethodHandle generic;
+                switch (kind) {
+                  case GET:
+                    generic = GET_GENERIC;
+                    break;
+                  case SET:
+                    generic = SET_GENERIC;
+                    break;
+                  case CALL:
+                    generic = CALL_GENERIC;
+                    break;
+                  default:
+                    generic = FUNCTION_GENERIC;
+                    break;
+                }
+                setTarget(generic.bindTo(this).asType(type));
+                return;
+            }
+            MethodHandle cached;
+            switch (kind) {
+              case GET:
+                cached = GET_CACHED;
+                break;
+              case SET:
+                cached = SET_CACHED;
+                break;
+              case CALL:
+                cached = CALL_CACHED;
+                break;
+              default:
+                cached = FUNCTION_CACHED;
+                break;
+            }
+            MethodHandle target = fallback;
+            for (int i = entries.length - 1; i >= 0; --i) {
+                PropertyCache.Entry entry = entries[i];
+                MethodHandle test = MethodHandles.insertArguments(
+                    TEST_SHAPE, 0, entry.shape);
+                if (kind == SET) {
+                    // skip the assigned value
+                    test = MethodHandles.dropArguments(test, 1, Object.class);
+                }
+                MethodHandle hit = MethodHandles.insertArguments(
+                    cached, 0, this, entry).asType(type);
+                target = MethodHandles.guardWithTest(test, hit, target);
+            }
+            setTarget(target);
+        }
+    }
+
+    private static boolean testShape(Shape shape, Object obj, Context cx)
+    {
+        return PropertyCache.isCacheable(obj)
+               && ((ScriptableObject)obj).getSharedShape() == shape
+               && !(cx.debugger instanceof IDebuggerWithWatchPoints);
+    }
+
+    private static Object getFallback(PropertySite site, Object obj,
+                                      Context cx, Scriptable scope)
+    {
+        Object value = ScriptRuntime.getObjectProp(obj, site.property, cx,
+                                                   scope);
+        site.update(obj, cx);
+        return value;
+    }
+
+    private static Object setFallback(PropertySite site, Object obj,
+                                      Object value, Context cx,
+                                      Scriptable scope)
+    {
+        ScriptRuntime.setObjectProp(obj, site.property, value, cx, scope);
+        site.update(obj, cx);
+        return value;
+    }
+
+    private static Object callFallback(PropertySite site, Object obj,
+                                       Context cx, Scriptable scope)
+    {
+        Callable f = ScriptRuntime.getPropFunctionAndThis(obj, site.property,
+                                                          cx, scope);
+        Scriptable thisObj = ScriptRuntime.lastStoredScriptable(cx);
+        site.update(obj, cx);
+        return f.call(cx, scope, thisObj, ScriptRuntime.emptyArgs);
+    }
+
+    private static Callable functionFallback(PropertySite site, Object obj,
+                                             Context cx, Scriptable scope)
+    {
+        Callable f = ScriptRuntime.getPropFunctionAndThis(obj, site.property,
+                                                          cx, scope);
+        site.update(obj, cx);
+        return f;
+    }
+
+    private static Object getCached(PropertySite site,
+                                    PropertyCache.Entry entry, Object obj,
+                                    Context cx, Scriptable scope)
+    {
+        Object value = entry.get((ScriptableObject)obj);
+        if (value == Scriptable.NOT_FOUND) {
+            return getFallback(site, obj, cx, scope);
+        }
+        return value;
+    }
+
+    private static Object setCached(PropertySite site,
+                                    PropertyCache.Entry entry, Object obj,
+                                    Object value, Context cx,
+                                    Scriptable scope)
+    {
+        if (!entry.put((ScriptableObject)obj, value)) {
+            return setFallback(site, obj, value, cx, scope);
+        }
+        return value;
+    }
+
+    private static Object callCached(PropertySite site,
+                                     PropertyCache.Entry entry, Object obj,
+                                     Context cx, Scriptable scope)
+    {
+        Object f = entry.get((ScriptableObject)obj);
+        if (!(f instanceof Callable)) {
+            // also reports a value that is not a function
+            return callFallback(site, obj, cx, scope);
+        }
+        return ((Callable)f).call(cx, scope, (Scriptable)obj,
+                                  ScriptRuntime.emptyArgs);
+    }
+
+    private static Callable functionCached(PropertySite site,
+                                           PropertyCache.Entry entry,
+                                           Object obj, Context cx,
+                                           Scriptable scope)
+    {
+        Object f = entry.get((ScriptableObject)obj);
+        if (!(f instanceof Callable)) {
+            return functionFallback(site, obj, cx, scope);
+        }
+        ScriptRuntime.storeScriptable(cx, (Scriptable)obj);
+        return (Callable)f;
+    }
+
+    private static Object getGeneric(PropertySite site, Object obj,
+                                     Context cx, Scriptable scope)
+    {
+        return ScriptRuntime.getObjectProp(obj, site.property, cx, scope);
+    }
+
+    private static Object setGeneric(PropertySite site, Object obj,
+                                     Object value, Context cx,
+                                     Scriptable scope)
+    {
+        return ScriptRuntime.setObjectProp(obj, site.property, value, cx,
+                                           scope);
+    }
+
+    private static Object callGeneric(PropertySite site, Object obj,
+                                      Context cx, Scriptable scope)
+    {
+        Callable f = ScriptRuntime.getPropFunctionAndThis(obj, site.property,
+                                                          cx, scope);
+        Scriptable thisObj = ScriptRuntime.lastStoredScriptable(cx);
+        return f.call(cx, scope, thisObj, ScriptRuntime.emptyArgs);
+    }
+
+    private static Callable functionGeneric(PropertySite site, Object obj,
+                                            Context cx, Scriptable scope)
+    {
+        return ScriptRuntime.getPropFunctionAndThis(obj, site.property, cx,
+                                                    scope);
+    }
+}
@@ -47,13 +47,22 @@ public final class JavaAdapter implements IdFunctionCall
                     if (interfaces[i] != sig.interfaces[i])
                         return false;
             }
-            if (names.size() != sig.names.size())
+            return sameNames(names, sig.names);
+        }
+
+        /**
+         * Returns true if both maps have the same function names with the
+         * same arities.
+         */
+        static boolean sameNames(ObjToIntMap names, ObjToIntMap other)
+        {
+            if (names.size() != other.size())
                 return false;
             ObjToIntMap.Iterator iter = new ObjToIntMap.Iterator(names);
             for (iter.start(); !iter.done(); iter.next()) {
                 String name = (String)iter.getKey();
                 int arity = iter.getValue();
-                if (arity != sig.names.get(name, arity + 1))
+                if (arity != other.get(name, arity + 1))
                     return false;
             }
             return true;
@@ -187,7 +196,7 @@ public final class JavaAdapter implements IdFunctionCall
                 NativeJavaClass classWrapper = new NativeJavaClass(scope,
                         adapterClass, true);
                 NativeJavaMethod ctors = classWrapper.members.ctors;
-                int index = ctors.findCachedFunction(cx, ctorArgs);
+                int index = ctors.findCachedFunction(cx, scope, ctorArgs);
                 if (index < 0) {
                     String sig = NativeJavaMethod.scriptSignature(args);
                     throw Context.reportRuntimeError2(
@@ -326,11 +335,28 @@ public final class JavaAdapter implements IdFunctionCall
         sig = new JavaAdapterSignature(superClass, interfaces, names);
         Class<?> adapterClass = generated.get(sig);
         if (adapterClass == null) {
-            String adapterName = "adapter" + cache.newClassSerialNumber();
-            byte[] code = createAdapterCode(names, adapterName,
-                                            superClass, interfaces, null);
-
-            adapterClass = loadAdapterClass(adapterName, code);
+            // Classes are loaded by a child of the application class loader
+            // and only depend on the security domain otherwise, share them
+            // with other scopes if there is none
+            Context cx = Context.getContext();
+            boolean shared = cache.isCachingEnabled()
+                && cx.getSecurityController() == null;
+            ClassLoader loader = cx.getApplicationClassLoader();
+            if (shared) {
+                adapterClass = AdapterClassCache.getAdapterClass(loader, sig);
+            }
+            if (adapterClass == null) {
+                String adapterName = "adapter" + cache.newClassSerialNumber();
+                byte[] code = createAdapterCode(names, adapterName,
+                                                superClass, interfaces, null);
+
+                adapterClass = loadAdapterClass(adapterName, code);
+                AdapterClassCache.adapterClassGenerated();
+                if (shared) {
+                    adapterClass = AdapterClassCache.cacheAdapterClass(
+                        loader, sig, adapterClass);
+                }
+            }
             if (cache.isCachingEnabled()) {
                 generated.put(sig, adapterClass);
             }
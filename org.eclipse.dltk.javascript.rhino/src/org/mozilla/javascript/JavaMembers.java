@@ -15,6 +15,12 @@ import static java.lang.reflect.Modifier.isProtected;
 import static java.lang.reflect.Modifier.isPublic;
 
 /**
+ * Reflected members of a Java class, shared by all wrappers of the class
+ * that use the same {@link ClassCache}.
+ * <p>
+ * Lookups of this class read immutable copies of the member tables made
+ * after the class is reflected, so they need no locking. Subclasses may
+ * still change the protected tables and their lookups read them directly.
  *
  * @author Mike Shaver
  * @author Norris Boyd
@@ -45,14 +51,33 @@ public class JavaMembers
             boolean includePrivate = cx.hasFeature(
                     Context.FEATURE_ENHANCED_JAVA_ACCESS);
             reflect(scope, includeProtected, includePrivate);
+            if (getClass() == JavaMembers.class) {
+                // shared by all threads using the class cache
+                this.lookupMembers = new MemberTable(members);
+                this.lookupStaticMembers = new MemberTable(staticMembers);
+            }
         } finally {
             Context.exit();
         }
     }
 
+    /*
+     * Returns the members read by lookups, the immutable copy of the
+     * protected table if there is one.
+     */
+    private Map<String,Object> lookupTable(boolean isStatic)
+    {
+        Map<String,Object> table = isStatic ? lookupStaticMembers
+                                            : lookupMembers;
+        if (table == null) {
+            table = isStatic ? staticMembers : members;
+        }
+        return table;
+    }
+
     boolean has(String name, boolean isStatic)
     {
-        Map<String,Object> ht = isStatic ? staticMembers : members;
+        Map<String,Object> ht = lookupTable(isStatic);
         Object obj = ht.get(name);
         if (obj != null) {
             return true;
@@ -63,11 +88,15 @@ public class JavaMembers
     Object get(Scriptable scope, String name, Object javaObject,
                boolean isStatic)
     {
-        Map<String,Object> ht = isStatic ? staticMembers : members;
+        Map<String,Object> ht = lookupTable(isStatic);
         Object member = ht.get(name);
         if (!isStatic && member == null) {
             // Try to get static member from instance (LC3)
-            member = staticMembers.get(name);
+            member = lookupTable(true).get(name);
+        }
+        if (member == null) {
+            member = (isStatic ? staticExplicitFunctions : explicitFunctions)
+                .get(name);
         }
         if (member == null) {
             member = this.getExplicitFunction(scope, name,
@@ -104,11 +133,15 @@ public class JavaMembers
     void put(Scriptable scope, String name, Object javaObject,
              Object value, boolean isStatic)
     {
-        Map<String,Object> ht = isStatic ? staticMembers : members;
+        Map<String,Object> ht = lookupTable(isStatic);
         Object member = ht.get(name);
         if (!isStatic && member == null) {
             // Try to get static member from instance (LC3)
-            member = staticMembers.get(name);
+            member = lookupTable(true).get(name);
+        }
+        if (member == null) {
+            member = (isStatic ? staticExplicitFunctions : explicitFunctions)
+                .get(name);
         }
         if (member == null)
             throw reportMemberNotFound(name);
@@ -178,11 +211,11 @@ public class JavaMembers
 
     boolean isDeprecated(String name,boolean isStatic)
     {
-    	  Map<String,Object> ht = isStatic ? staticMembers : members;
+    	  Map<String,Object> ht = lookupTable(isStatic);
           Object member = ht.get(name);
           if (!isStatic && member == null) {
               // Try to get static member from instance (LC3)
-              member = staticMembers.get(name);
+              member = lookupTable(true).get(name);
           }
           if (member instanceof BeanProperty) {
               BeanProperty bp = (BeanProperty) member;
@@ -243,7 +276,7 @@ public class JavaMembers
         int sigStart = name.indexOf('(');
         if (sigStart < 0) { return null; }
 
-        Map<String,Object> ht = isStatic ? staticMembers : members;
+        Map<String,Object> ht = lookupTable(isStatic);
         MemberBox[] methodsOrCtors = null;
         boolean isCtor = (isStatic && sigStart == 0);
 
@@ -256,7 +289,7 @@ public class JavaMembers
             Object obj = ht.get(trueName);
             if (!isStatic && obj == null) {
                 // Try to get static member from instance (LC3)
-                obj = staticMembers.get(trueName);
+                obj = lookupTable(true).get(trueName);
             }
             if (obj instanceof NativeJavaMethod) {
                 NativeJavaMethod njm = (NativeJavaMethod)obj;
@@ -282,7 +315,9 @@ public class JavaMembers
     private Object getExplicitFunction(Scriptable scope, String name,
                                        Object javaObject, boolean isStatic)
     {
-        Map<String,Object> ht = isStatic ? staticMembers : members;
+        Map<String,Object> ht = lookupTable(isStatic);
+        ConcurrentMap<String,Object> explicit = isStatic
+            ? staticExplicitFunctions : explicitFunctions;
         Object member = null;
         MemberBox methodOrCtor = findExplicitFunction(name, isStatic);
 
@@ -294,8 +329,7 @@ public class JavaMembers
                 NativeJavaConstructor fun =
                     new NativeJavaConstructor(methodOrCtor);
                 fun.setPrototype(prototype);
-                member = fun;
-                ht.put(name, fun);
+                member = cacheExplicitFunction(explicit, name, fun);
             } else {
                 String trueName = methodOrCtor.getName();
                 member = ht.get(trueName);
@@ -305,8 +339,7 @@ public class JavaMembers
                     NativeJavaMethod fun =
                         new NativeJavaMethod(methodOrCtor, name);
                     fun.setPrototype(prototype);
-                    ht.put(name, fun);
-                    member = fun;
+                    member = cacheExplicitFunction(explicit, name, fun);
                 }
             }
         }
@@ -314,6 +347,13 @@ public class JavaMembers
         return member;
     }
 
+    private static Object cacheExplicitFunction(
+        ConcurrentMap<String,Object> explicit, String name, Object fun)
+    {
+        Object existing = explicit.putIfAbsent(name, fun);
+        return existing != null ? existing : fun;
+    }
+
     /**
      * Retrieves mapping of methods to accessible methods for a class.
      * In case the class is not public, retrieves methods with same
@@ -930,7 +970,11 @@ public class JavaMembers
         }
 
         if (cache.isCachingEnabled()) {
-            ct.put(cl, members);
+            // another thread may have reflected the class meanwhile
+            JavaMembers existing = ct.putIfAbsent(cl, members);
+            if (existing != null) {
+                members = existing;
+            }
             if (cl != dynamicType) {
                 // member lookup for the original class failed because of
                 // missing privileges, cache the result so we don't try again
@@ -997,6 +1041,15 @@ public class JavaMembers
     private Map<String,FieldAndMethods> fieldAndMethods;
     protected Map<String,Object> staticMembers;
     private Map<String,FieldAndMethods> staticFieldAndMethods;
+    // immutable copies of members and staticMembers for lookups, only
+    // made for this class as subclasses may change the protected maps
+    private Map<String,Object> lookupMembers;
+    private Map<String,Object> lookupStaticMembers;
+    // functions for explicit overloads like "foo(int)", created on demand
+    private final ConcurrentMap<String,Object> explicitFunctions
+        = new ConcurrentHashMap<String,Object>(4, 0.75f, 1);
+    private final ConcurrentMap<String,Object> staticExplicitFunctions
+        = new ConcurrentHashMap<String,Object>(4, 0.75f, 1);
     NativeJavaMethod ctors; // we use NativeJavaMethod for ctor overload resolution
 
     private boolean shouldDeleteGetAndSetMethods = false;
@@ -0,0 +1,189 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.text.DateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The time zone used by {@link NativeDate} for local time. The instants at
+ * which daylight saving time starts or ends are read once from the
+ * java.time rules of the zone, so finding out whether daylight saving time
+ * applies is a binary search that neither allocates nor locks.
+ *
+ * <p>Instances are shared between threads, also by contexts that use
+ * different time zones, see {@link Context#setTimeZone(TimeZone)}. Apart
+ * from the formatters NativeDate creates on first use they are immutable.
+ * Time zones that have no java.time rules, like a SimpleTimeZone set as the
+ * default, are asked through the TimeZone API instead.</p>
+ */
+final class LocalTimeZone
+{
+    // transitions are tabulated up to 2100-01-01T00:00:00Z, later instants
+    // are looked up in the rules
+    private static final long TABLE_LIMIT = 4102444800000L;
+    // changes of the standard offset are searched for in steps of a week
+    private static final long STANDARD_STEP = 7 * 24 * 3600000L;
+
+    private static final ConcurrentMap<String, LocalTimeZone> zones
+        = new ConcurrentHashMap<String, LocalTimeZone>();
+
+    final TimeZone timeZone;
+    final double rawOffset;
+    private final ZoneRules rules;
+    // instants at which daylight saving time starts or ends, ascending
+    private final long[] changes;
+    // whether daylight saving time applies before the first change
+    private final boolean daylightBefore;
+    // instants from here on are not covered by the changes
+    private final long limit;
+
+    /* formatters of this zone, guarded by themselves */
+    DateFormat localeDateTimeFormatter;
+    DateFormat localeDateFormatter;
+    DateFormat localeTimeFormatter;
+
+    private LocalTimeZone(TimeZone timeZone, ZoneRules rules)
+    {
+        this.timeZone = timeZone;
+        this.rawOffset = timeZone.getRawOffset();
+        this.rules = rules;
+        if (rules == null) {
+            changes = null;
+            daylightBefore = false;
+            limit = Long.MIN_VALUE;
+            return;
+        }
+        long[] list = new long[16];
+        int count = 0;
+        ZoneOffsetTransition transition = rules.nextTransition(Instant.MIN);
+        boolean before = transition != null
+            && rules.isDaylightSavings(transition.getInstant().minusMillis(1));
+        boolean daylight = before;
+        long time = transition != null
+            ? transition.getInstant().toEpochMilli() : TABLE_LIMIT;
+        while (time < TABLE_LIMIT) {
+            if (rules.isDaylightSavings(Instant.ofEpochMilli(time))
+                != daylight)
+            {
+                if (count == list.length)
+                    list = Arrays.copyOf(list, count * 2);
+                list[count++] = time;
+                daylight = !daylight;
+            }
+            transition = rules.nextTransition(Instant.ofEpochMilli(time));
+            long next = transition != null
+                ? Math.min(transition.getInstant().toEpochMilli(), TABLE_LIMIT)
+                : TABLE_LIMIT;
+            time = nextStandardChange(rules, time, next);
+        }
+        this.changes = Arrays.copyOf(list, count);
+        this.daylightBefore = before;
+        this.limit = rules.getTransitionRules().isEmpty()
+            ? Long.MAX_VALUE : TABLE_LIMIT;
+    }
+
+    /*
+     * Returns the first instant after time and before next at which the
+     * standard offset changes, or next. Such a change starts or ends daylight
+     * saving time without a transition of the offset.
+     */
+    private static long nextStandardChange(ZoneRules rules, long time,
+                                           long next)
+    {
+        ZoneOffset standard = rules.getStandardOffset(Instant.ofEpochMilli(time));
+        for (long probe = time + STANDARD_STEP; probe < next + STANDARD_STEP;
+             probe += STANDARD_STEP)
+        {
+            long high = Math.min(probe, next - 1);
+            if (!standard.equals(
+                    rules.getStandardOffset(Instant.ofEpochMilli(high))))
+            {
+                long low = probe - STANDARD_STEP + 1;
+                while (low < high) {
+                    long mid = low + (high - low) / 2;
+                    if (standard.equals(
+                            rules.getStandardOffset(Instant.ofEpochMilli(mid))))
+                    {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                return low;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the shared instance for the given time zone. The transitions
+     * of a zone are computed only once for all instances with the same id
+     * and rules.
+     */
+    static LocalTimeZone get(TimeZone timeZone)
+    {
+        String id = timeZone.getID();
+        LocalTimeZone zone = zones.get(id);
+        if (zone != null && (zone.timeZone == timeZone
+                             || zone.timeZone.hasSameRules(timeZone)))
+        {
+            return zone;
+        }
+        ZoneRules rules = null;
+        if (TimeZone.getTimeZone(id).hasSameRules(timeZone)) {
+            try {
+                rules = timeZone.toZoneId().getRules();
+            } catch (RuntimeException e) {
+                // no java.time rules for this zone
+            }
+        }
+        zone = new LocalTimeZone((TimeZone) timeZone.clone(), rules);
+        if (rules != null) {
+            LocalTimeZone cached = zones.putIfAbsent(id, zone);
+            if (cached != null && cached.timeZone.hasSameRules(timeZone))
+                return cached;
+        }
+        return zone;
+    }
+
+    /**
+     * Returns whether daylight saving time applies at the given time in UTC
+     * milliseconds since the epoch.
+     */
+    boolean inDaylightTime(double t)
+    {
+        if (rules == null) {
+            return timeZone.inDaylightTime(
+                new Date(NativeDate.convertFromUTCMillisToJava(t)));
+        }
+        if (t >= limit) {
+            return rules.isDaylightSavings(Instant.ofEpochMilli((long) t));
+        }
+        // times before the Gregorian calendar, where the time of Date would
+        // differ, all come before the first change
+        long[] changes = this.changes;
+        int low = 0, high = changes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (changes[mid] <= t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return daylightBefore ^ ((low & 1) != 0);
+    }
+}
@@ -6,6 +6,9 @@
 
 package org.mozilla.javascript;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.io.*;
 
@@ -30,12 +33,24 @@ public final class MemberBox implements Serializable
 	}
     static final long serialVersionUID = 6358550398665688245L;
 
+    // Number of reflective calls before a method handle is created, so
+    // members that are called only a few times do not pay for it
+    private static final int HANDLE_THRESHOLD = 8;
+    // Above this number of arguments the handle takes them as an array
+    private static final int MAX_FIXED_ARITY = 3;
+
     private transient Member memberObject;
     transient Class<?>[] argTypes;
     transient Object delegateTo;
     transient boolean vararg;
     transient Class<?> returnType;
 
+    // (Object target, Object arg0, ...)Object or (Object, Object[])Object,
+    // the target is ignored for static methods and constructors
+    private transient MethodHandle handle;
+    private transient int reflectiveCalls;
+    private transient boolean noHandle;
+
     public MemberBox(Method method)
     {
         init(method);
@@ -140,6 +155,19 @@ public final class MemberBox implements Serializable
     }
 
     Object invoke(Object target, Object[] args)
+    {
+        MethodHandle mh = handle;
+        if (mh != null && args != null && args.length == argTypes.length) {
+            return invokeHandle(mh, target, args);
+        }
+        Object result = invokeReflective(target, args);
+        if (!noHandle && ++reflectiveCalls == HANDLE_THRESHOLD) {
+            createHandle(target);
+        }
+        return result;
+    }
+
+    private Object invokeReflective(Object target, Object[] args)
     {
         Method method = method();
         try {
@@ -209,6 +237,19 @@ public final class MemberBox implements Serializable
 	}
 
     Object newInstance(Object[] args)
+    {
+        MethodHandle mh = handle;
+        if (mh != null && args != null && args.length == argTypes.length) {
+            return invokeHandle(mh, null, args);
+        }
+        Object result = newInstanceReflective(args);
+        if (!noHandle && ++reflectiveCalls == HANDLE_THRESHOLD) {
+            createHandle(null);
+        }
+        return result;
+    }
+
+    private Object newInstanceReflective(Object[] args)
     {
         Constructor<?> ctor = ctor();
         try {
@@ -225,6 +266,155 @@ public final class MemberBox implements Serializable
         }
     }
     
+    /**
+     * Creates the method handle for the member once the reflective calls
+     * have resolved an accessible method, and creates it from that method.
+     * The handle skips the checks of invokeReflective for every target, so
+     * it is only created for public members of public classes, whose
+     * accessibility does not depend on the target, and only if the target
+     * of the last reflective call can access the method. Other members keep
+     * using reflection.
+     */
+    private void createHandle(Object target)
+    {
+        Member member = memberObject;
+        if (!Modifier.isPublic(member.getModifiers())
+            || !Modifier.isPublic(member.getDeclaringClass().getModifiers())
+            || (isMethod() && !canAccess(target, method())))
+        {
+            noHandle = true;
+            return;
+        }
+        MethodHandle mh;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            if (isMethod()) {
+                mh = lookup.unreflect(method());
+                if (isStatic()) {
+                    mh = MethodHandles.dropArguments(mh, 0, Object.class);
+                }
+            } else {
+                mh = lookup.unreflectConstructor(ctor());
+                mh = MethodHandles.dropArguments(mh, 0, Object.class);
+            }
+        } catch (IllegalAccessException ex) {
+            noHandle = true;
+            return;
+        } catch (SecurityException ex) {
+            noHandle = true;
+            return;
+        }
+        // Arguments of variable arity methods are already packed in an array
+        mh = mh.asFixedArity();
+        int arity = argTypes.length;
+        // Same conversions as Method.invoke: unboxing with widening and
+        // boxing of the result, null for void
+        mh = mh.asType(MethodType.genericMethodType(arity + 1));
+        if (arity > MAX_FIXED_ARITY) {
+            mh = mh.asSpreader(Object[].class, arity);
+        }
+        handle = mh;
+    }
+
+    private Object invokeHandle(MethodHandle mh, Object target,
+                                Object[] args)
+    {
+        try {
+            switch (args.length) {
+              case 0:
+                return (Object)mh.invokeExact(target);
+              case 1:
+                return (Object)mh.invokeExact(target, args[0]);
+              case 2:
+                return (Object)mh.invokeExact(target, args[0], args[1]);
+              case 3:
+                return (Object)mh.invokeExact(target, args[0], args[1],
+                                              args[2]);
+              default:
+                return (Object)mh.invokeExact(target, args);
+            }
+        } catch (ContinuationPending ex) {
+            // Must propagate unhindered
+            throw ex;
+        } catch (ClassCastException ex) {
+            return retryMismatch(ex, target, args);
+        } catch (NullPointerException ex) {
+            return retryMismatch(ex, target, args);
+        } catch (Throwable ex) {
+            throw Context.throwAsScriptRuntimeEx(ex);
+        }
+    }
+
+    /*
+     * The handle reports a target or arguments that do not fit the member
+     * as ClassCastException or NullPointerException before the member is
+     * called. Such calls are repeated through reflection, which reports
+     * them as before; exceptions thrown by the member itself are reported
+     * like the exceptions of a reflective call.
+     */
+    private Object retryMismatch(RuntimeException ex, Object target,
+                                 Object[] args)
+    {
+        if (isInvokeCompatible(target, args)) {
+            throw Context.throwAsScriptRuntimeEx(ex);
+        }
+        return isMethod() ? invokeReflective(target, args)
+                          : newInstanceReflective(args);
+    }
+
+    /*
+     * Tells whether Method.invoke or Constructor.newInstance would accept
+     * the target and arguments, with unboxing and widening for parameters
+     * of primitive types.
+     */
+    private boolean isInvokeCompatible(Object target, Object[] args)
+    {
+        if (isMethod() && !isStatic()
+            && !memberObject.getDeclaringClass().isInstance(target))
+        {
+            return false;
+        }
+        for (int i = 0; i != argTypes.length; ++i) {
+            Class<?> type = argTypes[i];
+            Object arg = args[i];
+            if (!type.isPrimitive()) {
+                if (arg != null && !type.isInstance(arg)) {
+                    return false;
+                }
+            } else if (arg == null) {
+                return false;
+            } else if (type == Boolean.TYPE) {
+                if (!(arg instanceof Boolean)) {
+                    return false;
+                }
+            } else if (type == Character.TYPE) {
+                if (!(arg instanceof Character)) {
+                    return false;
+                }
+            } else if (wideningRank(arg.getClass()) > wideningRank(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Order of the numeric primitive types and their wrappers for widening
+     * conversions, char widens to int and above only.
+     */
+    private static int wideningRank(Class<?> type)
+    {
+        if (type == Byte.TYPE || type == Byte.class) return 1;
+        if (type == Short.TYPE || type == Short.class) return 2;
+        if (type == Character.class) return 3;
+        if (type == Integer.TYPE || type == Integer.class) return 3;
+        if (type == Long.TYPE || type == Long.class) return 4;
+        if (type == Float.TYPE || type == Float.class) return 5;
+        if (type == Double.TYPE || type == Double.class) return 6;
+        // not a number, never widens to a numeric type
+        return Integer.MAX_VALUE;
+    }
+
 	private static Method getAccessibleMethod(Object target, Class<?> cls, String name, Class<?>... parameterTypes) {
 		try {
 			Method method = cls.getMethod(name, parameterTypes);
@@ -0,0 +1,137 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map from member names to the reflected members of a Java class,
+ * see {@link JavaMembers}.
+ *
+ * <p>Names and values are stored in two parallel arrays using open
+ * addressing with linear probing, the table is at most half full. Lookups
+ * do not allocate and, as the table never changes after construction, can
+ * be done from any thread without synchronization.
+ */
+final class MemberTable extends AbstractMap<String,Object>
+{
+    private final String[] keys;
+    private final Object[] values;
+    private final int size;
+
+    MemberTable(Map<String,Object> map)
+    {
+        int capacity = 4;
+        while (capacity < map.size() * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (Map.Entry<String,Object> entry : map.entrySet()) {
+            String key = entry.getKey();
+            int i = key.hashCode() & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = entry.getValue();
+        }
+        size = map.size();
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String[] keys = this.keys;
+        int mask = keys.length - 1;
+        int i = key.hashCode() & mask;
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k == key || k.equals(key)) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        // values are never null
+        return get(key) != null;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String,Object>>()
+        {
+            @Override
+            public Iterator<Map.Entry<String,Object>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+
+    private final class EntryIterator
+        implements Iterator<Map.Entry<String,Object>>
+    {
+        private int next = advance(0);
+
+        private int advance(int i)
+        {
+            while (i < keys.length && keys[i] == null) {
+                ++i;
+            }
+            return i;
+        }
+
+        public boolean hasNext()
+        {
+            return next < keys.length;
+        }
+
+        public Map.Entry<String,Object> next()
+        {
+            if (next >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            int i = next;
+            next = advance(i + 1);
+            return new AbstractMap.SimpleImmutableEntry<String,Object>(
+                keys[i], values[i]);
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
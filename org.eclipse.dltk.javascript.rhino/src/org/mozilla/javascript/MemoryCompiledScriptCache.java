@@ -0,0 +1,92 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory {@link CompiledScriptCache} that keeps the most recently used
+ * entries. It can be put in front of another cache, typically a
+ * {@link FileCompiledScriptCache}: entries missing in memory are looked up
+ * there and new entries are stored in both.
+ */
+public class MemoryCompiledScriptCache extends CompiledScriptCache
+{
+    private final CompiledScriptCache next;
+    private final LinkedHashMap<String,Object> entries;
+
+    /**
+     * Creates a cache holding at most maxEntries compiled scripts.
+     */
+    public MemoryCompiledScriptCache(int maxEntries)
+    {
+        this(maxEntries, null);
+    }
+
+    /**
+     * Creates a cache holding at most maxEntries compiled scripts in front
+     * of the given cache.
+     *
+     * @param next the cache to consult on a miss and to store new entries
+     *        in, may be null
+     */
+    public MemoryCompiledScriptCache(final int maxEntries,
+                                     CompiledScriptCache next)
+    {
+        if (maxEntries <= 0) throw new IllegalArgumentException();
+        this.next = next;
+        this.entries = new LinkedHashMap<String,Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Object> e)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public Object get(String key)
+    {
+        Object compiled;
+        synchronized (entries) {
+            compiled = entries.get(key);
+        }
+        if (compiled == null && next != null) {
+            compiled = next.get(key);
+            if (compiled != null) {
+                synchronized (entries) {
+                    entries.put(key, compiled);
+                }
+            }
+        }
+        return compiled;
+    }
+
+    @Override
+    public void put(String key, Object compiled)
+    {
+        synchronized (entries) {
+            entries.put(key, compiled);
+        }
+        if (next != null) {
+            next.put(key, compiled);
+        }
+    }
+
+    /**
+     * Removes all entries from memory, the next cache is not cleared.
+     */
+    public void clear()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
@@ -351,8 +351,12 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
     {
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.get(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index];
+        if (dense != null) {
+            if (0 <= index && index < dense.length)
+                return dense[index];
+        } else if (denseOnly && 0 <= index && index < length) {
+            return getDenseElement(index);
+        }
         return super.get(index, start);
     }
 
@@ -361,8 +365,12 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
     {
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.has(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index] != NOT_FOUND;
+        if (dense != null) {
+            if (0 <= index && index < dense.length)
+                return dense[index] != NOT_FOUND;
+        } else if (denseOnly && 0 <= index && index < length) {
+            return true;
+        }
         return super.has(index, start);
     }
 
@@ -412,49 +420,230 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
             long index = toArrayIndex(id);
             if (index >= length) {
                 length = index + 1;
-                denseOnly = false;
+                setDenseOnly(false);
             }
         }
     }
 
     private boolean ensureCapacity(int capacity)
     {
-        if (capacity > dense.length) {
+        int denseCapacity = getDenseCapacity();
+        if (capacity > denseCapacity) {
             if (capacity > MAX_PRE_GROW_SIZE) {
-                denseOnly = false;
+                setDenseOnly(false);
                 return false;
             }
-            capacity = Math.max(capacity, (int)(dense.length * GROW_FACTOR));
-            Object[] newDense = new Object[capacity];
-            System.arraycopy(dense, 0, newDense, 0, dense.length);
-            Arrays.fill(newDense, dense.length, newDense.length,
-                        Scriptable.NOT_FOUND);
-            dense = newDense;
+            capacity = Math.max(capacity, (int)(denseCapacity * GROW_FACTOR));
+            if (intDense != null) {
+                intDense = Arrays.copyOf(intDense, capacity);
+            } else if (doubleDense != null) {
+                doubleDense = Arrays.copyOf(doubleDense, capacity);
+            } else {
+                Object[] newDense = new Object[capacity];
+                System.arraycopy(dense, 0, newDense, 0, dense.length);
+                Arrays.fill(newDense, dense.length, newDense.length,
+                            Scriptable.NOT_FOUND);
+                dense = newDense;
+            }
         }
         return true;
     }
 
+    private int getDenseCapacity()
+    {
+        if (intDense != null)
+            return intDense.length;
+        if (doubleDense != null)
+            return doubleDense.length;
+        return dense.length;
+    }
+
+    /**
+     * Returns the element at index, which must be less than length while
+     * the array is dense only.
+     */
+    private Object getDenseElement(int index)
+    {
+        if (intDense != null)
+            return Integer.valueOf(intDense[index]);
+        if (doubleDense != null)
+            return ScriptRuntime.wrapNumber(doubleDense[index]);
+        return dense[index];
+    }
+
+    // Only valid while intDense or doubleDense is used
+    private double getDenseNumber(int index)
+    {
+        return intDense != null ? intDense[index] : doubleDense[index];
+    }
+
+    /**
+     * Stores value at index, which must be less than the capacity while
+     * the array is dense only. An empty array switches to primitive storage
+     * if value is an Integer or a Double, primitive storage switches back to
+     * dense if value is of another type or would leave a hole.
+     */
+    private void setDenseElement(int index, Object value)
+    {
+        if (intDense != null) {
+            if (value instanceof Integer && index <= length) {
+                intDense[index] = ((Integer)value).intValue();
+                return;
+            }
+            toObjectElements();
+        } else if (doubleDense != null) {
+            if (value instanceof Double && index <= length) {
+                doubleDense[index] = ((Double)value).doubleValue();
+                return;
+            }
+            toObjectElements();
+        } else if (index == 0 && length == 0) {
+            // everything in dense is NOT_FOUND
+            if (value instanceof Integer) {
+                intDense = new int[dense.length];
+                intDense[0] = ((Integer)value).intValue();
+                dense = null;
+                return;
+            } else if (value instanceof Double) {
+                doubleDense = new double[dense.length];
+                doubleDense[0] = ((Double)value).doubleValue();
+                dense = null;
+                return;
+            }
+        }
+        dense[index] = value;
+    }
+
+    /**
+     * Switches a NativeArray from primitive storage to dense before its
+     * elements are passed to callbacks, which box every element they get.
+     * Each element is boxed once then, and later calls pass the same
+     * boxes instead of allocating new ones on every read.
+     */
+    private static void boxElements(Scriptable thisObj)
+    {
+        if (thisObj.getClass() == NativeArray.class) {
+            ((NativeArray) thisObj).toObjectElements();
+        }
+    }
+
+    /**
+     * Copies the elements from begin to end of an array with primitive
+     * storage into the empty array to, without boxing them. Returns false
+     * if this array does not use primitive storage.
+     */
+    private boolean copyNumberElements(NativeArray to, int begin, int end)
+    {
+        if (intDense != null) {
+            to.intDense = Arrays.copyOfRange(intDense, begin, end);
+        } else if (doubleDense != null) {
+            to.doubleDense = Arrays.copyOfRange(doubleDense, begin, end);
+        } else {
+            return false;
+        }
+        to.dense = null;
+        to.length = end - begin;
+        return true;
+    }
+
+    /**
+     * Sorts the elements of an array with primitive storage by their
+     * string values, which is the default order of sort. Each element is
+     * converted to a string once instead of on every comparison and read
+     * back from it, no element is boxed. Returns false if the array does
+     * not use primitive storage or holds -0, whose string is "0".
+     */
+    private boolean sortNumberElements()
+    {
+        int len = (int) length;
+        String[] keys = new String[len];
+        if (intDense != null) {
+            for (int i = 0; i != len; ++i) {
+                keys[i] = Integer.toString(intDense[i]);
+            }
+        } else if (doubleDense != null) {
+            for (int i = 0; i != len; ++i) {
+                double d = doubleDense[i];
+                if (d == 0.0 && 1 / d < 0) {
+                    return false;
+                }
+                keys[i] = ScriptRuntime.numberToString(d, 10);
+            }
+        } else {
+            return false;
+        }
+        // equal strings are equal numbers, so the order of equal elements
+        // can not be observed
+        Arrays.sort(keys);
+        if (intDense != null) {
+            for (int i = 0; i != len; ++i) {
+                intDense[i] = Integer.parseInt(keys[i]);
+            }
+        } else {
+            for (int i = 0; i != len; ++i) {
+                doubleDense[i] = Double.parseDouble(keys[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves count elements within the dense storage.
+     */
+    private void moveDenseElements(int from, int to, int count)
+    {
+        Object storage = intDense != null ? intDense
+                         : doubleDense != null ? (Object) doubleDense
+                         : dense;
+        System.arraycopy(storage, from, storage, to, count);
+    }
+
+    /**
+     * Switches from primitive storage to dense by boxing the elements.
+     * Does nothing if primitive storage is not in use.
+     */
+    private void toObjectElements()
+    {
+        if (intDense == null && doubleDense == null) {
+            return;
+        }
+        int len = (int) length;
+        Object[] values = new Object[getDenseCapacity()];
+        for (int i = 0; i != len; ++i) {
+            values[i] = getDenseElement(i);
+        }
+        Arrays.fill(values, len, values.length, Scriptable.NOT_FOUND);
+        dense = values;
+        intDense = null;
+        doubleDense = null;
+    }
+
     @Override
     public void put(int index, Scriptable start, Object value)
     {
-        if (start == this && !isSealed() && dense != null && 0 <= index &&
-            (denseOnly || !isGetterOrSetter(null, index, true)))
+        if (start == this && !isSealed() && (dense != null || denseOnly) &&
+            0 <= index && (denseOnly || !isGetterOrSetter(null, index, true)))
         {
+            int denseCapacity = getDenseCapacity();
             if (!isExtensible() && this.length <= index) {
                 return;
-            } else if (index < dense.length) {
-                dense[index] = value;
+            } else if (index < denseCapacity) {
+                if (denseOnly) {
+                    setDenseElement(index, value);
+                } else {
+                    dense[index] = value;
+                }
                 if (this.length <= index)
                     this.length = (long)index + 1;
                 return;
-            } else if (denseOnly && index < dense.length * GROW_FACTOR &&
+            } else if (denseOnly && index < denseCapacity * GROW_FACTOR &&
                        ensureCapacity(index+1))
             {
-                dense[index] = value;
+                setDenseElement(index, value);
                 this.length = (long)index + 1;
                 return;
             } else {
-                denseOnly = false;
+                setDenseOnly(false);
             }
         }
         super.put(index, start, value);
@@ -470,6 +659,10 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
     @Override
     public void delete(int index)
     {
+        if (denseOnly && 0 <= index && index < length) {
+            // primitive storage has no holes
+            toObjectElements();
+        }
         if (dense != null && 0 <= index && index < dense.length &&
             !isSealed() && (denseOnly || !isGetterOrSetter(null, index, true)))
         {
@@ -483,7 +676,18 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
     public Object[] getIds(boolean nonEnumerable, boolean getSymbols)
     {
         Object[] superIds = super.getIds(nonEnumerable, getSymbols);
-        if (dense == null) { return superIds; }
+        if (dense == null) {
+            if (!denseOnly || length == 0) { return superIds; }
+            // primitive storage, all elements up to length are present
+            int N = (int)length;
+            int superLength = superIds.length;
+            Object[] ids = new Object[N + superLength];
+            for (int i = 0; i != N; ++i) {
+                ids[i] = Integer.valueOf(i);
+            }
+            System.arraycopy(superIds, 0, ids, N, superLength);
+            return ids;
+        }
         int N = dense.length;
         long currentLength = length;
         if (N > currentLength) {
@@ -548,8 +752,12 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
 
     @Override
     public int getAttributes(int index) {
-        if (dense != null && index >= 0 && index < dense.length
-                && dense[index] != NOT_FOUND) {
+        if (dense != null) {
+            if (index >= 0 && index < dense.length
+                    && dense[index] != NOT_FOUND) {
+                return EMPTY;
+            }
+        } else if (denseOnly && index >= 0 && index < length) {
             return EMPTY;
         }
         return super.getAttributes(index);
@@ -563,6 +771,11 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
           Object value = dense[index];
           return defaultIndexPropertyDescriptor(value);
         }
+      } else if (denseOnly) {
+        int index = toDenseIndex(id);
+        if (0 <= index && index < length) {
+          return defaultIndexPropertyDescriptor(getDenseElement(index));
+        }
       }
       return super.getOwnPropertyDescriptor(cx, id);
     }
@@ -571,6 +784,7 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
     protected void defineOwnProperty(Context cx, Object id,
                                      ScriptableObject desc,
                                      boolean checkValid) {
+      toObjectElements();
       if (dense != null) {
         Object[] values = dense;
         dense = null;
@@ -639,6 +853,10 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
     void setDenseOnly(boolean denseOnly) {
         if (denseOnly && !this.denseOnly)
             throw new IllegalArgumentException();
+        if (!denseOnly) {
+            // primitive storage is only used while dense only
+            toObjectElements();
+        }
         this.denseOnly = denseOnly;
     }
 
@@ -663,17 +881,24 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
         if (denseOnly) {
             if (longVal < length) {
                 // downcast okay because denseOnly
-                Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
+                if (dense != null) {
+                    Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
+                }
                 length = longVal;
                 return;
-            } else if (longVal < MAX_PRE_GROW_SIZE &&
-                       longVal < (length * GROW_FACTOR) &&
-                       ensureCapacity((int)longVal))
+            }
+            if (longVal > length) {
+                // the new elements are holes
+                toObjectElements();
+            }
+            if (longVal < MAX_PRE_GROW_SIZE &&
+                longVal < (length * GROW_FACTOR) &&
+                ensureCapacity((int)longVal))
             {
                 length = longVal;
                 return;
             } else {
-                denseOnly = false;
+                setDenseOnly(false);
             }
         }
         if (longVal < length) {
@@ -753,6 +978,15 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
 
     // same as getElem, but without converting NOT_FOUND to undefined
     private static Object getRawElem(Scriptable target, long index) {
+        if (target instanceof NativeArray) {
+            // numbers in primitive storage are boxed without a lookup
+            NativeArray na = (NativeArray) target;
+            if ((na.intDense != null || na.doubleDense != null)
+                && index < na.length && na.getClass() == NativeArray.class)
+            {
+                return na.getDenseElement((int) index);
+            }
+        }
         if (index > Integer.MAX_VALUE) {
             return ScriptableObject.getProperty(target, Long.toString(index));
         } else {
@@ -921,6 +1155,21 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
                            : ScriptRuntime.toString(args[0]);
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseOnly && na.dense == null) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < length; i++) {
+                    if (i != 0) {
+                        sb.append(separator);
+                    }
+                    if (na.intDense != null) {
+                        sb.append(na.intDense[i]);
+                    } else {
+                        sb.append(ScriptRuntime.numberToString(
+                                      na.doubleDense[i], 10));
+                    }
+                }
+                return sb.toString();
+            }
             if (na.denseOnly) {
                 StringBuilder sb = new StringBuilder();
                 for (int i = 0; i < length; i++) {
@@ -975,6 +1224,22 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseOnly && na.intDense != null) {
+                for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
+                    int temp = na.intDense[i];
+                    na.intDense[i] = na.intDense[j];
+                    na.intDense[j] = temp;
+                }
+                return thisObj;
+            }
+            if (na.denseOnly && na.doubleDense != null) {
+                for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
+                    double temp = na.doubleDense[i];
+                    na.doubleDense[i] = na.doubleDense[j];
+                    na.doubleDense[j] = temp;
+                }
+                return thisObj;
+            }
             if (na.denseOnly) {
                 for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
                     Object temp = na.dense[i];
@@ -1036,6 +1301,16 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
             throw Context.reportRuntimeError1(
                 "msg.arraylength.too.big", String.valueOf(llength));
         }
+        if (thisObj.getClass() == NativeArray.class) {
+            NativeArray na = (NativeArray) thisObj;
+            if (comparator == DEFAULT_COMPARATOR) {
+                if (na.sortNumberElements()) {
+                    return thisObj;
+                }
+            } else {
+                na.toObjectElements();
+            }
+        }
         // copy the JS array into a working array, so it can be
         // sorted cheaply.
         final Object[] working = new Object[length];
@@ -1062,7 +1337,8 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
                 na.ensureCapacity((int) na.length + args.length))
             {
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[(int)na.length++] = args[i];
+                    na.setDenseElement((int)na.length, args[i]);
+                    na.length++;
                 }
                 return ScriptRuntime.wrapNumber(na.length);
             }
@@ -1097,8 +1373,10 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
                 na.length--;
-                result = na.dense[(int)na.length];
-                na.dense[(int)na.length] = NOT_FOUND;
+                result = na.getDenseElement((int)na.length);
+                if (na.dense != null) {
+                    na.dense[(int)na.length] = NOT_FOUND;
+                }
                 return result;
             }
         }
@@ -1129,9 +1407,11 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
                 na.length--;
-                Object result = na.dense[0];
-                System.arraycopy(na.dense, 1, na.dense, 0, (int)na.length);
-                na.dense[(int)na.length] = NOT_FOUND;
+                Object result = na.getDenseElement(0);
+                na.moveDenseElements(1, 0, (int)na.length);
+                if (na.dense != null) {
+                    na.dense[(int)na.length] = NOT_FOUND;
+                }
                 return result == NOT_FOUND ? Undefined.instance : result;
             }
         }
@@ -1172,6 +1452,7 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
             if (na.denseOnly &&
                 na.ensureCapacity((int)na.length + args.length))
             {
+                na.toObjectElements();
                 System.arraycopy(na.dense, 0, na.dense, args.length,
                                  (int) na.length);
                 for (int i = 0; i < args.length; i++) {
@@ -1264,7 +1545,13 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
                 if (denseMode) {
                     int intLen = (int) (end - begin);
                     Object[] copy = new Object[intLen];
-                    System.arraycopy(na.dense, (int) begin, copy, 0, intLen);
+                    if (na.dense != null) {
+                        System.arraycopy(na.dense, (int) begin, copy, 0, intLen);
+                    } else {
+                        for (int i = 0; i != intLen; ++i) {
+                            copy[i] = na.getDenseElement((int) begin + i);
+                        }
+                    }
                     result = cx.newArray(scope, copy);
                 } else {
                     Scriptable resultArray = cx.newArray(scope, 0);
@@ -1293,12 +1580,15 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
         if (denseMode && length + delta < Integer.MAX_VALUE &&
             na.ensureCapacity((int) (length + delta)))
         {
-            System.arraycopy(na.dense, (int) end, na.dense,
-                             (int) (begin + argc), (int) (length - end));
+            if (argc > 0) {
+                na.toObjectElements();
+            }
+            na.moveDenseElements((int) end, (int) (begin + argc),
+                                 (int) (length - end));
             if (argc > 0) {
                 System.arraycopy(args, 2, na.dense, (int) begin, argc);
             }
-            if (delta < 0) {
+            if (delta < 0 && na.dense != null) {
                 Arrays.fill(na.dense, (int) (length + delta), (int) length,
                             NOT_FOUND);
             }
@@ -1344,7 +1634,9 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
         if (thisObj instanceof NativeArray && result instanceof NativeArray) {
             NativeArray denseThis = (NativeArray) thisObj;
             NativeArray denseResult = (NativeArray) result;
-            if (denseThis.denseOnly && denseResult.denseOnly) {
+            if (denseThis.denseOnly && denseThis.dense != null &&
+                denseResult.denseOnly && denseResult.dense != null)
+            {
                 // First calculate length of resulting array
                 boolean canUseDense = true;
                 int length = (int) denseThis.length;
@@ -1353,7 +1645,7 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
                         // only try to use dense approach for Array-like
                         // objects that are actually NativeArrays
                         final NativeArray arg = (NativeArray) args[i];
-                        canUseDense = arg.denseOnly;
+                        canUseDense = arg.denseOnly && arg.dense != null;
                         length += arg.length;
                     } else if (js_isArray(thisObj)) {
 						// Array-like but not NativeArray
@@ -1446,6 +1738,12 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
             }
         }
 
+        if (begin < end && thisObj.getClass() == NativeArray.class
+            && ((NativeArray) thisObj).copyNumberElements(
+                (NativeArray) result, (int) begin, (int) end))
+        {
+            return result;
+        }
         for (long slot = begin; slot < end; slot++) {
             Object temp = getRawElem(thisObj, slot);
             if (temp != NOT_FOUND) {
@@ -1503,6 +1801,18 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
         }
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseOnly && na.dense == null) {
+                // primitive storage only holds numbers and has no holes
+                if (compareTo instanceof Number) {
+                    double d = ((Number)compareTo).doubleValue();
+                    for (int i=(int)start; i < length; i++) {
+                        if (na.getDenseNumber(i) == d) {
+                            return Long.valueOf(i);
+                        }
+                    }
+                }
+                return NEGATIVE_ONE;
+            }
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i=(int)start; i < length; i++) {
@@ -1558,6 +1868,17 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
         }
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseOnly && na.dense == null) {
+                if (compareTo instanceof Number) {
+                    double d = ((Number)compareTo).doubleValue();
+                    for (int i=(int)start; i >= 0; i--) {
+                        if (na.getDenseNumber(i) == d) {
+                            return Long.valueOf(i);
+                        }
+                    }
+                }
+                return NEGATIVE_ONE;
+            }
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i=(int)start; i >= 0; i--) {
@@ -1609,6 +1930,7 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
 
         Function f = (Function) callbackArg;
         Scriptable parent = ScriptableObject.getTopLevelScope(f);
+        boxElements(thisObj);
         Scriptable thisArg;
         if (args.length < 2 || args[1] == null || args[1] == Undefined.instance) {
             thisArg = parent;
@@ -1618,8 +1940,9 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
 
         Scriptable array = null;
         if (id == Id_filter || id == Id_map) {
-            int resultLength = id == Id_map ? (int) length : 0;
-            array = cx.newArray(scope, resultLength);
+            // the map result gets its length after the loop, so its
+            // elements are added in order and can use primitive storage
+            array = cx.newArray(scope, 0);
         }
         long j=0;
         for (long i=0; i < length; i++) {
@@ -1667,8 +1990,10 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
         switch (id) {
           case Id_every:
             return Boolean.TRUE;
-          case Id_filter:
           case Id_map:
+            setLengthProperty(cx, array, length);
+            return array;
+          case Id_filter:
             return array;
           case Id_some:
             return Boolean.FALSE;
@@ -1693,6 +2018,7 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
         }
         Function f = (Function) callbackArg;
         Scriptable parent = ScriptableObject.getTopLevelScope(f);
+        boxElements(thisObj);
         // hack to serve both reduce and reduceRight with the same loop
         boolean movingLeft = id == Id_reduce;
         Object value = args.length > 1 ? args[1] : Scriptable.NOT_FOUND;
@@ -2162,6 +2488,16 @@ public class NativeArray extends IdScriptableObject implements List,Wrapper
      */
     private Object[] dense;
 
+    /**
+     * Replace <code>dense</code> while the array is dense only, has no
+     * holes and all its elements are Integer or Double values respectively.
+     * Elements from length up to the capacity are unused. At most one of
+     * <code>dense</code>, <code>intDense</code> and <code>doubleDense</code>
+     * is not null.
+     */
+    private int[] intDense;
+    private double[] doubleDense;
+
     /**
      * True if all numeric properties are stored in <code>dense</code>.
      */
@@ -10,7 +10,6 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 
 import java.util.TimeZone;
 
@@ -40,12 +39,6 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 
     private NativeDate()
     {
-        if (thisTimeZone == null) {
-            // j.u.TimeZone is synchronized, so setting class statics from it
-            // should be OK.
-            thisTimeZone = TimeZone.getDefault();
-            LocalTZA = thisTimeZone.getRawOffset();
-        }
     }
 
     @Override
@@ -145,6 +138,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
             return super.execIdCall(f, cx, scope, thisObj, args);
         }
         int id = f.methodId();
+        LocalTimeZone zone = localZone(cx);
         switch (id) {
           case ConstructorId_now:
             return ScriptRuntime.wrapNumber(now());
@@ -152,7 +146,8 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case ConstructorId_parse:
             {
                 String dataStr = ScriptRuntime.toString(args, 0);
-                return ScriptRuntime.wrapNumber(date_parseString(dataStr));
+                return ScriptRuntime.wrapNumber(
+                    date_parseString(zone, dataStr));
             }
 
           case ConstructorId_UTC:
@@ -163,8 +158,8 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
                 // if called as a function, just return a string
                 // representing the current time.
                 if (thisObj != null)
-                    return date_format(now(), Id_toString);
-                return jsConstructor(args);
+                    return date_format(zone, now(), Id_toString);
+                return jsConstructor(zone, args);
             }
 
           case Id_toJSON:
@@ -215,7 +210,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_toTimeString:
           case Id_toDateString:
             if (t == t) {
-                return date_format(t, id);
+                return date_format(zone, t, id);
             }
             return js_NaN_date_str;
 
@@ -223,7 +218,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_toLocaleTimeString:
           case Id_toLocaleDateString:
             if (t == t) {
-                return toLocale_helper(t, id);
+                return toLocale_helper(zone, t, id);
             }
             return js_NaN_date_str;
 
@@ -244,7 +239,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_getFullYear:
           case Id_getUTCFullYear:
             if (t == t) {
-                if (id != Id_getUTCFullYear) t = LocalTime(t);
+                if (id != Id_getUTCFullYear) t = LocalTime(zone, t);
                 t = YearFromTime(t);
                 if (id == Id_getYear) {
                     if (cx.hasFeature(Context.FEATURE_NON_ECMA_GET_YEAR)) {
@@ -261,7 +256,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_getMonth:
           case Id_getUTCMonth:
             if (t == t) {
-                if (id == Id_getMonth) t = LocalTime(t);
+                if (id == Id_getMonth) t = LocalTime(zone, t);
                 t = MonthFromTime(t);
             }
             return ScriptRuntime.wrapNumber(t);
@@ -269,7 +264,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_getDate:
           case Id_getUTCDate:
             if (t == t) {
-                if (id == Id_getDate) t = LocalTime(t);
+                if (id == Id_getDate) t = LocalTime(zone, t);
                 t = DateFromTime(t);
             }
             return ScriptRuntime.wrapNumber(t);
@@ -277,7 +272,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_getDay:
           case Id_getUTCDay:
             if (t == t) {
-                if (id == Id_getDay) t = LocalTime(t);
+                if (id == Id_getDay) t = LocalTime(zone, t);
                 t = WeekDay(t);
             }
             return ScriptRuntime.wrapNumber(t);
@@ -285,7 +280,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_getHours:
           case Id_getUTCHours:
             if (t == t) {
-                if (id == Id_getHours) t = LocalTime(t);
+                if (id == Id_getHours) t = LocalTime(zone, t);
                 t = HourFromTime(t);
             }
             return ScriptRuntime.wrapNumber(t);
@@ -293,7 +288,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_getMinutes:
           case Id_getUTCMinutes:
             if (t == t) {
-                if (id == Id_getMinutes) t = LocalTime(t);
+                if (id == Id_getMinutes) t = LocalTime(zone, t);
                 t = MinFromTime(t);
             }
             return ScriptRuntime.wrapNumber(t);
@@ -301,7 +296,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_getSeconds:
           case Id_getUTCSeconds:
             if (t == t) {
-                if (id == Id_getSeconds) t = LocalTime(t);
+                if (id == Id_getSeconds) t = LocalTime(zone, t);
                 t = SecFromTime(t);
             }
             return ScriptRuntime.wrapNumber(t);
@@ -309,14 +304,14 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_getMilliseconds:
           case Id_getUTCMilliseconds:
             if (t == t) {
-                if (id == Id_getMilliseconds) t = LocalTime(t);
+                if (id == Id_getMilliseconds) t = LocalTime(zone, t);
                 t = msFromTime(t);
             }
             return ScriptRuntime.wrapNumber(t);
 
           case Id_getTimezoneOffset:
             if (t == t) {
-                t = (t - LocalTime(t)) / msPerMinute;
+                t = (t - LocalTime(zone, t)) / msPerMinute;
             }
             return ScriptRuntime.wrapNumber(t);
 
@@ -334,7 +329,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_setUTCMinutes:
           case Id_setHours:
           case Id_setUTCHours:
-            t = makeTime(t, args, id);
+            t = makeTime(zone, t, args, id);
             realThis.date = t;
             updateJavaDateIfNecessary(realThis);
             return ScriptRuntime.wrapNumber(t);
@@ -345,7 +340,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
           case Id_setUTCMonth:
           case Id_setFullYear:
           case Id_setUTCFullYear:
-            t = makeDate(t, args, id);
+            t = makeDate(zone, t, args, id);
             realThis.date = t;
             updateJavaDateIfNecessary(realThis);
             return ScriptRuntime.wrapNumber(t);
@@ -360,7 +355,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
                     if (t != t) {
                         t = 0;
                     } else {
-                        t = LocalTime(t);
+                        t = LocalTime(zone, t);
                     }
 
                     if (year >= 0 && year <= 99)
@@ -369,7 +364,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
                     double day = MakeDay(year, MonthFromTime(t),
                                          DateFromTime(t));
                     t = MakeDate(day, TimeWithinDay(t));
-                    t = internalUTC(t);
+                    t = internalUTC(zone, t);
                     t = TimeClip(t);
                 }
             }
@@ -578,12 +573,29 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
         return (int) result;
     }
 
+    /*
+     * Returns the time zone of local time: the one set on the context, or
+     * else the default time zone.
+     */
+    private static LocalTimeZone localZone(Context cx)
+    {
+        LocalTimeZone zone = cx != null ? cx.getLocalTimeZone() : null;
+        if (zone == null) {
+            zone = thisZone;
+            if (zone == null) {
+                zone = LocalTimeZone.get(TimeZone.getDefault());
+                thisZone = zone;
+            }
+        }
+        return zone;
+    }
+
     private static double now()
     {
     	return convertToUTCMillisFromJava(System.currentTimeMillis());
     }
 
-    private static double DaylightSavingTA(double t)
+    private static double DaylightSavingTA(LocalTimeZone zone, double t)
     {
         // Another workaround!  The JRE doesn't seem to know about DST
         // before year 1 AD, so we map to equivalent dates for the
@@ -594,8 +606,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 //            double day = MakeDay(year, MonthFromTime(t), DateFromTime(t));
 //            t = MakeDate(day, TimeWithinDay(t));
 //        }
-        Date date = new Date(convertFromUTCMillisToJava(t));
-        if (thisTimeZone.inDaylightTime(date))
+        if (zone.inDaylightTime(t))
             return msPerHour;
         else
             return 0;
@@ -640,26 +651,24 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 //        throw Kit.codeBug();
 //    }
 
-    private static double LocalTime(double t)
+    private static double LocalTime(LocalTimeZone zone, double t)
     {
-        return t + LocalTZA + DaylightSavingTA(t);
+        return t + zone.rawOffset + DaylightSavingTA(zone, t);
     }
 
-    private static double internalUTC(double t)
+    private static double internalUTC(LocalTimeZone zone, double t)
     {
-    	double varTime = t - LocalTZA;
+    	double varTime = t - zone.rawOffset;
 		// if time is between the first hour after entering dts, add an hour so
 		// the time is correctly displayed
 		// ex. if dts is changed at 3h, 3h will become 4h, so 3h10min will
 		// become 4h10min,
 		// as because of dts change the time between 3-4 does not exist
-		if (thisTimeZone.inDaylightTime(new Date(
-				convertFromUTCMillisToJava(varTime)))
-				&& !thisTimeZone.inDaylightTime(new Date(
-						convertFromUTCMillisToJava(varTime - msPerHour))))
+		if (zone.inDaylightTime(varTime)
+				&& !zone.inDaylightTime(varTime - msPerHour))
 			varTime += msPerHour;
 
-		return varTime - DaylightSavingTA(varTime);
+		return varTime - DaylightSavingTA(zone, varTime);
     }
 
     private static int HourFromTime(double t)
@@ -947,7 +956,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
         return ScriptRuntime.NaN;
     }
 
-    private static double date_parseString(String s)
+    private static double date_parseString(LocalTimeZone zone, String s)
     {
         double d = parseISOString(s);
         if (d == d) {
@@ -1154,16 +1163,17 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 
         double msec = date_msecFromDate(year, mon, mday, hour, min, sec, 0);
         if (tzoffset == -1) { /* no time zone specified, have to use local */
-            return internalUTC(msec);
+            return internalUTC(zone, msec);
         } else {
             return msec + tzoffset * msPerMinute;
         }
     }
 
-    private static String date_format(double t, int methodId)
+    private static String date_format(LocalTimeZone zone, double t,
+                                      int methodId)
     {
         StringBuilder result = new StringBuilder(60);
-        double local = LocalTime(t);
+        double local = LocalTime(zone, t);
 
         /* Tue Oct 31 09:41:40 GMT-0800 (PST) 2000 */
         /* Tue Oct 31 2000 */
@@ -1195,8 +1205,8 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 
             // offset from GMT in minutes.  The offset includes daylight
             // savings, if it applies.
-            int minutes = (int) Math.floor((LocalTZA + DaylightSavingTA(t))
-                                           / msPerMinute);
+            int minutes = (int) Math.floor(
+                (zone.rawOffset + DaylightSavingTA(zone, t)) / msPerMinute);
             // map 510 minutes to 0830 hours
             int offset = (minutes / 60) * 100 + minutes % 60;
             if (offset > 0) {
@@ -1207,9 +1217,6 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
             }
             append0PaddedUint(result, offset, 4);
 
-            if (timeZoneFormatter == null)
-                timeZoneFormatter = new SimpleDateFormat("zzz");
-
             // Find an equivalent year before getting the timezone
             // comment.  See DaylightSavingTA.
 //            if (t < 0.0) {
@@ -1217,11 +1224,11 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 //                double day = MakeDay(equiv, MonthFromTime(t), DateFromTime(t));
 //                t = MakeDate(day, TimeWithinDay(t));
 //            }
+            // the name has to agree with the offset above, so it is chosen
+            // with the same rules and not by a formatter of the TimeZone
             result.append(" (");
-            Date date = new Date(convertFromUTCMillisToJava(t));
-            synchronized (timeZoneFormatter) {
-                result.append(timeZoneFormatter.format(date));
-            }
+            result.append(zone.timeZone.getDisplayName(zone.inDaylightTime(t),
+                                                       TimeZone.SHORT));
             result.append(')');
         }
         return result.toString();
@@ -1229,6 +1236,11 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 
     /* the javascript constructor */
     public static Object jsConstructor(Object[] args)
+    {
+        return jsConstructor(localZone(Context.getCurrentContext()), args);
+    }
+
+    private static Object jsConstructor(LocalTimeZone zone, Object[] args)
     {
         NativeDate obj = new NativeDate();
 
@@ -1247,7 +1259,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
             double date;
             if (arg0 instanceof CharSequence) {
                 // it's a string; parse it.
-                date = date_parseString(arg0.toString());
+                date = date_parseString(zone, arg0.toString());
             } else {
                 // if it's not a string, use it as a millisecond date
                 date = ScriptRuntime.toNumber(arg0);
@@ -1263,7 +1275,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 		} else {
 			time = date_msecFromArgs(args);
 			if (!Double.isNaN(time) && !Double.isInfinite(time))
-				time = TimeClip(internalUTC(time));
+				time = TimeClip(internalUTC(zone, time));
 		}
 
         obj.date = time;
@@ -1271,31 +1283,35 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
         return obj;
     }
 
-    private static String toLocale_helper(double t, int methodId)
+    private static String toLocale_helper(LocalTimeZone zone, double t,
+                                          int methodId)
     {
         DateFormat formatter;
         switch (methodId) {
           case Id_toLocaleString:
-            if (localeDateTimeFormatter == null) {
-                localeDateTimeFormatter
-                    = DateFormat.getDateTimeInstance(DateFormat.LONG,
-                                                     DateFormat.LONG);
+            formatter = zone.localeDateTimeFormatter;
+            if (formatter == null) {
+                formatter = DateFormat.getDateTimeInstance(DateFormat.LONG,
+                                                           DateFormat.LONG);
+                formatter.setTimeZone(zone.timeZone);
+                zone.localeDateTimeFormatter = formatter;
             }
-            formatter = localeDateTimeFormatter;
             break;
           case Id_toLocaleTimeString:
-            if (localeTimeFormatter == null) {
-                localeTimeFormatter
-                    = DateFormat.getTimeInstance(DateFormat.LONG);
+            formatter = zone.localeTimeFormatter;
+            if (formatter == null) {
+                formatter = DateFormat.getTimeInstance(DateFormat.LONG);
+                formatter.setTimeZone(zone.timeZone);
+                zone.localeTimeFormatter = formatter;
             }
-            formatter = localeTimeFormatter;
             break;
           case Id_toLocaleDateString:
-            if (localeDateFormatter == null) {
-                localeDateFormatter
-                    = DateFormat.getDateInstance(DateFormat.LONG);
+            formatter = zone.localeDateFormatter;
+            if (formatter == null) {
+                formatter = DateFormat.getDateInstance(DateFormat.LONG);
+                formatter.setTimeZone(zone.timeZone);
+                zone.localeDateFormatter = formatter;
             }
-            formatter = localeDateFormatter;
             break;
           default: throw new AssertionError(); // unreachable
         }
@@ -1411,7 +1427,8 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
         }
     }
 
-    private static double makeTime(double date, Object[] args, int methodId)
+    private static double makeTime(LocalTimeZone zone, double date,
+                                   Object[] args, int methodId)
     {
         if (args.length == 0) {
             /*
@@ -1485,7 +1502,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
         double lorutime;  /* Local or UTC version of date */
 
         if (local)
-            lorutime = LocalTime(date);
+            lorutime = LocalTime(zone, date);
         else
             lorutime = date;
 
@@ -1513,12 +1530,13 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
         double result = MakeDate(Day(lorutime), time);
 
         if (local)
-            result = internalUTC(result);
+            result = internalUTC(zone, result);
 
         return TimeClip(result);
     }
 
-    private static double makeDate(double date, Object[] args, int methodId)
+    private static double makeDate(LocalTimeZone zone, double date,
+                                   Object[] args, int methodId)
     {
         /* see complaint about ECMA in date_MakeTime */
         if (args.length == 0) {
@@ -1585,7 +1603,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
             }
         } else {
             if (local)
-                lorutime = LocalTime(date);
+                lorutime = LocalTime(zone, date);
             else
                 lorutime = date;
         }
@@ -1609,7 +1627,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
         double result = MakeDate(day, TimeWithinDay(lorutime));
 
         if (local)
-            result = internalUTC(result);
+            result = internalUTC(zone, result);
 
         return TimeClip(result);
     }
@@ -1780,7 +1798,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 	 * When we convert from a JS date to a Java date, it should remain the same
 	 * not in milliseconds, but in actual year/month/day/hh/mm/ss/ms.
 	 */
-	private static long convertFromUTCMillisToJava(double t) {
+	static long convertFromUTCMillisToJava(double t) {
 		GregorianCalendar calendar = new GregorianCalendar(
 				TimeZone.getTimeZone("GMT"));
 		calendar.set(YearFromTime(t), MonthFromTime(t), DateFromTime(t),
@@ -1849,12 +1867,7 @@ public final class NativeDate extends IdScriptableObject implements Wrapper
 // #/string_id_map#
 
     /* cached values */
-    private static TimeZone thisTimeZone;
-    private static double LocalTZA;
-    private static DateFormat timeZoneFormatter;
-    private static DateFormat localeDateTimeFormatter;
-    private static DateFormat localeDateFormatter;
-    private static DateFormat localeTimeFormatter;
+    private static LocalTimeZone thisZone;
 
     private double date;
     
@@ -8,9 +8,11 @@ package org.mozilla.javascript;
 
 import org.mozilla.javascript.json.JsonParser;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Stack;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.Arrays;
 import java.util.List;
 import java.util.LinkedList;
@@ -28,6 +30,10 @@ public final class NativeJSON extends IdScriptableObject
 
     private static final int MAX_STRINGIFY_GAP_LENGTH = 10;
 
+    // Characters collected before they are passed to the writer when
+    // streaming
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
     static void init(Scriptable scope, boolean sealed)
     {
         NativeJSON obj = new NativeJSON();
@@ -187,7 +193,7 @@ public final class NativeJSON extends IdScriptableObject
     private static class StringifyState {
         StringifyState(Context cx, Scriptable scope, String indent, String gap,
                        Callable replacer, List<Object> propertyList,
-                       Object space)
+                       Object space, StringBuilder buffer, Writer out)
         {
             this.cx = cx;
             this.scope = scope;
@@ -197,6 +203,8 @@ public final class NativeJSON extends IdScriptableObject
             this.replacer = replacer;
             this.propertyList = propertyList;
             this.space = space;
+            this.buffer = buffer;
+            this.out = out;
         }
 
         Stack<Scriptable> stack = new Stack<Scriptable>();
@@ -208,10 +216,100 @@ public final class NativeJSON extends IdScriptableObject
 
         Context cx;
         Scriptable scope;
+
+        // The text is produced in one pass into the buffer, which is
+        // passed on to out whenever it is full if streaming
+        StringBuilder buffer;
+        Writer out;
+
+        void flushIfFull() throws IOException
+        {
+            if (out != null && buffer.length() >= STREAM_BUFFER_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException
+        {
+            int length = buffer.length();
+            if (length != 0) {
+                if (chars == null) {
+                    chars = new char[STREAM_BUFFER_SIZE * 2];
+                }
+                int pos = 0;
+                while (pos < length) {
+                    int n = Math.min(chars.length, length - pos);
+                    buffer.getChars(pos, pos + n, chars, 0);
+                    out.write(chars, 0, n);
+                    pos += n;
+                }
+                buffer.setLength(0);
+            }
+        }
+
+        private char[] chars;
     }
 
     public static Object stringify(Context cx, Scriptable scope, Object value,
                                    Object replacer, Object space)
+    {
+        StringBuilder buffer = new StringBuilder(128);
+        try {
+            if (!stringify(cx, scope, value, replacer, space, buffer, null)) {
+                return Undefined.instance;
+            }
+        } catch (IOException ex) {
+            // Should not happen without a writer
+            throw new RuntimeException(ex);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Converts a value to JSON text like <code>JSON.stringify</code> and
+     * writes it to a stream without building it as a string first.
+     * Nothing is written if <code>JSON.stringify</code> would return
+     * undefined. The writer is not flushed or closed.
+     *
+     * @param cx the current Context
+     * @param scope the scope used for toJSON and replacer calls
+     * @param value the value to convert
+     * @param replacer a function or an array of property names or null
+     * @param space the indentation string or number or null
+     * @param out the writer to write the text to
+     * @return false if the value could not be converted
+     */
+    public static boolean stringify(Context cx, Scriptable scope, Object value,
+                                    Object replacer, Object space, Writer out)
+        throws IOException
+    {
+        if (out == null) throw new IllegalArgumentException();
+        StringBuilder buffer = new StringBuilder(STREAM_BUFFER_SIZE + 256);
+        return stringify(cx, scope, value, replacer, space, buffer, out);
+    }
+
+    /**
+     * Works like {@link #stringify(Context, Scriptable, Object, Object,
+     * Object, Writer)} and writes the JSON text UTF-8 encoded to the
+     * stream, which is flushed but not closed.
+     */
+    public static boolean stringify(Context cx, Scriptable scope, Object value,
+                                    Object replacer, Object space,
+                                    OutputStream out)
+        throws IOException
+    {
+        if (out == null) throw new IllegalArgumentException();
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        boolean written = stringify(cx, scope, value, replacer, space, writer);
+        writer.flush();
+        return written;
+    }
+
+    private static boolean stringify(Context cx, Scriptable scope,
+                                     Object value, Object replacer,
+                                     Object space, StringBuilder buffer,
+                                     Writer out)
+        throws IOException
     {
         String indent = "";
         String gap = "";
@@ -257,17 +355,32 @@ public final class NativeJSON extends IdScriptableObject
             gap,
             replacerFunction,
             propertyList,
-            space);
+            space,
+            buffer,
+            out);
 
         ScriptableObject wrapper = new NativeObject();
         wrapper.setParentScope(scope);
         wrapper.setPrototype(ScriptableObject.getObjectPrototype(scope));
         wrapper.defineProperty("", value, 0);
-        return str("", wrapper, state);
+        value = resolve("", wrapper, state);
+        if (value == Undefined.instance) {
+            return false;
+        }
+        str(value, state);
+        if (out != null) {
+            state.flush();
+        }
+        return true;
     }
 
-    private static Object str(Object key, Scriptable holder,
-                              StringifyState state)
+    /**
+     * Gets the value of a property as it is to be converted, after calling
+     * toJSON and the replacer function, or Undefined if it is to be
+     * skipped.
+     */
+    private static Object resolve(Object key, Scriptable holder,
+                                  StringifyState state)
     {
         Object value = null;
         if (key instanceof String) {
@@ -298,49 +411,48 @@ public final class NativeJSON extends IdScriptableObject
             value = ((NativeBoolean) value).getDefaultValue(ScriptRuntime.BooleanClass);
         }
 
-        if (value == null) return "null";
-        if (value.equals(Boolean.TRUE)) return "true";
-        if (value.equals(Boolean.FALSE)) return "false";
-
-        if (value instanceof CharSequence) {
-            return quote(value.toString());
+        if (value == null || value instanceof Boolean
+            || value instanceof CharSequence || value instanceof Number
+            || (value instanceof Scriptable && !(value instanceof Callable)))
+        {
+            return value;
         }
+        return Undefined.instance;
+    }
 
-        if (value instanceof Number) {
+    /**
+     * Appends the JSON text of a value returned by {@link #resolve}.
+     */
+    private static void str(Object value, StringifyState state)
+        throws IOException
+    {
+        StringBuilder buffer = state.buffer;
+        if (value == null) {
+            buffer.append("null");
+        } else if (value instanceof Boolean) {
+            buffer.append(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof CharSequence) {
+            quote(value.toString(), buffer);
+        } else if (value instanceof Number) {
             double d = ((Number) value).doubleValue();
             if (d == d && d != Double.POSITIVE_INFINITY &&
                 d != Double.NEGATIVE_INFINITY)
             {
-                return ScriptRuntime.toString(value);
+                buffer.append(ScriptRuntime.toString(value));
             } else {
-                return "null";
+                buffer.append("null");
             }
+        } else if (value instanceof NativeArray) {
+            ja((NativeArray) value, state);
+        } else {
+            jo((Scriptable) value, state);
         }
-
-        if (value instanceof Scriptable && !(value instanceof Callable)) {
-            if (value instanceof NativeArray) {
-                return ja((NativeArray) value, state);
-            }
-            return jo((Scriptable) value, state);
-        }
-
-        return Undefined.instance;
-    }
-
-    private static String join(Collection<Object> objs, String delimiter) {
-        if (objs == null || objs.isEmpty()) {
-            return "";
-        }
-        Iterator<Object> iter = objs.iterator();
-        if (!iter.hasNext()) return "";
-        StringBuilder builder = new StringBuilder(iter.next().toString());
-        while (iter.hasNext()) {
-            builder.append(delimiter).append(iter.next().toString());
-        }
-        return builder.toString();
+        state.flushIfFull();
     }
 
-    private static String jo(Scriptable value, StringifyState state) {
+    private static void jo(Scriptable value, StringifyState state)
+        throws IOException
+    {
         if (state.stack.search(value) != -1) {
             throw ScriptRuntime.typeError0("msg.cyclic.value");
         }
@@ -355,41 +467,45 @@ public final class NativeJSON extends IdScriptableObject
             k = value.getIds();
         }
 
-        List<Object> partial = new LinkedList<Object>();
-
+        StringBuilder buffer = state.buffer;
+        boolean empty = true;
         for (Object p : k) {
-            Object strP = str(p, value, state);
-            if (strP != Undefined.instance) {
-                String member = quote(p.toString()) + ":";
+            Object v = resolve(p, value, state);
+            if (v != Undefined.instance) {
+                if (empty) {
+                    buffer.append('{');
+                    empty = false;
+                } else {
+                    buffer.append(',');
+                }
+                if (state.gap.length() > 0) {
+                    buffer.append('\n').append(state.indent);
+                }
+                quote(p.toString(), buffer);
+                buffer.append(':');
                 if (state.gap.length() > 0) {
-                    member = member + " ";
+                    buffer.append(' ');
                 }
-                member = member + strP;
-                partial.add(member);
+                str(v, state);
             }
         }
 
-        final String finalValue;
-
-        if (partial.isEmpty()) {
-            finalValue = "{}";
+        if (empty) {
+            buffer.append("{}");
         } else {
-            if (state.gap.length() == 0) {
-                finalValue = '{' + join(partial, ",") + '}';
-            } else {
-                String separator = ",\n" + state.indent;
-                String properties = join(partial, separator);
-                finalValue = "{\n" + state.indent + properties + '\n' +
-                    stepback + '}';
+            if (state.gap.length() > 0) {
+                buffer.append('\n').append(stepback);
             }
+            buffer.append('}');
         }
 
         state.stack.pop();
         state.indent = stepback;
-        return finalValue;
     }
 
-    private static String ja(NativeArray value, StringifyState state) {
+    private static void ja(NativeArray value, StringifyState state)
+        throws IOException
+    {
         if (state.stack.search(value) != -1) {
             throw ScriptRuntime.typeError0("msg.cyclic.value");
         }
@@ -397,48 +513,54 @@ public final class NativeJSON extends IdScriptableObject
 
         String stepback = state.indent;
         state.indent = state.indent + state.gap;
-        List<Object> partial = new LinkedList<Object>();
 
+        StringBuilder buffer = state.buffer;
         long len = value.getLength();
-        for (long index = 0; index < len; index++) {
-            Object strP;
-            if (index > Integer.MAX_VALUE) {
-                strP = str(Long.toString(index), value, state);
-            } else {
-                strP = str((int) index, value, state);
-            }
-            if (strP == Undefined.instance) {
-                partial.add("null");
-            } else {
-                partial.add(strP);
-            }
-        }
-
-        final String finalValue;
-
-        if (partial.isEmpty()) {
-            finalValue = "[]";
+        if (len == 0) {
+            buffer.append("[]");
         } else {
-            if (state.gap.length() == 0) {
-                finalValue = '[' + join(partial, ",") + ']';
-            } else {
-                String separator = ",\n" + state.indent;
-                String properties = join(partial, separator);
-                finalValue = "[\n" + state.indent + properties + '\n' + stepback + ']';
+            buffer.append('[');
+            for (long index = 0; index < len; index++) {
+                if (index > 0) {
+                    buffer.append(',');
+                }
+                if (state.gap.length() > 0) {
+                    buffer.append('\n').append(state.indent);
+                }
+                Object v;
+                if (index > Integer.MAX_VALUE) {
+                    v = resolve(Long.toString(index), value, state);
+                } else {
+                    v = resolve((int) index, value, state);
+                }
+                if (v == Undefined.instance) {
+                    buffer.append("null");
+                } else {
+                    str(v, state);
+                }
+            }
+            if (state.gap.length() > 0) {
+                buffer.append('\n').append(stepback);
             }
+            buffer.append(']');
         }
 
         state.stack.pop();
         state.indent = stepback;
-        return finalValue;
     }
 
-    private static String quote(String string) {
-        StringBuilder product = new StringBuilder(string.length()+2); // two extra chars for " on either side
+    private static void quote(String string, StringBuilder product) {
         product.append('"');
         int length = string.length();
+        // copy runs of characters that need no escaping at once
+        int start = 0;
         for (int i = 0; i < length; i++) {
             char c = string.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\') {
+                continue;
+            }
+            product.append(string, start, i);
+            start = i + 1;
             switch (c) {
                 case '"':
                     product.append("\\\"");
@@ -462,21 +584,18 @@ public final class NativeJSON extends IdScriptableObject
                     product.append("\\t");
                     break;
                 default:
-                    if (c < ' ') {
-                        product.append("\\u");
-                        String hex = String.format("%04x", (int) c);
-                        product.append(hex);
-                    }
-                    else {
-                        product.append(c);
-                    }
+                    product.append("\\u00");
+                    product.append(HEX_DIGITS[c >> 4]);
+                    product.append(HEX_DIGITS[c & 0xF]);
                     break;
             }
         }
+        product.append(string, start, length);
         product.append('"');
-        return product.toString();
     }
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
 // #string_id_map#
 
     @Override
@@ -155,7 +155,7 @@ public class NativeJavaClass extends NativeJavaObject implements Function
                Modifier.isAbstract(modifiers)))
         {
             NativeJavaMethod ctors = members.ctors;
-            int index = ctors.findCachedFunction(cx, args);
+            int index = ctors.findCachedFunction(cx, scope, args);
             if (index < 0) {
                 String sig = NativeJavaMethod.scriptSignature(args);
                 throw Context.reportRuntimeError2(
@@ -7,9 +7,7 @@
 package org.mozilla.javascript;
 
 import java.lang.reflect.*;
-import java.util.Arrays;
 import java.util.HashSet;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class reflects Java methods into the JavaScript environment and
@@ -137,7 +135,7 @@ public class NativeJavaMethod extends BaseFunction
             throw new RuntimeException("No methods defined for call");
         }
 
-        int index = findCachedFunction(cx, args);
+        int index = findCachedFunction(cx, scope, args);
         if (index < 0) {
 			for (int i = 0; i < args.length; i++) {
 				if (args[i] instanceof NativeJavaArray
@@ -315,27 +313,21 @@ public class NativeJavaMethod extends BaseFunction
         return wrapped;
     }
 
-    int findCachedFunction(Context cx, Object[] args) {
+    int findCachedFunction(Context cx, Scriptable scope, Object[] args) {
         if (methods.length > 1) {
-            if (overloadCache != null) {
-                for (ResolvedOverload ovl : overloadCache) {
-                    if (ovl.matches(args)) {
-                        return ovl.index;
-                    }
-                }
-            } else {
-                overloadCache = new CopyOnWriteArrayList<ResolvedOverload>();
+            OverloadCache cache = overloadCache;
+            if (cache == null) {
+                ClassCache classCache = (ClassCache)
+                    ScriptableObject.getTopScopeValue(scope, ClassCache.AKEY);
+                cache = classCache != null
+                        ? classCache.getOverloadCache(methods)
+                        : new OverloadCache();
+                overloadCache = cache;
             }
-            int index = findFunction(cx, methods, args);
-            // As a sanity measure, don't let the lookup cache grow longer
-            // than twice the number of overloaded methods
-            if (overloadCache.size() < methods.length * 2) {
-                synchronized (overloadCache) {
-                    ResolvedOverload ovl = new ResolvedOverload(args, index);
-                    if (!overloadCache.contains(ovl)) {
-                        overloadCache.add(0, ovl);
-                    }
-                }
+            int index = cache.get(args);
+            if (index == OverloadCache.NOT_CACHED) {
+                index = findFunction(cx, methods, args);
+                cache.put(args, index);
             }
             return index;
         }
@@ -712,52 +704,5 @@ public class NativeJavaMethod extends BaseFunction
 
     MemberBox[] methods;
     private String functionName;
-    private transient CopyOnWriteArrayList<ResolvedOverload> overloadCache;
-}
-
-class ResolvedOverload {
-    final Class<?>[] types;
-    final int index;
-
-    ResolvedOverload(Object[] args, int index) {
-        this.index = index;
-        types = new Class<?>[args.length];
-        for (int i = 0, l = args.length; i < l; i++) {
-            Object arg = args[i];
-            if (arg instanceof Wrapper)
-                arg = ((Wrapper)arg).unwrap();
-            types[i] = arg == null ? null : arg.getClass();
-        }
-    }
-
-    boolean matches(Object[] args) {
-        if (args.length != types.length) {
-            return false;
-        }
-        for (int i = 0, l = args.length; i < l; i++) {
-            Object arg = args[i];
-            if (arg instanceof Wrapper)
-                arg = ((Wrapper)arg).unwrap();
-            if (arg == null) {
-                if (types[i] != null) return false;
-            } else if (arg.getClass() != types[i]) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    @Override
-    public boolean equals(Object other) {
-        if (!(other instanceof ResolvedOverload)) {
-            return false;
-        }
-        ResolvedOverload ovl = (ResolvedOverload) other;
-        return Arrays.equals(types, ovl.types) && index == ovl.index;
-    }
-
-    @Override
-    public int hashCode() {
-        return Arrays.hashCode(types);
-    }
+    private transient OverloadCache overloadCache;
 }
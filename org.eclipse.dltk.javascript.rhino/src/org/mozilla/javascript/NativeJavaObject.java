@@ -447,6 +447,18 @@ public class NativeJavaObject implements Scriptable, Wrapper, Serializable
         if (value == null) {
             return JSTYPE_NULL;
         }
+        // exact classes of the usual arguments before the instanceof checks
+        Class<?> valueClass = value.getClass();
+        if (valueClass == ScriptRuntime.StringClass) {
+            return JSTYPE_STRING;
+        }
+        else if (valueClass == ScriptRuntime.DoubleClass
+                 || valueClass == ScriptRuntime.IntegerClass) {
+            return JSTYPE_NUMBER;
+        }
+        else if (valueClass == ScriptRuntime.BooleanClass) {
+            return JSTYPE_BOOLEAN;
+        }
         else if (value == Undefined.instance) {
             return JSTYPE_UNDEFINED;
         }
@@ -477,7 +489,6 @@ public class NativeJavaObject implements Scriptable, Wrapper, Serializable
             return JSTYPE_JAVA_CLASS;
         }
         else {
-            Class<?> valueClass = value.getClass();
             if (valueClass.isArray()) {
                 return JSTYPE_JAVA_ARRAY;
             }
@@ -37,6 +37,13 @@ public class NativeObject extends IdScriptableObject implements Map
         return ScriptRuntime.defaultObjectToString(this);
     }
 
+    @Override
+    boolean isSharedShapeCandidate()
+    {
+        // subclasses may override the property access methods
+        return getClass() == NativeObject.class;
+    }
+
     @Override
     protected void fillConstructorProperties(IdFunctionObject ctor)
     {
@@ -298,7 +305,7 @@ public class NativeObject extends IdScriptableObject implements Map
                 Object arg = args.length < 1 ? Undefined.instance : args[0];
                 Scriptable s = getCompatibleObject(cx, scope, arg);
                 ScriptableObject obj = ensureScriptableObject(s);
-                Object[] ids = obj.getIds(true, false);
+                Object[] ids = obj.getAllIds();
                 for (int i = 0; i < ids.length; i++) {
                   ids[i] = ScriptRuntime.toString(ids[i]);
                 }
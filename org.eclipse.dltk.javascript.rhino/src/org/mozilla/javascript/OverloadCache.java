@@ -0,0 +1,165 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.reflect.Member;
+import java.util.Arrays;
+
+/**
+ * Overloads resolved by {@link NativeJavaMethod#findFunction} for one group
+ * of methods or constructors, keyed by the classes of the arguments. The
+ * table is read without locking. Groups with the same members share one
+ * cache through {@link ClassCache#getOverloadCache(MemberBox[])}, so all
+ * NativeJavaMethod wrappers of a Java method start with the overloads that
+ * were already resolved.
+ */
+final class OverloadCache
+{
+    static final int NOT_CACHED = -2;
+
+    // Bounds the memory used for methods called with many distinct
+    // argument types
+    private static final int MAX_ENTRIES = 512;
+
+    private volatile Entry[] table = new Entry[16];
+    private int size;
+
+    /**
+     * Returns the index of the method resolved for arguments of the same
+     * types or {@link #NOT_CACHED}. The index is -1 if no method matched.
+     */
+    int get(Object[] args)
+    {
+        int hash = hash(args);
+        Entry[] t = table;
+        for (Entry e = t[hash & (t.length - 1)]; e != null; e = e.next) {
+            if (e.hash == hash && e.matches(args)) {
+                return e.index;
+            }
+        }
+        return NOT_CACHED;
+    }
+
+    synchronized void put(Object[] args, int index)
+    {
+        if (size == MAX_ENTRIES) {
+            return;
+        }
+        int hash = hash(args);
+        Entry[] t = table;
+        for (Entry e = t[hash & (t.length - 1)]; e != null; e = e.next) {
+            if (e.hash == hash && e.matches(args)) {
+                return;
+            }
+        }
+        if (size >= t.length - (t.length >> 2)) {
+            // Entries are immutable, readers of the old table still see
+            // consistent chains
+            Entry[] newTable = new Entry[t.length * 2];
+            for (Entry head : t) {
+                for (Entry e = head; e != null; e = e.next) {
+                    int i = e.hash & (newTable.length - 1);
+                    newTable[i] = new Entry(e.types, e.index, e.hash,
+                                            newTable[i]);
+                }
+            }
+            t = newTable;
+        }
+        int i = hash & (t.length - 1);
+        t[i] = new Entry(types(args), index, hash, t[i]);
+        ++size;
+        table = t;
+    }
+
+    private static Class<?> argType(Object arg)
+    {
+        if (arg instanceof Wrapper) {
+            arg = ((Wrapper)arg).unwrap();
+        }
+        return arg == null ? null : arg.getClass();
+    }
+
+    private static int hash(Object[] args)
+    {
+        int hash = args.length;
+        for (Object arg : args) {
+            Class<?> type = argType(arg);
+            hash = 31 * hash + (type == null ? 0 : type.hashCode());
+        }
+        return hash;
+    }
+
+    private static Class<?>[] types(Object[] args)
+    {
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i != args.length; ++i) {
+            types[i] = argType(args[i]);
+        }
+        return types;
+    }
+
+    private static final class Entry
+    {
+        final Class<?>[] types;
+        final int index;
+        final int hash;
+        final Entry next;
+
+        Entry(Class<?>[] types, int index, int hash, Entry next)
+        {
+            this.types = types;
+            this.index = index;
+            this.hash = hash;
+            this.next = next;
+        }
+
+        boolean matches(Object[] args)
+        {
+            if (args.length != types.length) {
+                return false;
+            }
+            for (int i = 0; i != args.length; ++i) {
+                if (argType(args[i]) != types[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Identifies a group of methods by its members in order, the cached
+     * indexes are only valid for the same order.
+     */
+    static final class Key
+    {
+        private final Member[] members;
+        private final int hash;
+
+        Key(MemberBox[] methods)
+        {
+            members = new Member[methods.length];
+            for (int i = 0; i != methods.length; ++i) {
+                members[i] = methods[i].member();
+            }
+            hash = Arrays.hashCode(members);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Key
+                   && Arrays.equals(members, ((Key)other).members);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
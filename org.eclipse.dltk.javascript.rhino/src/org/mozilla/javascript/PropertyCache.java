@@ -0,0 +1,339 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Inline cache for a single named property access site in interpreted code,
+ * see {@link InterpreterData#itsPropertyCaches}.
+ *
+ * <p>The cache remembers the {@link Shape} of receivers seen at the site
+ * together with where the property was found: in the receiver itself or in
+ * its direct prototype. Only plain {@link NativeObject} instances in
+ * shared-shape mode are cached, for those the shape identity proves that
+ * a generic lookup would find the same property. A site that sees more than
+ * {@link #MAX_ENTRIES} different layouts becomes megamorphic and is no
+ * longer cached.
+ *
+ * <p>Caches are shared by all threads executing the same script. Entries
+ * are replaced as a whole and never keep receivers or property values
+ * reachable.
+ */
+final class PropertyCache
+{
+    static final int MAX_ENTRIES = 4;
+
+    private static final Entry[] MEGAMORPHIC = new Entry[0];
+
+    private volatile Entry[] entries;
+
+    abstract static class Entry
+    {
+        final Shape shape;
+
+        Entry(Shape shape)
+        {
+            this.shape = shape;
+        }
+
+        /**
+         * Returns the cached value for a receiver with the entry shape or
+         * NOT_FOUND if the entry no longer applies.
+         */
+        abstract Object get(ScriptableObject obj);
+
+        /**
+         * Stores value for a receiver with the entry shape if the entry
+         * allows it, returns false if the generic assignment is needed.
+         */
+        boolean put(ScriptableObject obj, Object value)
+        {
+            return false;
+        }
+
+        /**
+         * Returns true if newer replaces this entry rather than adding
+         * another case for the same receiver shape.
+         */
+        boolean isOutdatedBy(Entry newer)
+        {
+            return false;
+        }
+    }
+
+    // property stored in the receiver itself
+    private static final class OwnEntry extends Entry
+    {
+        final int index;
+
+        OwnEntry(Shape shape, int index)
+        {
+            super(shape);
+            this.index = index;
+        }
+
+        @Override
+        Object get(ScriptableObject obj)
+        {
+            Object[] values = obj.getSharedShapeValues();
+            return values != null ? values[index] : Scriptable.NOT_FOUND;
+        }
+
+        @Override
+        boolean put(ScriptableObject obj, Object value)
+        {
+            if (!obj.isExtensible() || obj.isSealed()) {
+                return false;
+            }
+            return obj.putSharedShapeValue(index, value);
+        }
+    }
+
+    // property stored in a prototype that is in shared-shape mode
+    private static final class ProtoShapeEntry extends Entry
+    {
+        final WeakReference<ScriptableObject> holder;
+        final Shape holderShape;
+        final int index;
+
+        ProtoShapeEntry(Shape shape, ScriptableObject holder,
+                        Shape holderShape, int index)
+        {
+            super(shape);
+            this.holder = new WeakReference<ScriptableObject>(holder);
+            this.holderShape = holderShape;
+            this.index = index;
+        }
+
+        @Override
+        Object get(ScriptableObject obj)
+        {
+            ScriptableObject h = holder.get();
+            if (h == null || obj.getPrototype() != h
+                || h.getSharedShape() != holderShape)
+            {
+                return Scriptable.NOT_FOUND;
+            }
+            Object[] values = h.getSharedShapeValues();
+            return values != null ? values[index] : Scriptable.NOT_FOUND;
+        }
+
+        @Override
+        boolean isOutdatedBy(Entry newer)
+        {
+            return isSameHolder(holder, newer);
+        }
+    }
+
+    // property stored in a slot of a prototype in dictionary mode
+    private static final class ProtoSlotEntry extends Entry
+    {
+        final WeakReference<ScriptableObject> holder;
+        final WeakReference<ScriptableObject.Slot> slot;
+
+        ProtoSlotEntry(Shape shape, ScriptableObject holder,
+                       ScriptableObject.Slot slot)
+        {
+            super(shape);
+            this.holder = new WeakReference<ScriptableObject>(holder);
+            this.slot = new WeakReference<ScriptableObject.Slot>(slot);
+        }
+
+        @Override
+        Object get(ScriptableObject obj)
+        {
+            ScriptableObject h = holder.get();
+            if (h == null || obj.getPrototype() != h) {
+                return Scriptable.NOT_FOUND;
+            }
+            ScriptableObject.Slot s = slot.get();
+            if (s == null || s.wasDeleted) {
+                return Scriptable.NOT_FOUND;
+            }
+            return s.value;
+        }
+
+        @Override
+        boolean isOutdatedBy(Entry newer)
+        {
+            return isSameHolder(holder, newer);
+        }
+    }
+
+    // true if the holder of an entry is gone or is the holder of newer
+    private static boolean isSameHolder(WeakReference<ScriptableObject> holder,
+                                        Entry newer)
+    {
+        ScriptableObject h = holder.get();
+        if (h == null) {
+            return true;
+        }
+        if (newer instanceof ProtoShapeEntry) {
+            return h == ((ProtoShapeEntry)newer).holder.get();
+        }
+        if (newer instanceof ProtoSlotEntry) {
+            return h == ((ProtoSlotEntry)newer).holder.get();
+        }
+        return false;
+    }
+
+    static boolean isCacheable(Object obj)
+    {
+        return obj != null && obj.getClass() == NativeObject.class;
+    }
+
+    /**
+     * Returns the value of the named property of obj if this cache knows
+     * where to find it, NOT_FOUND otherwise.
+     */
+    Object get(Object obj)
+    {
+        Entry[] e = entries;
+        if (e == null || e == MEGAMORPHIC || !isCacheable(obj)) {
+            return Scriptable.NOT_FOUND;
+        }
+        ScriptableObject so = (ScriptableObject)obj;
+        Shape shape = so.getSharedShape();
+        for (int i = 0; i != e.length; ++i) {
+            if (e[i].shape == shape) {
+                Object value = e[i].get(so);
+                if (value != Scriptable.NOT_FOUND) {
+                    return value;
+                }
+            }
+        }
+        return Scriptable.NOT_FOUND;
+    }
+
+    /**
+     * Stores value in the named property of obj if it is a known own
+     * property of an extensible object.
+     *
+     * @return false if the caller has to use the generic assignment
+     */
+    boolean put(Object obj, Object value)
+    {
+        Entry[] e = entries;
+        if (e == null || e == MEGAMORPHIC || !isCacheable(obj)) {
+            return false;
+        }
+        ScriptableObject so = (ScriptableObject)obj;
+        Shape shape = so.getSharedShape();
+        for (int i = 0; i != e.length; ++i) {
+            Entry entry = e[i];
+            if (entry.shape == shape && entry instanceof OwnEntry) {
+                return entry.put(so, value);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the current entries, null if there are none yet and an empty
+     * array once the site is megamorphic. The array must not be modified.
+     */
+    Entry[] getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * Records where a generic lookup of the named property of obj found it.
+     * Must be called after the generic lookup, so lazily initialized
+     * properties are already in place.
+     *
+     * @param ownOnly true to only record properties of obj itself, as
+     * needed for assignments
+     */
+    void update(Object obj, String name, boolean ownOnly)
+    {
+        Entry[] e = entries;
+        if (e == MEGAMORPHIC || !isCacheable(obj)) {
+            return;
+        }
+        ScriptableObject so = (ScriptableObject)obj;
+        Shape shape = so.getSharedShape();
+        if (shape == null) {
+            return;
+        }
+        Entry entry;
+        int index = shape.indexOf(name);
+        if (index >= 0) {
+            if (e != null) {
+                for (int i = 0; i != e.length; ++i) {
+                    if (e[i].shape == shape && e[i] instanceof OwnEntry) {
+                        // typically a site that adds the property, the
+                        // receiver had a different shape before
+                        return;
+                    }
+                }
+            }
+            entry = new OwnEntry(shape, index);
+        } else if (ownOnly) {
+            return;
+        } else {
+            Scriptable proto = so.getPrototype();
+            if (!isCacheable(proto)) {
+                return;
+            }
+            ScriptableObject holder = (ScriptableObject)proto;
+            Shape holderShape = holder.getSharedShape();
+            if (holderShape != null) {
+                int holderIndex = holderShape.indexOf(name);
+                if (holderIndex < 0) {
+                    return;
+                }
+                entry = new ProtoShapeEntry(shape, holder, holderShape,
+                                            holderIndex);
+            } else {
+                ScriptableObject.Slot slot = holder.getDataSlot(name);
+                if (slot == null) {
+                    return;
+                }
+                entry = new ProtoSlotEntry(shape, holder, slot);
+            }
+        }
+        addEntry(entry);
+    }
+
+    private synchronized void addEntry(Entry entry)
+    {
+        Entry[] e = entries;
+        if (e == MEGAMORPHIC) {
+            return;
+        }
+        if (e == null) {
+            entries = new Entry[] { entry };
+            return;
+        }
+        int length = e.length;
+        for (int i = 0; i != length; ++i) {
+            if (e[i].shape != entry.shape) {
+                continue;
+            }
+            if (entry instanceof OwnEntry) {
+                // same shape means same index, nothing to add
+                return;
+            }
+            if (e[i].isOutdatedBy(entry)) {
+                Entry[] copy = e.clone();
+                copy[i] = entry;
+                entries = copy;
+                return;
+            }
+        }
+        if (length == MAX_ENTRIES) {
+            entries = MEGAMORPHIC;
+            return;
+        }
+        Entry[] grown = new Entry[length + 1];
+        System.arraycopy(e, 0, grown, 0, length);
+        grown[length] = entry;
+        entries = grown;
+    }
+}
@@ -24,6 +24,8 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
 
 import org.mozilla.javascript.debug.DebuggableObject;
 import org.mozilla.javascript.annotations.JSConstructor;
@@ -125,6 +127,19 @@ public abstract class ScriptableObject implements Scriptable,
     private transient Slot firstAdded;
     private transient Slot lastAdded;
 
+    // Shared-shape mode: while shape is not null the object has no slot
+    // table and stores the values of its properties in shapeValues, at the
+    // index of the property key in the shape. See Shape. Transitions and
+    // the switch to dictionary mode hold the object monitor, the values of
+    // existing properties are stored without it like the values of slots.
+    // Objects written by several threads at once are created with
+    // FEATURE_THREAD_SAFE_OBJECTS, which keeps them in dictionary mode.
+    private transient volatile Shape shape;
+    private transient Object[] shapeValues;
+
+    // Not null if the slot table is guarded by a read/write lock instead of
+    // the object monitor, see enableThreadSafeAccess().
+    private transient StampedLock slotLock;
 
     private volatile Map<Object,Object> associatedValues;
 
@@ -149,7 +164,7 @@ public abstract class ScriptableObject implements Scriptable,
         }
     }
 
-    private static class Slot implements Serializable
+    static class Slot implements Serializable
     {
         private static final long serialVersionUID = -6090581677123995491L;
         Object name; // This can change due to caching
@@ -410,6 +425,7 @@ public abstract class ScriptableObject implements Scriptable,
 
     public ScriptableObject()
     {
+        initSlotLock();
     }
 
     public ScriptableObject(Scriptable scope, Scriptable prototype)
@@ -419,6 +435,50 @@ public abstract class ScriptableObject implements Scriptable,
 
         parentScopeObject = scope;
         prototypeObject = prototype;
+        initSlotLock();
+    }
+
+    private void initSlotLock()
+    {
+        Context cx = Context.getCurrentContext();
+        if (cx != null && cx.hasFeature(Context.FEATURE_THREAD_SAFE_OBJECTS)) {
+            slotLock = new StampedLock();
+        }
+    }
+
+    /**
+     * Guards the property table of this object with a read/write lock.
+     *
+     * Property lookups then first read the table without locking and only
+     * acquire the read lock if a concurrent modification was detected,
+     * additions and removals of properties acquire the write lock. This
+     * scales better than the default object monitor for objects that are
+     * read by many threads at once, like shared top level scopes.
+     *
+     * The method must be called before the object is made available to
+     * other threads. Objects created while
+     * {@link Context#FEATURE_THREAD_SAFE_OBJECTS} is enabled use the lock
+     * from the start.
+     *
+     * @see #isThreadSafeAccessEnabled()
+     */
+    public final synchronized void enableThreadSafeAccess()
+    {
+        if (slotLock == null) {
+            convertSharedShape();
+            slotLock = new StampedLock();
+        }
+    }
+
+    /**
+     * Return true if the property table of this object is guarded by a
+     * read/write lock.
+     *
+     * @see #enableThreadSafeAccess()
+     */
+    public final boolean isThreadSafeAccessEnabled()
+    {
+        return slotLock != null;
     }
 
     /**
@@ -448,6 +508,10 @@ public abstract class ScriptableObject implements Scriptable,
      */
     public boolean has(String name, Scriptable start)
     {
+        Shape s = shape;
+        if (s != null) {
+            return s.indexOf(name) >= 0;
+        }
         return null != getSlot(name, 0, SLOT_QUERY);
     }
 
@@ -486,6 +550,18 @@ public abstract class ScriptableObject implements Scriptable,
      */
     public Object get(String name, Scriptable start)
     {
+        Shape s = shape;
+        if (s != null) {
+            int index = s.indexOf(name);
+            if (index < 0) {
+                return Scriptable.NOT_FOUND;
+            }
+            Object[] values = shapeValues;
+            if (values != null) {
+                return values[index];
+            }
+            // converted to dictionary mode concurrently, use the slot
+        }
         Slot slot = getSlot(name, 0, SLOT_QUERY);
         if (slot == null) {
             return Scriptable.NOT_FOUND;
@@ -675,6 +751,9 @@ public abstract class ScriptableObject implements Scriptable,
      */
     public boolean isConst(String name)
     {
+        if (isShapedProperty(name)) {
+            return false;
+        }
         Slot slot = getSlot(name, 0, SLOT_QUERY);
         if (slot == null) {
             return false;
@@ -743,6 +822,10 @@ public abstract class ScriptableObject implements Scriptable,
      */
     public int getAttributes(String name)
     {
+        Shape s = shape;
+        if (s != null && s.indexOf(name) >= 0) {
+            return EMPTY;
+        }
         return findAttributeSlot(name, 0, SLOT_QUERY).getAttributes();
     }
 
@@ -794,6 +877,11 @@ public abstract class ScriptableObject implements Scriptable,
     public void setAttributes(String name, int attributes)
     {
         checkNotSealed(name, 0);
+        Shape s = shape;
+        if (attributes == EMPTY && s != null && s.indexOf(name) >= 0) {
+            // nothing to change, keep the shared shape
+            return;
+        }
         findAttributeSlot(name, 0, SLOT_MODIFY).setAttributes(attributes);
     }
 
@@ -847,6 +935,8 @@ public abstract class ScriptableObject implements Scriptable,
         if (isExtensible()) {
             gslot = (GetterSlot)getSlot(name, index, SLOT_MODIFY_GETTER_SETTER);
         } else {
+            if (isShapedProperty(name))
+                return;
             Slot slot = unwrapSlot(getSlot(name, index, SLOT_QUERY));
             if (!(slot instanceof GetterSlot))
                 return;
@@ -884,6 +974,8 @@ public abstract class ScriptableObject implements Scriptable,
     {
         if (name != null && index != 0)
             throw new IllegalArgumentException(name);
+        if (isShapedProperty(name))
+            return Undefined.instance;
         Slot slot = unwrapSlot(getSlot(name, index, SLOT_QUERY));
         if (slot == null)
             return null;
@@ -903,6 +995,7 @@ public abstract class ScriptableObject implements Scriptable,
      * @return whether the property is a getter or a setter
      */
     protected boolean isGetterOrSetter(String name, int index, boolean setter) {
+        if (isShapedProperty(name)) return false;
         Slot slot = unwrapSlot(getSlot(name, index, SLOT_QUERY));
         if (slot instanceof GetterSlot) {
             if (setter && ((GetterSlot)slot).setter != null) return true;
@@ -1913,7 +2006,22 @@ public abstract class ScriptableObject implements Scriptable,
      * @param props a map of property ids to property descriptors
      */
     public void defineOwnProperties(Context cx, ScriptableObject props) {
-        Object[] ids = props.getIds(false, true);
+        // the ids that are not symbols through the public getIds(), which
+        // subclasses may override, then the symbols
+        Object[] ids = props.getIds();
+        Object[] all = props.getIds(false, true);
+        int count = ids.length;
+        for (Object id : all) {
+            if (id instanceof Symbol) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, all.length);
+                }
+                ids[count++] = id;
+            }
+        }
+        if (count != ids.length) {
+            ids = Arrays.copyOf(ids, count);
+        }
         ScriptableObject[] descs = new ScriptableObject[ids.length];
         for (int i = 0, len = ids.length; i < len; ++i) {
             Object descObj = ScriptRuntime.getObjectElem(props, ids[i], cx);
@@ -2298,6 +2406,7 @@ public abstract class ScriptableObject implements Scriptable,
      * @since 1.4R3
      */
     public synchronized void sealObject() {
+        convertSharedShape();
         if (count >= 0) {
             // Make sure all LazilyLoadedCtors are initialized before sealing.
             Slot slot = firstAdded;
@@ -2313,7 +2422,17 @@ public abstract class ScriptableObject implements Scriptable,
                 }
                 slot = slot.orderedNext;
             }
-            count = ~count;
+            StampedLock lock = slotLock;
+            if (lock == null) {
+                count = ~count;
+            } else {
+                long stamp = lock.writeLock();
+                try {
+                    count = ~count;
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
         }
     }
 
@@ -2817,13 +2936,18 @@ public abstract class ScriptableObject implements Scriptable,
      * given key or old value for any subsequent calls.
      * @see #getAssociatedValue(Object key)
      */
-    public synchronized final Object associateValue(Object key, Object value)
+    public final Object associateValue(Object key, Object value)
     {
         if (value == null) throw new IllegalArgumentException();
         Map<Object,Object> h = associatedValues;
         if (h == null) {
-            h = new HashMap<Object,Object>();
-            associatedValues = h;
+            synchronized (this) {
+                h = associatedValues;
+                if (h == null) {
+                    h = new ConcurrentHashMap<Object,Object>();
+                    associatedValues = h;
+                }
+            }
         }
         return Kit.initHash(h, key, value);
     }
@@ -2850,6 +2974,11 @@ public abstract class ScriptableObject implements Scriptable,
         }
         Slot slot;
         if (this != start) {
+            if (shape != null) {
+                // shared shape properties are always writable, so as for
+                // a missing property the value has to go to start
+                return false;
+            }
             slot = getSlot(key, index, SLOT_QUERY);
             if (slot == null) {
                 return false;
@@ -2861,11 +2990,210 @@ public abstract class ScriptableObject implements Scriptable,
             }
         } else {
             if (count < 0) checkNotSealed(key, index);
+            if (key instanceof String && putShaped((String)key, value)) {
+                return true;
+            }
             slot = getSlot(key, index, SLOT_MODIFY);
         }
         return slot.setValue(value, this, start);
     }
 
+    /**
+     * Objects of classes returning true here start out in shared-shape
+     * mode when {@link Context#FEATURE_SHARED_SHAPES} is enabled. Such
+     * objects must not rely on per-property slots until the first property
+     * that does not fit a shape (a non-String key, an accessor or non-empty
+     * attributes) switches them to dictionary mode.
+     */
+    boolean isSharedShapeCandidate()
+    {
+        return false;
+    }
+
+    /**
+     * Stores a value for a String key of this object in shared-shape mode.
+     *
+     * @return false if the object is (or has just been switched to)
+     * dictionary mode and the value must be stored in a slot
+     */
+    private boolean putShaped(String key, Object value)
+    {
+        Shape s = shape;
+        if (s == null) {
+            if (slots != null || !enterSharedShapeMode()) {
+                return false;
+            }
+            s = shape;
+            if (s == null) {
+                return false;
+            }
+        }
+        int index = s.indexOf(key);
+        if (index >= 0) {
+            Object[] values = shapeValues;
+            if (values != null) {
+                values[index] = value;
+                return true;
+            }
+        }
+        // A new property needs a shape transition. Time to synchronize.
+        return addShapedProperty(key, value);
+    }
+
+    private boolean enterSharedShapeMode()
+    {
+        if (count != 0 || externalData != null || slotLock != null
+            || !isSharedShapeCandidate())
+        {
+            return false;
+        }
+        Context cx = Context.getCurrentContext();
+        if (cx == null || !cx.hasFeature(Context.FEATURE_SHARED_SHAPES)) {
+            return false;
+        }
+        synchronized (this) {
+            if (slots == null && shape == null && count == 0) {
+                shapeValues = ScriptRuntime.emptyArgs;
+                shape = Shape.EMPTY;
+            }
+        }
+        return true;
+    }
+
+    private synchronized boolean addShapedProperty(String key, Object value)
+    {
+        Shape s = shape;
+        if (s == null) {
+            return false;
+        }
+        int index = s.indexOf(key);
+        if (index >= 0) {
+            shapeValues[index] = value;
+            return true;
+        }
+        Shape next = s.addProperty(key);
+        if (next == null) {
+            convertSharedShape();
+            return false;
+        }
+        index = s.size();
+        Object[] values = shapeValues;
+        if (index >= values.length) {
+            int newLength = index < 4 ? 4 : index + (index >> 1);
+            values = Arrays.copyOf(values, newLength);
+        }
+        values[index] = value;
+        shapeValues = values;
+        ++count;
+        // publish the shape last, readers rely on shapeValues being at
+        // least as large as the shape they have seen
+        shape = next;
+        return true;
+    }
+
+    /**
+     * Returns the shape of this object, {@link Shape#EMPTY} if it has no
+     * own properties at all or null if it is in dictionary mode.
+     */
+    final Shape getSharedShape()
+    {
+        Shape s = shape;
+        if (s == null && slots == null) {
+            return Shape.EMPTY;
+        }
+        return s;
+    }
+
+    /**
+     * Returns the property values of this object in shared-shape mode. Must
+     * be called after {@link #getSharedShape()}, the result is null if the
+     * object was switched to dictionary mode in between.
+     */
+    final Object[] getSharedShapeValues()
+    {
+        return shapeValues;
+    }
+
+    /**
+     * Stores the value of the property at the given index of the shape of
+     * this object, which must have been returned by
+     * {@link #getSharedShape()}. Returns false if the object was switched
+     * to dictionary mode in between.
+     */
+    final boolean putSharedShapeValue(int index, Object value)
+    {
+        Object[] values = shapeValues;
+        if (values == null) {
+            return false;
+        }
+        values[index] = value;
+        return true;
+    }
+
+    /*
+     * Returns true if key is a property of the shape of this object. These
+     * are data properties without attributes, so queries about them are
+     * answered without switching to dictionary mode.
+     */
+    private boolean isShapedProperty(String key)
+    {
+        Shape s = shape;
+        return s != null && key != null && s.indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns the slot of the named data property of this object in
+     * dictionary mode, or null if there is no such slot.
+     */
+    final Slot getDataSlot(String name)
+    {
+        if (shape != null) {
+            return null;
+        }
+        Slot slot = unwrapSlot(getSlot(name, 0, SLOT_QUERY));
+        if (slot == null || slot.getClass() != Slot.class) {
+            return null;
+        }
+        return slot;
+    }
+
+    /**
+     * Switches this object from shared-shape mode to dictionary mode by
+     * creating a slot for each property of its shape. Does nothing if the
+     * object is already in dictionary mode.
+     */
+    private synchronized void convertSharedShape()
+    {
+        Shape s = shape;
+        if (s == null) {
+            return;
+        }
+        Object[] values = shapeValues;
+        int size = s.size();
+        int tableSize = INITIAL_SLOT_SIZE;
+        while (4 * size > 3 * tableSize) {
+            tableSize <<= 1;
+        }
+        Slot[] table = new Slot[tableSize];
+        for (int i = 0; i != size; ++i) {
+            String key = s.getKey(i);
+            Slot slot = new Slot(key, key.hashCode(), EMPTY);
+            slot.value = values[i];
+            if (lastAdded != null) {
+                lastAdded.orderedNext = slot;
+            }
+            if (firstAdded == null) {
+                firstAdded = slot;
+            }
+            lastAdded = slot;
+            addKnownAbsentSlot(table, slot,
+                               getSlotIndex(tableSize, slot.indexOrHash));
+        }
+        slots = table;
+        shape = null;
+        shapeValues = null;
+    }
+
 
     /**
      *
@@ -2890,6 +3218,11 @@ public abstract class ScriptableObject implements Scriptable,
         }
         Slot slot;
         if (this != start) {
+            if (shape != null) {
+                // shared shape properties are always writable, so as for
+                // a missing property the value has to go to start
+                return false;
+            }
             slot = getSlot(name, index, SLOT_QUERY);
             if (slot == null) {
                 return false;
@@ -2949,6 +3282,17 @@ public abstract class ScriptableObject implements Scriptable,
      */
     private Slot getSlot(Object key, int index, int accessType)
     {
+        Shape s = shape;
+        if (s != null) {
+            if (accessType == SLOT_QUERY &&
+                    !(key instanceof String && s.indexOf((String)key) >= 0)) {
+                return null;
+            }
+            // Read-only queries are answered from the shape before they get
+            // here, see isShapedProperty. The other callers modify the
+            // returned slot, fall back to dictionary mode.
+            convertSharedShape();
+        }
         // Check the hashtable without using synchronization
         Slot[] slotsLocalRef = slots; // Get stable local reference
         if (slotsLocalRef == null && accessType == SLOT_QUERY) {
@@ -2958,15 +3302,20 @@ public abstract class ScriptableObject implements Scriptable,
         int indexOrHash = (key != null ? key.hashCode() : index);
         if (slotsLocalRef != null) {
             Slot slot;
-            int slotIndex = getSlotIndex(slotsLocalRef.length, indexOrHash);
-            for (slot = slotsLocalRef[slotIndex];
-                 slot != null;
-                 slot = slot.next) {
-                Object skey = slot.name;
-                if (indexOrHash == slot.indexOrHash &&
-                        (skey == key ||
-                                (key != null && key.equals(skey)))) {
-                    break;
+            StampedLock lock = slotLock;
+            if (lock == null) {
+                slot = findSlot(slotsLocalRef, key, indexOrHash);
+            } else {
+                long stamp = lock.tryOptimisticRead();
+                slot = findSlot(slotsLocalRef, key, indexOrHash);
+                if (!lock.validate(stamp)) {
+                    // the table was modified while reading it
+                    stamp = lock.readLock();
+                    try {
+                        slot = findSlot(slots, key, indexOrHash);
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
                 }
             }
             switch (accessType) {
@@ -2995,7 +3344,40 @@ public abstract class ScriptableObject implements Scriptable,
         return createSlot(key, indexOrHash, accessType);
     }
 
-    private synchronized Slot createSlot(Object key, int indexOrHash, int accessType) {
+    private static Slot findSlot(Slot[] slotsLocalRef, Object key,
+                                 int indexOrHash)
+    {
+        int slotIndex = getSlotIndex(slotsLocalRef.length, indexOrHash);
+        for (Slot slot = slotsLocalRef[slotIndex];
+             slot != null;
+             slot = slot.next) {
+            Object skey = slot.name;
+            if (indexOrHash == slot.indexOrHash &&
+                    (skey == key ||
+                            (key != null && key.equals(skey)))) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private Slot createSlot(Object key, int indexOrHash, int accessType) {
+        StampedLock lock = slotLock;
+        if (lock == null) {
+            synchronized (this) {
+                return createSlotImpl(key, indexOrHash, accessType);
+            }
+        }
+        long stamp = lock.writeLock();
+        try {
+            return createSlotImpl(key, indexOrHash, accessType);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Must be inside synchronized (this) or hold the write lock of slotLock
+    private Slot createSlotImpl(Object key, int indexOrHash, int accessType) {
         Slot[] slotsLocalRef = slots;
         int insertPos;
         if (count == 0) {
@@ -3089,7 +3471,31 @@ public abstract class ScriptableObject implements Scriptable,
         return newSlot;
     }
 
-    private synchronized void removeSlot(Object key, int index) {
+    private void removeSlot(Object key, int index) {
+        StampedLock lock = slotLock;
+        if (lock == null) {
+            synchronized (this) {
+                removeSlotImpl(key, index);
+            }
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            removeSlotImpl(key, index);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Must be inside synchronized (this) or hold the write lock of slotLock
+    private void removeSlotImpl(Object key, int index) {
+        Shape s = shape;
+        if (s != null) {
+            if (!(key instanceof String) || s.indexOf((String)key) < 0) {
+                return;
+            }
+            convertSharedShape();
+        }
         int indexOrHash = (key != null ? key.hashCode() : index);
 
         Slot[] slotsLocalRef = slots;
@@ -3202,6 +3608,33 @@ public abstract class ScriptableObject implements Scriptable,
     }
 
     Object[] getIds(boolean getNonEnumerable, boolean getSymbols) {
+        StampedLock lock = slotLock;
+        if (lock == null) {
+            return getIdsImpl(getNonEnumerable, getSymbols);
+        }
+        long stamp = lock.readLock();
+        try {
+            return getIdsImpl(getNonEnumerable, getSymbols);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Object[] getIdsImpl(boolean getNonEnumerable, boolean getSymbols)
+    {
+        Shape shaped = shape;
+        if (shaped != null && externalData == null) {
+            // shared shape properties are all enumerable and String keyed
+            int size = shaped.size();
+            if (size == 0) {
+                return ScriptRuntime.emptyArgs;
+            }
+            Object[] ids = new Object[size];
+            for (int i = 0; i != size; ++i) {
+                ids[i] = shaped.getKey(i);
+            }
+            return ids;
+        }
         Slot[] s = slots;
         Object[] a;
         int externalLen = (externalData == null ? 0 : externalData.getArrayLength());
@@ -3265,6 +3698,24 @@ public abstract class ScriptableObject implements Scriptable,
 
     private synchronized void writeObject(ObjectOutputStream out)
         throws IOException
+    {
+        convertSharedShape();
+        StampedLock lock = slotLock;
+        if (lock == null) {
+            writeSlots(out);
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            writeSlots(out);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Must be inside synchronized (this) or hold the write lock of slotLock
+    private void writeSlots(ObjectOutputStream out)
+        throws IOException
     {
         out.defaultWriteObject();
         int objectsCount = count;
@@ -3300,6 +3751,7 @@ public abstract class ScriptableObject implements Scriptable,
         throws IOException, ClassNotFoundException
     {
         in.defaultReadObject();
+        initSlotLock();
 
         int tableSize = in.readInt();
         if (tableSize != 0) {
@@ -3335,6 +3787,16 @@ public abstract class ScriptableObject implements Scriptable,
     }
 
     protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
+        Shape s = shape;
+        if (s != null && id instanceof String) {
+            int index = s.indexOf((String)id);
+            Object[] values = shapeValues;
+            if (index >= 0 && values != null) {
+                Scriptable scope = getParentScope();
+                return buildDataDescriptor(scope == null ? this : scope,
+                                           values[index], EMPTY);
+            }
+        }
         Slot slot = getSlot(cx, id, SLOT_QUERY);
         if (slot == null) return null;
         Scriptable scope = getParentScope();
@@ -0,0 +1,205 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Shared layout descriptor ("hidden class") for objects in shared-shape
+ * mode, see {@link ScriptableObject}.
+ *
+ * <p>Each shape describes an ordered list of plain data properties (String
+ * keys with {@link ScriptableObject#EMPTY} attributes). Objects that add the
+ * same properties in the same order end up with the same shape instance and
+ * only keep their values in a per-instance array indexed by the position of
+ * the key in the shape.
+ *
+ * <p>Shapes form a transition tree rooted at {@link #EMPTY}. Transitions
+ * are weakly referenced, so branches that no longer have live objects are
+ * reclaimed by the garbage collector. Shapes are immutable once published,
+ * lookups do not synchronize.
+ */
+final class Shape
+{
+    /**
+     * Objects with more properties than this are switched to dictionary
+     * mode, they are most likely used as maps and rarely share a layout.
+     */
+    static final int MAX_PROPERTIES = 64;
+
+    /**
+     * Up to this size a key lookup is a linear scan of {@link #keys}.
+     */
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    static final Shape EMPTY = new Shape();
+
+    // keeps the transition table that leads to this shape reachable
+    private final Shape parent;
+    private final String[] keys;
+
+    // open addressing table built on first lookup of a large shape,
+    // entries are index + 1 into keys, 0 is a free entry
+    private volatile int[] hashTable;
+
+    // last added transition, lock-free fast path for the common case
+    // where all objects created at a site add the same next property
+    private volatile Transition lastTransition;
+    // guarded by this
+    private HashMap<String,Transition> transitions;
+
+    private static final class Transition extends WeakReference<Shape>
+    {
+        final String key;
+
+        Transition(String key, Shape shape)
+        {
+            super(shape);
+            this.key = key;
+        }
+    }
+
+    private Shape()
+    {
+        this.parent = null;
+        this.keys = new String[0];
+    }
+
+    private Shape(Shape parent, String key)
+    {
+        this.parent = parent;
+        int size = parent.keys.length;
+        String[] k = new String[size + 1];
+        System.arraycopy(parent.keys, 0, k, 0, size);
+        k[size] = key;
+        this.keys = k;
+    }
+
+    /**
+     * Number of properties described by this shape.
+     */
+    int size()
+    {
+        return keys.length;
+    }
+
+    /**
+     * Key of the property stored at the given index.
+     */
+    String getKey(int index)
+    {
+        return keys[index];
+    }
+
+    /**
+     * Returns the value index of the given key or -1 if this shape does
+     * not contain it.
+     */
+    int indexOf(String key)
+    {
+        String[] k = keys;
+        int size = k.length;
+        if (size <= LINEAR_SCAN_LIMIT) {
+            for (int i = 0; i != size; ++i) {
+                if (k[i] == key) {
+                    return i;
+                }
+            }
+            int hash = key.hashCode();
+            for (int i = 0; i != size; ++i) {
+                String s = k[i];
+                if (s.hashCode() == hash && s.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int[] table = hashTable;
+        if (table == null) {
+            table = buildHashTable(k);
+            hashTable = table;
+        }
+        int mask = table.length - 1;
+        int pos = key.hashCode() & mask;
+        for (;;) {
+            int entry = table[pos];
+            if (entry == 0) {
+                return -1;
+            }
+            String s = k[entry - 1];
+            if (s == key || s.equals(key)) {
+                return entry - 1;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    private static int[] buildHashTable(String[] keys)
+    {
+        int tableSize = Integer.highestOneBit(keys.length) << 2;
+        int[] table = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int i = 0; i != keys.length; ++i) {
+            int pos = keys[i].hashCode() & mask;
+            while (table[pos] != 0) {
+                pos = (pos + 1) & mask;
+            }
+            table[pos] = i + 1;
+        }
+        return table;
+    }
+
+    /**
+     * Returns the shape reached from this one by appending the given key,
+     * creating it on first use. The key must not already be part of this
+     * shape. Returns null if the resulting shape would exceed
+     * {@link #MAX_PROPERTIES}.
+     */
+    Shape addProperty(String key)
+    {
+        if (keys.length >= MAX_PROPERTIES) {
+            return null;
+        }
+        Transition t = lastTransition;
+        if (t != null && (t.key == key || t.key.equals(key))) {
+            Shape shape = t.get();
+            if (shape != null) {
+                return shape;
+            }
+        }
+        synchronized (this) {
+            if (transitions == null) {
+                transitions = new HashMap<String,Transition>();
+            }
+            t = transitions.get(key);
+            Shape shape = (t == null) ? null : t.get();
+            if (shape == null) {
+                if (t != null || (transitions.size() & 0xF) == 0xF) {
+                    expungeStaleTransitions();
+                }
+                shape = new Shape(this, key);
+                t = new Transition(key, shape);
+                transitions.put(key, t);
+            }
+            lastTransition = t;
+            return shape;
+        }
+    }
+
+    // Must be inside synchronized (this)
+    private void expungeStaleTransitions()
+    {
+        Iterator<Transition> iter = transitions.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().get() == null) {
+                iter.remove();
+            }
+        }
+    }
+}
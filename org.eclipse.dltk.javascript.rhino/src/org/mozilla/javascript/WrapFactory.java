@@ -69,7 +69,7 @@ public class WrapFactory
         if (cls.isArray()) {
             return NativeJavaArray.wrap(scope, obj);
         }
-        return wrapAsJavaObject(cx, scope, obj, staticType);
+        return wrapCached(cx, scope, obj, staticType);
     }
 
     /**
@@ -88,7 +88,26 @@ public class WrapFactory
         if (cls.isArray()) {
             return NativeJavaArray.wrap(scope, obj);
         }
-        return wrapAsJavaObject(cx, scope, obj, null);
+        return wrapCached(cx, scope, obj, null);
+    }
+
+    private Scriptable wrapCached(Context cx, Scriptable scope,
+                                  Object javaObject, Class<?> staticType)
+    {
+        int cacheSize = wrapperCacheSize;
+        if (cacheSize == 0) {
+            return wrapAsJavaObject(cx, scope, javaObject, staticType);
+        }
+        WrapperCache cache = WrapperCache.get(scope, cacheSize);
+        if (cache == null) {
+            return wrapAsJavaObject(cx, scope, javaObject, staticType);
+        }
+        Scriptable wrapper = cache.get(javaObject, staticType);
+        if (wrapper == null) {
+            wrapper = wrapAsJavaObject(cx, scope, javaObject, staticType);
+            cache.put(javaObject, staticType, wrapper, cacheSize);
+        }
+        return wrapper;
     }
 
     /**
@@ -162,6 +181,43 @@ public class WrapFactory
         javaPrimitiveWrap = value;
     }
 
+    /**
+     * Return the number of wrappers of Java objects that are remembered per
+     * top-level scope, 0 if wrappers are not cached.
+     * @see #setWrapperCacheSize(int)
+     */
+    public final int getWrapperCacheSize()
+    {
+        return wrapperCacheSize;
+    }
+
+    /**
+     * Set the number of wrappers of Java objects that are remembered per
+     * top-level scope. When it is not 0,
+     * {@link #wrap(Context, Scriptable, Object, Class)} and
+     * {@link #wrapNewObject(Context, Scriptable, Object)} return the wrapper
+     * created earlier by {@link #wrapAsJavaObject} for the same Java object
+     * and static type as long as it is still referenced, so the Java object
+     * keeps its identity in scripts and repeated accesses do not allocate a
+     * new wrapper. Neither the Java objects nor the wrappers are kept alive
+     * by the cache, the least recently used entries are dropped when there
+     * are more than <tt>size</tt> of them.
+     * <p>
+     * Wrappers returned by {@link #wrapAsJavaObject} must then not depend on
+     * the scope they are created for other than its top-level scope. By
+     * default the cache is disabled.
+     */
+    public final void setWrapperCacheSize(int size)
+    {
+        if (size < 0) throw new IllegalArgumentException();
+        Context cx = Context.getCurrentContext();
+        if (cx != null && cx.isSealed()) {
+            Context.onSealedMutation();
+        }
+        wrapperCacheSize = size;
+    }
+
     private boolean javaPrimitiveWrap = true;
+    private int wrapperCacheSize;
 
 }
@@ -0,0 +1,189 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wrappers of Java objects created for one top-level scope, see
+ * {@link WrapFactory#setWrapperCacheSize(int)}.
+ *
+ * <p>Entries are keyed by the identity of the Java object and the static
+ * type it was wrapped with. Both the Java object and the wrapper are only
+ * weakly referenced: the wrapper refers to the Java object, so holding it
+ * strongly would keep the key alive. An entry is therefore reused as long
+ * as scripts hold on to the wrapper, and the least recently used entries
+ * are dropped when the cache grows beyond its size.
+ */
+final class WrapperCache
+{
+    private static final Object KEY = "WrapperCache";
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    // reused for lookups, guarded by this
+    private final Lookup lookup = new Lookup();
+    private final LinkedHashMap<Key,WeakReference<Scriptable>> map;
+    private int maxSize;
+
+    private WrapperCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+        map = new LinkedHashMap<Key,WeakReference<Scriptable>>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Key,WeakReference<Scriptable>> eldest)
+            {
+                return size() > WrapperCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache of the top-level scope of <tt>scope</tt>, creating
+     * it when necessary, or null if the top-level scope can not hold one.
+     */
+    static WrapperCache get(Scriptable scope, int maxSize)
+    {
+        Scriptable top = ScriptableObject.getTopLevelScope(scope);
+        if (!(top instanceof ScriptableObject)) {
+            return null;
+        }
+        ScriptableObject so = (ScriptableObject)top;
+        WrapperCache cache = (WrapperCache)so.getAssociatedValue(KEY);
+        if (cache == null) {
+            cache = new WrapperCache(maxSize);
+            cache = (WrapperCache)so.associateValue(KEY, cache);
+        }
+        return cache;
+    }
+
+    synchronized Scriptable get(Object javaObject, Class<?> staticType)
+    {
+        expungeStaleEntries();
+        lookup.set(javaObject, staticType);
+        try {
+            WeakReference<Scriptable> ref = map.get(lookup);
+            if (ref == null) {
+                return null;
+            }
+            Scriptable wrapper = ref.get();
+            if (wrapper == null) {
+                map.remove(lookup);
+            }
+            return wrapper;
+        } finally {
+            lookup.set(null, null);
+        }
+    }
+
+    synchronized void put(Object javaObject, Class<?> staticType,
+                          Scriptable wrapper, int maxSize)
+    {
+        this.maxSize = maxSize;
+        expungeStaleEntries();
+        map.put(new Key(javaObject, staticType, queue),
+                new WeakReference<Scriptable>(wrapper));
+    }
+
+    private void expungeStaleEntries()
+    {
+        Reference<?> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    private static final class Key extends WeakReference<Object>
+    {
+        private final Class<?> staticType;
+        private final int hash;
+
+        Key(Object javaObject, Class<?> staticType,
+            ReferenceQueue<Object> queue)
+        {
+            super(javaObject, queue);
+            this.staticType = staticType;
+            this.hash = hash(javaObject, staticType);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            if (other.hash != hash || other.staticType != staticType) {
+                return false;
+            }
+            // cleared keys are only equal to themselves
+            Object referent = get();
+            return referent != null && referent == other.get();
+        }
+    }
+
+    /**
+     * Probe matching the {@link Key} of a Java object without allocating
+     * a reference object for every lookup. HashMap compares the probe with
+     * the stored keys, not the other way round.
+     */
+    private static final class Lookup
+    {
+        private Object javaObject;
+        private Class<?> staticType;
+        private int hash;
+
+        void set(Object javaObject, Class<?> staticType)
+        {
+            this.javaObject = javaObject;
+            this.staticType = staticType;
+            this.hash = javaObject == null ? 0 : hash(javaObject, staticType);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key key = (Key)obj;
+            return key.hash == hash && key.staticType == staticType
+                && key.get() == javaObject;
+        }
+    }
+
+    private static int hash(Object javaObject, Class<?> staticType)
+    {
+        int h = System.identityHashCode(javaObject);
+        if (staticType != null) {
+            h = h * 31 + staticType.hashCode();
+        }
+        return h;
+    }
+}
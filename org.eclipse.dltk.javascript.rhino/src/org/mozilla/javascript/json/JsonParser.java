@@ -7,15 +7,31 @@
 package org.mozilla.javascript.json;
 
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeArray;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.TopLevel;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * This class converts a stream of JSON tokens into a JSON value.
  *
+ * <p>A parser can be reused for any number of documents but is not thread
+ * safe, every thread has to use its own parser.</p>
+ *
+ * <p>In lazy mode, see {@link #setLazy(boolean)}, the text of an object is
+ * only checked for syntax errors when it is parsed. Its properties are read
+ * when the object is accessed for the first time, which creates its nested
+ * objects as lazy objects again. Objects keep the text of the document
+ * until they are accessed, which makes large documents cheap when only a
+ * few of their properties are used.</p>
+ *
  * See ECMA 15.12.
  * @author Raphael Speyer
  * @author Hannes Wallnoefer
@@ -24,29 +40,95 @@ public class JsonParser {
 
     private Context cx;
     private Scriptable scope;
+    private boolean lazy;
 
     private int pos;
     private int length;
-    private String src;
+    private CharSequence src;
 
     public JsonParser(Context cx, Scriptable scope) {
         this.cx = cx;
         this.scope = scope;
     }
 
-    public synchronized Object parseValue(String json) throws ParseException {
+    /**
+     * Sets whether objects are created as lazy objects that read their
+     * properties on first access. The default is false.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    public Object parseValue(String json) throws ParseException {
+        return parseValue((CharSequence) json);
+    }
+
+    /**
+     * Parses a JSON text, which may for example be a
+     * {@link java.nio.CharBuffer} or a {@link StringBuilder}. In lazy mode
+     * the text must not change as long as objects parsed from it are not
+     * accessed.
+     */
+    public Object parseValue(CharSequence json) throws ParseException {
         if (json == null) {
             throw new ParseException("Input string may not be null");
         }
         pos = 0;
         length = json.length();
         src = json;
-        Object value = readValue();
-        consumeWhitespace();
-        if (pos < length) {
-            throw new ParseException("Expected end of stream at char " + pos);
+        try {
+            Object value = readValue();
+            consumeWhitespace();
+            if (pos < length) {
+                throw new ParseException("Expected end of stream at char " + pos);
+            }
+            return value;
+        } finally {
+            // do not keep the document alive
+            src = null;
+        }
+    }
+
+    /**
+     * Parses the JSON text read from a Reader up to its end. The Reader is
+     * not closed.
+     */
+    public Object parseValue(Reader json) throws ParseException, IOException {
+        if (json == null) {
+            throw new ParseException("Input reader may not be null");
+        }
+        char[] buffer = new char[8192];
+        int n = 0;
+        int count;
+        while ((count = json.read(buffer, n, buffer.length - n)) >= 0) {
+            n += count;
+            if (n == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return parseValue(CharBuffer.wrap(buffer, 0, n));
+    }
+
+    /**
+     * Reads the properties of a lazy object, the text between start and end
+     * was already checked when the object was created.
+     */
+    static void readLazyObject(LazyJsonObject object, CharSequence json,
+                               int start, int end) {
+        JsonParser parser = new JsonParser(null, object.getParentScope());
+        parser.lazy = true;
+        parser.src = json;
+        parser.pos = start;
+        parser.length = end;
+        try {
+            parser.readProperties(object);
+        } catch (ParseException ex) {
+            throw new IllegalStateException(ex);
         }
-        return value;
     }
 
     private Object readValue() throws ParseException {
@@ -86,12 +168,25 @@ public class JsonParser {
     }
 
     private Object readObject() throws ParseException {
-        consumeWhitespace();
+        if (lazy) {
+            int start = pos;
+            skipObject();
+            LazyJsonObject object = new LazyJsonObject(src, start, pos);
+            ScriptRuntime.setBuiltinProtoAndParent(object, scope,
+                    TopLevel.Builtins.Object);
+            return object;
+        }
         Scriptable object = cx.newObject(scope);
+        readProperties(object);
+        return object;
+    }
+
+    private void readProperties(Scriptable object) throws ParseException {
+        consumeWhitespace();
         // handle empty object literal case early
         if (pos < length && src.charAt(pos) == '}') {
             pos += 1;
-            return object;
+            return;
         }
         String id;
         Object value;
@@ -103,7 +198,7 @@ public class JsonParser {
                     if (!needsComma) {
                         throw new ParseException("Unexpected comma in object literal");
                     }
-                    return object;
+                    return;
                 case ',':
                     if (!needsComma) {
                         throw new ParseException("Unexpected comma in object literal");
@@ -140,7 +235,7 @@ public class JsonParser {
         // handle empty array literal case early
         if (pos < length && src.charAt(pos) == ']') {
             pos += 1;
-            return cx.newArray(scope, 0);
+            return newArray(ScriptRuntime.emptyArgs);
         }
         List<Object> list = new ArrayList<Object>();
         boolean needsComma = false;
@@ -152,7 +247,7 @@ public class JsonParser {
                         throw new ParseException("Unexpected comma in array literal");
                     }
                     pos += 1;
-                    return cx.newArray(scope, list.toArray());
+                    return newArray(list.toArray());
                 case ',':
                     if (!needsComma) {
                         throw new ParseException("Unexpected comma in array literal");
@@ -172,6 +267,167 @@ public class JsonParser {
         throw new ParseException("Unterminated array literal");
     }
 
+    // lazy objects read their properties without a Context
+    private Scriptable newArray(Object[] elements) {
+        NativeArray array = new NativeArray(elements);
+        ScriptRuntime.setBuiltinProtoAndParent(array, scope,
+                TopLevel.Builtins.Array);
+        return array;
+    }
+
+    /**
+     * Checks the syntax of the rest of an object literal without creating
+     * any values, with the same errors as {@link #readProperties}.
+     */
+    private void skipObject() throws ParseException {
+        consumeWhitespace();
+        if (pos < length && src.charAt(pos) == '}') {
+            pos += 1;
+            return;
+        }
+        boolean needsComma = false;
+        while (pos < length) {
+            char c = src.charAt(pos++);
+            switch(c) {
+                case '}':
+                    if (!needsComma) {
+                        throw new ParseException("Unexpected comma in object literal");
+                    }
+                    return;
+                case ',':
+                    if (!needsComma) {
+                        throw new ParseException("Unexpected comma in object literal");
+                    }
+                    needsComma = false;
+                    break;
+                case '"':
+                    if (needsComma) {
+                        throw new ParseException("Missing comma in object literal");
+                    }
+                    skipString();
+                    consume(':');
+                    skipValue();
+                    needsComma = true;
+                    break;
+                default:
+                    throw new ParseException("Unexpected token in object literal");
+            }
+            consumeWhitespace();
+        }
+        throw new ParseException("Unterminated object literal");
+    }
+
+    private void skipArray() throws ParseException {
+        consumeWhitespace();
+        if (pos < length && src.charAt(pos) == ']') {
+            pos += 1;
+            return;
+        }
+        boolean needsComma = false;
+        while (pos < length) {
+            char c = src.charAt(pos);
+            switch(c) {
+                case ']':
+                    if (!needsComma) {
+                        throw new ParseException("Unexpected comma in array literal");
+                    }
+                    pos += 1;
+                    return;
+                case ',':
+                    if (!needsComma) {
+                        throw new ParseException("Unexpected comma in array literal");
+                    }
+                    needsComma = false;
+                    pos += 1;
+                    break;
+                default:
+                    if (needsComma) {
+                        throw new ParseException("Missing comma in array literal");
+                    }
+                    skipValue();
+                    needsComma = true;
+            }
+            consumeWhitespace();
+        }
+        throw new ParseException("Unterminated array literal");
+    }
+
+    private void skipValue() throws ParseException {
+        consumeWhitespace();
+        if (pos >= length) {
+            throw new ParseException("Empty JSON string");
+        }
+        char c = src.charAt(pos++);
+        switch (c) {
+            case '{':
+                skipObject();
+                break;
+            case '[':
+                skipArray();
+                break;
+            case 't':
+                readTrue();
+                break;
+            case 'f':
+                readFalse();
+                break;
+            case '"':
+                skipString();
+                break;
+            case 'n':
+                readNull();
+                break;
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+            case '0':
+            case '-':
+                skipNumber(c);
+                break;
+            default:
+                throw new ParseException("Unexpected token: " + c);
+        }
+    }
+
+    private void skipString() throws ParseException {
+        while (pos < length) {
+            char c = src.charAt(pos++);
+            if (c <= '\u001F') {
+                throw new ParseException("String contains control character");
+            } else if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                if (pos >= length) {
+                    throw new ParseException("Unterminated string");
+                }
+                c = src.charAt(pos++);
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                    case 'b':
+                    case 'f':
+                    case 'n':
+                    case 'r':
+                    case 't':
+                        break;
+                    case 'u':
+                        readCharCode();
+                        break;
+                    default:
+                        throw new ParseException("Unexpected character in string: '\\" + c + "'");
+                }
+            }
+        }
+        throw new ParseException("Unterminated string literal");
+    }
+
     private String readString() throws ParseException {
         /*
          * Optimization: if the source contains no escaped characters, create the
@@ -185,7 +441,7 @@ public class JsonParser {
             } else if (c == '\\') {
                 break;
             } else if (c == '"') {
-                return src.substring(stringStart, pos - 1);
+                return text(stringStart, pos - 1);
             }
         }
 
@@ -228,18 +484,7 @@ public class JsonParser {
                     b.append('\t');
                     break;
                 case 'u':
-                    if (length - pos < 5) {
-                        throw new ParseException("Invalid character code: \\u" + src.substring(pos));
-                    }
-                    int code = fromHex(src.charAt(pos + 0)) << 12
-                             | fromHex(src.charAt(pos + 1)) << 8
-                             | fromHex(src.charAt(pos + 2)) << 4
-                             | fromHex(src.charAt(pos + 3));
-                    if (code < 0) {
-                        throw new ParseException("Invalid character code: " + src.substring(pos, pos + 4));
-                    }
-                    pos += 4;
-                    b.append((char) code);
+                    b.append(readCharCode());
                     break;
                 default:
                     throw new ParseException("Unexpected character in string: '\\" + c + "'");
@@ -260,6 +505,25 @@ public class JsonParser {
         throw new ParseException("Unterminated string literal");
     }
 
+    private char readCharCode() throws ParseException {
+        if (length - pos < 5) {
+            throw new ParseException("Invalid character code: \\u" + text(pos, length));
+        }
+        int code = fromHex(src.charAt(pos + 0)) << 12
+                 | fromHex(src.charAt(pos + 1)) << 8
+                 | fromHex(src.charAt(pos + 2)) << 4
+                 | fromHex(src.charAt(pos + 3));
+        if (code < 0) {
+            throw new ParseException("Invalid character code: " + text(pos, pos + 4));
+        }
+        pos += 4;
+        return (char) code;
+    }
+
+    private String text(int start, int end) {
+        return src.subSequence(start, end).toString();
+    }
+
     private int fromHex(char c) {
         return c >= '0' && c <= '9' ? c - '0'
                 : c >= 'A' && c <= 'F' ? c - 'A' + 10
@@ -268,6 +532,19 @@ public class JsonParser {
     }
 
     private Number readNumber(char c) throws ParseException {
+        final int numberStart = pos - 1;
+        skipNumber(c);
+        String num = text(numberStart, pos);
+        final double dval = Double.parseDouble(num);
+        final int ival = (int)dval;
+        if (ival == dval) {
+            return Integer.valueOf(ival);
+        } else {
+            return Double.valueOf(dval);
+        }
+    }
+
+    private void skipNumber(char c) throws ParseException {
         assert c == '-' || (c >= '0' && c <= '9');
         final int numberStart = pos - 1;
         if (c == '-') {
@@ -306,18 +583,10 @@ public class JsonParser {
                 readDigits();
             }
         }
-        String num = src.substring(numberStart, pos);
-        final double dval = Double.parseDouble(num);
-        final int ival = (int)dval;
-        if (ival == dval) {
-            return Integer.valueOf(ival);
-        } else {
-            return Double.valueOf(dval);
-        }
     }
 
     private ParseException numberError(int start, int end) {
-        return new ParseException("Unsupported number format: " + src.substring(start, end));
+        return new ParseException("Unsupported number format: " + text(start, end));
     }
 
     private char nextOrNumberError(int numberStart) throws ParseException {
@@ -0,0 +1,236 @@
+/* -*- Mode: java; tab-width: 4; indent-tabs-mode: 1; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.json;
+
+import org.mozilla.javascript.Callable;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Symbol;
+
+/**
+ * Object created by {@link JsonParser} in lazy mode. It keeps the text of
+ * the object literal and reads its properties before the first access to
+ * any of them.
+ *
+ * <p>The properties are read at most once, also when the object is shared
+ * between threads. Objects are not cached by shape in the interpreter and
+ * compiled code, only the exact NativeObject class is, so all accesses pass
+ * through the methods overridden here.</p>
+ */
+final class LazyJsonObject extends NativeObject {
+
+    private static final long serialVersionUID = -6186541478213468217L;
+
+    // text of the document while the properties are not read
+    private transient volatile CharSequence source;
+    private final transient int start;
+    private final transient int end;
+    // set while the properties are being read, guarded by this
+    private transient boolean reading;
+
+    LazyJsonObject(CharSequence source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    private void ensureRead() {
+        if (source != null) {
+            read();
+        }
+    }
+
+    private synchronized void read() {
+        CharSequence json = source;
+        if (json == null || reading) {
+            // already read, or a property being defined while reading
+            return;
+        }
+        reading = true;
+        try {
+            JsonParser.readLazyObject(this, json, start, end);
+        } finally {
+            reading = false;
+            source = null;
+        }
+    }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+        ensureRead();
+        return super.has(name, start);
+    }
+
+    @Override
+    public boolean has(int index, Scriptable start) {
+        ensureRead();
+        return super.has(index, start);
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+        ensureRead();
+        return super.get(name, start);
+    }
+
+    @Override
+    public Object get(int index, Scriptable start) {
+        ensureRead();
+        return super.get(index, start);
+    }
+
+    @Override
+    public void put(String name, Scriptable start, Object value) {
+        ensureRead();
+        super.put(name, start, value);
+    }
+
+    @Override
+    public void put(int index, Scriptable start, Object value) {
+        ensureRead();
+        super.put(index, start, value);
+    }
+
+    @Override
+    public void delete(String name) {
+        ensureRead();
+        super.delete(name);
+    }
+
+    @Override
+    public void delete(int index) {
+        ensureRead();
+        super.delete(index);
+    }
+
+    // the text has no symbol keys, but the properties are read before any
+    // symbol is used: an object that is not read yet never has symbols,
+    // which lets getIds() and getAllIds() stand for all ids
+    @Override
+    public boolean has(Symbol key, Scriptable start) {
+        ensureRead();
+        return super.has(key, start);
+    }
+
+    @Override
+    public Object get(Symbol key, Scriptable start) {
+        ensureRead();
+        return super.get(key, start);
+    }
+
+    @Override
+    public void put(Symbol key, Scriptable start, Object value) {
+        ensureRead();
+        super.put(key, start, value);
+    }
+
+    @Override
+    public void delete(Symbol key) {
+        ensureRead();
+        super.delete(key);
+    }
+
+    @Override
+    public Object[] getIds() {
+        ensureRead();
+        return super.getIds();
+    }
+
+    @Override
+    public Object[] getAllIds() {
+        ensureRead();
+        return super.getAllIds();
+    }
+
+    @Override
+    public int getAttributes(String name) {
+        ensureRead();
+        return super.getAttributes(name);
+    }
+
+    @Override
+    public int getAttributes(int index) {
+        ensureRead();
+        return super.getAttributes(index);
+    }
+
+    @Override
+    public void setAttributes(String name, int attributes) {
+        ensureRead();
+        super.setAttributes(name, attributes);
+    }
+
+    @Override
+    public void setAttributes(int index, int attributes) {
+        ensureRead();
+        super.setAttributes(index, attributes);
+    }
+
+    @Override
+    public void setAttributes(Symbol key, int attributes) {
+        ensureRead();
+        super.setAttributes(key, attributes);
+    }
+
+    @Override
+    public Object getGetterOrSetter(String name, int index, boolean isSetter) {
+        ensureRead();
+        return super.getGetterOrSetter(name, index, isSetter);
+    }
+
+    @Override
+    public void setGetterOrSetter(String name, int index, Callable getterOrSetter,
+                                  boolean isSetter) {
+        ensureRead();
+        super.setGetterOrSetter(name, index, getterOrSetter, isSetter);
+    }
+
+    @Override
+    protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
+        ensureRead();
+        return super.getOwnPropertyDescriptor(cx, id);
+    }
+
+    @Override
+    protected void defineOwnProperty(Context cx, Object id, ScriptableObject desc,
+                                     boolean checkValid) {
+        ensureRead();
+        super.defineOwnProperty(cx, id, desc, checkValid);
+    }
+
+    @Override
+    public void preventExtensions() {
+        ensureRead();
+        super.preventExtensions();
+    }
+
+    @Override
+    public void sealObject() {
+        ensureRead();
+        super.sealObject();
+    }
+
+    @Override
+    public int size() {
+        ensureRead();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        ensureRead();
+        return super.isEmpty();
+    }
+
+    // read the properties before the slots are written
+    private Object writeReplace() {
+        ensureRead();
+        return this;
+    }
+}
@@ -93,12 +93,105 @@ class Block
             }
         }
 
+        boolean[] constDeclarations = fn.fnode.getParamAndVarConst();
         for (int i = paramCount; i != varCount; i++) {
-            if (varTypes[i] == Optimizer.NumberType) {
-                fn.setIsNumberVar(i);
+            int type = varTypes[i];
+            if (type == Optimizer.Int32Type && !constDeclarations[i]) {
+                fn.setVarType(i, Optimizer.Int32Type);
+            } else if (type != Optimizer.NoType
+                       && (type & ~(Optimizer.NumberType
+                                    | Optimizer.Int32Type)) == 0)
+            {
+                fn.setVarType(i, Optimizer.NumberType);
+            } else if (type == Optimizer.BooleanType
+                       && !constDeclarations[i])
+            {
+                fn.setVarType(i, Optimizer.BooleanType);
+            } else if (type == Optimizer.StringType) {
+                fn.setVarType(i, Optimizer.StringType);
+            }
+        }
+
+        // Parameters of a direct call already come as numbers when they can
+        if (paramCount != 0 && !fn.isTargetOfDirectCall()) {
+            int[] uses = new int[paramCount];
+            for (Node n : statementNodes) {
+                findParameterUses(fn, n, varTypes, uses);
+            }
+            for (int i = 0; i != paramCount; i++) {
+                if (uses[i] == NUMBER_USE) {
+                    fn.setNumberParameter(i);
+                }
+            }
+        }
+    }
+
+    // how the parameters are used, see findParameterUses
+    private static final int NUMBER_USE = 1;
+    private static final int OTHER_USE = 2;
+
+    /*
+        Finds the parameters that are only read as operands of arithmetic
+        or of comparisons with numbers. Such a parameter is kept as a pair
+        of an object and a double like a parameter of a direct call, so it
+        is only converted to a number once, on entry.
+    */
+    private static void findParameterUses(OptFunctionNode fn, Node n,
+                                          int[] varTypes, int[] uses)
+    {
+        int paramCount = uses.length;
+        for (Node child = n.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            int type = child.getType();
+            if (type == Token.GETVAR || type == Token.SETVAR) {
+                int i = fn.getVarIndex(child);
+                if (i < paramCount) {
+                    uses[i] |= type == Token.GETVAR
+                               && isNumberOperand(fn, n, child, varTypes)
+                               ? NUMBER_USE : OTHER_USE;
+                }
             }
+            findParameterUses(fn, child, varTypes, uses);
         }
+    }
+
+    private static boolean isNumberOperand(OptFunctionNode fn, Node parent,
+                                           Node child, int[] varTypes)
+    {
+        switch (parent.getType()) {
+            case Token.SUB:
+            case Token.MUL:
+            case Token.DIV:
+            case Token.MOD:
+            case Token.BITOR:
+            case Token.BITXOR:
+            case Token.BITAND:
+            case Token.LSH:
+            case Token.RSH:
+            case Token.URSH:
+                return true;
 
+            case Token.LT:
+            case Token.LE:
+            case Token.GT:
+            case Token.GE: {
+                // the other operand must be a number as well, else the
+                // parameter is compared as an object
+                Node other = child == parent.getFirstChild()
+                             ? child.getNext() : parent.getFirstChild();
+                if (other.getType() == Token.NUMBER) {
+                    return true;
+                }
+                if (other.getType() == Token.GETVAR) {
+                    int i = fn.getVarIndex(other);
+                    return i >= fn.fnode.getParamCount()
+                           && (fn.isNumberVar(i) || fn.isInt32Var(i));
+                }
+                return false;
+            }
+        }
+        return false;
     }
 
     private static Block[] buildBlocks(Node[] statementNodes)
@@ -294,38 +387,17 @@ class Block
     private static void typeFlow(OptFunctionNode fn, Node[] statementNodes,
                                  Block theBlocks[], int[] varTypes)
     {
-        boolean visit[] = new boolean[theBlocks.length];
-        boolean doneOnce[] = new boolean[theBlocks.length];
-        int vIndex = 0;
-        boolean needRescan = false;
-        visit[vIndex] = true;
-        while (true) {
-            if (visit[vIndex] || !doneOnce[vIndex]) {
-                doneOnce[vIndex] = true;
-                visit[vIndex] = false;
-                if (theBlocks[vIndex].doTypeFlow(fn, statementNodes, varTypes))
-                {
-                    Block succ[] = theBlocks[vIndex].itsSuccessors;
-                    if (succ != null) {
-                        for (int i = 0; i < succ.length; i++) {
-                            int index = succ[i].itsBlockID;
-                            visit[index] = true;
-                            needRescan |= (index < vIndex);
-                        }
-                    }
-                }
-            }
-            if (vIndex == (theBlocks.length - 1)) {
-                if (needRescan) {
-                    vIndex = 0;
-                    needRescan = false;
-                } else {
-                    break;
-                }
-            } else {
-                vIndex++;
+        // The types of the variables are not flow sensitive, a changed type
+        // can change the type of an expression in any block. So all blocks
+        // are visited until no type changes.
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = 0; i < theBlocks.length; i++) {
+                changed |= theBlocks[i].doTypeFlow(fn, statementNodes,
+                                                   varTypes);
             }
-        }
+        } while (changed);
     }
 
     private static boolean assignType(int[] varTypes, int index, int type)
@@ -454,22 +526,37 @@ class Block
         the type of an expression is relatively unknown. Cases we can be sure
         about are -
             Literals,
-            Arithmetic operations - always return a Number
+            Arithmetic operations - always return a Number,
+            Bitwise operations - always return an int32,
+            Comparisons - always return a boolean,
+            String concatenation - always returns a string
     */
     private static int findExpressionType(OptFunctionNode fn, Node n,
                                           int[] varTypes)
     {
         switch (n.getType()) {
             case Token.NUMBER:
-                return Optimizer.NumberType;
+                return isInt32(n.getDouble())
+                       ? Optimizer.Int32Type : Optimizer.NumberType;
 
             case Token.CALL:
             case Token.NEW:
             case Token.REF_CALL:
                 return Optimizer.AnyType;
 
+            case Token.GETPROP: {
+                // the length of a string
+                Node child = n.getFirstChild();
+                if (child.getType() == Token.GETVAR
+                    && varTypes[fn.getVarIndex(child)] == Optimizer.StringType
+                    && "length".equals(child.getNext().getString()))
+                {
+                    return Optimizer.Int32Type;
+                }
+                return Optimizer.AnyType;
+            }
+
             case Token.GETELEM:
-            case Token.GETPROP:
             case Token.NAME:
             case Token.THIS:
                 return Optimizer.AnyType;
@@ -482,17 +569,19 @@ class Block
             case Token.MUL:
             case Token.DIV:
             case Token.MOD:
+            case Token.URSH:
+            case Token.SUB:
+            case Token.POS:
+            case Token.NEG:
+                return Optimizer.NumberType;
+
             case Token.BITOR:
             case Token.BITXOR:
             case Token.BITAND:
             case Token.BITNOT:
             case Token.LSH:
             case Token.RSH:
-            case Token.URSH:
-            case Token.SUB:
-            case Token.POS:
-            case Token.NEG:
-                return Optimizer.NumberType;
+                return Optimizer.Int32Type;
 
             case Token.VOID:
                 // NYI: undefined type
@@ -513,14 +602,12 @@ class Block
             case Token.IN:
             case Token.DEL_REF:
             case Token.DELPROP:
-                // NYI: boolean type
-                return Optimizer.AnyType;
+                return Optimizer.BooleanType;
 
             case Token.STRING:
             case Token.TYPEOF:
             case Token.TYPEOFNAME:
-                // NYI: string type
-                return Optimizer.AnyType;
+                return Optimizer.StringType;
 
             case Token.NULL:
             case Token.REGEXP:
@@ -531,12 +618,28 @@ class Block
             // number, but no type yet for that
 
             case Token.ADD: {
-                // if the lhs & rhs are known to be numbers, we can be sure that's
-                // the result, otherwise it could be a string.
+                // if one side is a string, so is the result. If both sides
+                // are numbers or booleans the result is a number, otherwise
+                // it could be a string.
                 Node child = n.getFirstChild();
                 int lType = findExpressionType(fn, child, varTypes);
                 int rType = findExpressionType(fn, child.getNext(), varTypes);
-                return lType | rType;    // we're not distinguishing strings yet
+                if (lType == Optimizer.StringType
+                    || rType == Optimizer.StringType)
+                {
+                    return Optimizer.StringType;
+                }
+                int type = lType | rType;
+                if (type == Optimizer.NoType) {
+                    return Optimizer.NoType;
+                }
+                if ((type & ~(Optimizer.NumberType | Optimizer.Int32Type
+                              | Optimizer.BooleanType)) == 0)
+                {
+                    // an int32 sum can overflow
+                    return Optimizer.NumberType;
+                }
+                return Optimizer.AnyType;
             }
 
             case Token.HOOK: {
@@ -567,6 +670,14 @@ class Block
         return Optimizer.AnyType;
     }
 
+    /**
+     * Returns true if the number is an int32 other than -0.
+     */
+    static boolean isInt32(double d)
+    {
+        return d == (int) d && (d != 0.0 || 1 / d > 0);
+    }
+
     private static boolean findDefPoints(OptFunctionNode fn, Node n,
                                          int[] varTypes)
     {
@@ -1417,6 +1417,8 @@ class BodyCodegen
             hasVarsInRegs = false;
             inDirectCallFunction = false;
         }
+        useInvokeDynamic = compilerEnv.isGenerateInvokeDynamic()
+                           && ClassFileWriter.isInvokeDynamicSupported();
 
         locals = new int[MAX_LOCALS];
 
@@ -1568,7 +1570,13 @@ class BodyCodegen
             for (int i = 0; i != varCount; ++i) {
                 short reg = -1;
                 if (i < paramCount) {
-                    if (!inDirectCallFunction) {
+                    if (inDirectCallFunction) {
+                        // passed in registers
+                    } else if (fnCurrent.isNumberParameter(i)) {
+                        // 3 is 1 for Object parm and 2 for double parm
+                        reg = getNewWordIntern(3);
+                        generateNumberParameter(i, reg);
+                    } else {
                         reg = getNewWordLocal();
                         cfw.addALoad(argsLocal);
                         cfw.addPush(i);
@@ -1579,6 +1587,12 @@ class BodyCodegen
                     reg = getNewWordPairLocal(constDeclarations[i]);
                     cfw.addPush(0.0);
                     cfw.addDStore(reg);
+                } else if (fnCurrent.isInt32Var(i)
+                           || fnCurrent.isBooleanVar(i))
+                {
+                    reg = getNewWordLocal();
+                    cfw.addPush(0);
+                    cfw.addIStore(reg);
                 } else {
                     reg = getNewWordLocal(constDeclarations[i]);
                     if (firstUndefVar == -1) {
@@ -1600,8 +1614,10 @@ class BodyCodegen
                 // Add debug table entry if we're generating debug info
                 if (compilerEnv.isGenerateDebugInfo()) {
                     String name = fnCurrent.fnode.getParamOrVarName(i);
-                    String type = fnCurrent.isNumberVar(i)
-                                      ? "D" : "Ljava/lang/Object;";
+                    String type = fnCurrent.isNumberVar(i) ? "D"
+                                  : fnCurrent.isInt32Var(i) ? "I"
+                                  : fnCurrent.isBooleanVar(i) ? "Z"
+                                  : "Ljava/lang/Object;";
                     int startPC = cfw.getCurrentCodeOffset();
                     if (reg < 0) {
                         reg = varRegisters[i];
@@ -2359,12 +2375,7 @@ class BodyCodegen
               }
 
               case Token.BITNOT:
-                generateExpression(child, node);
-                addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-                cfw.addPush(-1);         // implement ~a as (a ^ -1)
-                cfw.add(ByteCode.IXOR);
-                cfw.add(ByteCode.I2D);
-                addDoubleWrap();
+                visitBitOp(node, type, child);
                 break;
 
               case Token.VOID:
@@ -2409,12 +2420,11 @@ class BodyCodegen
               case Token.HOOK : {
                     Node ifThen = child.getNext();
                     Node ifElse = ifThen.getNext();
-                    generateExpression(child, node);
-                    addScriptRuntimeInvoke("toBoolean",
-                                           "(Ljava/lang/Object;)Z");
+                    int thenTarget = cfw.acquireLabel();
                     int elseTarget = cfw.acquireLabel();
-                    cfw.add(ByteCode.IFEQ, elseTarget);
                     short stack = cfw.getStackTop();
+                    generateIfJump(child, node, thenTarget, elseTarget);
+                    cfw.markLabel(thenTarget, stack);
                     generateExpression(ifThen, node);
                     int afterHook = cfw.acquireLabel();
                     cfw.add(ByteCode.GOTO, afterHook);
@@ -2489,6 +2499,13 @@ class BodyCodegen
               case Token.POS:
               case Token.NEG:
                 generateExpression(child, node);
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                    // the child is a double already
+                    if (type == Token.NEG) {
+                        cfw.add(ByteCode.DNEG);
+                    }
+                    break;
+                }
                 addObjectToDouble();
                 if (type == Token.NEG) {
                     cfw.add(ByteCode.DNEG);
@@ -2956,6 +2973,15 @@ class BodyCodegen
             break;
 
           default:
+            if (node.getType() == Token.GETVAR
+                && fnCurrent.isBooleanVar(fnCurrent.getVarIndex(node)))
+            {
+                // the variable is 0 or 1
+                cfw.addILoad(varRegisters[fnCurrent.getVarIndex(node)]);
+                cfw.add(ByteCode.IFNE, trueLabel);
+                cfw.add(ByteCode.GOTO, falseLabel);
+                break;
+            }
             // Generate generic code for non-optimized jump
             generateExpression(node, parent);
             addScriptRuntimeInvoke("toBoolean", "(Ljava/lang/Object;)Z");
@@ -3376,6 +3402,18 @@ class BodyCodegen
                 generateExpression(propTarget, node);
                 Node id = propTarget.getNext();
                 String property = id.getString();
+                if (useInvokeDynamic) {
+                    cfw.addALoad(contextLocal);
+                    cfw.addALoad(variableObjectLocal);
+                    addPropertyInvokeDynamic(
+                        InvokeDynamicSupport.CALL_PROP_0,
+                        property,
+                        "(Ljava/lang/Object;"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +"Lorg/mozilla/javascript/Scriptable;"
+                        +")Ljava/lang/Object;");
+                    return;
+                }
                 cfw.addPush(property);
                 methodName = "callProp0";
                 signature = "(Ljava/lang/Object;"
@@ -3526,9 +3564,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             if (dcp_register >= 0) {
                 cfw.addALoad(dcp_register);
                 cfw.addDLoad(dcp_register + 1);
-            } else if (argChild.getIntProp(Node.ISNUMBER_PROP, -1)
-                       == Node.BOTH)
-            {
+            } else if (isNumberNode(argChild)) {
                 cfw.add(ByteCode.GETSTATIC,
                         "java/lang/Void",
                         "TYPE",
@@ -3624,9 +3660,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                     dcpLoadAsObject(dcp_register);
                 } else {
                     generateExpression(argChild, node);
-                    int childNumberFlag
-                            = argChild.getIntProp(Node.ISNUMBER_PROP, -1);
-                    if (childNumberFlag == Node.BOTH) {
+                    if (isNumberNode(argChild)) {
                         addDoubleWrap();
                     }
                 }
@@ -3664,7 +3698,17 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             Node target = node.getFirstChild();
             generateExpression(target, node);
             Node id = target.getNext();
-            if (type == Token.GETPROP) {
+            if (type == Token.GETPROP && useInvokeDynamic) {
+                cfw.addALoad(contextLocal);
+                cfw.addALoad(variableObjectLocal);
+                addPropertyInvokeDynamic(
+                    InvokeDynamicSupport.GET_PROP_FUNCTION,
+                    id.getString(),
+                    "(Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +")Lorg/mozilla/javascript/Callable;");
+            } else if (type == Token.GETPROP) {
                 String property = id.getString();
                 cfw.addPush(property);
                 cfw.addALoad(contextLocal);
@@ -4322,8 +4366,14 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         if (hasVarsInRegs) {
             int varIndex = fnCurrent.fnode.getIndexForNameNode(node);
             if (varIndex >= 0) {
-                if (fnCurrent.isNumberVar(varIndex)) {
+                if (fnCurrent.isNumberVar(varIndex)
+                    || fnCurrent.isInt32Var(varIndex))
+                {
                     cfw.addPush("number");
+                } else if (fnCurrent.isBooleanVar(varIndex)) {
+                    cfw.addPush("boolean");
+                } else if (fnCurrent.isStringVar(varIndex)) {
+                    cfw.addPush("string");
                 } else if (varIsDirectCallParameter(varIndex)) {
                     int dcp_register = varRegisters[varIndex];
                     cfw.addALoad(dcp_register);
@@ -4520,7 +4570,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             cfw.addALoad(contextLocal);
             cfw.addALoad(variableObjectLocal);
             cfw.addPush(incrDecrMask);
-            if (elemChild.getNext().getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+            if (isNumberNode(elemChild.getNext())) {
               addOptRuntimeInvoke("elemIncrDecr",
                   "(Ljava/lang/Object;"
                   +"D"
@@ -4558,6 +4608,27 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
     }
 
+    /**
+     * Returns true if the code generated for node leaves a double on the
+     * stack. Comparisons only use ISNUMBER_PROP to mark their operands,
+     * they produce a Boolean.
+     */
+    private static boolean isNumberNode(Node node)
+    {
+        switch (node.getType()) {
+          case Token.LE:
+          case Token.LT:
+          case Token.GE:
+          case Token.GT:
+          case Token.EQ:
+          case Token.NE:
+          case Token.SHEQ:
+          case Token.SHNE:
+            return false;
+        }
+        return node.getIntProp(Node.ISNUMBER_PROP, -1) == Node.BOTH;
+    }
+
     private static boolean isArithmeticNode(Node node)
     {
         int type = node.getType();
@@ -4594,34 +4665,55 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private void visitBitOp(Node node, int type, Node child)
     {
         int childNumberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
-        generateExpression(child, node);
 
         // special-case URSH; work with the target arg as a long, so
         // that we can return a 32-bit unsigned value, and call
         // toUint32 instead of toInt32.
         if (type == Token.URSH) {
-            addScriptRuntimeInvoke("toUint32", "(Ljava/lang/Object;)J");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+            if (isInt32Value(child) || isInt32Arithmetic(child)) {
+                generateInt32(child, node, false);
+                cfw.add(ByteCode.I2L);
+                cfw.addPush(0xFFFFFFFFL);
+                cfw.add(ByteCode.LAND);
+            } else {
+                generateExpression(child, node);
+                addScriptRuntimeInvoke("toUint32",
+                                       childNumberFlag == -1
+                                       ? "(Ljava/lang/Object;)J" : "(D)J");
+            }
+            generateInt32(child.getNext(), node, childNumberFlag != -1);
             // Looks like we need to explicitly mask the shift to 5 bits -
             // LUSHR takes 6 bits.
             cfw.addPush(31);
             cfw.add(ByteCode.IAND);
             cfw.add(ByteCode.LUSHR);
             cfw.add(ByteCode.L2D);
-            addDoubleWrap();
+            if (childNumberFlag == -1) {
+                addDoubleWrap();
+            }
             return;
         }
+        generateBitOpInt32(node, type, child);
+        cfw.add(ByteCode.I2D);
         if (childNumberFlag == -1) {
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+            addDoubleWrap();
         }
-        else {
-            addScriptRuntimeInvoke("toInt32", "(D)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(D)I");
+    }
+
+    /**
+     * Generates a bitwise operation other than URSH leaving its int32
+     * result on the stack.
+     */
+    private void generateBitOpInt32(Node node, int type, Node child)
+    {
+        boolean isNumber = node.getIntProp(Node.ISNUMBER_PROP, -1) != -1;
+        generateInt32(child, node, isNumber);
+        if (type == Token.BITNOT) {
+            cfw.addPush(-1);         // implement ~a as (a ^ -1)
+            cfw.add(ByteCode.IXOR);
+            return;
         }
+        generateInt32(child.getNext(), node, isNumber);
         switch (type) {
           case Token.BITOR:
             cfw.add(ByteCode.IOR);
@@ -4641,29 +4733,163 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
           default:
             throw Codegen.badTree();
         }
-        cfw.add(ByteCode.I2D);
-        if (childNumberFlag == -1) {
-            addDoubleWrap();
+    }
+
+    /**
+     * Generates an operand of a bitwise operation as int32. Nested bitwise
+     * operations, number literals, int32 variables and sums of them are
+     * kept as int, so they are not converted to double and back.
+     *
+     * @param isNumber true if the operand otherwise generates a double
+     */
+    private void generateInt32(Node node, Node parent, boolean isNumber)
+    {
+        int type = node.getType();
+        if (isInt32Node(node)) {
+            generateBitOpInt32(node, type, node.getFirstChild());
+        } else if (type == Token.NUMBER) {
+            cfw.addPush(ScriptRuntime.toInt32(node.getDouble()));
+        } else if (type == Token.GETVAR
+                   && fnCurrent.isInt32Var(fnCurrent.getVarIndex(node)))
+        {
+            cfw.addILoad(varRegisters[fnCurrent.getVarIndex(node)]);
+        } else if (type == Token.GETPROP
+                   && node.getIntProp(Node.ISNUMBER_PROP, -1) != -1)
+        {
+            generateStringLength(node);
+        } else if (isInt32Arithmetic(node)) {
+            Node child = node.getFirstChild();
+            if (type == Token.MUL) {
+                generateInt32Multiply(child, node);
+                return;
+            }
+            // the sum of two int32 is exact, so ToInt32 of it is the sum
+            // modulo 2^32
+            generateInt32(child, node, true);
+            generateInt32(child.getNext(), node, true);
+            cfw.add(type == Token.ADD ? ByteCode.IADD : ByteCode.ISUB);
+        } else {
+            generateExpression(node, parent);
+            addScriptRuntimeInvoke("toInt32", isNumber
+                                              ? "(D)I"
+                                              : "(Ljava/lang/Object;)I");
         }
     }
 
+    /*
+     * Generates ToInt32 of the product of two int32. The product is computed
+     * as long. If it needs more than the 53 bits of a double, the rounded
+     * product is converted like the double multiplication would be.
+     */
+    private void generateInt32Multiply(Node child, Node node)
+    {
+        generateInt32(child, node, true);
+        cfw.add(ByteCode.I2L);
+        generateInt32(child.getNext(), node, true);
+        cfw.add(ByteCode.I2L);
+        cfw.add(ByteCode.LMUL);
+        cfw.add(ByteCode.DUP2);
+        cfw.add(ByteCode.DUP2);
+        cfw.add(ByteCode.L2D);
+        cfw.add(ByteCode.D2L);
+        cfw.add(ByteCode.LCMP);
+        int inexact = cfw.acquireLabel();
+        int beyond = cfw.acquireLabel();
+        cfw.add(ByteCode.IFNE, inexact);
+        short stack = cfw.getStackTop();
+        cfw.add(ByteCode.L2I);
+        cfw.add(ByteCode.GOTO, beyond);
+        cfw.markLabel(inexact, stack);
+        cfw.add(ByteCode.L2D);
+        addScriptRuntimeInvoke("toInt32", "(D)I");
+        cfw.markLabel(beyond);
+    }
+
+    /*
+     * Generates the length of a string variable as int.
+     */
+    private void generateStringLength(Node node)
+    {
+        Node child = node.getFirstChild();
+        cfw.addALoad(varRegisters[fnCurrent.getVarIndex(child)]);
+        cfw.add(ByteCode.CHECKCAST, "java/lang/CharSequence");
+        cfw.addInvoke(ByteCode.INVOKEINTERFACE, "java/lang/CharSequence",
+                      "length", "()I");
+    }
+
+    private static boolean isInt32Node(Node node)
+    {
+        switch (node.getType()) {
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.BITNOT:
+          case Token.LSH:
+          case Token.RSH:
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if node always has an int32 value that
+     * {@link #generateInt32} generates without a conversion.
+     */
+    private boolean isInt32Value(Node node)
+    {
+        switch (node.getType()) {
+          case Token.NUMBER:
+            return Block.isInt32(node.getDouble());
+          case Token.GETVAR:
+            return fnCurrent.isInt32Var(fnCurrent.getVarIndex(node));
+          case Token.GETPROP:
+            return node.getIntProp(Node.ISNUMBER_PROP, -1) != -1;
+        }
+        return isInt32Node(node);
+    }
+
+    /*
+     * Returns true for an addition, subtraction or multiplication of two
+     * int32 values.
+     */
+    private boolean isInt32Arithmetic(Node node)
+    {
+        switch (node.getType()) {
+          case Token.ADD:
+          case Token.SUB:
+          case Token.MUL:
+            Node child = node.getFirstChild();
+            return node.getIntProp(Node.ISNUMBER_PROP, -1) == Node.BOTH
+                   && isInt32Value(child) && isInt32Value(child.getNext());
+        }
+        return false;
+    }
+
     private int nodeIsDirectCallParameter(Node node)
     {
-        if (node.getType() == Token.GETVAR
-            && inDirectCallFunction && !itsForcedObjectParameters)
-        {
+        if (node.getType() == Token.GETVAR) {
             int varIndex = fnCurrent.getVarIndex(node);
-            if (fnCurrent.isParameter(varIndex)) {
+            if (varIsDirectCallParameter(varIndex)) {
                 return varRegisters[varIndex];
             }
         }
         return -1;
     }
 
+    /**
+     * Returns true if the variable is a parameter that is kept in a pair of
+     * an object and a double register, a parameter of a direct call or a
+     * parameter that is only read as a number.
+     */
     private boolean varIsDirectCallParameter(int varIndex)
     {
-        return fnCurrent.isParameter(varIndex)
-            && inDirectCallFunction && !itsForcedObjectParameters;
+        if (!fnCurrent.isParameter(varIndex)) {
+            return false;
+        }
+        if (inDirectCallFunction) {
+            return !itsForcedObjectParameters;
+        }
+        return hasVarsInRegs && fnCurrent.isNumberParameter(varIndex);
     }
 
     private void genSimpleCompare(int type, int trueGOTO, int falseGOTO)
@@ -4694,6 +4920,35 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             cfw.add(ByteCode.GOTO, falseGOTO);
     }
 
+    private void genSimpleIntCompare(int type, int trueGOTO, int falseGOTO)
+    {
+        switch (type) {
+            case Token.LE :
+                cfw.add(ByteCode.IF_ICMPLE, trueGOTO);
+                break;
+            case Token.GE :
+                cfw.add(ByteCode.IF_ICMPGE, trueGOTO);
+                break;
+            case Token.LT :
+                cfw.add(ByteCode.IF_ICMPLT, trueGOTO);
+                break;
+            case Token.GT :
+                cfw.add(ByteCode.IF_ICMPGT, trueGOTO);
+                break;
+            case Token.EQ :
+            case Token.SHEQ :
+                cfw.add(ByteCode.IF_ICMPEQ, trueGOTO);
+                break;
+            case Token.NE :
+            case Token.SHNE :
+                cfw.add(ByteCode.IF_ICMPNE, trueGOTO);
+                break;
+            default :
+                throw Codegen.badTree();
+        }
+        cfw.add(ByteCode.GOTO, falseGOTO);
+    }
+
     private void visitIfJumpRelOp(Node node, Node child,
                                   int trueGOTO, int falseGOTO)
     {
@@ -4715,6 +4970,14 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             return;
         }
         int childNumberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
+        if (childNumberFlag == Node.BOTH && isInt32Value(child)
+            && isInt32Value(rChild))
+        {
+            generateInt32(child, node, true);
+            generateInt32(rChild, node, true);
+            genSimpleIntCompare(type, trueGOTO, falseGOTO);
+            return;
+        }
         int left_dcp_register = nodeIsDirectCallParameter(child);
         int right_dcp_register = nodeIsDirectCallParameter(rChild);
         if (childNumberFlag != -1) {
@@ -4864,6 +5127,31 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 }
             }
 
+            if (node.getIntProp(Node.ISNUMBER_PROP, -1) == Node.BOTH
+                && isInt32Value(child) && isInt32Value(rChild))
+            {
+                // both operands are int32
+                generateInt32(child, node, true);
+                generateInt32(rChild, node, true);
+                genSimpleIntCompare(type, trueGOTO, falseGOTO);
+                if (stackInitial != cfw.getStackTop()) throw Codegen.badTree();
+                return;
+            }
+            if (node.getIntProp(Node.ISNUMBER_PROP, -1) == Node.BOTH) {
+                // both operands are doubles
+                generateExpression(child, node);
+                generateExpression(rChild, node);
+                cfw.add(ByteCode.DCMPL);
+                if (type == Token.EQ || type == Token.SHEQ) {
+                    cfw.add(ByteCode.IFEQ, trueGOTO);
+                } else {
+                    cfw.add(ByteCode.IFNE, trueGOTO);
+                }
+                cfw.add(ByteCode.GOTO, falseGOTO);
+                if (stackInitial != cfw.getStackTop()) throw Codegen.badTree();
+                return;
+            }
+
             generateExpression(child, node);
             generateExpression(rChild, node);
 
@@ -4974,6 +5262,13 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             }
         } else if (fnCurrent.isNumberVar(varIndex)) {
             cfw.addDLoad(reg);
+        } else if (fnCurrent.isInt32Var(varIndex)) {
+            // the Optimizer treats int32 variables as numbers
+            cfw.addILoad(reg);
+            cfw.add(ByteCode.I2D);
+        } else if (fnCurrent.isBooleanVar(varIndex)) {
+            cfw.addILoad(reg);
+            addBooleanWrap();
         } else {
             cfw.addALoad(reg);
         }
@@ -4983,6 +5278,12 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     {
         if (!hasVarsInRegs) Kit.codeBug();
         int varIndex = fnCurrent.getVarIndex(node);
+        if (fnCurrent.isInt32Var(varIndex)
+            || fnCurrent.isBooleanVar(varIndex))
+        {
+            visitSetIntVar(node, child.getNext(), varIndex, needValue);
+            return;
+        }
         generateExpression(child.getNext(), node);
         boolean isNumber = (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1);
         short reg = varRegisters[varIndex];
@@ -5039,6 +5340,42 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
     }
 
+    /**
+     * Stores the value of an int32 or boolean variable in its int register.
+     * All values assigned to such a variable have the same type, so the int
+     * value is exact.
+     */
+    private void visitSetIntVar(Node node, Node value, int varIndex,
+                                boolean needValue)
+    {
+        short reg = varRegisters[varIndex];
+        if (fnCurrent.isInt32Var(varIndex)) {
+            generateInt32(value, node, true);
+            cfw.addIStore(reg);
+            if (needValue) {
+                cfw.addILoad(reg);
+                cfw.add(ByteCode.I2D);
+            }
+        } else {
+            int trueTarget = cfw.acquireLabel();
+            int falseTarget = cfw.acquireLabel();
+            int beyond = cfw.acquireLabel();
+            short stack = cfw.getStackTop();
+            generateIfJump(value, node, trueTarget, falseTarget);
+            cfw.markLabel(trueTarget, stack);
+            cfw.addPush(1);
+            cfw.add(ByteCode.GOTO, beyond);
+            cfw.markLabel(falseTarget, stack);
+            cfw.addPush(0);
+            cfw.markLabel(beyond);
+            cfw.addIStore(reg);
+            if (needValue) {
+                cfw.addILoad(reg);
+                addBooleanWrap();
+            }
+        }
+    }
+
     private void visitSetConstVar(Node node, Node child, boolean needValue)
     {
         if (!hasVarsInRegs) Kit.codeBug();
@@ -5085,8 +5422,28 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
 
     private void visitGetProp(Node node, Node child)
     {
+        if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+            // the length of a string variable
+            generateStringLength(node);
+            cfw.add(ByteCode.I2D);
+            return;
+        }
         generateExpression(child, node); // object
         Node nameChild = child.getNext();
+        if (useInvokeDynamic && node.getType() == Token.GETPROP
+            && nameChild.getType() == Token.STRING)
+        {
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            addPropertyInvokeDynamic(
+                InvokeDynamicSupport.GET_PROP,
+                nameChild.getString(),
+                "(Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Context;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +")Ljava/lang/Object;");
+            return;
+        }
         generateExpression(nameChild, node);  // the name
         if (node.getType() == Token.GETPROPNOWARN) {
             cfw.addALoad(contextLocal);
@@ -5131,6 +5488,23 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         Node objectChild = child;
         generateExpression(child, node);
         child = child.getNext();
+        if (useInvokeDynamic && type == Token.SETPROP
+            && child.getType() == Token.STRING)
+        {
+            String property = child.getString();
+            generateExpression(child.getNext(), node);
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            addPropertyInvokeDynamic(
+                InvokeDynamicSupport.SET_PROP,
+                property,
+                "(Ljava/lang/Object;"
+                +"Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Context;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +")Ljava/lang/Object;");
+            return;
+        }
         if (type == Token.SETPROP_OP) {
             cfw.add(ByteCode.DUP);
         }
@@ -5282,6 +5656,37 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         return localSlot;
     }
 
+    /*
+     * Loads a parameter that is only read as a number into its pair of
+     * registers. If the argument is a number it is unboxed and the object
+     * register is set to Void.TYPE, otherwise the argument is kept as is and
+     * converted each time it is read, see dcpLoadAsNumber.
+     */
+    private void generateNumberParameter(int index, short reg)
+    {
+        cfw.addALoad(argsLocal);
+        cfw.addPush(index);
+        cfw.add(ByteCode.AALOAD);
+        cfw.add(ByteCode.DUP);
+        cfw.addAStore(reg);
+        cfw.addPush(0.0);
+        cfw.addDStore(reg + 1);
+        cfw.add(ByteCode.INSTANCEOF, "java/lang/Number");
+        int notNumberLabel = cfw.acquireLabel();
+        cfw.add(ByteCode.IFEQ, notNumberLabel);
+        cfw.addALoad(reg);
+        cfw.add(ByteCode.CHECKCAST, "java/lang/Number");
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Number",
+                      "doubleValue", "()D");
+        cfw.addDStore(reg + 1);
+        cfw.add(ByteCode.GETSTATIC,
+                "java/lang/Void",
+                "TYPE",
+                "Ljava/lang/Class;");
+        cfw.addAStore(reg);
+        cfw.markLabel(notNumberLabel);
+    }
+
     private void dcpLoadAsNumber(int dcp_register)
     {
         cfw.addALoad(dcp_register);
@@ -5356,6 +5761,24 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                       methodSignature);
     }
 
+    /**
+     * Generates an invokedynamic call site for a named property access,
+     * linked by {@link InvokeDynamicSupport}.
+     */
+    private void addPropertyInvokeDynamic(String operation, String property,
+                                          String methodSignature)
+    {
+        cfw.addInvokeDynamic(operation, methodSignature,
+                             PROPERTY_BOOTSTRAP, property);
+    }
+
+    private static final ClassFileWriter.MHandle PROPERTY_BOOTSTRAP =
+        new ClassFileWriter.MHandle(
+            ByteCode.MH_INVOKESTATIC,
+            "org/mozilla/javascript/InvokeDynamicSupport",
+            InvokeDynamicSupport.BOOTSTRAP_NAME,
+            InvokeDynamicSupport.BOOTSTRAP_SIGNATURE);
+
     private void addOptRuntimeInvoke(String methodName,
                                      String methodSignature)
     {
@@ -5379,6 +5802,15 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         cfw.adjustStackTop(-1);   // only have 1 of true/false
     }
 
+    /**
+     * Converts the int 0 or 1 on the stack to Boolean.FALSE or Boolean.TRUE.
+     */
+    private void addBooleanWrap()
+    {
+        cfw.addInvoke(ByteCode.INVOKESTATIC, "java/lang/Boolean", "valueOf",
+                      "(Z)Ljava/lang/Boolean;");
+    }
+
     private void addDoubleWrap()
     {
         addOptRuntimeInvoke("wrapDouble", "(D)Ljava/lang/Double;");
@@ -5498,6 +5930,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private int enterAreaStartLabel;
     private int epilogueLabel;
     private boolean inLocalBlock;
+    private boolean useInvokeDynamic;
 
     // special known locals. If you add a new local here, be sure
     // to initialize it to -1 in initBodyGeneration
@@ -9,6 +9,8 @@ import org.mozilla.javascript.*;
 import org.mozilla.javascript.ast.FunctionNode;
 import org.mozilla.javascript.ast.ScriptNode;
 
+import java.util.Arrays;
+
 public final class OptFunctionNode
 {
     OptFunctionNode(FunctionNode fnode)
@@ -67,24 +69,78 @@ public final class OptFunctionNode
     }
 
     public boolean isNumberVar(int varIndex)
+    {
+        return getVarType(varIndex) == Optimizer.NumberType;
+    }
+
+    /**
+     * Returns true if the variable only ever holds int32 numbers, it is kept
+     * in an int register.
+     */
+    public boolean isInt32Var(int varIndex)
+    {
+        return getVarType(varIndex) == Optimizer.Int32Type;
+    }
+
+    /**
+     * Returns true if the variable only ever holds booleans, it is kept in
+     * an int register as 0 or 1.
+     */
+    public boolean isBooleanVar(int varIndex)
+    {
+        return getVarType(varIndex) == Optimizer.BooleanType;
+    }
+
+    /**
+     * Returns true if the variable only ever holds strings, that is
+     * CharSequence values.
+     */
+    public boolean isStringVar(int varIndex)
+    {
+        return getVarType(varIndex) == Optimizer.StringType;
+    }
+
+    /**
+     * Returns true if the parameter is only read as a number, it is kept as
+     * a pair of an object and a double like the parameters of a direct call.
+     * A number argument is unboxed on entry, any other argument stays in the
+     * object and is converted where it is read.
+     */
+    public boolean isNumberParameter(int varIndex)
+    {
+        return numberParameters != null && isParameter(varIndex)
+               && numberParameters[varIndex];
+    }
+
+    void setNumberParameter(int varIndex)
+    {
+        if (!isParameter(varIndex)) Kit.codeBug();
+        if (numberParameters == null) {
+            numberParameters = new boolean[fnode.getParamCount()];
+        }
+        numberParameters[varIndex] = true;
+    }
+
+    private int getVarType(int varIndex)
     {
         varIndex -= fnode.getParamCount();
-        if (varIndex >= 0 && numberVarFlags != null) {
-            return numberVarFlags[varIndex];
+        if (varIndex >= 0 && varTypes != null) {
+            return varTypes[varIndex];
         }
-        return false;
+        return Optimizer.AnyType;
     }
 
-    void setIsNumberVar(int varIndex)
+    void setVarType(int varIndex, int type)
     {
         varIndex -= fnode.getParamCount();
         // Can only be used with non-parameters
         if (varIndex < 0) Kit.codeBug();
-        if (numberVarFlags == null) {
+        if (varTypes == null) {
             int size = fnode.getParamAndVarCount() - fnode.getParamCount();
-            numberVarFlags = new boolean[size];
+            varTypes = new int[size];
+            Arrays.fill(varTypes, Optimizer.AnyType);
         }
-        numberVarFlags[varIndex] = true;
+        varTypes[varIndex] = type;
     }
 
     public int getVarIndex(Node n)
@@ -110,7 +166,8 @@ public final class OptFunctionNode
 
     public final FunctionNode fnode;
 
-    private boolean[] numberVarFlags;
+    private int[] varTypes;
+    private boolean[] numberParameters;
     private int directTargetIndex = -1;
     private boolean itsParameterNumberContext;
     boolean itsContainsCalls0;
@@ -15,7 +15,13 @@ class Optimizer
     static final int NoType = 0;
     static final int NumberType = 1;
     static final int AnyType = 3;
+    static final int BooleanType = 4;
+    static final int StringType = 8;
+    // a number that is known to be an int32, a subtype of NumberType
+    static final int Int32Type = 16;
 
+    // The types of a variable are joined with |, it has one of the types
+    // above only if all of its values have that type.
     // It is assumed that (NumberType | AnyType) == AnyType
 
     void optimize(ScriptNode scriptOrFn)
@@ -83,6 +89,11 @@ class Optimizer
 
         If the receiving code never uses the doubleValue, it is converted on
         entry to a Double instead.
+
+        The parameters of other functions that are only read as numbers are
+        kept the same way. On entry a number argument is unboxed into the
+        doubleValue, this is guarded by the check of the object value above,
+        any other argument stays in the objectValue.
 */
 
 
@@ -93,9 +104,9 @@ class Optimizer
 */
     private void markDCPNumberContext(Node n)
     {
-        if (inDirectCallFunction && n.getType() == Token.GETVAR) {
+        if (n.getType() == Token.GETVAR) {
             int varIndex = theFunction.getVarIndex(n);
-            if (theFunction.isParameter(varIndex)) {
+            if (isPairParameter(varIndex)) {
                 parameterUsedInNumberContext = true;
             }
         }
@@ -103,9 +114,9 @@ class Optimizer
 
     private boolean convertParameter(Node n)
     {
-        if (inDirectCallFunction && n.getType() == Token.GETVAR) {
+        if (n.getType() == Token.GETVAR) {
             int varIndex = theFunction.getVarIndex(n);
-            if (theFunction.isParameter(varIndex)) {
+            if (isPairParameter(varIndex)) {
                 n.removeProp(Node.ISNUMBER_PROP);
                 return true;
             }
@@ -130,14 +141,15 @@ class Optimizer
             case Token.GETVAR :
                 {
                     int varIndex = theFunction.getVarIndex(n);
-                    if (inDirectCallFunction
-                        && theFunction.isParameter(varIndex)
+                    if (isPairParameter(varIndex)
                         && desired == NumberType)
                     {
                         n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
                         return NumberType;
                     }
-                    else if (theFunction.isNumberVar(varIndex)) {
+                    else if (theFunction.isNumberVar(varIndex)
+                             || theFunction.isInt32Var(varIndex))
+                    {
                         n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
                         return NumberType;
                     }
@@ -169,9 +181,7 @@ class Optimizer
                     Node rChild = lChild.getNext();
                     int rType = rewriteForNumberVariables(rChild, NumberType);
                     int varIndex = theFunction.getVarIndex(n);
-                    if (inDirectCallFunction
-                        && theFunction.isParameter(varIndex))
-                    {
+                    if (isPairParameter(varIndex)) {
                         if (rType == NumberType) {
                             if (!convertParameter(rChild)) {
                                 n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
@@ -183,7 +193,9 @@ class Optimizer
                         else
                             return rType;
                     }
-                    else if (theFunction.isNumberVar(varIndex)) {
+                    else if (theFunction.isNumberVar(varIndex)
+                             || theFunction.isInt32Var(varIndex))
+                    {
                         if (rType != NumberType) {
                             n.removeChild(rChild);
                             n.addChildToBack(
@@ -246,6 +258,77 @@ class Optimizer
                     return NoType;
                 }
 
+            case Token.EQ :
+            case Token.NE :
+            case Token.SHEQ :
+            case Token.SHNE : {
+                    Node lChild = n.getFirstChild();
+                    Node rChild = lChild.getNext();
+                    int lType = rewriteForNumberVariables(lChild, NumberType);
+                    int rType = rewriteForNumberVariables(rChild, NumberType);
+                    if (lType == NumberType && rType == NumberType
+                        && !isDirectCallParameter(lChild)
+                        && !isDirectCallParameter(rChild))
+                    {
+                        // compare the doubles, for numbers == and ===
+                        // are the same
+                        n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
+                    } else {
+                        if (lType == NumberType) {
+                            rewriteAsObject(n, lChild);
+                        }
+                        if (rType == NumberType) {
+                            rewriteAsObject(n, rChild);
+                        }
+                    }
+                    // we actually build a boolean value
+                    return NoType;
+                }
+
+            case Token.POS :
+            case Token.NEG :
+            case Token.BITNOT : {
+                    Node child = n.getFirstChild();
+                    int type = rewriteForNumberVariables(child, NumberType);
+                    if (type == NumberType) {
+                        if (convertParameter(child)) {
+                            return NoType;
+                        }
+                        markDCPNumberContext(child);
+                    } else {
+                        n.removeChild(child);
+                        n.addChildToBack(new Node(Token.TO_DOUBLE, child));
+                    }
+                    n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
+                    return NumberType;
+                }
+
+            case Token.HOOK : {
+                    Node test = n.getFirstChild();
+                    Node ifTrue = test.getNext();
+                    Node ifFalse = ifTrue.getNext();
+                    if (rewriteForNumberVariables(test, NoType) == NumberType) {
+                        rewriteAsObject(n, test);
+                    }
+                    int trueType = rewriteForNumberVariables(ifTrue, NumberType);
+                    int falseType = rewriteForNumberVariables(ifFalse,
+                                                              NumberType);
+                    if (trueType == NumberType && falseType == NumberType
+                        && !isDirectCallParameter(ifTrue)
+                        && !isDirectCallParameter(ifFalse))
+                    {
+                        n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
+                        return NumberType;
+                    }
+                    if (trueType == NumberType) {
+                        rewriteAsObject(n, ifTrue);
+                    }
+                    if (falseType == NumberType) {
+                        rewriteAsObject(n, ifFalse);
+                    }
+                    return NoType;
+                }
+
             case Token.ADD : {
                     Node lChild = n.getFirstChild();
                     Node rChild = lChild.getNext();
@@ -295,6 +378,7 @@ class Optimizer
             case Token.BITAND :
             case Token.RSH :
             case Token.LSH :
+            case Token.URSH :
             case Token.SUB :
             case Token.MUL :
             case Token.DIV :
@@ -346,6 +430,16 @@ class Optimizer
                         }
                     }
                 }
+            case Token.GETPROP : {
+                    Node child = n.getFirstChild();
+                    if (isStringLength(n)) {
+                        // the codegen reads the length of the CharSequence
+                        n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
+                        return NumberType;
+                    }
+                    rewriteAsObjectChildren(n, child);
+                    return NoType;
+                }
             case Token.SETELEM :
             case Token.SETELEM_OP : {
                     Node arrayBase = n.getFirstChild();
@@ -440,19 +534,57 @@ class Optimizer
             Node nextChild = child.getNext();
             int type = rewriteForNumberVariables(child, NoType);
             if (type == NumberType) {
-                if (!convertParameter(child)) {
-                    n.removeChild(child);
-                    Node nuChild = new Node(Token.TO_OBJECT, child);
-                    if (nextChild == null)
-                        n.addChildToBack(nuChild);
-                    else
-                        n.addChildBefore(nuChild, nextChild);
-                }
+                rewriteAsObject(n, child);
             }
             child = nextChild;
         }
     }
 
+    /**
+     * Converts an already rewritten child of Number type back to an object.
+     */
+    private void rewriteAsObject(Node n, Node child)
+    {
+        if (!convertParameter(child)) {
+            Node nextChild = child.getNext();
+            n.removeChild(child);
+            Node nuChild = new Node(Token.TO_OBJECT, child);
+            if (nextChild == null)
+                n.addChildToBack(nuChild);
+            else
+                n.addChildBefore(nuChild, nextChild);
+        }
+    }
+
+    private boolean isDirectCallParameter(Node n)
+    {
+        return n.getType() == Token.GETVAR
+               && isPairParameter(theFunction.getVarIndex(n));
+    }
+
+    /**
+     * Returns true if the variable is a parameter that is passed as a pair
+     * of an object and a double, see the comment above.
+     */
+    private boolean isPairParameter(int varIndex)
+    {
+        return theFunction.isParameter(varIndex)
+               && (inDirectCallFunction
+                   || theFunction.isNumberParameter(varIndex));
+    }
+
+    /**
+     * Returns true if n reads the length of a variable that only holds
+     * strings.
+     */
+    private boolean isStringLength(Node n)
+    {
+        Node child = n.getFirstChild();
+        return child.getType() == Token.GETVAR
+               && theFunction.isStringVar(theFunction.getVarIndex(child))
+               && "length".equals(child.getNext().getString());
+    }
+
     private static void buildStatementList_r(Node node, ObjArray statements)
     {
         int type = node.getType();
@@ -7,6 +7,9 @@
 package org.mozilla.javascript.regexp;
 
 import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
@@ -106,8 +109,10 @@ public class NativeRegExp extends IdScriptableObject implements Function
     private static final byte REOP_ALTPREREQ2    = 55; /* prerequisite for ALT, a char or a class */
 //    private static final byte REOP_ENDALT        = 56; /* end of final alternate */
     private static final byte REOP_END           = 57;
+    private static final byte REOP_CLEARPARENS   = 58; /* NFA only: reset captures of a repeated child */
 
     private static final int ANCHOR_BOL = -2;
+    private static final int MAX_FIRST_CHARS = 8;
 
 
     public static void init(Context cx, Scriptable scope, boolean sealed)
@@ -278,7 +283,100 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return rval;
     }
 
-    static RECompiled compileRE(Context cx, String str, String global, boolean flat)
+    // compiled expressions by source and flags, shared by all Contexts
+    private static final LinkedHashMap<CompiledKey,RECompiled> compiledCache
+        = new LinkedHashMap<CompiledKey,RECompiled>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<CompiledKey,RECompiled> eldest)
+        {
+            return size() > compiledCacheSize;
+        }
+    };
+    // guarded by compiledCache
+    private static int compiledCacheSize = 256;
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+
+    /**
+     * Sets the number of compiled regular expressions kept in the cache,
+     * see {@link RegExpImpl#setCompiledCacheSize(int)}.
+     */
+    static void setCompiledCacheSize(int size)
+    {
+        synchronized (compiledCache) {
+            compiledCacheSize = size;
+            if (size == 0) {
+                compiledCache.clear();
+            } else {
+                while (compiledCache.size() > size) {
+                    compiledCache.remove(
+                        compiledCache.keySet().iterator().next());
+                }
+            }
+        }
+    }
+
+    static int getCompiledCacheSize()
+    {
+        synchronized (compiledCache) {
+            return compiledCacheSize;
+        }
+    }
+
+    static long getCacheHitCount()
+    {
+        return cacheHits.get();
+    }
+
+    static long getCacheMissCount()
+    {
+        return cacheMisses.get();
+    }
+
+    static void clearCompiledCache()
+    {
+        synchronized (compiledCache) {
+            compiledCache.clear();
+        }
+    }
+
+    /**
+     * Compiles a regular expression or returns the cached result of
+     * compiling the same source with the same flags. Syntax errors are
+     * reported every time as failed compilations are not cached.
+     */
+    static RECompiled compileRE(Context cx, String str, String global,
+                                boolean flat)
+    {
+        CompiledKey key = new CompiledKey(str, global, flat);
+        RECompiled compiled;
+        synchronized (compiledCache) {
+            compiled = compiledCacheSize == 0 ? null : compiledCache.get(key);
+        }
+        if (compiled != null) {
+            cacheHits.incrementAndGet();
+            return compiled;
+        }
+        cacheMisses.incrementAndGet();
+        // compile outside the lock, another thread may store the same
+        // expression meanwhile which is harmless
+        compiled = compileUncachedRE(cx, str, global, flat);
+        if (compiled != null) {
+            synchronized (compiledCache) {
+                if (compiledCacheSize != 0) {
+                    compiledCache.put(key, compiled);
+                }
+            }
+        }
+        return compiled;
+    }
+
+    private static RECompiled compileUncachedRE(Context cx, String str,
+                                                String global, boolean flat)
     {
         RECompiled regexp = new RECompiled(str);
         int length = str.length();
@@ -345,6 +443,12 @@ public class NativeRegExp extends IdScriptableObject implements Function
             System.out.println();
         }
         regexp.parenCount = state.parenCount;
+        regexp.nfa = compileNfa(state, regexp);
+        if (regexp.nfa == null
+            || countRepetitions(state.result, false) < NESTED_REPETITION)
+        {
+            regexp.matcherProgram = compileMatcherProgram(state, regexp);
+        }
 
         // If re starts with literal, init anchorCh accordingly
         switch (regexp.program[0]) {
@@ -372,20 +476,167 @@ public class NativeRegExp extends IdScriptableObject implements Function
                 break;
         }
 
+        // Literals that let the search skip positions a match cannot start at
+        if ((flags & JSREG_FOLD) == 0) {
+            StringBuilder prefix = new StringBuilder();
+            appendLiteral(prefix, regexp.source, state.result);
+            if (prefix.length() != 0) {
+                regexp.prefix = prefix.toString();
+            }
+            String required = requiredLiteral(regexp.source, state.result);
+            if (required != null && required.length() > 1
+                && (regexp.prefix == null
+                    || required.length() > regexp.prefix.length()))
+            {
+                regexp.required = required;
+            }
+        }
+        if (regexp.prefix == null) {
+            StringBuilder chars = new StringBuilder();
+            if (addFirstChars(chars, regexp.source, state.result,
+                              (flags & JSREG_FOLD) != 0))
+            {
+                regexp.firstChars = chars.toString();
+            }
+        }
+
         if (debug) {
             if (regexp.anchorCh >= 0) {
                 System.out.println("Anchor ch = '" + (char)regexp.anchorCh + "'");
             }
+            System.out.println("Prefix = " + regexp.prefix + ", required = "
+                               + regexp.required + ", first chars = "
+                               + regexp.firstChars);
         }
         return regexp;
     }
 
+    private static void appendFlat(StringBuilder sb, char[] source, RENode t)
+    {
+        if (t.flatIndex != -1 && t.length > 1) {
+            sb.append(source, t.flatIndex, t.length);
+        } else {
+            sb.append(t.chr);
+        }
+    }
+
+    /*
+     * Appends the literal every match of the node list starts with and
+     * returns whether the list matches nothing else.
+     */
+    private static boolean
+    appendLiteral(StringBuilder sb, char[] source, RENode t)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_EMPTY:
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+                break;
+            case REOP_FLAT:
+                appendFlat(sb, source, t);
+                break;
+            case REOP_LPAREN:
+                if (!appendLiteral(sb, source, t.kid)) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the longest literal every match of the node list contains,
+     * or null if there is none.
+     */
+    private static String requiredLiteral(char[] source, RENode t)
+    {
+        String longest = null;
+        StringBuilder run = new StringBuilder();
+        for (;; t = t.next) {
+            if (t != null && t.op == REOP_FLAT) {
+                appendFlat(run, source, t);
+                continue;
+            }
+            if (run.length() != 0) {
+                if (longest == null || run.length() > longest.length()) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+            }
+            if (t == null) {
+                return longest;
+            }
+            String inner = null;
+            if (t.op == REOP_LPAREN) {
+                inner = requiredLiteral(source, t.kid);
+            } else if (t.op == REOP_QUANT && t.min != 0) {
+                inner = requiredLiteral(source, t.kid);
+            }
+            if (inner != null
+                && (longest == null || inner.length() > longest.length()))
+            {
+                longest = inner;
+            }
+        }
+    }
+
+    /*
+     * Adds the chars a match of the node list can start with, upper case
+     * if case is ignored. Returns false if it can start with other chars,
+     * match the empty string or start with too many different chars.
+     */
+    private static boolean
+    addFirstChars(StringBuilder chars, char[] source, RENode t, boolean fold)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_EMPTY:
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+                break;
+            case REOP_FLAT:
+            {
+                char c = (t.flatIndex != -1 && t.length > 1)
+                         ? source[t.flatIndex] : t.chr;
+                if (fold) {
+                    c = upcase(c);
+                }
+                if (chars.indexOf(String.valueOf(c)) < 0) {
+                    chars.append(c);
+                }
+                return chars.length() <= MAX_FIRST_CHARS;
+            }
+            case REOP_LPAREN:
+                return addFirstChars(chars, source, t.kid, fold);
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+                return addFirstChars(chars, source, t.kid, fold)
+                    && addFirstChars(chars, source, t.kid2, fold);
+            case REOP_QUANT:
+                return t.min != 0 && addFirstChars(chars, source, t.kid, fold);
+            default:
+                return false;
+            }
+        }
+        return false;
+    }
+
     static boolean isDigit(char c)
     {
         return '0' <= c && c <= '9';
     }
 
-    private static boolean isWord(char c)
+    static boolean isWord(char c)
     {
         return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || isDigit(c) || c == '_';
     }
@@ -395,12 +646,12 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
     }
 
-    private static boolean isLineTerm(char c)
+    static boolean isLineTerm(char c)
     {
         return ScriptRuntime.isJSLineTerminator(c);
     }
 
-    private static boolean isREWhiteSpace(int c)
+    static boolean isREWhiteSpace(int c)
     {
         return ScriptRuntime.isJSWhitespaceOrLineTerminator(c);
     }
@@ -416,7 +667,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
      *    code point value is less than decimal 128, then return ch.
      * 6. Return cu.
      */
-    private static char upcase(char ch)
+    static char upcase(char ch)
     {
         if (ch < 128) {
             if ('a' <= ch && ch <= 'z') {
@@ -1298,64 +1549,510 @@ public class NativeRegExp extends IdScriptableObject implements Function
                 }
                 break;
             case REOP_LPAREN:
-                pc = addIndex(program, pc, t.parenIndex);
-                pc = emitREBytecode(state, re, pc, t.kid);
-                program[pc++] = REOP_RPAREN;
-                pc = addIndex(program, pc, t.parenIndex);
-                break;
-            case REOP_BACKREF:
-                pc = addIndex(program, pc, t.parenIndex);
-                break;
-            case REOP_ASSERT:
-                nextTermFixup = pc;
-                pc += INDEX_LEN;
-                pc = emitREBytecode(state, re, pc, t.kid);
-                program[pc++] = REOP_ASSERTTEST;
-                resolveForwardJump(program, nextTermFixup, pc);
+                pc = addIndex(program, pc, t.parenIndex);
+                pc = emitREBytecode(state, re, pc, t.kid);
+                program[pc++] = REOP_RPAREN;
+                pc = addIndex(program, pc, t.parenIndex);
+                break;
+            case REOP_BACKREF:
+                pc = addIndex(program, pc, t.parenIndex);
+                break;
+            case REOP_ASSERT:
+                nextTermFixup = pc;
+                pc += INDEX_LEN;
+                pc = emitREBytecode(state, re, pc, t.kid);
+                program[pc++] = REOP_ASSERTTEST;
+                resolveForwardJump(program, nextTermFixup, pc);
+                break;
+            case REOP_ASSERT_NOT:
+                nextTermFixup = pc;
+                pc += INDEX_LEN;
+                pc = emitREBytecode(state, re, pc, t.kid);
+                program[pc++] = REOP_ASSERTNOTTEST;
+                resolveForwardJump(program, nextTermFixup, pc);
+                break;
+            case REOP_QUANT:
+                if ((t.min == 0) && (t.max == -1))
+                    program[pc - 1] = (t.greedy) ? REOP_STAR : REOP_MINIMALSTAR;
+                else
+                if ((t.min == 0) && (t.max == 1))
+                    program[pc - 1] = (t.greedy) ? REOP_OPT : REOP_MINIMALOPT;
+                else
+                if ((t.min == 1) && (t.max == -1))
+                    program[pc - 1] = (t.greedy) ? REOP_PLUS : REOP_MINIMALPLUS;
+                else {
+                    if (!t.greedy) program[pc - 1] = REOP_MINIMALQUANT;
+                    pc = addIndex(program, pc, t.min);
+                    // max can be -1 which addIndex does not accept
+                    pc = addIndex(program, pc, t.max + 1);
+                }
+                pc = addIndex(program, pc, t.parenCount);
+                pc = addIndex(program, pc, t.parenIndex);
+                nextTermFixup = pc;
+                pc += INDEX_LEN;
+                pc = emitREBytecode(state, re, pc, t.kid);
+                program[pc++] = REOP_ENDCHILD;
+                resolveForwardJump(program, nextTermFixup, pc);
+                break;
+            case REOP_CLASS:
+                if (!t.sense)
+                    program[pc - 1] = REOP_NCLASS;
+                pc = addIndex(program, pc, t.index);
+                re.classList[t.index] = new RECharSet(t.bmsize, t.startIndex,
+                                                      t.kidlen, t.sense);
+                break;
+            default:
+                break;
+            }
+            t = t.next;
+        }
+        return pc;
+    }
+
+    /*
+     * Patterns without back-references and lookahead are also compiled to a
+     * program for a Pike VM, see executeNfa, that runs in time linear in the
+     * length of the input: every position of the input is visited once by
+     * all threads of the automaton in priority order, so the result is the
+     * one the backtracking engine finds without its exponential worst case.
+     *
+     * Instructions are three ints: the opcode and two operands.
+     *   REOP_FLAT1 / REOP_FLAT1i   c           match char (case-independent)
+     *   REOP_DOT ... REOP_NCLASS   class index match a char of the class
+     *   REOP_BOL ... REOP_WNONBDRY             zero width assertion
+     *   REOP_ALT                   x, y        fork, x has priority
+     *   REOP_JUMP                  x           continue at x
+     *   REOP_LPAREN / REOP_RPAREN  n           record start / end of paren n
+     *   REOP_CLEARPARENS           n, count    reset parens n .. n+count-1
+     *   REOP_END                               match
+     *
+     * Quantifiers are unrolled into copies of their child, which gives every
+     * iteration its own instructions: the backtracking engine only resets
+     * the parens of the child for some iterations and fails iterations
+     * beyond min that match the empty string. The first is reproduced by
+     * REOP_CLEARPARENS, patterns where the second could happen are left to
+     * the backtracking engine.
+     *
+     * The backtracking engine is faster for most patterns, so the program
+     * is only used for patterns it can take more than linear time on: a
+     * repeated quantifier around a quantifier or alternative, or several
+     * unbounded quantifiers.
+     */
+    private static final int NFA_MAX_LENGTH = 4096;
+    private static final int NESTED_REPETITION = 1 << 16;
+
+    private static int[] compileNfa(CompilerState state, RECompiled re)
+    {
+        if (countRepetitions(state.result, false) < 2) {
+            return null;
+        }
+        NfaBuilder b = new NfaBuilder(re.source,
+                                      (state.flags & JSREG_FOLD) != 0);
+        if (!emitNfa(b, state.result)) {
+            return null;
+        }
+        b.emit(REOP_END, 0, 0);
+        return b.toProgram();
+    }
+
+    private static boolean emitNfa(NfaBuilder b, RENode t)
+    {
+        for (; t != null; t = t.next) {
+            if (b.length > NFA_MAX_LENGTH) {
+                return false;
+            }
+            switch (t.op) {
+            case REOP_EMPTY:
+                break;
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+            case REOP_DOT:
+            case REOP_DIGIT:
+            case REOP_NONDIGIT:
+            case REOP_ALNUM:
+            case REOP_NONALNUM:
+            case REOP_SPACE:
+            case REOP_NONSPACE:
+                b.emit(t.op, 0, 0);
+                break;
+            case REOP_CLASS:
+                b.emit(REOP_CLASS, t.index, 0);
+                break;
+            case REOP_FLAT:
+            {
+                byte op = b.fold ? REOP_FLAT1i : REOP_FLAT1;
+                if (t.flatIndex != -1 && t.length > 1) {
+                    for (int i = 0; i < t.length; i++) {
+                        b.emit(op, b.source[t.flatIndex + i], 0);
+                    }
+                } else {
+                    b.emit(op, t.chr, 0);
+                }
+                break;
+            }
+            case REOP_LPAREN:
+                b.emit(REOP_LPAREN, t.parenIndex, 0);
+                if (!emitNfa(b, t.kid)) {
+                    return false;
+                }
+                b.emit(REOP_RPAREN, t.parenIndex, 0);
+                break;
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+            {
+                // the prerequisites only shortcut failing alternatives
+                int fork = b.emit(REOP_ALT, 0, 0);
+                b.setOperand(fork, 1, b.length);
+                if (!emitNfa(b, t.kid)) {
+                    return false;
+                }
+                int jump = b.emit(REOP_JUMP, 0, 0);
+                b.setOperand(fork, 2, b.length);
+                if (!emitNfa(b, t.kid2)) {
+                    return false;
+                }
+                b.setOperand(jump, 1, b.length);
+                break;
+            }
+            case REOP_QUANT:
+                if (!emitNfaQuant(b, t)) {
+                    return false;
+                }
+                break;
+            default:
+                // back-references and lookahead need backtracking
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean emitNfaQuant(NfaBuilder b, RENode t)
+    {
+        int min = t.min;
+        int max = t.max;
+        if (max == 0 || (max != min && canMatchEmpty(t.kid))) {
+            return false;
+        }
+        // Parens of the child are reset before an iteration when
+        // REOP_REPEAT resp. REOP_MINIMALREPEAT do it: greedy from the first
+        // iteration after min on, but not for the very first, non-greedy
+        // for all iterations except the first if it is required.
+        for (int k = 1; k <= min; k++) {
+            boolean clear = t.greedy ? (k > 1 && k > min) : k > 1;
+            if (!emitNfaIteration(b, t, clear)) {
+                return false;
+            }
+        }
+        if (max == min) {
+            return true;
+        }
+        int fixups = b.fixups;
+        if (max == -1) {
+            int k = min + 1;
+            if (k == 1 && t.greedy && t.parenCount != 0) {
+                // first iteration without reset
+                b.addFixup(emitNfaFork(b, t.greedy));
+                if (!emitNfaIteration(b, t, false)) {
+                    return false;
+                }
+            }
+            int loop = emitNfaFork(b, t.greedy);
+            b.addFixup(loop);
+            if (!emitNfaIteration(b, t, true)) {
+                return false;
+            }
+            b.emit(REOP_JUMP, loop, 0);
+        } else {
+            for (int k = min + 1; k <= max; k++) {
+                b.addFixup(emitNfaFork(b, t.greedy));
+                if (!emitNfaIteration(b, t, !t.greedy || k > 1)) {
+                    return false;
+                }
+            }
+        }
+        // all forks continue after the quantifier when not iterating
+        while (b.fixups > fixups) {
+            int fork = b.removeFixup();
+            b.setOperand(fork, t.greedy ? 2 : 1, b.length);
+        }
+        return true;
+    }
+
+    // fork between the next iteration and the rest of the pattern,
+    // the iteration starts after the fork
+    private static int emitNfaFork(NfaBuilder b, boolean greedy)
+    {
+        int fork = b.emit(REOP_ALT, 0, 0);
+        b.setOperand(fork, greedy ? 1 : 2, b.length);
+        return fork;
+    }
+
+    private static boolean emitNfaIteration(NfaBuilder b, RENode t,
+                                            boolean clear)
+    {
+        if (clear && t.parenCount != 0) {
+            b.emit(REOP_CLEARPARENS, t.parenIndex, t.parenCount);
+        }
+        return emitNfa(b, t.kid);
+    }
+
+    /*
+     * Returns the number of unbounded quantifiers, or NESTED_REPETITION if
+     * a repeated quantifier contains a quantifier or an alternative.
+     */
+    private static int countRepetitions(RENode t, boolean repeated)
+    {
+        int count = 0;
+        for (; t != null && count < NESTED_REPETITION; t = t.next) {
+            switch (t.op) {
+            case REOP_LPAREN:
+            case REOP_ASSERT:
+            case REOP_ASSERT_NOT:
+                count += countRepetitions(t.kid, repeated);
+                break;
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+                if (repeated) {
+                    return NESTED_REPETITION;
+                }
+                count += countRepetitions(t.kid, false);
+                count += countRepetitions(t.kid2, false);
+                break;
+            case REOP_QUANT:
+                if (repeated) {
+                    return NESTED_REPETITION;
+                }
+                count += countRepetitions(t.kid, t.max != 1);
+                if (t.max == -1) {
+                    count++;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Patterns without nested repetition are also translated to a program
+     * for RegExpClassCompiler if it supports all their nodes. It generates
+     * a class for the expression once it is executed often, which is then
+     * used instead of the interpreter and the NFA. The backtracking of the
+     * class can only take exponential time with nested repetition, those
+     * patterns keep running on the NFA.
+     * Back-references, lookahead and loops of more than a char that
+     * contain parens or can match the empty string are not supported, as
+     * they depend on how REOP_REPEAT resets parens and stops iterations.
+     */
+    private static int[] compileMatcherProgram(CompilerState state,
+                                               RECompiled re)
+    {
+        RegExpClassCompiler.ProgramBuilder b
+            = new RegExpClassCompiler.ProgramBuilder(re.parenCount);
+        if (!emitMatcher(b, re, state.result)) {
+            return null;
+        }
+        b.add(RegExpClassCompiler.END, 0);
+        return b.toProgram();
+    }
+
+    private static boolean
+    emitMatcher(RegExpClassCompiler.ProgramBuilder b, RECompiled re,
+                RENode t)
+    {
+        boolean fold = (re.flags & JSREG_FOLD) != 0;
+        for (; t != null; t = t.next) {
+            if (b.length > RegExpClassCompiler.MAX_PROGRAM_LENGTH) {
+                return false;
+            }
+            switch (t.op) {
+            case REOP_EMPTY:
+                break;
+            case REOP_BOL:
+                b.add(RegExpClassCompiler.ASSERT, RegExpClassCompiler.BOL);
+                break;
+            case REOP_EOL:
+                b.add(RegExpClassCompiler.ASSERT, RegExpClassCompiler.EOL);
+                break;
+            case REOP_WBDRY:
+                b.add(RegExpClassCompiler.ASSERT,
+                      RegExpClassCompiler.BOUNDARY);
+                break;
+            case REOP_WNONBDRY:
+                b.add(RegExpClassCompiler.ASSERT,
+                      RegExpClassCompiler.NON_BOUNDARY);
+                break;
+            case REOP_FLAT:
+                if (t.flatIndex != -1 && t.length > 1) {
+                    for (int i = 0; i < t.length; i++) {
+                        emitMatcherChar(b, re.source[t.flatIndex + i], fold);
+                    }
+                } else {
+                    emitMatcherChar(b, t.chr, fold);
+                }
+                break;
+            case REOP_LPAREN:
+                b.add(RegExpClassCompiler.SAVE, 2 * t.parenIndex);
+                if (!emitMatcher(b, re, t.kid)) {
+                    return false;
+                }
+                b.add(RegExpClassCompiler.SAVE, 2 * t.parenIndex + 1);
+                break;
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+            {
+                int alt = b.add(RegExpClassCompiler.ALT, 0);
+                b.setOperand(alt, 1, b.length);
+                if (!emitMatcher(b, re, t.kid)) {
+                    return false;
+                }
+                int jump = b.add(RegExpClassCompiler.JUMP, 0);
+                b.setOperand(alt, 2, b.length);
+                if (!emitMatcher(b, re, t.kid2)) {
+                    return false;
+                }
+                b.setOperand(jump, 1, b.length);
+                break;
+            }
+            case REOP_QUANT:
+            {
+                if (t.max == 0) {
+                    return false;
+                }
+                int greedy = t.greedy ? 1 : 0;
+                RENode kid = t.kid;
+                int kind = kid.next == null ? matcherKind(kid, fold) : -1;
+                if (kind != -1) {
+                    int c = kind == RegExpClassCompiler.CLASS ? kid.index
+                            : kind == RegExpClassCompiler.CHAR_FOLD
+                            ? upcase(kid.chr) : kid.chr;
+                    b.add(RegExpClassCompiler.REPEAT, kind, c, t.min, t.max,
+                          greedy);
+                    break;
+                }
+                if (t.parenCount != 0 || canMatchEmpty(kid)) {
+                    return false;
+                }
+                int slot = b.nextSlot++;
+                b.add(RegExpClassCompiler.LOOP_INIT, slot);
+                int loop = b.add(RegExpClassCompiler.LOOP, slot, 0, t.min,
+                                 t.max, greedy);
+                if (!emitMatcher(b, re, kid)) {
+                    return false;
+                }
+                b.add(RegExpClassCompiler.JUMP, loop);
+                b.setOperand(loop, 2, b.length);
+                break;
+            }
+            default:
+            {
+                int kind = matcherKind(t, fold);
+                if (kind == -1) {
+                    // back-references and lookahead
+                    return false;
+                }
+                b.add(RegExpClassCompiler.MATCH, kind,
+                      kind == RegExpClassCompiler.CLASS ? t.index : 0,
+                      0, 0, 0);
+                break;
+            }
+            }
+        }
+        return true;
+    }
+
+    private static void
+    emitMatcherChar(RegExpClassCompiler.ProgramBuilder b, char c,
+                    boolean fold)
+    {
+        if (fold) {
+            b.add(RegExpClassCompiler.MATCH, RegExpClassCompiler.CHAR_FOLD,
+                  upcase(c), 0, 0, 0);
+        } else {
+            b.add(RegExpClassCompiler.MATCH, RegExpClassCompiler.CHAR, c,
+                  0, 0, 0);
+        }
+    }
+
+    // kind of a node matching a single char, or -1
+    private static int matcherKind(RENode t, boolean fold)
+    {
+        switch (t.op) {
+        case REOP_FLAT:
+            if (t.flatIndex != -1 && t.length > 1) {
+                return -1;
+            }
+            return fold ? RegExpClassCompiler.CHAR_FOLD
+                        : RegExpClassCompiler.CHAR;
+        case REOP_DOT:
+            return RegExpClassCompiler.DOT;
+        case REOP_DIGIT:
+            return RegExpClassCompiler.DIGIT;
+        case REOP_NONDIGIT:
+            return RegExpClassCompiler.NON_DIGIT;
+        case REOP_ALNUM:
+            return RegExpClassCompiler.WORD;
+        case REOP_NONALNUM:
+            return RegExpClassCompiler.NON_WORD;
+        case REOP_SPACE:
+            return RegExpClassCompiler.SPACE;
+        case REOP_NONSPACE:
+            return RegExpClassCompiler.NON_SPACE;
+        case REOP_CLASS:
+            return RegExpClassCompiler.CLASS;
+        default:
+            return -1;
+        }
+    }
+
+    private static boolean canMatchEmpty(RENode t)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_EMPTY:
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+            case REOP_ASSERT:
+            case REOP_ASSERT_NOT:
+                break;
+            case REOP_LPAREN:
+                if (!canMatchEmpty(t.kid)) {
+                    return false;
+                }
                 break;
-            case REOP_ASSERT_NOT:
-                nextTermFixup = pc;
-                pc += INDEX_LEN;
-                pc = emitREBytecode(state, re, pc, t.kid);
-                program[pc++] = REOP_ASSERTNOTTEST;
-                resolveForwardJump(program, nextTermFixup, pc);
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+                if (!canMatchEmpty(t.kid) && !canMatchEmpty(t.kid2)) {
+                    return false;
+                }
                 break;
             case REOP_QUANT:
-                if ((t.min == 0) && (t.max == -1))
-                    program[pc - 1] = (t.greedy) ? REOP_STAR : REOP_MINIMALSTAR;
-                else
-                if ((t.min == 0) && (t.max == 1))
-                    program[pc - 1] = (t.greedy) ? REOP_OPT : REOP_MINIMALOPT;
-                else
-                if ((t.min == 1) && (t.max == -1))
-                    program[pc - 1] = (t.greedy) ? REOP_PLUS : REOP_MINIMALPLUS;
-                else {
-                    if (!t.greedy) program[pc - 1] = REOP_MINIMALQUANT;
-                    pc = addIndex(program, pc, t.min);
-                    // max can be -1 which addIndex does not accept
-                    pc = addIndex(program, pc, t.max + 1);
+                if (t.min != 0 && !canMatchEmpty(t.kid)) {
+                    return false;
                 }
-                pc = addIndex(program, pc, t.parenCount);
-                pc = addIndex(program, pc, t.parenIndex);
-                nextTermFixup = pc;
-                pc += INDEX_LEN;
-                pc = emitREBytecode(state, re, pc, t.kid);
-                program[pc++] = REOP_ENDCHILD;
-                resolveForwardJump(program, nextTermFixup, pc);
                 break;
-            case REOP_CLASS:
-                if (!t.sense)
-                    program[pc - 1] = REOP_NCLASS;
-                pc = addIndex(program, pc, t.index);
-                re.classList[t.index] = new RECharSet(t.bmsize, t.startIndex,
-                                                      t.kidlen, t.sense);
+            case REOP_BACKREF:
+                // matches the empty string if the paren did
                 break;
             default:
-                break;
+                return false;
             }
-            t = t.next;
         }
-        return pc;
+        return true;
     }
 
     private static void
@@ -1525,7 +2222,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
     }
 
     /* Compile the source of the class into a RECharSet */
-    private static void
+    static void
     processCharSet(REGlobalData gData, RECharSet charSet)
     {
         synchronized (charSet) {
@@ -2354,6 +3051,261 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     }
 
+    /*
+     * Runs the NFA program of a regexp as a Pike VM. The threads of the
+     * automaton at one input position are kept in priority order, a thread
+     * reaching an instruction that a thread with higher priority already
+     * reached at this position is dropped as it can not lead to a
+     * preferred match. New threads are started at every position until a
+     * match is found, with the lowest priority, which gives the leftmost
+     * match. Captures are slot 0 for the start of the match, then start
+     * and end of every paren.
+     */
+    private static boolean
+    executeNfa(REGlobalData gData, String input, int start, int end)
+    {
+        RECompiled re = gData.regexp;
+        int[] program = re.nfa;
+        int size = program.length / 3;
+        NfaThreads current = new NfaThreads(size);
+        NfaThreads next = new NfaThreads(size);
+        int[] marks = new int[size];
+        int generation = 0;
+        int slots = 1 + 2 * re.parenCount;
+        int[] matched = null;
+        int matchEnd = -1;
+        int anchorCh = re.anchorCh;
+
+        for (int cp = start; ; cp++) {
+            ++generation;
+            if (matched == null) {
+                if (current.count == 0) {
+                    if (anchorCh == ANCHOR_BOL && !gData.multiline
+                        && cp != start)
+                    {
+                        break;
+                    }
+                    // no match can start before the literal
+                    cp = nextCandidate(re, input, cp, end);
+                    if (cp < 0) {
+                        break;
+                    }
+                }
+                int[] caps = new int[slots];
+                java.util.Arrays.fill(caps, -1);
+                caps[0] = cp;
+                addNfaThread(gData, current, marks, generation, 0, caps,
+                             input, cp, end);
+            }
+            if (current.count == 0) {
+                if (matched != null || cp == end) {
+                    break;
+                }
+                // the thread seeded here failed an assertion
+                continue;
+            }
+            ++generation;
+            char ch = cp < end ? input.charAt(cp) : 0;
+            for (int i = 0; i < current.count; i++) {
+                int pc = current.pcs[i];
+                int op = program[3 * pc];
+                if (op == REOP_END) {
+                    // threads after this one have lower priority
+                    matched = current.caps[i];
+                    matchEnd = cp;
+                    break;
+                }
+                if (cp < end && nfaCharMatches(gData, op, program[3 * pc + 1], ch)) {
+                    addNfaThread(gData, next, marks, generation, pc + 1,
+                                 current.caps[i], input, cp + 1, end);
+                }
+            }
+            if (cp == end) {
+                break;
+            }
+            NfaThreads t = current;
+            current = next;
+            next = t;
+            next.count = 0;
+            // the threads of the next position were marked with this
+            // generation, the loop increments it again before seeding
+            --generation;
+        }
+        if (matched == null) {
+            return false;
+        }
+        gData.cp = matchEnd;
+        gData.skipped = matched[0] - start;
+        for (int i = 0; i < re.parenCount; i++) {
+            int capStart = matched[1 + 2 * i];
+            if (capStart < 0) {
+                gData.parens[i] = -1L;
+            } else {
+                gData.parens[i] = (capStart & 0xffffffffL)
+                    | ((long)(matched[2 + 2 * i] - capStart) << 32);
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the first position from i on where a match can start, or -1
+     * if there is none. String.indexOf is an intrinsic that compares many
+     * chars at once.
+     */
+    private static int
+    nextCandidate(RECompiled re, String input, int i, int end)
+    {
+        String prefix = re.prefix;
+        if (prefix != null) {
+            int pos = input.indexOf(prefix, i);
+            return (pos < 0 || pos > end - prefix.length()) ? -1 : pos;
+        }
+        String chars = re.firstChars;
+        if (chars == null) {
+            return i;
+        }
+        if ((re.flags & JSREG_FOLD) == 0) {
+            if (chars.length() == 1) {
+                int pos = input.indexOf(chars.charAt(0), i);
+                return (pos < 0 || pos >= end) ? -1 : pos;
+            }
+            for (; i < end; i++) {
+                if (chars.indexOf(input.charAt(i)) >= 0) {
+                    return i;
+                }
+            }
+        } else if (chars.length() == 1) {
+            char c = chars.charAt(0);
+            for (; i < end; i++) {
+                if (upcase(input.charAt(i)) == c) {
+                    return i;
+                }
+            }
+        } else {
+            for (; i < end; i++) {
+                if (chars.indexOf(upcase(input.charAt(i))) >= 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Adds the thread at pc and every thread it forks into without
+     * consuming input, in priority order.
+     */
+    private static void
+    addNfaThread(REGlobalData gData, NfaThreads list, int[] marks,
+                 int generation, int pc, int[] caps, String input, int cp,
+                 int end)
+    {
+        int[] program = gData.regexp.nfa;
+        NfaThreads stack = list.stack;
+        stack.count = 0;
+        for (;;) {
+            if (marks[pc] != generation) {
+                marks[pc] = generation;
+                int op = program[3 * pc];
+                int x = program[3 * pc + 1];
+                switch (op) {
+                case REOP_JUMP:
+                    pc = x;
+                    continue;
+                case REOP_ALT:
+                    stack.add(program[3 * pc + 2], caps);
+                    pc = x;
+                    continue;
+                case REOP_LPAREN:
+                    caps = caps.clone();
+                    caps[1 + 2 * x] = cp;
+                    pc++;
+                    continue;
+                case REOP_RPAREN:
+                    caps = caps.clone();
+                    caps[2 + 2 * x] = cp;
+                    pc++;
+                    continue;
+                case REOP_CLEARPARENS:
+                    caps = caps.clone();
+                    java.util.Arrays.fill(caps, 1 + 2 * x,
+                                          1 + 2 * (x + program[3 * pc + 2]), -1);
+                    pc++;
+                    continue;
+                case REOP_BOL:
+                case REOP_EOL:
+                case REOP_WBDRY:
+                case REOP_WNONBDRY:
+                    if (nfaAssertion(gData, op, input, cp, end)) {
+                        pc++;
+                        continue;
+                    }
+                    break;
+                default:
+                    list.add(pc, caps);
+                    break;
+                }
+            }
+            if (stack.count == 0) {
+                return;
+            }
+            stack.count--;
+            pc = stack.pcs[stack.count];
+            caps = stack.caps[stack.count];
+        }
+    }
+
+    private static boolean
+    nfaAssertion(REGlobalData gData, int op, String input, int cp, int end)
+    {
+        switch (op) {
+        case REOP_BOL:
+            return cp == 0
+                || (gData.multiline && isLineTerm(input.charAt(cp - 1)));
+        case REOP_EOL:
+            return cp == end
+                || (gData.multiline && isLineTerm(input.charAt(cp)));
+        case REOP_WBDRY:
+            return (cp == 0 || !isWord(input.charAt(cp - 1)))
+                ^ !(cp < end && isWord(input.charAt(cp)));
+        case REOP_WNONBDRY:
+            return (cp == 0 || !isWord(input.charAt(cp - 1)))
+                ^ (cp < end && isWord(input.charAt(cp)));
+        default:
+            throw Kit.codeBug();
+        }
+    }
+
+    private static boolean
+    nfaCharMatches(REGlobalData gData, int op, int x, char c)
+    {
+        switch (op) {
+        case REOP_FLAT1:
+            return c == x;
+        case REOP_FLAT1i:
+            return c == x || upcase((char)x) == upcase(c);
+        case REOP_DOT:
+            return !isLineTerm(c);
+        case REOP_DIGIT:
+            return isDigit(c);
+        case REOP_NONDIGIT:
+            return !isDigit(c);
+        case REOP_ALNUM:
+            return isWord(c);
+        case REOP_NONALNUM:
+            return !isWord(c);
+        case REOP_SPACE:
+            return isREWhiteSpace(c);
+        case REOP_NONSPACE:
+            return !isREWhiteSpace(c);
+        case REOP_CLASS:
+            return classMatcher(gData, gData.regexp.classList[x], c);
+        default:
+            throw Kit.codeBug();
+        }
+    }
+
     private static boolean
     matchRegExp(REGlobalData gData, RECompiled re,
                 String input, int start, int end, boolean multiline)
@@ -2370,6 +3322,25 @@ public class NativeRegExp extends IdScriptableObject implements Function
         gData.multiline = multiline || (re.flags & JSREG_MULTILINE) != 0;
         gData.regexp = re;
 
+        if (re.required != null && input.indexOf(re.required, start) < 0) {
+            return false;
+        }
+        RegExpMatcher matcher = re.matcher;
+        if (matcher != null) {
+            try {
+                return executeMatcher(gData, matcher, input, start, end);
+            } catch (StackOverflowError e) {
+                // the generated code recurses for every iteration of a
+                // loop, the interpreter keeps its backtracking state on
+                // the heap, so it is used for the expression from now on
+                re.matcherProgram = null;
+                re.matcher = null;
+            }
+        }
+        if (re.nfa != null) {
+            return executeNfa(gData, input, start, end);
+        }
+
         int anchorCh = gData.regexp.anchorCh;
         //
         // have to include the position beyond the last character
@@ -2377,24 +3348,13 @@ public class NativeRegExp extends IdScriptableObject implements Function
         //
         for (int i = start; i <= end; ++i) {
             //
-            // If the first node is a literal match, step the index into
-            // the string until that match is made, or fail if it can't be
-            // found at all.
+            // If the match starts with a literal, step the index into
+            // the string until it is found, or fail if it can't be found
+            // at all.
             //
-            if (anchorCh >= 0) {
-                for (;;) {
-                    if (i == end) {
-                        return false;
-                    }
-                    char matchCh = input.charAt(i);
-                    if (matchCh == anchorCh ||
-                            ((gData.regexp.flags & JSREG_FOLD) != 0
-                             && upcase(matchCh) == upcase((char)anchorCh)))
-                    {
-                        break;
-                    }
-                    ++i;
-                }
+            i = nextCandidate(re, input, i, end);
+            if (i < 0) {
+                return false;
             }
             gData.cp = i;
             gData.skipped = i - start;
@@ -2417,6 +3377,89 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return false;
     }
 
+    private static boolean
+    executeMatcher(REGlobalData gData, RegExpMatcher matcher, String input,
+                   int start, int end)
+    {
+        RECompiled re = gData.regexp;
+        int[] state = new int[matcher.stateLength];
+        for (int i = start; i <= end; ++i) {
+            i = nextCandidate(re, input, i, end);
+            if (i < 0) {
+                return false;
+            }
+            java.util.Arrays.fill(state, 0, 2 * re.parenCount, -1);
+            int matchEnd = matcher.match(input, i, end, state,
+                                         gData.multiline);
+            if (matchEnd >= 0) {
+                gData.cp = matchEnd;
+                gData.skipped = i - start;
+                for (int j = 0; j < re.parenCount; j++) {
+                    int capStart = state[2 * j];
+                    if (capStart < 0) {
+                        gData.parens[j] = -1L;
+                    } else {
+                        gData.parens[j] = (capStart & 0xffffffffL)
+                            | ((long)(state[2 * j + 1] - capStart) << 32);
+                    }
+                }
+                return true;
+            }
+            if (re.anchorCh == ANCHOR_BOL && !gData.multiline) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Counts the executions of an expression the interpreter runs and
+     * generates its matcher once there are enough. The count is not
+     * synchronized, threads may generate a matcher for the same expression
+     * at the same time.
+     */
+    private static void compileMatcherIfHot(Context cx, RECompiled re)
+    {
+        int threshold = RegExpImpl.getMatcherThreshold();
+        if (threshold < 0 || cx.getOptimizationLevel() < 0
+            || re.executions++ < threshold)
+        {
+            return;
+        }
+        RegExpMatcher matcher = RegExpClassCompiler.compile(re.matcherProgram,
+                                                            re.parenCount);
+        if (matcher == null) {
+            // keep interpreting it
+            re.matcherProgram = null;
+        } else {
+            initMatcherClasses(re, matcher);
+            re.matcher = matcher;
+        }
+    }
+
+    /*
+     * Converts the classes of an expression for its generated matcher.
+     * The matcher reads their bits without synchronization, so this has
+     * to be done before it is published.
+     */
+    private static void initMatcherClasses(RECompiled re,
+                                           RegExpMatcher matcher)
+    {
+        REGlobalData gData = new REGlobalData();
+        gData.regexp = re;
+        byte[][] classBits = new byte[re.classCount][];
+        int[] classLengths = new int[re.classCount];
+        boolean[] classSenses = new boolean[re.classCount];
+        for (int i = 0; i < re.classCount; i++) {
+            RECharSet charSet = re.classList[i];
+            processCharSet(gData, charSet);
+            classBits[i] = charSet.bits;
+            classLengths[i] = charSet.length;
+            classSenses[i] = charSet.sense;
+        }
+        matcher.initClasses(classBits, classLengths, classSenses);
+    }
+
     /*
      * indexp is assumed to be an array of length 1
      */
@@ -2429,6 +3472,9 @@ public class NativeRegExp extends IdScriptableObject implements Function
         int end = str.length();
         if (start > end)
             start = end;
+        if (re.matcher == null && re.matcherProgram != null) {
+            compileMatcherIfHot(cx, re);
+        }
         //
         // Call the recursive matcher to do the real work.
         //
@@ -2776,6 +3822,40 @@ public class NativeRegExp extends IdScriptableObject implements Function
     Object lastIndex = 0d;     /* index after last match, for //g iterator */
     private int lastIndexAttr = DONTENUM | PERMANENT;
 
+    private static final class CompiledKey
+    {
+        private final String source;
+        private final String flags;
+        private final boolean flat;
+        private final int hash;
+
+        CompiledKey(String source, String flags, boolean flat)
+        {
+            this.source = source;
+            // no flags and empty flags compile the same
+            this.flags = flags == null ? "" : flags;
+            this.flat = flat;
+            this.hash = (source.hashCode() * 31 + this.flags.hashCode()) * 2
+                        + (flat ? 1 : 0);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof CompiledKey)) {
+                return false;
+            }
+            CompiledKey other = (CompiledKey)obj;
+            return hash == other.hash && flat == other.flat
+                && source.equals(other.source) && flags.equals(other.flags);
+        }
+    }
 }       // class NativeRegExp
 
 class RECompiled implements Serializable
@@ -2789,6 +3869,13 @@ class RECompiled implements Serializable
     int classCount;         /* count [...] bitmaps */
     RECharSet[] classList;  /* list of [...] bitmaps */
     int anchorCh = -1;      /* if >= 0, then re starts with this literal char */
+    int[] nfa;              /* linear-time program, null if backtracking is needed */
+    String prefix;          /* literal all matches start with, or null */
+    String required;        /* longer literal all matches contain, or null */
+    String firstChars;      /* chars all matches start with, or null */
+    int[] matcherProgram;   /* program for RegExpClassCompiler, or null */
+    transient volatile RegExpMatcher matcher; /* generated matcher, or null */
+    transient int executions; /* executions before the matcher exists */
 
     RECompiled(String str) {
         this.source = str.toCharArray();
@@ -2859,6 +3946,96 @@ class CompilerState {
     RENode      result;
 }
 
+/*
+ * NFA program under construction, see NativeRegExp.compileNfa.
+ */
+class NfaBuilder {
+
+    NfaBuilder(char[] source, boolean fold)
+    {
+        this.source = source;
+        this.fold = fold;
+    }
+
+    final char[] source;
+    final boolean fold;
+    int[] code = new int[48];
+    int length;                 /* number of instructions */
+    int[] fixupStack = new int[8];
+    int fixups;
+
+    int emit(int op, int x, int y)
+    {
+        if (3 * length + 3 > code.length) {
+            code = java.util.Arrays.copyOf(code, code.length * 2);
+        }
+        code[3 * length] = op;
+        code[3 * length + 1] = x;
+        code[3 * length + 2] = y;
+        return length++;
+    }
+
+    void setOperand(int pc, int operand, int value)
+    {
+        code[3 * pc + operand] = value;
+    }
+
+    void addFixup(int pc)
+    {
+        if (fixups == fixupStack.length) {
+            fixupStack = java.util.Arrays.copyOf(fixupStack, fixups * 2);
+        }
+        fixupStack[fixups++] = pc;
+    }
+
+    int removeFixup()
+    {
+        return fixupStack[--fixups];
+    }
+
+    int[] toProgram()
+    {
+        return java.util.Arrays.copyOf(code, 3 * length);
+    }
+}
+
+/*
+ * Threads of the NFA at one input position in priority order, see
+ * NativeRegExp.executeNfa.
+ */
+class NfaThreads {
+
+    NfaThreads(int size)
+    {
+        pcs = new int[size];
+        caps = new int[size][];
+        stack = new NfaThreads();
+    }
+
+    private NfaThreads()
+    {
+        pcs = new int[8];
+        caps = new int[8][];
+        stack = null;
+    }
+
+    int[] pcs;
+    int[][] caps;
+    int count;
+    final NfaThreads stack;     /* pending forks while adding threads */
+
+    void add(int pc, int[] threadCaps)
+    {
+        if (count == pcs.length) {
+            pcs = java.util.Arrays.copyOf(pcs, count * 2);
+            caps = java.util.Arrays.copyOf(caps, count * 2);
+        }
+        pcs[count] = pc;
+        caps[count] = threadCaps;
+        count++;
+    }
+}
+
 class REProgState
 {
     REProgState(REProgState previous, int min, int max, int index,
@@ -0,0 +1,676 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.SecurityController;
+
+/**
+ * Generates a {@link RegExpMatcher} class for a regular expression from
+ * the program {@link NativeRegExp} translates its nodes to.
+ *
+ * <p>The matcher backtracks like the interpreter: every instruction a
+ * match can continue at after a choice gets its own method, which returns
+ * the end of the match or -1. A method matches the instructions from its
+ * start on in straight-line code, calls the methods of the alternatives
+ * at a choice in order and restores the parens it set before it fails.
+ * Repeated single chars are counted in a loop and given back one by one,
+ * other loops call themselves for every iteration.</p>
+ *
+ * <p>The program has {@link #STRIDE} ints per instruction, the opcode and
+ * its operands:</p>
+ * <pre>
+ *   MATCH      kind, c         match one char, see CHAR ... CLASS
+ *   ASSERT     kind            zero width assertion, BOL ... NON_BOUNDARY
+ *   SAVE       slot            store the position in the state
+ *   ALT        x, y            continue at x, else at y
+ *   JUMP       x               continue at x
+ *   REPEAT     kind, c, min, max, greedy
+ *                              repeat a MATCH, max -1 if unbounded
+ *   LOOP_INIT  slot            start a LOOP, slot holds its count
+ *   LOOP       slot, exit, min, max, greedy
+ *                              repeat the instructions up to the JUMP
+ *                              back to it, then continue at exit
+ *   END                        match
+ * </pre>
+ */
+final class RegExpClassCompiler
+{
+    static final int STRIDE = 6;
+
+    static final int MATCH     = 1;
+    static final int ASSERT    = 2;
+    static final int SAVE      = 3;
+    static final int ALT       = 4;
+    static final int JUMP      = 5;
+    static final int REPEAT    = 6;
+    static final int LOOP_INIT = 7;
+    static final int LOOP      = 8;
+    static final int END       = 9;
+
+    static final int CHAR         = 1;
+    static final int CHAR_FOLD    = 2;    // c is upper case
+    static final int DOT          = 3;
+    static final int DIGIT        = 4;
+    static final int NON_DIGIT    = 5;
+    static final int WORD         = 6;
+    static final int NON_WORD     = 7;
+    static final int SPACE        = 8;
+    static final int NON_SPACE    = 9;
+    static final int CLASS        = 10;   // c is the class index
+    static final int BOL          = 11;
+    static final int EOL          = 12;
+    static final int BOUNDARY     = 13;
+    static final int NON_BOUNDARY = 14;
+
+    static final int MAX_PROGRAM_LENGTH = 2048;
+
+    private static final String SUPER_CLASS
+        = "org.mozilla.javascript.regexp.RegExpMatcher";
+    private static final String SUPER_CLASS_NAME
+        = "org/mozilla/javascript/regexp/RegExpMatcher";
+    private static final String SIGNATURE = "(Ljava/lang/String;II[IZ)I";
+
+    // locals of the generated methods
+    private static final int INPUT     = 1;
+    private static final int CP        = 2;
+    private static final int END_LOCAL = 3;
+    private static final int STATE     = 4;
+    private static final int MULTILINE = 5;
+    private static final int CH        = 6;
+    private static final int COUNT     = 7;
+    private static final int RESULT    = 8;
+    private static final int LIMIT     = 9;
+    private static final int FIRST_SAVE = 10;
+
+    private static final AtomicInteger serial = new AtomicInteger();
+
+    private final int[] program;
+    private final String className;
+    private final ClassFileWriter cfw;
+    // entries of the methods to generate, queued[pc] is set once added
+    private final boolean[] queued;
+    private final ArrayList<Integer> pending = new ArrayList<Integer>();
+    // slots and locals of the saves done so far by the current method
+    private final ArrayList<int[]> saves = new ArrayList<int[]>();
+    private int[] failLabels;
+
+    private RegExpClassCompiler(int[] program, String className)
+    {
+        this.program = program;
+        this.className = className;
+        this.cfw = new ClassFileWriter(className, SUPER_CLASS, "<regexp>");
+        this.queued = new boolean[program.length / STRIDE];
+    }
+
+    /**
+     * Generates and loads the matcher of an expression program. Returns
+     * null if the class could not be generated or loaded, the interpreter
+     * is used for the expression then. The classes of the matcher are set
+     * by NativeRegExp before it is published.
+     */
+    static RegExpMatcher compile(int[] program, int parenCount)
+    {
+        int stateLength = 2 * parenCount;
+        for (int pc = 0; pc < program.length; pc += STRIDE) {
+            if (program[pc] == LOOP_INIT) {
+                stateLength = Math.max(stateLength, program[pc + 1] + 1);
+            }
+        }
+        String name = "org.mozilla.javascript.gen.RegExpMatcher_"
+                      + serial.incrementAndGet();
+        try {
+            byte[] bytes = new RegExpClassCompiler(program, name).generate();
+            GeneratedClassLoader loader = SecurityController.createLoader(
+                RegExpClassCompiler.class.getClassLoader(), null);
+            Class<?> cl = loader.defineClass(name, bytes);
+            loader.linkClass(cl);
+            RegExpMatcher matcher
+                = (RegExpMatcher)cl.getDeclaredConstructor().newInstance();
+            matcher.stateLength = stateLength;
+            return matcher;
+        } catch (RuntimeException e) {
+            // too large for a class file, or not allowed to define it
+            return null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    private byte[] generate()
+    {
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addLoadThis();
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, SUPER_CLASS_NAME, "<init>",
+                      "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short)1);
+
+        cfw.startMethod("match", SIGNATURE, ClassFileWriter.ACC_PUBLIC);
+        addCall(0, -1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.stopMethod((short)(MULTILINE + 1));
+
+        while (!pending.isEmpty()) {
+            int entry = pending.remove(pending.size() - 1).intValue();
+            generateMethod(entry);
+        }
+        return cfw.toByteArray();
+    }
+
+    private static String methodName(int pc)
+    {
+        return "m" + pc;
+    }
+
+    /*
+     * Calls the method starting at pc with the position in cp plus the
+     * local count, or only cp if count is -1, and leaves its result on
+     * the stack.
+     */
+    private void addCall(int pc, int count)
+    {
+        if (!queued[pc]) {
+            queued[pc] = true;
+            pending.add(Integer.valueOf(pc));
+        }
+        cfw.addLoadThis();
+        cfw.addALoad(INPUT);
+        cfw.addILoad(CP);
+        if (count != -1) {
+            cfw.addILoad(count);
+            cfw.add(ByteCode.IADD);
+        }
+        cfw.addILoad(END_LOCAL);
+        cfw.addALoad(STATE);
+        cfw.addILoad(MULTILINE);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, className.replace('.', '/'),
+                      methodName(pc), SIGNATURE);
+    }
+
+    /*
+     * Calls the method starting at pc and returns its result if it
+     * matched, otherwise continues at the returned label.
+     */
+    private int addCallReturnIfMatched(int pc, int count)
+    {
+        addCall(pc, count);
+        cfw.addIStore(RESULT);
+        cfw.addILoad(RESULT);
+        int failed = cfw.acquireLabel();
+        cfw.add(ByteCode.IFLT, failed);
+        cfw.addILoad(RESULT);
+        cfw.add(ByteCode.IRETURN);
+        return failed;
+    }
+
+    private void addTailCall(int pc)
+    {
+        int failed = addCallReturnIfMatched(pc, -1);
+        cfw.markLabel(failed);
+        cfw.add(ByteCode.GOTO, fail());
+    }
+
+    // label to jump to on failure after the saves done so far
+    private int fail()
+    {
+        int n = saves.size();
+        if (failLabels[n] == 0) {
+            failLabels[n] = cfw.acquireLabel();
+        }
+        return failLabels[n];
+    }
+
+    private void generateMethod(int entry)
+    {
+        cfw.startMethod(methodName(entry), SIGNATURE,
+                        (short)(ClassFileWriter.ACC_PRIVATE
+                                | ClassFileWriter.ACC_FINAL));
+        saves.clear();
+        failLabels = new int[program.length / STRIDE + 1];
+        int pc = entry;
+        boolean done = false;
+        while (!done) {
+            int i = pc * STRIDE;
+            int op = program[i];
+            switch (op) {
+            case MATCH:
+                cfw.addILoad(CP);
+                cfw.addILoad(END_LOCAL);
+                cfw.add(ByteCode.IF_ICMPGE, fail());
+                addLoadChar(-1);
+                addTest(program[i + 1], program[i + 2], fail());
+                cfw.add(ByteCode.IINC, CP, 1);
+                pc++;
+                break;
+            case ASSERT:
+                addAssertion(program[i + 1]);
+                pc++;
+                break;
+            case SAVE:
+            {
+                int slot = program[i + 1];
+                int local = FIRST_SAVE + saves.size();
+                cfw.addALoad(STATE);
+                cfw.addPush(slot);
+                cfw.add(ByteCode.IALOAD);
+                cfw.addIStore(local);
+                cfw.addALoad(STATE);
+                cfw.addPush(slot);
+                cfw.addILoad(CP);
+                cfw.add(ByteCode.IASTORE);
+                saves.add(new int[] { slot, local });
+                pc++;
+                break;
+            }
+            case JUMP:
+            {
+                int target = program[i + 1];
+                if (program[target * STRIDE] == LOOP) {
+                    addTailCall(target);
+                    done = true;
+                } else {
+                    pc = target;
+                }
+                break;
+            }
+            case ALT:
+                cfw.markLabel(addCallReturnIfMatched(program[i + 1], -1));
+                addTailCall(program[i + 2]);
+                done = true;
+                break;
+            case REPEAT:
+                if (program[i + 5] != 0) {
+                    addGreedyRepeat(pc);
+                } else {
+                    addLazyRepeat(pc);
+                }
+                done = true;
+                break;
+            case LOOP_INIT:
+                cfw.addALoad(STATE);
+                cfw.addPush(program[i + 1]);
+                cfw.add(ByteCode.ICONST_0);
+                cfw.add(ByteCode.IASTORE);
+                pc++;
+                break;
+            case LOOP:
+                if (pc == entry) {
+                    addLoop(pc);
+                } else {
+                    addTailCall(pc);
+                }
+                done = true;
+                break;
+            case END:
+                cfw.addILoad(CP);
+                cfw.add(ByteCode.IRETURN);
+                done = true;
+                break;
+            default:
+                throw new IllegalStateException(String.valueOf(op));
+            }
+        }
+
+        // restore the parens in reverse order and fail, from the first
+        // label used on as code after a return would not be reachable
+        int n = saves.size();
+        while (n >= 0 && failLabels[n] == 0) {
+            n--;
+        }
+        if (n >= 0) {
+            for (; n >= 0; n--) {
+                if (failLabels[n] != 0) {
+                    cfw.markLabel(failLabels[n]);
+                }
+                if (n > 0) {
+                    int[] save = saves.get(n - 1);
+                    cfw.addALoad(STATE);
+                    cfw.addPush(save[0]);
+                    cfw.addILoad(save[1]);
+                    cfw.add(ByteCode.IASTORE);
+                }
+            }
+            cfw.add(ByteCode.ICONST_M1);
+            cfw.add(ByteCode.IRETURN);
+        }
+        cfw.stopMethod((short)(FIRST_SAVE + saves.size()));
+    }
+
+    // stores the char at cp, plus the local count if not -1, in CH
+    private void addLoadChar(int count)
+    {
+        cfw.addALoad(INPUT);
+        cfw.addILoad(CP);
+        if (count != -1) {
+            cfw.addILoad(count);
+            cfw.add(ByteCode.IADD);
+        }
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/String", "charAt",
+                      "(I)C");
+        cfw.addIStore(CH);
+    }
+
+    // jumps to label if the char in CH does not match
+    private void addTest(int kind, int c, int label)
+    {
+        String helper;
+        boolean sense = true;
+        switch (kind) {
+        case CHAR:
+            cfw.addILoad(CH);
+            cfw.addPush(c);
+            cfw.add(ByteCode.IF_ICMPNE, label);
+            return;
+        case CHAR_FOLD:
+            cfw.addILoad(CH);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS_NAME, "upcase",
+                          "(C)C");
+            cfw.addPush(c);
+            cfw.add(ByteCode.IF_ICMPNE, label);
+            return;
+        case CLASS:
+            cfw.addLoadThis();
+            cfw.addPush(c);
+            cfw.addILoad(CH);
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, SUPER_CLASS_NAME, "inClass",
+                          "(IC)Z");
+            cfw.add(ByteCode.IFEQ, label);
+            return;
+        case DOT:
+            helper = "isLineTerm";
+            sense = false;
+            break;
+        case DIGIT:
+        case NON_DIGIT:
+            helper = "isDigit";
+            sense = kind == DIGIT;
+            break;
+        case WORD:
+        case NON_WORD:
+            helper = "isWord";
+            sense = kind == WORD;
+            break;
+        case SPACE:
+        case NON_SPACE:
+            helper = "isSpace";
+            sense = kind == SPACE;
+            break;
+        default:
+            throw new IllegalStateException(String.valueOf(kind));
+        }
+        cfw.addILoad(CH);
+        cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS_NAME, helper, "(C)Z");
+        cfw.add(sense ? ByteCode.IFEQ : ByteCode.IFNE, label);
+    }
+
+    private void addAssertion(int kind)
+    {
+        cfw.addALoad(INPUT);
+        cfw.addILoad(CP);
+        switch (kind) {
+        case BOL:
+            cfw.addILoad(MULTILINE);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS_NAME,
+                          "atLineStart", "(Ljava/lang/String;IZ)Z");
+            cfw.add(ByteCode.IFEQ, fail());
+            break;
+        case EOL:
+            cfw.addILoad(END_LOCAL);
+            cfw.addILoad(MULTILINE);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS_NAME,
+                          "atLineEnd", "(Ljava/lang/String;IIZ)Z");
+            cfw.add(ByteCode.IFEQ, fail());
+            break;
+        case BOUNDARY:
+        case NON_BOUNDARY:
+            cfw.addILoad(END_LOCAL);
+            cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS_NAME,
+                          "atWordBoundary", "(Ljava/lang/String;II)Z");
+            cfw.add(kind == BOUNDARY ? ByteCode.IFEQ : ByteCode.IFNE, fail());
+            break;
+        default:
+            throw new IllegalStateException(String.valueOf(kind));
+        }
+    }
+
+    /*
+     * Counts the chars that match, at most max, then tries the rest with
+     * one char less at a time down to min.
+     */
+    private void addGreedyRepeat(int pc)
+    {
+        int i = pc * STRIDE;
+        int min = program[i + 3];
+        int max = program[i + 4];
+        cfw.addILoad(END_LOCAL);
+        cfw.addILoad(CP);
+        cfw.add(ByteCode.ISUB);
+        cfw.addIStore(LIMIT);
+        if (max != -1) {
+            int below = cfw.acquireLabel();
+            cfw.addILoad(LIMIT);
+            cfw.addPush(max);
+            cfw.add(ByteCode.IF_ICMPLE, below);
+            cfw.addPush(max);
+            cfw.addIStore(LIMIT);
+            cfw.markLabel(below);
+        }
+        cfw.add(ByteCode.ICONST_0);
+        cfw.addIStore(COUNT);
+        int loop = cfw.acquireLabel();
+        int counted = cfw.acquireLabel();
+        cfw.markLabel(loop);
+        cfw.addILoad(COUNT);
+        cfw.addILoad(LIMIT);
+        cfw.add(ByteCode.IF_ICMPGE, counted);
+        addLoadChar(COUNT);
+        addTest(program[i + 1], program[i + 2], counted);
+        cfw.add(ByteCode.IINC, COUNT, 1);
+        cfw.add(ByteCode.GOTO, loop);
+        cfw.markLabel(counted);
+        cfw.addILoad(COUNT);
+        cfw.addPush(min);
+        cfw.add(ByteCode.IF_ICMPLT, fail());
+        if (program[(pc + 1) * STRIDE] == END) {
+            cfw.addILoad(CP);
+            cfw.addILoad(COUNT);
+            cfw.add(ByteCode.IADD);
+            cfw.add(ByteCode.IRETURN);
+            return;
+        }
+        int back = cfw.acquireLabel();
+        cfw.markLabel(back);
+        cfw.markLabel(addCallReturnIfMatched(pc + 1, COUNT));
+        cfw.addILoad(COUNT);
+        cfw.addPush(min);
+        cfw.add(ByteCode.IF_ICMPLE, fail());
+        // IINC is only written for positive increments
+        cfw.addILoad(COUNT);
+        cfw.add(ByteCode.ICONST_1);
+        cfw.add(ByteCode.ISUB);
+        cfw.addIStore(COUNT);
+        cfw.add(ByteCode.GOTO, back);
+    }
+
+    /*
+     * Matches min chars, then tries the rest before every further char.
+     */
+    private void addLazyRepeat(int pc)
+    {
+        int i = pc * STRIDE;
+        int kind = program[i + 1];
+        int c = program[i + 2];
+        int min = program[i + 3];
+        int max = program[i + 4];
+        cfw.add(ByteCode.ICONST_0);
+        cfw.addIStore(COUNT);
+        int attempt = cfw.acquireLabel();
+        if (min > 0) {
+            int required = cfw.acquireLabel();
+            cfw.markLabel(required);
+            cfw.addILoad(COUNT);
+            cfw.addPush(min);
+            cfw.add(ByteCode.IF_ICMPGE, attempt);
+            addNextChar(kind, c);
+            cfw.add(ByteCode.GOTO, required);
+        }
+        cfw.markLabel(attempt);
+        if (program[(pc + 1) * STRIDE] == END) {
+            cfw.addILoad(CP);
+            cfw.addILoad(COUNT);
+            cfw.add(ByteCode.IADD);
+            cfw.add(ByteCode.IRETURN);
+            return;
+        }
+        cfw.markLabel(addCallReturnIfMatched(pc + 1, COUNT));
+        if (max != -1) {
+            cfw.addILoad(COUNT);
+            cfw.addPush(max);
+            cfw.add(ByteCode.IF_ICMPGE, fail());
+        }
+        addNextChar(kind, c);
+        cfw.add(ByteCode.GOTO, attempt);
+    }
+
+    // matches the char at cp + COUNT and increments COUNT, or fails
+    private void addNextChar(int kind, int c)
+    {
+        cfw.addILoad(CP);
+        cfw.addILoad(COUNT);
+        cfw.add(ByteCode.IADD);
+        cfw.addILoad(END_LOCAL);
+        cfw.add(ByteCode.IF_ICMPGE, fail());
+        addLoadChar(COUNT);
+        addTest(kind, c, fail());
+        cfw.add(ByteCode.IINC, COUNT, 1);
+    }
+
+    /*
+     * Tries another iteration and the exit in the order of the loop. The
+     * count in the state is the number of iterations the current one
+     * started after, the body jumps back here after every iteration.
+     */
+    private void addLoop(int pc)
+    {
+        int i = pc * STRIDE;
+        int slot = program[i + 1];
+        int exit = program[i + 2];
+        int min = program[i + 3];
+        int max = program[i + 4];
+        boolean greedy = program[i + 5] != 0;
+        cfw.addALoad(STATE);
+        cfw.addPush(slot);
+        cfw.add(ByteCode.IALOAD);
+        cfw.addIStore(LIMIT);
+        int noIteration = cfw.acquireLabel();
+        int noExit = cfw.acquireLabel();
+        if (greedy) {
+            addIteration(pc, slot, max, noIteration);
+            cfw.markLabel(noIteration);
+            addExit(exit, min, noExit);
+            cfw.markLabel(noExit);
+        } else {
+            addExit(exit, min, noExit);
+            cfw.markLabel(noExit);
+            addIteration(pc, slot, max, noIteration);
+            cfw.markLabel(noIteration);
+        }
+        cfw.add(ByteCode.GOTO, fail());
+    }
+
+    private void addIteration(int pc, int slot, int max, int label)
+    {
+        if (max != -1) {
+            cfw.addILoad(LIMIT);
+            cfw.addPush(max);
+            cfw.add(ByteCode.IF_ICMPGE, label);
+        }
+        addStoreCount(slot, 1);
+        cfw.markLabel(addCallReturnIfMatched(pc + 1, -1));
+        addStoreCount(slot, 0);
+    }
+
+    private void addExit(int exit, int min, int label)
+    {
+        if (min > 0) {
+            cfw.addILoad(LIMIT);
+            cfw.addPush(min);
+            cfw.add(ByteCode.IF_ICMPLT, label);
+        }
+        cfw.markLabel(addCallReturnIfMatched(exit, -1));
+    }
+
+    private void addStoreCount(int slot, int increment)
+    {
+        cfw.addALoad(STATE);
+        cfw.addPush(slot);
+        cfw.addILoad(LIMIT);
+        if (increment != 0) {
+            cfw.addPush(increment);
+            cfw.add(ByteCode.IADD);
+        }
+        cfw.add(ByteCode.IASTORE);
+    }
+
+    /**
+     * Program under construction, see NativeRegExp.compileMatcherProgram.
+     */
+    static final class ProgramBuilder
+    {
+        int[] code = new int[16 * STRIDE];
+        int length;
+        // first free slot of the state for loop counts
+        int nextSlot;
+
+        ProgramBuilder(int parenCount)
+        {
+            nextSlot = 2 * parenCount;
+        }
+
+        int add(int op, int a, int b, int c, int d, int e)
+        {
+            if ((length + 1) * STRIDE > code.length) {
+                int[] tmp = new int[code.length * 2];
+                System.arraycopy(code, 0, tmp, 0, length * STRIDE);
+                code = tmp;
+            }
+            int i = length * STRIDE;
+            code[i] = op;
+            code[i + 1] = a;
+            code[i + 2] = b;
+            code[i + 3] = c;
+            code[i + 4] = d;
+            code[i + 5] = e;
+            return length++;
+        }
+
+        int add(int op, int a)
+        {
+            return add(op, a, 0, 0, 0, 0);
+        }
+
+        void setOperand(int pc, int index, int value)
+        {
+            code[pc * STRIDE + index] = value;
+        }
+
+        int[] toProgram()
+        {
+            int[] result = new int[length * STRIDE];
+            System.arraycopy(code, 0, result, 0, result.length);
+            return result;
+        }
+    }
+}
@@ -9,10 +9,83 @@ package org.mozilla.javascript.regexp;
 import org.mozilla.javascript.*;
 
 /**
+ * Implements regular expression support for one Context and keeps the
+ * results of its last match, like <code>RegExp.lastMatch</code>.
  *
+ * <p>Regular expressions created from strings at runtime, with
+ * <code>new RegExp(source, flags)</code> or by the String methods, are
+ * compiled through a bounded cache shared by all Contexts, see
+ * {@link #setCompiledCacheSize(int)}. Compiled expressions never change
+ * once they are created, regexp literals are shared in the same way.</p>
+ *
+ * <p>Expressions that are executed often get a generated matcher class,
+ * see {@link #setMatcherThreshold(int)}.</p>
  */
 public class RegExpImpl implements RegExpProxy {
 
+    private static volatile int matcherThreshold = 1000;
+
+    /**
+     * Sets the number of compiled regular expressions kept in the cache,
+     * 0 disables it. The default is 256.
+     */
+    public static void setCompiledCacheSize(int size)
+    {
+        if (size < 0) throw new IllegalArgumentException();
+        NativeRegExp.setCompiledCacheSize(size);
+    }
+
+    public static int getCompiledCacheSize()
+    {
+        return NativeRegExp.getCompiledCacheSize();
+    }
+
+    /**
+     * Returns how often a regular expression was found in the cache.
+     */
+    public static long getCacheHitCount()
+    {
+        return NativeRegExp.getCacheHitCount();
+    }
+
+    /**
+     * Returns how often a regular expression was compiled because it was
+     * not in the cache.
+     */
+    public static long getCacheMissCount()
+    {
+        return NativeRegExp.getCacheMissCount();
+    }
+
+    /**
+     * Removes all compiled regular expressions from the cache.
+     */
+    public static void clearCompiledCache()
+    {
+        NativeRegExp.clearCompiledCache();
+    }
+
+    /**
+     * Sets how often a regular expression is executed before a class is
+     * generated to match it instead of interpreting it, -1 disables the
+     * generated matchers. The default is 1000. Classes are only generated
+     * for Contexts with an optimization level of 0 or more, and only for
+     * expressions without back-references or lookahead.
+     */
+    public static void setMatcherThreshold(int threshold)
+    {
+        matcherThreshold = threshold < 0 ? -1 : threshold;
+    }
+
+    /**
+     * Returns how often a regular expression is executed before a class is
+     * generated to match it, -1 if no classes are generated.
+     */
+    public static int getMatcherThreshold()
+    {
+        return matcherThreshold;
+    }
+
     public boolean isRegExp(Scriptable obj) {
         return obj instanceof NativeRegExp;
     }
@@ -0,0 +1,99 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+/**
+ * Base class of the matchers generated by {@link RegExpClassCompiler} for
+ * regular expressions that are executed often. The generated classes are
+ * defined by their own class loader, so this class and the methods they
+ * call have to be accessible from other packages.
+ */
+public abstract class RegExpMatcher
+{
+    // classes of the expression, converted before the matcher is
+    // published: the bits of each class, the number of characters the
+    // bits cover and whether the class is negated
+    private byte[][] classBits;
+    private int[] classLengths;
+    private boolean[] classSenses;
+    // length of the state passed to match
+    int stateLength;
+
+    protected RegExpMatcher()
+    {
+    }
+
+    void initClasses(byte[][] classBits, int[] classLengths,
+                     boolean[] classSenses)
+    {
+        this.classBits = classBits;
+        this.classLengths = classLengths;
+        this.classSenses = classSenses;
+    }
+
+    /**
+     * Matches the expression at position cp of the input and returns the
+     * end of the match, or -1 if it does not match there. The state holds
+     * the start and end of every paren, -1 if it did not match, followed
+     * by the iteration counts of loops.
+     */
+    public abstract int match(String input, int cp, int end, int[] state,
+                              boolean multiline);
+
+    protected final boolean inClass(int index, char c)
+    {
+        int length = classLengths[index];
+        return (length == 0 || c >= length
+                || (classBits[index][c >> 3] & (1 << (c & 0x7))) == 0)
+               ^ classSenses[index];
+    }
+
+    protected static boolean isDigit(char c)
+    {
+        return NativeRegExp.isDigit(c);
+    }
+
+    protected static boolean isWord(char c)
+    {
+        return NativeRegExp.isWord(c);
+    }
+
+    protected static boolean isLineTerm(char c)
+    {
+        return NativeRegExp.isLineTerm(c);
+    }
+
+    protected static boolean isSpace(char c)
+    {
+        return NativeRegExp.isREWhiteSpace(c);
+    }
+
+    protected static char upcase(char c)
+    {
+        return NativeRegExp.upcase(c);
+    }
+
+    protected static boolean
+    atLineStart(String input, int cp, boolean multiline)
+    {
+        return cp == 0
+            || (multiline && isLineTerm(input.charAt(cp - 1)));
+    }
+
+    protected static boolean
+    atLineEnd(String input, int cp, int end, boolean multiline)
+    {
+        return cp == end
+            || (multiline && isLineTerm(input.charAt(cp)));
+    }
+
+    protected static boolean atWordBoundary(String input, int cp, int end)
+    {
+        return (cp == 0 || !isWord(input.charAt(cp - 1)))
+            ^ !(cp < end && isWord(input.charAt(cp)));
+    }
+}